@@ -33,6 +33,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 import ca.sqlpower.dao.PersistedSPOProperty;
@@ -1029,8 +1030,6 @@ public class SPAnnotationProcessor implements AnnotationProcessor {
 		final String exceptionField = "e";
 		final String dataTypeField = "dataType";
 		
-		boolean firstIf = true;
-		
 		// commitProperty method header.
 		// public void commitProperty(
 		// 		SPObject o,
@@ -1077,114 +1076,119 @@ public class SPAnnotationProcessor implements AnnotationProcessor {
 								genericObjectField));
 			}
 
-			// Search for the matching property name and set the value.
-			for (Entry<String, Class<?>> e : setters.entrySet()) {
-				String methodName = e.getKey();
-				Class<?> type = e.getValue();
-
-				print(sb, tabs, "");
-
-				if (!firstIf) {
-					niprint(sb, "} else ");
-				}
-
-				// if (propertyName.equals("<method to property name>") {
-				niprintln(sb, 
-						String.format("if (%s.equals(\"%s\")) {",
-								propertyNameField,
-								SPAnnotationProcessorUtils.convertMethodToProperty(methodName)));
+			// Search for the matching property name and set the value. The
+			// property name's hash code selects the case so finding the
+			// setter does not depend on the number of properties.
+			// switch (propertyName.hashCode()) {
+			println(sb, tabs, 
+					String.format("switch (%s.hashCode()) {", propertyNameField));
+			for (Entry<Integer, List<String>> bucket : 
+				groupByPropertyHashCode(setters.keySet()).entrySet()) {
+				// case <property name hash code>:
+				println(sb, tabs, String.format("case %d:", bucket.getKey()));
 				tabs++;
+				
+				for (String methodName : bucket.getValue()) {
+					Class<?> type = setters.get(methodName);
 
-				boolean throwsExceptions = mutatorThrownTypes.containsKey(e.getKey());
-
-				if (throwsExceptions) {
-					println(sb, tabs, "try {");
+					// if (propertyName.equals("<method to property name>") {
+					println(sb, tabs, 
+							String.format("if (%s.equals(\"%s\")) {",
+									propertyNameField,
+									SPAnnotationProcessorUtils.convertMethodToProperty(methodName)));
 					tabs++;
-				}
 
-				// Assign each extra argument value of setter methods to variables
-				// to pass into the call to the setter afterwards.
-				for (MutatorParameterObject extraParam : mutatorExtraParameters.get(methodName)) {
-					// <extraParam type> <extraParam name> = 
-					// 		<extraParam type>.valueOf("<extraParam name>");
-					println(sb, tabs, 
-							String.format("%s %s = %s.valueOf(\"%s\");",
-									extraParam.getType().getSimpleName(),
-									extraParam.getName(),
-									extraParam.getType().getSimpleName(),
-									extraParam.getValue()));
-				}
+					boolean throwsExceptions = mutatorThrownTypes.containsKey(methodName);
 
-				// Pass in the actual property value as the first argument to the setter.
-				String conversionType;
-				if (type == Object.class) {
-					conversionType = dataTypeField + ".getRepresentation()";
-				} else {
-					conversionType = type.getSimpleName() + ".class";
-				}
+					if (throwsExceptions) {
+						println(sb, tabs, "try {");
+						tabs++;
+					}
 
-				// castedObject.<setter>(
-				// 		(<type>) converter.convertToComplexType(
-				// 				newValue, <dataType.getRepresentation | type.class>);
-				print(sb, tabs, 
-						String.format("%s.%s((%s) %s.%s(%s, %s)",
-								objectField,
-								methodName,
-								type.getSimpleName(),
-								converterField,
-								CONVERT_TO_COMPLEX_TYPE_METHOD_NAME,
-								newValueField,
-								conversionType));
-
-				// Pass in the variables holding the extra argument values.
-				for (MutatorParameterObject extraParam : mutatorExtraParameters.get(methodName)) {
-					// , <extraParam name>
-					niprint(sb, ", " + extraParam.getName());
-				}
+					// Assign each extra argument value of setter methods to variables
+					// to pass into the call to the setter afterwards.
+					for (MutatorParameterObject extraParam : mutatorExtraParameters.get(methodName)) {
+						// <extraParam type> <extraParam name> = 
+						// 		<extraParam type>.valueOf("<extraParam name>");
+						println(sb, tabs, 
+								String.format("%s %s = %s.valueOf(\"%s\");",
+										extraParam.getType().getSimpleName(),
+										extraParam.getName(),
+										extraParam.getType().getSimpleName(),
+										extraParam.getValue()));
+					}
 
-				niprintln(sb, ");");
-				tabs--;
+					// Pass in the actual property value as the first argument to the setter.
+					String conversionType;
+					if (type == Object.class) {
+						conversionType = dataTypeField + ".getRepresentation()";
+					} else {
+						conversionType = type.getSimpleName() + ".class";
+					}
 
-				// Catch any exceptions that the setter throws.
-				if (throwsExceptions) {
-					for (Class<? extends Exception> thrownType : 
-						mutatorThrownTypes.get(methodName)) {
+					// castedObject.<setter>(
+					// 		(<type>) converter.convertToComplexType(
+					// 				newValue, <dataType.getRepresentation | type.class>);
+					print(sb, tabs, 
+							String.format("%s.%s((%s) %s.%s(%s, %s)",
+									objectField,
+									methodName,
+									type.getSimpleName(),
+									converterField,
+									CONVERT_TO_COMPLEX_TYPE_METHOD_NAME,
+									newValueField,
+									conversionType));
 
-						// } catch (<Exception type> e) {
-						println(sb, tabs, 
-								String.format("} catch (%s %s) {",
-										thrownType.getSimpleName(),
-										exceptionField));
-						tabs++;
+					// Pass in the variables holding the extra argument values.
+					for (MutatorParameterObject extraParam : mutatorExtraParameters.get(methodName)) {
+						// , <extraParam name>
+						niprint(sb, ", " + extraParam.getName());
+					}
 
-						// throw new SPPersistenceException(
-						// 		castedObject.getUUID(),
-						// 		createSPPersistenceExceptionMessage(
-						// 				castedObject,
-						// 				propertyName),
-						// 		e);
-						println(sb, tabs, 
-								String.format("throw new %s(%s.%s(), %s(%s, %s), %s);",
-										SPPersistenceException.class.getSimpleName(),
-										objectField,
-										GET_UUID_METHOD_NAME,
-										CREATE_EXCEPTION_MESSAGE_METHOD_NAME,
-										objectField,
-										propertyNameField,
-										exceptionField));
+					niprintln(sb, ");");
+
+					// Catch any exceptions that the setter throws.
+					if (throwsExceptions) {
 						tabs--;
+						for (Class<? extends Exception> thrownType : 
+							mutatorThrownTypes.get(methodName)) {
+
+							// } catch (<Exception type> e) {
+							println(sb, tabs, 
+									String.format("} catch (%s %s) {",
+											thrownType.getSimpleName(),
+											exceptionField));
+							tabs++;
+
+							// throw new SPPersistenceException(
+							// 		castedObject.getUUID(),
+							// 		createSPPersistenceExceptionMessage(
+							// 				castedObject,
+							// 				propertyName),
+							// 		e);
+							println(sb, tabs, 
+									String.format("throw new %s(%s.%s(), %s(%s, %s), %s);",
+											SPPersistenceException.class.getSimpleName(),
+											objectField,
+											GET_UUID_METHOD_NAME,
+											CREATE_EXCEPTION_MESSAGE_METHOD_NAME,
+											objectField,
+											propertyNameField,
+											exceptionField));
+							tabs--;
+						}
+						println(sb, tabs, "}");
 					}
-					println(sb, tabs, "}");
+					
+					println(sb, tabs, "return;");
 					tabs--;
+					println(sb, tabs, "}");
 				}
-
-				firstIf = false;
-			}
-
-			if (!firstIf) {
-				println(sb, tabs, "} else {");
-				tabs++;
+				
+				println(sb, tabs, "break;");
+				tabs--;
 			}
+			println(sb, tabs, "}");
 		}
 		
 		if (SPObject.class.isAssignableFrom(visitedClass.getSuperclass())) {
@@ -1214,11 +1218,6 @@ public class SPAnnotationProcessor implements AnnotationProcessor {
 							propertyNameField));
 		}
 		
-		if (!firstIf) {
-			tabs--;
-			println(sb, tabs, "}");
-		}
-		
 		tabs--;
 		println(sb, tabs, "}");
 		
@@ -1236,11 +1235,12 @@ public class SPAnnotationProcessor implements AnnotationProcessor {
 		StringBuilder sb = new StringBuilder();
 		final String ppaField = "persistedPropertiesArray";
 		final String pplField = "persistedPropertiesList";
+		final String newPplField = "newPersistedPropertiesList";
 		
-		// private List<String> persistedPropertiesList = null;
+		// private volatile List<String> persistedPropertiesList = null;
 		// We are storing the persisted properties list here to save time and
 		// memory on recreating and destroying this list repeatedly. 
-		println(sb, tabs, String.format("private %s<%s> %s = null;",
+		println(sb, tabs, String.format("private volatile %s<%s> %s = null;",
 				List.class.getSimpleName(),
 				String.class.getSimpleName(),
 				pplField));
@@ -1281,23 +1281,30 @@ public class SPAnnotationProcessor implements AnnotationProcessor {
 			tabs--;
 		}
 		println(sb, tabs, "};");
-		// Put properties into list, along with the parent's persisted properties
-		// persistedPropertiesList = 
+		// Put properties into list, along with the parent's persisted properties.
+		// The list is only stored in the field once it is complete as helpers
+		// are shared between threads.
+		// List<String> newPersistedPropertiesList = 
 		// 		new ArrayList<String>(Arrays.asList(persistedPropertiesArray));
 		println(sb, tabs, 
-				String.format("%s = new %s<%s>(%s.asList(%s));",
-						pplField,
+				String.format("%s<%s> %s = new %s<%s>(%s.asList(%s));",
+						List.class.getSimpleName(),
+						String.class.getSimpleName(),
+						newPplField,
 						ArrayList.class.getSimpleName(),
 						String.class.getSimpleName(),
 						Arrays.class.getSimpleName(),
 						ppaField));
 		if (SPObject.class.isAssignableFrom(visitedClass.getSuperclass())) {
-			// persistedPropertiesList.addAll(super.getPersistedProperties());
+			// newPersistedPropertiesList.addAll(super.getPersistedProperties());
 			println(sb, tabs, 
 					String.format("%s.addAll(super.%s());",
-							pplField,
+							newPplField,
 							GET_PERSISTED_PROPERTIES_METHOD_NAME));
 		}
+		// persistedPropertiesList = newPersistedPropertiesList;
+		println(sb, tabs, 
+				String.format("%s = %s;", pplField, newPplField));
 		
 		// return persistedPropertiesList;
 		println(sb, tabs, 
@@ -1351,8 +1358,6 @@ public class SPAnnotationProcessor implements AnnotationProcessor {
 		final String propertyNameField = "propertyName";
 		final String converterField = "converter";
 		
-		boolean firstIf = true;
-		
 		// findProperty method header.
 		// public Object findProperty(
 		// 		SPObject o,
@@ -1395,47 +1400,48 @@ public class SPAnnotationProcessor implements AnnotationProcessor {
 			}
 
 			// Search for the matching property name and return the value.
-			for (Entry<String, Class<?>> e : getters.entrySet()) {
-				String methodName = e.getKey();
-
-				print(sb, tabs, "");
-
-				if (!firstIf) {
-					niprint(sb, "} else ");
-				}
-
-				// if (propertyName.equals("<method to property name>") {
-				niprintln(sb, 
-						String.format("if (%s.equals(\"%s\")) {",
-								propertyNameField,
-								SPAnnotationProcessorUtils.convertMethodToProperty(methodName)));
+			// switch (propertyName.hashCode()) {
+			println(sb, tabs, 
+					String.format("switch (%s.hashCode()) {", propertyNameField));
+			for (Entry<Integer, List<String>> bucket : 
+				groupByPropertyHashCode(getters.keySet()).entrySet()) {
+				// case <property name hash code>:
+				println(sb, tabs, String.format("case %d:", bucket.getKey()));
 				tabs++;
+				
+				for (String methodName : bucket.getValue()) {
+					// if (propertyName.equals("<method to property name>") {
+					println(sb, tabs, 
+							String.format("if (%s.equals(\"%s\")) {",
+									propertyNameField,
+									SPAnnotationProcessorUtils.convertMethodToProperty(methodName)));
+					tabs++;
 
-				// return converter.convertToBasicType(castedObject.<getter>());
-				print(sb, tabs, 
-						String.format("return %s.%s(%s.%s()",
-								converterField,
-								CONVERT_TO_BASIC_TYPE_METHOD_NAME,
-								objectField,
-								methodName));
-
-				for (String additionalProperty : accessorAdditionalInfo.get(methodName)) {
-					niprint(sb, 
-							String.format(", %s.%s()",
+					// return converter.convertToBasicType(castedObject.<getter>());
+					print(sb, tabs, 
+							String.format("return %s.%s(%s.%s()",
+									converterField,
+									CONVERT_TO_BASIC_TYPE_METHOD_NAME,
 									objectField,
-									SPAnnotationProcessorUtils.convertPropertyToAccessor(additionalProperty, visitedClass)));
-				}
+									methodName));
 
-				niprintln(sb, ");");
+					for (String additionalProperty : accessorAdditionalInfo.get(methodName)) {
+						niprint(sb, 
+								String.format(", %s.%s()",
+										objectField,
+										SPAnnotationProcessorUtils.convertPropertyToAccessor(additionalProperty, visitedClass)));
+					}
 
-				tabs--;
-				firstIf = false;
-			}
+					niprintln(sb, ");");
 
-			if (!firstIf) {
-				println(sb, tabs, "} else {");
-				tabs++;
+					tabs--;
+					println(sb, tabs, "}");
+				}
+				
+				println(sb, tabs, "break;");
+				tabs--;
 			}
+			println(sb, tabs, "}");
 		}
 		
 		if (SPObject.class.isAssignableFrom(visitedClass.getSuperclass())) {
@@ -1465,11 +1471,6 @@ public class SPAnnotationProcessor implements AnnotationProcessor {
 							propertyNameField));
 		}
 		
-		if (!firstIf) {
-			tabs--;
-			println(sb, tabs, "}");
-		}
-		
 		tabs--;
 		println(sb, tabs, "}");
 		
@@ -2004,6 +2005,35 @@ public class SPAnnotationProcessor implements AnnotationProcessor {
 		return sb.toString();
 	}
 	
+	/**
+	 * Groups the given accessor or mutator method names by the hash code of
+	 * the property name each one maps to. The generated commitProperty and
+	 * findProperty methods switch on the hash code of the property name they
+	 * are given and only compare the names that share that hash code. The
+	 * hash codes are calculated here by the same {@link String#hashCode()}
+	 * the generated code calls, which is specified to be the same on every
+	 * JVM.
+	 * 
+	 * @param methodNames
+	 *            The accessor or mutator method names to group.
+	 * @return A map of property name hash codes to the method names whose
+	 *         property names have that hash code, sorted by hash code so the
+	 *         generated code does not change between builds.
+	 */
+	private Map<Integer, List<String>> groupByPropertyHashCode(Set<String> methodNames) {
+		Map<Integer, List<String>> buckets = new TreeMap<Integer, List<String>>();
+		for (String methodName : methodNames) {
+			Integer hashCode = SPAnnotationProcessorUtils.convertMethodToProperty(methodName).hashCode();
+			List<String> bucket = buckets.get(hashCode);
+			if (bucket == null) {
+				bucket = new ArrayList<String>();
+				buckets.put(hashCode, bucket);
+			}
+			bucket.add(methodName);
+		}
+		return buckets;
+	}
+	
 	//-------------- helper methods for dealing with string buffer, there may be a class that already does this
 
 	/**
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.dao;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns the persist calls sent to it into a {@link PersistCallStream} that
+ * can be read on another thread. This lets a source that pushes persist
+ * calls, like an {@link XMLPersisterReader}, be read one call at a time. The
+ * queue has a fixed capacity so the source is blocked while the reader
+ * catches up instead of the whole revision being held in memory.
+ * <p>
+ * The thread sending persist calls must call {@link #end()} when it is done,
+ * or {@link #fail(Exception)} if it could not finish. The reading thread can
+ * call {@link #discard()} if it stops reading early so the sending thread
+ * does not wait forever.
+ */
+public class PersistCallQueue implements SPPersister, PersistCallStream {
+	
+	/**
+	 * Placed on the queue after the last persist call.
+	 */
+	private static final SPTransactionElement END = new SPTransactionElement() {};
+	
+	private final BlockingQueue<SPTransactionElement> queue;
+	
+	private volatile Exception failure;
+	
+	private volatile boolean discarded = false;
+	
+	private boolean ended = false;
+	
+	public PersistCallQueue(int capacity) {
+		queue = new ArrayBlockingQueue<SPTransactionElement>(capacity);
+	}
+
+	public void begin() throws SPPersistenceException {
+		// transactions are not part of the stream
+	}
+
+	public void commit() throws SPPersistenceException {
+		// transactions are not part of the stream
+	}
+
+	public void rollback() {
+		// the source is expected to report the failure with fail()
+	}
+
+	public void persistObject(String parentUUID, String type, String uuid,
+			int index) throws SPPersistenceException {
+		put(new PersistedSPObject(parentUUID, type, uuid, index));
+	}
+
+	public void persistProperty(String uuid, String propertyName,
+			DataType propertyType, Object oldValue, Object newValue)
+			throws SPPersistenceException {
+		put(new PersistedSPOProperty(uuid, propertyName, propertyType, 
+				oldValue, newValue, false));
+	}
+
+	public void persistProperty(String uuid, String propertyName,
+			DataType propertyType, Object newValue)
+			throws SPPersistenceException {
+		put(new PersistedSPOProperty(uuid, propertyName, propertyType, 
+				newValue, newValue, false));
+	}
+
+	public void removeObject(String parentUUID, String uuid)
+			throws SPPersistenceException {
+		throw new SPPersistenceException(uuid, 
+				"A stream of persist calls cannot remove objects.");
+	}
+
+	/**
+	 * Marks the end of the stream. Called by the thread sending the persist
+	 * calls.
+	 */
+	public void end() throws SPPersistenceException {
+		put(END);
+	}
+
+	/**
+	 * Ends the stream with an error that is thrown to the reader once it has
+	 * read the persist calls sent before the failure.
+	 */
+	public void fail(Exception e) throws SPPersistenceException {
+		failure = e;
+		put(END);
+	}
+
+	/**
+	 * Stops the stream from the reading side. Persist calls sent after this
+	 * throw an exception instead of waiting for space in the queue.
+	 */
+	public void discard() {
+		discarded = true;
+		queue.clear();
+	}
+	
+	private void put(SPTransactionElement element) throws SPPersistenceException {
+		try {
+			while (!queue.offer(element, 100, TimeUnit.MILLISECONDS)) {
+				if (discarded) {
+					throw new SPPersistenceException(null, "The stream was discarded by its reader.");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SPPersistenceException(null, e);
+		}
+	}
+
+	public SPTransactionElement next() throws SPPersistenceException {
+		if (ended) return null;
+		SPTransactionElement element;
+		try {
+			element = queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SPPersistenceException(null, e);
+		}
+		if (element == END) {
+			ended = true;
+			if (failure instanceof SPPersistenceException) {
+				throw (SPPersistenceException) failure;
+			} else if (failure != null) {
+				throw new SPPersistenceException(null, failure);
+			}
+			return null;
+		}
+		return element;
+	}
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.dao;
+
+/**
+ * A source of persist calls that can be read one at a time, such as a
+ * revision being read from a file or a revision store. The persist calls
+ * must be ordered the way an {@link XMLPersister} requires them: each object
+ * comes after its parent and before its descendants, its properties come
+ * directly after it, and siblings come in the order they appear in their
+ * parent.
+ */
+public interface PersistCallStream {
+
+	/**
+	 * Returns the next persist call, either a {@link PersistedSPObject} or a
+	 * {@link PersistedSPOProperty}, or null if there are no more persist
+	 * calls.
+	 */
+	public SPTransactionElement next() throws SPPersistenceException;
+	
+}
@@ -275,21 +275,10 @@ public class PersisterUtils {
      * returned, depending if it is the first. If the childType is not a
      * valid child type of the parentType -1 will be returned.
      */
-    @SuppressWarnings("unchecked")
     public static int getTypePosition(String childClassName, String parentClassName) 
             throws IllegalArgumentException, SecurityException, IllegalAccessException, NoSuchFieldException, ClassNotFoundException {
-        Class<? extends SPObject> childType = (Class<? extends SPObject>) PersisterUtils.class.getClassLoader().loadClass(childClassName);
-        Class<? extends SPObject> parentType = (Class<? extends SPObject>) PersisterUtils.class.getClassLoader().loadClass(parentClassName);
-        
-        List<Class<? extends SPObject>> allowedChildTypes = (List<Class<? extends SPObject>>) 
-            parentType.getDeclaredField("allowedChildTypes").get(null);
-        for (int i = 0; i < allowedChildTypes.size(); i++) {
-            Class<? extends SPObject> allowedType = allowedChildTypes.get(i);
-            if (allowedType.isAssignableFrom(childType)) {
-                return i;
-            }
-        }
-        return -1;
+        return SPObjectTypeRegistry.getTypePosition(SPObjectTypeRegistry.getType(childClassName), 
+                SPObjectTypeRegistry.getType(parentClassName));
     }
 
     /**
@@ -299,43 +288,31 @@ public class PersisterUtils {
      * null if the parent class has no valid child type of the given child
      * class.
      */
-    @SuppressWarnings("unchecked")
     public static Class<? extends SPObject> getParentAllowedChildType(String childClassName, String parentClassName) 
             throws IllegalArgumentException, SecurityException, IllegalAccessException, NoSuchFieldException, ClassNotFoundException {
-        Class<? extends SPObject> childType = (Class<? extends SPObject>) PersisterUtils.class.getClassLoader().loadClass(childClassName);
+        Class<? extends SPObject> childType = SPObjectTypeRegistry.getType(childClassName);
         
         if (parentClassName == null || parentClassName.trim().length() == 0) {
             return childType;
         }
         
-        Class<? extends SPObject> parentType = (Class<? extends SPObject>) PersisterUtils.class.getClassLoader().loadClass(parentClassName);
+        Class<? extends SPObject> parentType = SPObjectTypeRegistry.getType(parentClassName);
         return getParentAllowedChildType(childType, parentType);
     }
 
-	@SuppressWarnings("unchecked")
 	public static Class<? extends SPObject> getParentAllowedChildType(
 			Class<? extends SPObject> childType,
 			Class<? extends SPObject> parentType)
 			throws IllegalAccessException, NoSuchFieldException {
-		List<Class<? extends SPObject>> allowedChildTypes = (List<Class<? extends SPObject>>) 
-            parentType.getDeclaredField("allowedChildTypes").get(null);
-        if (allowedChildTypes.contains(childType)) return childType;
-        for (int i = 0; i < allowedChildTypes.size(); i++) {
-            Class<? extends SPObject> allowedType = allowedChildTypes.get(i);
-            if (allowedType.isAssignableFrom(childType)) {
-                return allowedType;
-            }
-        }
-        return null;
+		return SPObjectTypeRegistry.getParentAllowedChildType(childType, parentType);
 	}
     
     /**
      * A way to get the allowed child list from a class object that is an SPObject.
      */
-    @SuppressWarnings("unchecked")
     public static List<Class<? extends SPObject>> getAllowedChildTypes(Class<? extends SPObject> parentClass) 
     		throws IllegalArgumentException, SecurityException, IllegalAccessException, NoSuchFieldException {
-		return (List<Class<? extends SPObject>>) parentClass.getDeclaredField("allowedChildTypes").get(null);
+		return SPObjectTypeRegistry.getAllowedChildTypes(parentClass);
     }
 
     /**
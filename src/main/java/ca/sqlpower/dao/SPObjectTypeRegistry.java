@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.dao;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import ca.sqlpower.object.SPObject;
+
+/**
+ * A thread-safe registry of the type information the persisters look up while
+ * creating and ordering {@link SPObject}s. Class names are resolved to classes,
+ * the static allowedChildTypes list of each class is read and every child type
+ * is resolved to its position in its parent's list only once. Later calls are
+ * answered from concurrent maps instead of by class loading and reflection.
+ * <p>
+ * Entries are added the first time a type is asked for, or ahead of time by
+ * {@link #register(Class)}. Lookups that fail are not recorded so the same
+ * exception is thrown each time the type is asked for.
+ */
+public final class SPObjectTypeRegistry {
+
+	/**
+	 * The child type table of a single parent class. The positions are stored
+	 * for both the first assignable type in the allowed child types list and
+	 * the type a child is stored under in its parent, which prefers an exact
+	 * match over an earlier superclass.
+	 */
+	private static final class ChildTypeTable {
+		
+		private final List<Class<? extends SPObject>> allowedChildTypes;
+		
+		private final ConcurrentMap<Class<?>, Integer> typePositions = 
+			new ConcurrentHashMap<Class<?>, Integer>();
+		
+		private final ConcurrentMap<Class<?>, Integer> allowedTypePositions = 
+			new ConcurrentHashMap<Class<?>, Integer>();
+		
+		ChildTypeTable(List<Class<? extends SPObject>> allowedChildTypes) {
+			this.allowedChildTypes = allowedChildTypes;
+		}
+		
+		int getTypePosition(Class<? extends SPObject> childType) {
+			Integer position = typePositions.get(childType);
+			if (position == null) {
+				position = -1;
+				for (int i = 0; i < allowedChildTypes.size(); i++) {
+					if (allowedChildTypes.get(i).isAssignableFrom(childType)) {
+						position = i;
+						break;
+					}
+				}
+				typePositions.put(childType, position);
+			}
+			return position;
+		}
+		
+		Class<? extends SPObject> getAllowedChildType(Class<? extends SPObject> childType) {
+			Integer position = allowedTypePositions.get(childType);
+			if (position == null) {
+				position = allowedChildTypes.indexOf(childType);
+				if (position == -1) {
+					position = getTypePosition(childType);
+				}
+				allowedTypePositions.put(childType, position);
+			}
+			if (position == -1) return null;
+			return allowedChildTypes.get(position);
+		}
+	}
+	
+	private static final ConcurrentMap<String, Class<? extends SPObject>> types = 
+		new ConcurrentHashMap<String, Class<? extends SPObject>>();
+	
+	private static final ConcurrentMap<Class<?>, ChildTypeTable> childTypeTables = 
+		new ConcurrentHashMap<Class<?>, ChildTypeTable>();
+	
+	private SPObjectTypeRegistry() {
+		//static methods only
+	}
+
+	/**
+	 * Adds the given type to the registry ahead of time, along with its
+	 * allowed child types if it declares them, so the first lookups of the
+	 * type do not need to load or reflect on it.
+	 */
+	public static void register(Class<? extends SPObject> type) {
+		types.putIfAbsent(type.getName(), type);
+		try {
+			getChildTypeTable(type);
+		} catch (NoSuchFieldException e) {
+			// not a parent type, lookups will report the missing field
+		} catch (IllegalAccessException e) {
+			// lookups will report this too
+		}
+	}
+
+	/**
+	 * Returns the {@link SPObject} class with the given fully qualified name.
+	 * 
+	 * @throws ClassNotFoundException
+	 *             Thrown if the class cannot be loaded.
+	 */
+	@SuppressWarnings("unchecked")
+	public static Class<? extends SPObject> getType(String className) throws ClassNotFoundException {
+		Class<? extends SPObject> type = types.get(className);
+		if (type == null) {
+			type = (Class<? extends SPObject>) 
+				SPObjectTypeRegistry.class.getClassLoader().loadClass(className);
+			types.put(className, type);
+		}
+		return type;
+	}
+
+	/**
+	 * Returns the list stored in the static allowedChildTypes field declared
+	 * by the given class. The list returned cannot be modified.
+	 * 
+	 * @throws NoSuchFieldException
+	 *             Thrown if the class does not declare an allowedChildTypes
+	 *             field.
+	 * @throws IllegalAccessException
+	 *             Thrown if the allowedChildTypes field is not accessible.
+	 */
+	public static List<Class<? extends SPObject>> getAllowedChildTypes(
+			Class<? extends SPObject> parentType) 
+			throws IllegalAccessException, NoSuchFieldException {
+		return getChildTypeTable(parentType).allowedChildTypes;
+	}
+
+	/**
+	 * Returns the first position in the allowed child types of the parent type
+	 * that the child type can be assigned to, or -1 if the parent type does
+	 * not allow children of the child type.
+	 * 
+	 * @see PersisterUtils#getTypePosition(String, String)
+	 */
+	public static int getTypePosition(Class<? extends SPObject> childType, 
+			Class<? extends SPObject> parentType) 
+			throws IllegalAccessException, NoSuchFieldException {
+		return getChildTypeTable(parentType).getTypePosition(childType);
+	}
+
+	/**
+	 * Returns the type in the allowed child types of the parent type that the
+	 * child type is stored under, or null if the parent type does not allow
+	 * children of the child type.
+	 * 
+	 * @see PersisterUtils#getParentAllowedChildType(Class, Class)
+	 */
+	public static Class<? extends SPObject> getParentAllowedChildType(
+			Class<? extends SPObject> childType, Class<? extends SPObject> parentType) 
+			throws IllegalAccessException, NoSuchFieldException {
+		return getChildTypeTable(parentType).getAllowedChildType(childType);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static ChildTypeTable getChildTypeTable(Class<? extends SPObject> parentType) 
+			throws IllegalAccessException, NoSuchFieldException {
+		ChildTypeTable table = childTypeTables.get(parentType);
+		if (table == null) {
+			List<Class<? extends SPObject>> allowedChildTypes = (List<Class<? extends SPObject>>) 
+				parentType.getDeclaredField("allowedChildTypes").get(null);
+			table = new ChildTypeTable(Collections.unmodifiableList(allowedChildTypes));
+			ChildTypeTable existing = childTypeTables.putIfAbsent(parentType, table);
+			if (existing != null) {
+				table = existing;
+			}
+		}
+		return table;
+	}
+}
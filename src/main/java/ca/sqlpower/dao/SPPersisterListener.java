@@ -21,6 +21,7 @@ package ca.sqlpower.dao;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -30,6 +31,8 @@ import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Clip;
@@ -40,6 +43,7 @@ import org.apache.commons.beanutils.PropertyUtils;
 import org.apache.log4j.Logger;
 
 import ca.sqlpower.dao.SPPersister.DataType;
+import ca.sqlpower.dao.helper.AbstractSPPersisterHelper;
 import ca.sqlpower.dao.helper.PersisterHelperFinder;
 import ca.sqlpower.dao.helper.SPPersisterHelper;
 import ca.sqlpower.dao.session.SessionPersisterSuperConverter;
@@ -64,6 +68,15 @@ public class SPPersisterListener implements SPListener {
 	private static final String PROPERTY_CHANGED_MSG = "Start event: propertyChange";
 
 	private static final Logger logger = Logger.getLogger(SPPersisterListener.class);
+
+	/**
+	 * Records, for each {@link SPObject} class, whether each persisted property
+	 * that has changed on an object of that class has a setter. The setters of
+	 * a class do not change so each property only needs to be looked up by
+	 * reflection once.
+	 */
+	private static final ConcurrentMap<Class<?>, ConcurrentMap<String, Boolean>> settableProperties = 
+		new ConcurrentHashMap<Class<?>, ConcurrentMap<String, Boolean>>();
 	
 	/**
 	 * This persister will have persist calls made on it when the object(s) this
@@ -432,6 +445,7 @@ public class SPPersisterListener implements SPListener {
 		SQLPowerUtils.unlistenToHierarchy(e.getChild(), this);
 		if (wouldEcho()) return;
 		String uuid = e.getChild().getUUID();
+		Set<String> descendantUUIDs = getDescendantUUIDs(e.getChild());
 		if (getRemovedObject(uuid) != null && getPersistedObject(uuid) == null) {
 		    throw new IllegalStateException("Cannot add object of type " 
                     + e.getChildType() + " with UUID " + uuid + " because an object with "
@@ -446,7 +460,7 @@ public class SPPersisterListener implements SPListener {
 		                    e.getSource().getUUID(),
 		                    e.getChild(),
 		                    e.getIndex()));
-		    removedObjectsUUIDs.addAll(getDescendantUUIDs(e.getChild()));
+		    removedObjectsUUIDs.addAll(descendantUUIDs);
 		    transactionEnded(TransactionEvent.createEndTransactionEvent(this));
 		}
 		//When a remove comes in we need to remove all of the persist calls for the
@@ -456,9 +470,8 @@ public class SPPersisterListener implements SPListener {
 	    	persistedObjects.remove(pso.getUUID());
 	    	parentPeristedObjects.remove(getParentPersistedObjectsId(pso), pso);
 	    }
-	    List<String> descendantUUIDs = new ArrayList<String>(getDescendantUUIDs(e.getChild()));
-	    descendantUUIDs.remove(uuid);
 	    for (String uuidToRemove : descendantUUIDs) {
+	        if (uuidToRemove.equals(uuid)) continue;
 	        persistedProperties.removeAll(uuidToRemove);
 	        PersistedSPObject childPSO = persistedObjects.get(uuidToRemove);
 	        persistedObjects.remove(uuidToRemove);
@@ -497,9 +510,14 @@ public class SPPersisterListener implements SPListener {
 	    Object newValue = evt.getNewValue();
 	    
 	    try {
-	        if (!PersisterHelperFinder.findPersister(source.getClass())
-	                .getPersistedProperties()
-	                .contains(propertyName)) {
+	        SPPersisterHelper<?> helper = PersisterHelperFinder.findPersister(source.getClass());
+	        boolean persisted;
+	        if (helper instanceof AbstractSPPersisterHelper<?>) {
+	            persisted = ((AbstractSPPersisterHelper<?>) helper).isPersistedProperty(propertyName);
+	        } else {
+	            persisted = helper.getPersistedProperties().contains(propertyName);
+	        }
+	        if (!persisted) {
 	        	if (logger.isDebugEnabled()) logger.debug("Tried to persist a property that shouldn't be. Ignoring the property: " + propertyName);
 	            return;
 	        }
@@ -553,18 +571,15 @@ public class SPPersisterListener implements SPListener {
 		transactionStarted(TransactionEvent.createStartTransactionEvent(this, PROPERTY_CHANGED_MSG));
 		
 		//Not persisting non-settable properties.
-		//TODO A method in the persister helpers would make more sense than
-		//using reflection here.
-		PropertyDescriptor propertyDescriptor;
+		boolean settable;
 		try {
-			propertyDescriptor= PropertyUtils.getPropertyDescriptor(source, propertyName);
+			settable = isSettableProperty(source, propertyName);
 		} catch (Exception ex) {
 			this.rollback();
 			throw new RuntimeException(ex);
 		}
 		
-		if (propertyDescriptor == null 
-				|| propertyDescriptor.getWriteMethod() == null) {
+		if (!settable) {
 			transactionEnded(TransactionEvent.createEndTransactionEvent(this));
 			return;
 		}
@@ -590,6 +605,31 @@ public class SPPersisterListener implements SPListener {
 		this.transactionEnded(TransactionEvent.createEndTransactionEvent(this));
 	}
 	
+	/**
+	 * Returns true if the given property of the given object has a setter.
+	 * The result is remembered for the object's class.
+	 */
+	private static boolean isSettableProperty(SPObject source, String propertyName) 
+			throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+		ConcurrentMap<String, Boolean> classProperties = settableProperties.get(source.getClass());
+		if (classProperties == null) {
+			classProperties = new ConcurrentHashMap<String, Boolean>();
+			ConcurrentMap<String, Boolean> existing = 
+				settableProperties.putIfAbsent(source.getClass(), classProperties);
+			if (existing != null) {
+				classProperties = existing;
+			}
+		}
+		Boolean settable = classProperties.get(propertyName);
+		if (settable == null) {
+			PropertyDescriptor propertyDescriptor = 
+				PropertyUtils.getPropertyDescriptor(source, propertyName);
+			settable = propertyDescriptor != null && propertyDescriptor.getWriteMethod() != null;
+			classProperties.put(propertyName, settable);
+		}
+		return settable;
+	}
+	
 	/**
 	 * Returns true if the WabitSessionPersister that this listener complements
 	 * is currently in the middle of an update. In that case, none of the
@@ -702,7 +742,8 @@ public class SPPersisterListener implements SPListener {
 						rollbackObjects,
 						rollbackProperties, 
 						objectsToRemove,
-						converter);
+						converter,
+						eventSource.getUUIDIndex());
 			}
 		} catch (SPPersistenceException e) {
 			logger.error(e);
@@ -822,20 +863,9 @@ public class SPPersisterListener implements SPListener {
      * children's uuid.
      */
     public Set<String> getDescendantUUIDs(SPObject parent) {
-        Set<String> uuids = new HashSet<String>();
-        uuids.add(parent.getUUID());
-        List<? extends SPObject> children;
         //XXX We need a way to get the children of SQLObjects for persistence
         //without causing them to populate.
-        if (parent instanceof SQLObject) {
-            children = ((SQLObject) parent).getChildrenWithoutPopulating();
-        } else {
-            children = parent.getChildren();
-        }
-        for (SPObject child : children) {
-            uuids.addAll(getDescendantUUIDs(child));
-        }
-        return uuids;
+        return new HashSet<String>(SQLPowerUtils.buildIdMap(parent).keySet());
     }
     
     /**
@@ -43,6 +43,7 @@ import ca.sqlpower.object.ObjectDependentException;
 import ca.sqlpower.object.SPChildEvent;
 import ca.sqlpower.object.SPListener;
 import ca.sqlpower.object.SPObject;
+import ca.sqlpower.object.SPObjectUUIDIndex;
 import ca.sqlpower.sqlobject.SQLCatalog;
 import ca.sqlpower.sqlobject.SQLColumn;
 import ca.sqlpower.sqlobject.SQLDatabase;
@@ -109,6 +110,14 @@ public abstract class SPSessionPersister implements SPPersister {
 	 * consistent with what actually exists in the client model.
 	 */
 	private final Map<String, SPObject> lookupCache = new HashMap<String, SPObject>();
+
+	/**
+	 * If set, objects are found by UUID through this index instead of
+	 * {@link #lookupCache}. The index is kept up to date by the events of the
+	 * objects in the tree, so it does not need to be rebuilt for each
+	 * transaction.
+	 */
+	private SPObjectUUIDIndex uuidIndex;
 	
 	/**
 	 * This map allows for fast lookups of persisted objects by their UUID.
@@ -346,7 +355,11 @@ public abstract class SPSessionPersister implements SPPersister {
 			enforceThreadSafety();
 			if (transactionCount == 0) {
 				lookupCache.clear();
-				converter.setUUIDCache(lookupCache);
+				if (uuidIndex != null) {
+					converter.setUUIDCache(uuidIndex.asMap());
+				} else {
+					converter.setUUIDCache(lookupCache);
+				}
 			}
 			transactionCount++;
 			
@@ -720,22 +733,15 @@ public abstract class SPSessionPersister implements SPPersister {
 		Map<String, String> sortedObjectsToRemove = 
 			new TreeMap<String, String>(removedObjectComparator);
 		sortedObjectsToRemove.putAll(objectsToRemove);
+		Set<String> removedUUIDs = new HashSet<String>();
 		for (Map.Entry<String, String> removeEntry : sortedObjectsToRemove.entrySet()) {
 			SPObject spo = findByUuid(root, removeEntry.getKey(),
 					SPObject.class);
 			
 			//The ancestor of this object has been deleted by this transaction
 			//already so we don't need to delete the object again.
-			if (spo == null) {
-			    boolean descendantRemoved = false;
-			    for (RemovedObjectEntry removedRollbackEntry : objectsToRemoveRollbackList.values()) {
-			    	//Can't use the cache as these objects are removed.
-			        if (SQLPowerUtils.findByUuid(removedRollbackEntry.getRemovedChild(), removeEntry.getKey(), SPObject.class) != null) {
-			            descendantRemoved = true;
-			            break;
-			        }
-			    }
-			    if (descendantRemoved) continue;
+			if (spo == null && removedUUIDs.contains(removeEntry.getKey())) {
+			    continue;
 			}
 			SPObject parent = findByUuid(root, removeEntry.getValue(), 
 					SPObject.class);
@@ -759,8 +765,11 @@ public abstract class SPSessionPersister implements SPPersister {
 				removeRollBackList(spo, parent, index);
 				
 				Set<String> removedKeys = SQLPowerUtils.buildIdMap(spo).keySet();
-				for (String removedKey : removedKeys) {
-					lookupCache.remove(removedKey);
+				removedUUIDs.addAll(removedKeys);
+				if (uuidIndex == null) {
+					for (String removedKey : removedKeys) {
+						lookupCache.remove(removedKey);
+					}
 				}
 			} catch (IllegalArgumentException e) {
 				throw new SPPersistenceException(removeEntry.getKey(), e);
@@ -865,15 +874,10 @@ public abstract class SPSessionPersister implements SPPersister {
                 }
             }
             //Ancestor list does not contain the node passed in.
-            if (spo == null) {
-                for (SPObject ancestor : SQLPowerUtils.getAncestorList(parent)) {
-                    if (objectsToRemoveRollbackList.keySet().contains(ancestor.getUUID())) {
-                        for (SPObject sibling : siblings) {
-                            if (sibling.getUUID().equals(pso.getUUID())) {
-                                spo = sibling;
-                                break;
-                            }
-                        }
+            if (spo == null && SPObjectUUIDIndex.isSelfOrAncestorIn(parent.getParent(), objectsToRemoveRollbackList)) {
+                for (SPObject sibling : siblings) {
+                    if (sibling.getUUID().equals(pso.getUUID())) {
+                        spo = sibling;
                         break;
                     }
                 }
@@ -939,7 +943,9 @@ public abstract class SPSessionPersister implements SPPersister {
 								new PersistedObjectEntry(
 										parent.getUUID(), 
 										spo.getUUID()));
-						lookupCache.putAll(SQLPowerUtils.buildIdMap(spo));
+						if (uuidIndex == null) {
+							SQLPowerUtils.addToIdMap(spo, lookupCache);
+						}
 					} catch (RuntimeException e) {
 						if (parent.getChildren().contains(spo)) {
 							try {
@@ -1286,14 +1292,7 @@ public abstract class SPSessionPersister implements SPPersister {
 		if (persistedObjectsMap.get(uuid) != null) return true;
         SPObject spo = findByUuid(root, uuid, SPObject.class);
         if (spo != null) {
-            List<SPObject> ancestors = SQLPowerUtils.getAncestorList(spo);
-            ancestors.add(spo);
-            for (SPObject ancestor : ancestors) {
-                if (objectsToRemove.containsKey(ancestor.getUUID())) {
-                    return false;
-                }
-            }
-            return true;
+            return !SPObjectUUIDIndex.isSelfOrAncestorIn(spo, objectsToRemove);
         }
 		return false;
 	}
@@ -1403,6 +1402,26 @@ public abstract class SPSessionPersister implements SPPersister {
 			List<PersistedPropertiesEntry> properties,
 			LinkedHashMap<String, RemovedObjectEntry> removals,
 			SessionPersisterSuperConverter converter) throws SPPersistenceException
+	{
+		undoForSession(root, creations, properties, removals, converter, null);
+	}
+
+	/**
+	 * Same as
+	 * {@link #undoForSession(SPObject, List, List, LinkedHashMap, SessionPersisterSuperConverter)}
+	 * but objects are found through the given index if it covers the root.
+	 * 
+	 * @param uuidIndex
+	 *            An index of the tree at the given root, or null to search
+	 *            the tree for objects.
+	 */
+	public static void undoForSession(
+			SPObject root,
+			List<PersistedObjectEntry> creations,
+			List<PersistedPropertiesEntry> properties,
+			LinkedHashMap<String, RemovedObjectEntry> removals,
+			SessionPersisterSuperConverter converter,
+			SPObjectUUIDIndex uuidIndex) throws SPPersistenceException
 	{
 		SPSessionPersister persister = new SPSessionPersister("undoer", root, converter) {
 			@Override
@@ -1410,6 +1429,9 @@ public abstract class SPSessionPersister implements SPPersister {
 				//do nothing for refresh.
 			}
 		};
+		if (uuidIndex != null && uuidIndex.getRoot() == root) {
+			persister.setUUIDIndex(uuidIndex);
+		}
 		persister.setWorkspaceContainer(root.getWorkspaceContainer());
 		persister.setGodMode(true);
 		persister.setObjectsToRemoveRollbackList(removals);
@@ -1475,6 +1497,15 @@ public abstract class SPSessionPersister implements SPPersister {
 	}
 	
 	protected <T extends SPObject> T findByUuid(SPObject root, String uuid, Class<T> expectedType) {
+		if (uuidIndex != null) {
+			if (uuid == null) return null;
+			SPObject foundObject = uuidIndex.get(uuid, SPObject.class);
+			if (foundObject != null && !expectedType.isAssignableFrom(foundObject.getClass())) {
+				throw new IllegalStateException("The object " + foundObject + " is not of type " + 
+						expectedType + " from the index.");
+			}
+			return expectedType.cast(foundObject);
+		}
 		if (lookupCache.get(uuid) != null) {
 			SPObject foundObject = lookupCache.get(uuid);
 			if (!expectedType.isAssignableFrom(foundObject.getClass())) {
@@ -1489,6 +1520,25 @@ public abstract class SPSessionPersister implements SPPersister {
 		return expectedType.cast(lookupCache.get(uuid));
 	}
 	
+	/**
+	 * Sets the index used to find objects by UUID. The index must cover the
+	 * tree rooted at this persister's root. It can be shared with other
+	 * persisters and listeners on the same tree. If no index is set, the
+	 * persister builds a map of the tree at the start of each transaction
+	 * instead.
+	 */
+	public void setUUIDIndex(SPObjectUUIDIndex uuidIndex) {
+		if (uuidIndex != null && uuidIndex.getRoot() != root) {
+			throw new IllegalArgumentException("The UUID index of " + uuidIndex.getRoot() + 
+					" does not cover the root " + root + " of " + this);
+		}
+		this.uuidIndex = uuidIndex;
+	}
+	
+	public SPObjectUUIDIndex getUUIDIndex() {
+		return uuidIndex;
+	}
+	
 	public void setDisableMagic(boolean disableMagic) {
 		this.disableMagic = disableMagic;
 	}
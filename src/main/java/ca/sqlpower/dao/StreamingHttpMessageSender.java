@@ -0,0 +1,473 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.dao;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentProducer;
+import org.apache.http.entity.EntityTemplate;
+import org.apache.log4j.Logger;
+
+import ca.sqlpower.enterprise.client.SPServerInfo;
+
+/**
+ * An {@link HttpMessageSender} that starts its HTTP request as soon as the
+ * first message after a {@link #flush()} is sent and streams each message
+ * into the body of the request as it is sent, instead of holding all of the
+ * messages until {@link #flush()}. The body is sent chunked and, unless
+ * turned off, gzip compressed. {@link #flush()} ends the body and waits for
+ * the server's response so errors are still reported from it.
+ * <p>
+ * Encoded messages are handed to the request thread in chunks through a
+ * bounded queue. When the connection cannot keep up, {@link #send(Object)}
+ * blocks until there is room, so no more than
+ * {@link #getMaxBufferedBytes()} bytes of encoded messages are held on the
+ * client at a time. Responses are read fully so the connection stays alive
+ * for the request of the next transaction.
+ * 
+ * @param <T>
+ *            An Object type that represents the content of the message
+ */
+public abstract class StreamingHttpMessageSender<T> extends HttpMessageSender<T> {
+	
+	private static final Logger logger = Logger.getLogger(StreamingHttpMessageSender.class);
+	
+	/**
+	 * The default number of bytes of encoded messages handed to the request
+	 * thread at once.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+	
+	/**
+	 * The default number of chunks that can wait for the request thread.
+	 */
+	public static final int DEFAULT_MAX_QUEUED_CHUNKS = 16;
+
+	/**
+	 * Placed on the queue after the last chunk of a request body.
+	 */
+	private static final byte[] END_OF_BODY = new byte[0];
+
+	/**
+	 * Placed on the queue to stop a request when the messages are cleared.
+	 */
+	private static final byte[] ABORT = new byte[0];
+	
+	/**
+	 * The body of each request is written to the connection through this
+	 * stream to count the bytes actually sent.
+	 */
+	private class CountingOutputStream extends FilterOutputStream {
+		
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			bytesSent.incrementAndGet();
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			bytesSent.addAndGet(len);
+		}
+	}
+	
+	private final int chunkSize;
+	
+	private final int maxQueuedChunks;
+	
+	private boolean compressing = true;
+
+	/**
+	 * Encoded messages that have not been handed to the request thread yet.
+	 */
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+	/**
+	 * The chunks of the body of the current request. This is null if there is
+	 * no request in progress.
+	 */
+	private BlockingQueue<byte[]> queue;
+
+	/**
+	 * Executes the current request and completes when its response has been
+	 * read. This is null if there is no request in progress.
+	 */
+	private FutureTask<Void> request;
+	
+	/**
+	 * The number of messages sent as part of the current request.
+	 */
+	private int messageCount;
+	
+	/*
+	 * The statistics are updated by the request threads while flush() holds
+	 * the lock on this sender so they do not use it.
+	 */
+	
+	private final AtomicLong bytesSent = new AtomicLong();
+	
+	private final AtomicLong bytesEncoded = new AtomicLong();
+	
+	private final AtomicInteger requestCount = new AtomicInteger();
+	
+	private final AtomicLong lastRequestMillis = new AtomicLong();
+	
+	private final AtomicLong totalRequestMillis = new AtomicLong();
+
+	public StreamingHttpMessageSender(HttpClient httpClient, SPServerInfo serverInfo, 
+			String rootUUID) {
+		this(httpClient, serverInfo, rootUUID, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_QUEUED_CHUNKS);
+	}
+
+	/**
+	 * @param chunkSize
+	 *            The number of bytes of encoded messages collected before they
+	 *            are handed to the request thread.
+	 * @param maxQueuedChunks
+	 *            The number of chunks that can wait for the request thread
+	 *            before {@link #send(Object)} blocks.
+	 */
+	public StreamingHttpMessageSender(HttpClient httpClient, SPServerInfo serverInfo, 
+			String rootUUID, int chunkSize, int maxQueuedChunks) {
+		super(httpClient, serverInfo, rootUUID);
+		if (chunkSize < 1 || maxQueuedChunks < 1) {
+			throw new IllegalArgumentException("The chunk size and queue length must be positive.");
+		}
+		this.chunkSize = chunkSize;
+		this.maxQueuedChunks = maxQueuedChunks;
+	}
+
+	/**
+	 * Returns the content type of the request body.
+	 */
+	protected abstract String getContentType();
+
+	/**
+	 * Writes anything that must come before the first message of a request
+	 * body. Nothing is written by default.
+	 */
+	protected void writeStart(OutputStream out) throws IOException {
+		// nothing to write by default
+	}
+
+	/**
+	 * Encodes a single message into the request body.
+	 * 
+	 * @param content
+	 *            The message to encode.
+	 * @param index
+	 *            The position of the message in the current request.
+	 * @param out
+	 *            The stream to write the encoded message to.
+	 */
+	protected abstract void writeMessage(T content, int index, OutputStream out) throws IOException;
+
+	/**
+	 * Writes anything that must come after the last message of a request
+	 * body. Nothing is written by default.
+	 */
+	protected void writeEnd(OutputStream out) throws IOException {
+		// nothing to write by default
+	}
+
+	public synchronized void send(T content) throws SPPersistenceException {
+		try {
+			if (request == null) {
+				startRequest();
+			}
+			writeMessage(content, messageCount, pending);
+			messageCount++;
+			if (pending.size() >= chunkSize) {
+				handOffPending();
+			}
+		} catch (IOException e) {
+			abortRequest();
+			throw new SPPersistenceException(null, e);
+		} catch (URISyntaxException e) {
+			abortRequest();
+			throw new SPPersistenceException(null, e);
+		}
+	}
+
+	public synchronized void flush() throws SPPersistenceException {
+		try {
+			if (request == null) {
+				startRequest();
+			}
+			writeEnd(pending);
+			handOffPending();
+			handOff(END_OF_BODY);
+			request.get();
+		} catch (IOException e) {
+			throw new SPPersistenceException(null, e);
+		} catch (URISyntaxException e) {
+			throw new SPPersistenceException(null, e);
+		} catch (InterruptedException e) {
+			throw new SPPersistenceException(null, e);
+		} catch (ExecutionException e) {
+			throw new SPPersistenceException(null, e.getCause());
+		} finally {
+			abortRequest();
+		}
+	}
+
+	public synchronized void clear() {
+		abortRequest();
+	}
+	
+	private void startRequest() throws IOException, URISyntaxException {
+		queue = new ArrayBlockingQueue<byte[]>(maxQueuedChunks);
+		pending.reset();
+		messageCount = 0;
+		final BlockingQueue<byte[]> body = queue;
+		final boolean compress = compressing;
+		final HttpPost postRequest = new HttpPost(getServerURI());
+		final AtomicBoolean written = new AtomicBoolean(false);
+		EntityTemplate entity = new EntityTemplate(new ContentProducer() {
+			public void writeTo(OutputStream out) throws IOException {
+				// The chunks are gone once they are written so the body
+				// cannot be written again if the client retries the request.
+				if (written.getAndSet(true)) {
+					throw new IOException("The messages cannot be sent again.");
+				}
+				writeBody(body, out, compress);
+			}
+		}) {
+			@Override
+			public boolean isRepeatable() {
+				return false;
+			}
+		};
+		entity.setContentType(getContentType());
+		entity.setChunked(true);
+		if (compress) {
+			entity.setContentEncoding("gzip");
+		}
+		postRequest.setEntity(entity);
+		request = new FutureTask<Void>(new Callable<Void>() {
+			public Void call() throws Exception {
+				long start = System.currentTimeMillis();
+				getHttpClient().execute(postRequest, new ResponseHandler<Void>() {
+					public Void handleResponse(HttpResponse response)
+							throws ClientProtocolException, IOException {
+						StatusLine statusLine = response.getStatusLine();
+						if (statusLine.getStatusCode() >= 400) {
+							throw new ClientProtocolException( 
+									"HTTP Post request returned an error: " +
+									"Code = " + statusLine.getStatusCode() + ", " +
+									"Reason = " + statusLine.getReasonPhrase());
+						}
+						return null;
+					}
+				});
+				requestCompleted(System.currentTimeMillis() - start);
+				return null;
+			}
+		});
+		Thread t = new Thread(request, "Message sender for " + postRequest.getURI());
+		t.setDaemon(true);
+		t.start();
+		writeStart(pending);
+	}
+
+	/**
+	 * Writes the chunks in the queue to the body of the request until the
+	 * end of the body. This is called on the request thread.
+	 */
+	private void writeBody(BlockingQueue<byte[]> body, OutputStream out, boolean compress) 
+			throws IOException {
+		OutputStream counted = new CountingOutputStream(out);
+		OutputStream bodyOut = compress ? new GZIPOutputStream(counted, chunkSize) : counted;
+		try {
+			while (true) {
+				byte[] chunk = body.take();
+				if (chunk == END_OF_BODY) break;
+				if (chunk == ABORT) throw new IOException("The messages were cleared before they were sent.");
+				bodyOut.write(chunk);
+			}
+			if (compress) {
+				((GZIPOutputStream) bodyOut).finish();
+			}
+			bodyOut.flush();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while waiting for messages to send.");
+		}
+	}
+	
+	private void handOffPending() throws IOException {
+		if (pending.size() == 0) return;
+		byte[] chunk = pending.toByteArray();
+		pending.reset();
+		bytesEncoded.addAndGet(chunk.length);
+		handOff(chunk);
+	}
+
+	/**
+	 * Places a chunk on the queue, waiting for room if the request thread is
+	 * behind. If the request fails while waiting its exception is thrown
+	 * here so the caller does not wait forever.
+	 */
+	private void handOff(byte[] chunk) throws IOException {
+		try {
+			while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+				if (request.isDone()) {
+					try {
+						request.get();
+					} catch (ExecutionException e) {
+						IOException ioe = new IOException("Sending messages failed: " + e.getCause());
+						ioe.initCause(e.getCause());
+						throw ioe;
+					}
+					throw new IOException("The request ended before all messages were sent.");
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while sending messages.");
+		}
+	}
+	
+	/**
+	 * Stops the current request, if any, and waits for it to end so the
+	 * connection is free for the next request.
+	 */
+	private void abortRequest() {
+		if (request != null && !request.isDone()) {
+			queue.clear();
+			queue.offer(ABORT);
+			try {
+				request.get();
+			} catch (Exception e) {
+				logger.debug("Request stopped after the messages were cleared", e);
+			}
+		}
+		request = null;
+		queue = null;
+		pending.reset();
+		messageCount = 0;
+	}
+	
+	private void requestCompleted(long millis) {
+		lastRequestMillis.set(millis);
+		totalRequestMillis.addAndGet(millis);
+		int count = requestCount.incrementAndGet();
+		if (logger.isDebugEnabled()) {
+			logger.debug("Request " + count + " took " + millis + "ms, " + 
+					bytesSent.get() + " bytes sent in total");
+		}
+	}
+
+	/**
+	 * Sets if the bodies of requests started after this call are gzip
+	 * compressed. Compression is on by default.
+	 */
+	public synchronized void setCompressing(boolean compressing) {
+		this.compressing = compressing;
+	}
+	
+	public synchronized boolean isCompressing() {
+		return compressing;
+	}
+	
+	/**
+	 * Returns the most bytes of encoded messages this sender holds before
+	 * {@link #send(Object)} waits for the connection.
+	 */
+	public long getMaxBufferedBytes() {
+		return (long) chunkSize * (maxQueuedChunks + 1);
+	}
+
+	/**
+	 * Returns the number of bytes written to the connection, after
+	 * compression, by all requests so far.
+	 */
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	/**
+	 * Returns the number of bytes of encoded messages, before compression,
+	 * handed to all requests so far.
+	 */
+	public long getBytesEncoded() {
+		return bytesEncoded.get();
+	}
+
+	/**
+	 * Returns the bytes sent divided by the bytes encoded, or 1 if nothing
+	 * has been sent.
+	 */
+	public double getCompressionRatio() {
+		long encoded = bytesEncoded.get();
+		if (encoded == 0) return 1;
+		return (double) bytesSent.get() / encoded;
+	}
+
+	/**
+	 * Returns the number of requests that have received a successful
+	 * response.
+	 */
+	public int getRequestCount() {
+		return requestCount.get();
+	}
+
+	/**
+	 * Returns the time from the start of the last successful request to its
+	 * response, in milliseconds.
+	 */
+	public long getLastRequestMillis() {
+		return lastRequestMillis.get();
+	}
+
+	/**
+	 * Returns the average time from the start of a successful request to its
+	 * response, in milliseconds.
+	 */
+	public double getAverageRequestMillis() {
+		int count = requestCount.get();
+		if (count == 0) return 0;
+		return (double) totalRequestMillis.get() / count;
+	}
+}
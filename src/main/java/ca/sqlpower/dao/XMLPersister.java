@@ -4,11 +4,22 @@
 
 package ca.sqlpower.dao;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Stack;
 
 import javax.swing.ProgressMonitor;
@@ -24,9 +35,34 @@ import ca.sqlpower.util.SQLPowerUtils;
  * children come before its siblings. This persister also does not support
  * incremental changes. Once the workspace is committed, this persister will
  * close.
+ * <p>
+ * By default the XML is kept in memory until the outermost commit and only
+ * then copied to the output stream, so nothing is written if the save fails
+ * part way. In streaming mode the XML is written through to the output as
+ * each persist call arrives, which keeps large workspaces from being held in
+ * memory twice. When streaming to a {@link File} the XML goes to a temporary
+ * file next to it that replaces the file on commit, so a failed save leaves
+ * the old file in place.
  */
 public class XMLPersister implements SPPersister {
 
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	private static final String NEWLINE = System.getProperty("line.separator");
+
+	/**
+	 * The size of the buffer between the persister and the output stream,
+	 * and of the chunks the in-memory XML is copied to the output in.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The number of image bytes encoded at a time when writing
+	 * {@link DataType#PNG_IMG} properties. This must be a multiple of three
+	 * so the Base64 encoding of the chunks can be concatenated.
+	 */
+	private static final int IMAGE_CHUNK_SIZE = 3 * 16 * 1024;
+
 	public final String PROJECT_TAG;
 	
 	private static UpgradePersisterManager upgradePersisterManager;
@@ -38,10 +74,20 @@ public class XMLPersister implements SPPersister {
 	private final Stack<String> currentObject = new Stack<String>();
 	
 	private final Stack<String> currentType = new Stack<String>();
+
+	/**
+	 * Indentation strings by depth, built as deeper levels are reached so
+	 * each element does not build its own.
+	 */
+	private final List<String> tabs = new ArrayList<String>();
 	
-	private final PrintWriter out;
-	
-	private final ByteArrayOutputStream bufferedOut;
+	private final Writer out;
+
+	/**
+	 * The XML written so far when not streaming. This is null in streaming
+	 * mode.
+	 */
+	private final ChunkedByteArrayOutputStream bufferedOut;
 
 	/**
 	 * The fully qualified class name of the object that is the root of the tree of objects being
@@ -53,28 +99,93 @@ public class XMLPersister implements SPPersister {
 
 	private final OutputStream finalOut;
 
+	/**
+	 * The file the XML is saved to if this persister was created with a file.
+	 * The XML is written to {@link #tempFile} until the commit.
+	 */
+	private final File targetFile;
+
+	private final File tempFile;
+
 	private final ProgressMonitor pm;
 	
 	private int progress = 0;
 
+	/**
+	 * The number of objects written so far. In streaming mode this is the
+	 * progress reported to the progress monitor.
+	 */
+	private int objectCount = 0;
+
 	public XMLPersister(OutputStream out, String rootObject, String projectTag) {
 		this(out, rootObject, projectTag, null);
 	}
 	
 	public XMLPersister(OutputStream out, String rootObject, String projectTag, ProgressMonitor pm) {
-		bufferedOut = new ByteArrayOutputStream();
-		this.out = new PrintWriter(bufferedOut);
+		this(out, rootObject, projectTag, pm, false);
+	}
+
+	/**
+	 * Creates a persister that writes to the given stream.
+	 * 
+	 * @param streaming
+	 *            If true the XML is written to the stream as it is persisted
+	 *            and progress is reported as the number of objects written,
+	 *            see {@link #setExpectedObjectCount(int)}. If false the XML
+	 *            is kept in memory and copied to the stream on commit, and
+	 *            progress is reported in bytes copied.
+	 */
+	public XMLPersister(OutputStream out, String rootObject, String projectTag, ProgressMonitor pm, 
+			boolean streaming) {
+		if (streaming) {
+			bufferedOut = null;
+			this.out = new BufferedWriter(new OutputStreamWriter(out, UTF_8), BUFFER_SIZE);
+		} else {
+			bufferedOut = new ChunkedByteArrayOutputStream();
+			this.out = new BufferedWriter(new OutputStreamWriter(bufferedOut, UTF_8), BUFFER_SIZE);
+		}
 		this.finalOut = out;
+		this.targetFile = null;
+		this.tempFile = null;
+		this.rootObject = rootObject;
+		this.pm = pm;
+		PROJECT_TAG = projectTag;
+	}
+
+	/**
+	 * Creates a persister that streams the XML to a temporary file in the
+	 * same directory as the given file. The temporary file replaces the given
+	 * file when the outermost transaction commits and is deleted on rollback.
+	 * Progress is reported as the number of objects written.
+	 */
+	public XMLPersister(File file, String rootObject, String projectTag, ProgressMonitor pm) 
+			throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		this.targetFile = file;
+		this.tempFile = File.createTempFile(file.getName(), ".tmp", dir);
+		this.finalOut = new FileOutputStream(tempFile);
+		this.out = new BufferedWriter(new OutputStreamWriter(finalOut, UTF_8), BUFFER_SIZE);
+		this.bufferedOut = null;
 		this.rootObject = rootObject;
 		this.pm = pm;
 		PROJECT_TAG = projectTag;
 	}
+
+	/**
+	 * Sets the number of objects that are expected to be persisted. In
+	 * streaming mode this is used as the maximum of the progress monitor.
+	 */
+	public void setExpectedObjectCount(int expectedObjectCount) {
+		if (pm != null && bufferedOut == null) {
+			pm.setMaximum(expectedObjectCount);
+		}
+	}
 	
 	@Override
 	public void begin() throws SPPersistenceException {
 		if (transactionCount == 0) {
-			out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-			out.println("<" + PROJECT_TAG + " file-version=\"" + upgradePersisterManager.getStateVersion() + "\">");
+			writeLine("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			writeLine("<" + PROJECT_TAG + " file-version=\"" + upgradePersisterManager.getStateVersion() + "\">");
 		}
 		transactionCount++;
 	}
@@ -85,29 +196,45 @@ public class XMLPersister implements SPPersister {
 		if (transactionCount == 0) {
 			while (!currentType.isEmpty()) {
 				currentObject.pop();
-				out.println(tab() + "</" + currentType.pop().replace("$", "..") + ">");
+				writeLine(tab() + "</" + currentType.pop().replace("$", "..") + ">");
 			}
-			out.println("</" + PROJECT_TAG + ">");
-			out.flush();
+			writeLine("</" + PROJECT_TAG + ">");
 			try {
-				byte[] byteArray = bufferedOut.toByteArray();
-				if (pm != null) {
-					pm.setMaximum(byteArray.length);
-				}
-				for (int i = 0; i < byteArray.length; i++) {
-					finalOut.write(byteArray[i]);
+				out.flush();
+				if (bufferedOut != null) {
 					if (pm != null) {
-						pm.setProgress(++progress);
+						pm.setMaximum(bufferedOut.size());
 					}
+					bufferedOut.writeTo(finalOut, this);
+					finalOut.flush();
+				} else if (targetFile != null) {
+					out.close();
+					moveTempFile();
+				} else {
+					finalOut.flush();
 				}
-		    	
-				finalOut.flush();
 			} catch (IOException e) {
+				if (tempFile != null) {
+					tempFile.delete();
+				}
 				throw new SPPersistenceException(null, e);
 			}
 		}
 	}
 
+	/**
+	 * Replaces the target file with the temporary file, atomically if the
+	 * file system allows it.
+	 */
+	private void moveTempFile() throws IOException {
+		try {
+			Files.move(tempFile.toPath(), targetFile.toPath(), 
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
 	@Override
 	public void persistObject(String parentUUID, String type, String uuid,
 			int index) throws SPPersistenceException {
@@ -115,7 +242,7 @@ public class XMLPersister implements SPPersister {
 		if (parentUUID == null) parentUUID = "";
 		while (!currentObject.isEmpty() && !parentUUID.equals(currentObject.peek())) {
 			currentObject.pop();
-			out.println(tab() + "</" + currentType.pop().replace("$", "..") + ">");
+			writeLine(tab() + "</" + currentType.pop().replace("$", "..") + ">");
 		}
 		if (currentObject.isEmpty()) {
 			if (!type.equals(rootObject)) {
@@ -130,9 +257,13 @@ public class XMLPersister implements SPPersister {
 					+ "] was persisted while the current object was ["
 					+ currentObject.peek() + "]");
 		}
-		out.println(tab() + "<" + type.replace("$", "..") + " UUID=\"" + SQLPowerUtils.escapeXML(uuid) + "\" index=\"" + index + "\">");
+		writeLine(tab() + "<" + type.replace("$", "..") + " UUID=\"" + SQLPowerUtils.escapeXML(uuid) + "\" index=\"" + index + "\">");
 		currentObject.push(uuid);
 		currentType.push(type);
+		objectCount++;
+		if (pm != null && bufferedOut == null) {
+			pm.setProgress(objectCount);
+		}
 	}
 
 	@Override
@@ -157,42 +288,110 @@ public class XMLPersister implements SPPersister {
 							+ currentObject.peek() + "]");
 		}
 		if (propertyType != DataType.NULL && newValue != null) {
-			out.print(tab() + "<property name=\"" + SQLPowerUtils.escapeNewLines(SQLPowerUtils.escapeXML(propertyName)) + "\" type=\"" + propertyType.toString() + "\"");
-			if (propertyType == DataType.PNG_IMG) {
-				try {
-					out.print(" value=\"");
-					ByteArrayOutputStream data = new ByteArrayOutputStream();
-					SQLPowerUtils.copyStream((InputStream) newValue, data);
-					byte[] bytes = data.toByteArray();
-					byte[] base64Bytes = Base64.encodeBase64(bytes);
-					out.print(new String(base64Bytes));
-					out.println("\"/>");
-				} catch (IOException e) {
-					throw new SPPersistenceException(uuid, e);
+			try {
+				out.write(tab() + "<property name=\"" + SQLPowerUtils.escapeNewLines(SQLPowerUtils.escapeXML(propertyName)) + "\" type=\"" + propertyType.toString() + "\"");
+				if (propertyType == DataType.PNG_IMG) {
+					out.write(" value=\"");
+					writeBase64((InputStream) newValue);
+					writeLine("\"/>");
+				} else {
+					writeLine(" value=\"" + SQLPowerUtils.escapeXML(newValue.toString()) + "\"/>");
 				}
-			} else {
-				out.println(" value=\"" + SQLPowerUtils.escapeXML(newValue.toString()) + "\"/>");
+			} catch (IOException e) {
+				throw new SPPersistenceException(uuid, e);
 			}
 		}
 	}
 
+	/**
+	 * Writes the contents of the given stream as Base64 a chunk at a time,
+	 * so large images are never held in memory whole.
+	 */
+	private void writeBase64(InputStream in) throws IOException {
+		byte[] chunk = new byte[IMAGE_CHUNK_SIZE];
+		int filled;
+		do {
+			filled = 0;
+			int read;
+			while (filled < chunk.length && (read = in.read(chunk, filled, chunk.length - filled)) != -1) {
+				filled += read;
+			}
+			if (filled > 0) {
+				byte[] toEncode = (filled == chunk.length) ? chunk : Arrays.copyOf(chunk, filled);
+				out.write(new String(Base64.encodeBase64(toEncode), UTF_8));
+			}
+		} while (filled == chunk.length);
+	}
+
 	@Override
 	public void removeObject(String parentUUID, String uuid)
 			throws SPPersistenceException {
 		throw new UnsupportedOperationException("This persister does not support incremental updates");
 	}
 
+	/**
+	 * Nothing written to an output stream can be taken back, but when saving
+	 * to a file the temporary file is discarded and the file is left as it
+	 * was.
+	 */
 	@Override
 	public void rollback() {
-		
+		if (tempFile != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// the temporary file is being discarded anyway
+			}
+			tempFile.delete();
+		}
+	}
+	
+	private void writeLine(String line) throws SPPersistenceException {
+		try {
+			out.write(line);
+			out.write(NEWLINE);
+		} catch (IOException e) {
+			throw new SPPersistenceException(null, e);
+		}
 	}
 	
 	private String tab() {
-		StringBuilder tab = new StringBuilder();
-		for (int i = 0; i <= currentObject.size(); i++) {
-			tab.append(" ");
+		int depth = currentObject.size();
+		while (tabs.size() <= depth) {
+			char[] tab = new char[tabs.size() + 1];
+			Arrays.fill(tab, ' ');
+			tabs.add(new String(tab));
+		}
+		return tabs.get(depth);
+	}
+
+	/**
+	 * Reports the progress of copying the in-memory XML to the output.
+	 */
+	private void bytesCopied(int bytes) {
+		progress += bytes;
+		if (pm != null) {
+			pm.setProgress(progress);
+		}
+	}
+
+	/**
+	 * A {@link ByteArrayOutputStream} that can copy its contents out in
+	 * chunks without first copying the whole buffer.
+	 */
+	private static class ChunkedByteArrayOutputStream extends ByteArrayOutputStream {
+		
+		public ChunkedByteArrayOutputStream() {
+			super(BUFFER_SIZE);
+		}
+		
+		synchronized void writeTo(OutputStream target, XMLPersister progress) throws IOException {
+			for (int offset = 0; offset < count; offset += BUFFER_SIZE) {
+				int length = Math.min(BUFFER_SIZE, count - offset);
+				target.write(buf, offset, length);
+				progress.bytesCopied(length);
+			}
 		}
-		return tab.toString();
 	}
 	
 }
@@ -4,10 +4,12 @@
 
 package ca.sqlpower.dao;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.FilterReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Stack;
 
 import org.apache.commons.codec.binary.Base64;
@@ -22,43 +24,116 @@ import ca.sqlpower.dao.SPPersister.DataType;
 import ca.sqlpower.dao.upgrade.UpgradePersisterManager;
 import ca.sqlpower.util.SQLPowerUtils;
 
+/**
+ * Reads a file written by an {@link XMLPersister} and sends the persist
+ * calls in it to a target persister. The file version is taken from the
+ * project element and files from older versions are sent through the upgrade
+ * persisters first.
+ * <p>
+ * By default all of the persist calls are made in one transaction. For large
+ * files {@link #setBatchSize(int)} can be used to commit each subtree under
+ * the root object as soon as it has been read, so the target does not have to
+ * hold every pending persist call at once. A batch is kept open while any
+ * object in it references an object that has not been read yet, so a file
+ * with many references forward across the root's children is committed in
+ * fewer, larger batches. In this mode only the batch being read is rolled
+ * back if the load fails.
+ */
 public class XMLPersisterReader {
 
 	private static final Logger logger = Logger
 			.getLogger(XMLPersisterReader.class);
 	
-	private final Reader in;
+	private final CountingReader in;
 	private final SPPersister target;
 	private SPPersister upgradeTarget;
 	private UpgradePersisterManager upgradePersisterManager;
 	
 	public final String PROJECT_TAG;
 
+	/**
+	 * The upgrade persister for the latest version and the persister it sent
+	 * persist calls to before being pointed at the target. These are needed
+	 * to restore the upgrade chain if reading fails.
+	 */
+	private SPUpgradePersister latest;
+	private SPPersister previousTarget;
+
+	/**
+	 * If greater than 0, a transaction is committed each time a child of the
+	 * root object ends and at least this many objects have been read since
+	 * the last commit.
+	 */
+	private int batchSize = 0;
+	
+	private int objectCount = 0;
+	
+	private int propertyCount = 0;
+	
+	private int batchCount = 0;
+	
+	private long startTime;
+	
+	private long endTime;
+
 	public XMLPersisterReader(Reader in, SPPersister target, UpgradePersisterManager upgradePersisterManager, String projectTag) {
-		this.in = in;
+		this.in = new CountingReader(in);
 		this.target = target;
 		this.upgradePersisterManager = upgradePersisterManager;
 		this.PROJECT_TAG = projectTag;
 	}
+
+	/**
+	 * Sets the number of objects to read before committing, see the class
+	 * comment. Batches are only committed between complete children of the
+	 * root object so no object is committed without its descendants, and
+	 * only once every object referenced so far has been read. A value of 0,
+	 * the default, loads everything in one transaction.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
 	
 	public void read() throws SPPersistenceException {
-		BufferedReader reader = new BufferedReader(in);
-		String line;
+		objectCount = 0;
+		propertyCount = 0;
+		batchCount = 0;
+		endTime = 0;
+		startTime = System.nanoTime();
 		try {
-			reader.mark(200);
-			line = reader.readLine();
-			while (!line.contains("<" + PROJECT_TAG)) {
-				line = reader.readLine();
+			SAXHandler handler = new SAXHandler();
+			SAXParser parser = new SAXParser();
+			parser.setContentHandler(handler);
+			parser.parse(new InputSource(in));
+			if (upgradeTarget == null) {
+				throw new SPPersistenceException(null, "The file does not contain a " + PROJECT_TAG + " element.");
+			}
+			upgradeTarget.commit();
+			batchCount++;
+		} catch (Exception e) {
+			if (latest != null) {
+				latest.setNextPersister(previousTarget, false);
+			}
+			logger.error("error loading project", e);
+			if (upgradeTarget != null) {
+				upgradeTarget.rollback();
 			}
-			reader.reset();
-		} catch (IOException e) {
+			if (e instanceof SPPersistenceException) throw (SPPersistenceException) e;
 			throw new SPPersistenceException(null, e);
+		} finally {
+			endTime = System.nanoTime();
 		}
-		
-		int version = Integer.valueOf(line.substring(line.indexOf("file-version=") + "file-version=\"".length(), line.length()-2));
-		
-		SPUpgradePersister latest = null;
-		SPPersister previousTarget = null;
+		if (logger.isDebugEnabled()) {
+			logger.debug("Read " + objectCount + " objects in " + batchCount + " batches at " + 
+					getObjectsPerSecond() + " objects/s and " + getCharactersPerSecond() + " characters/s");
+		}
+	}
+
+	/**
+	 * Picks the persister the file is read into based on the file version
+	 * and starts the first transaction.
+	 */
+	private void startReading(int version) throws SPPersistenceException {
 		upgradeTarget = target;
 		if (version != upgradePersisterManager.getStateVersion()) {
 			SPUpgradePersister newUpgradeTarget = upgradePersisterManager.getUpgradePersister(version);
@@ -73,22 +148,7 @@ public class XMLPersisterReader {
 				latest.setNextPersister(target, false);
 			}
 		}
-		
-		try {
-			upgradeTarget.begin();
-			SAXHandler handler = new SAXHandler();
-			SAXParser parser = new SAXParser();
-			parser.setContentHandler(handler);
-			parser.parse(new InputSource(reader));
-			upgradeTarget.commit();
-		} catch (Exception e) {
-			if (latest != null) {
-				latest.setNextPersister(previousTarget, false);
-			}
-			logger.error("error loading project", e);
-			upgradeTarget.rollback();
-			throw new SPPersistenceException(null, e);
-		}
+		upgradeTarget.begin();
 	}
 	
 	private Object castValue(DataType type, String value) {
@@ -104,7 +164,7 @@ public class XMLPersisterReader {
 		case NULL:
 			return null;
 		case PNG_IMG:
-			return new ByteArrayInputStream(Base64.decodeBase64(value.getBytes()));
+			return new ByteArrayInputStream(Base64.decodeBase64(value));
 		case STRING:
 		case REFERENCE:
 			return value;
@@ -113,9 +173,74 @@ public class XMLPersisterReader {
 		}
 	}
 	
+	/**
+	 * Returns the number of objects read by the last or current call to
+	 * {@link #read()}.
+	 */
+	public int getObjectCount() {
+		return objectCount;
+	}
+	
+	public int getPropertyCount() {
+		return propertyCount;
+	}
+
+	/**
+	 * Returns the number of transactions committed on the target.
+	 */
+	public int getBatchCount() {
+		return batchCount;
+	}
+	
+	public long getCharactersRead() {
+		return in.getCount();
+	}
+
+	/**
+	 * Returns the time spent in {@link #read()} in milliseconds, up to now if
+	 * reading is still in progress.
+	 */
+	public long getElapsedMillis() {
+		if (startTime == 0) return 0;
+		long end = (endTime == 0) ? System.nanoTime() : endTime;
+		return (end - startTime) / 1000000;
+	}
+	
+	public double getObjectsPerSecond() {
+		return perSecond(objectCount);
+	}
+	
+	public double getCharactersPerSecond() {
+		return perSecond(in.getCount());
+	}
+	
+	private double perSecond(long count) {
+		long millis = getElapsedMillis();
+		if (millis == 0) return 0;
+		return count * 1000.0 / millis;
+	}
+	
 	private class SAXHandler extends DefaultHandler {
 		
 		private Stack<String> currentObject = new Stack<String>();
+
+		/**
+		 * The number of objects read since the last commit.
+		 */
+		private int objectsInBatch = 0;
+
+		/**
+		 * The UUIDs of the objects read so far. Only kept when reading in
+		 * batches.
+		 */
+		private final Set<String> objectsRead = new HashSet<String>();
+
+		/**
+		 * The UUIDs of objects referenced by a property that have not been
+		 * read yet. The current batch is not committed until this is empty,
+		 * as the references could not be resolved in the target otherwise.
+		 */
+		private final Set<String> unreadReferences = new HashSet<String>();
 		
 		@Override
 		public void startElement(String uri, String localName, String qName,
@@ -125,15 +250,22 @@ public class XMLPersisterReader {
 					String name = attributes.getValue("name");
 					DataType type = DataType.valueOf(attributes.getValue("type"));
 					String value = attributes.getValue("value");
-					value = SQLPowerUtils.unEscapeNewLines(value);
+					if (value == null || value.indexOf('&') != -1) {
+						value = SQLPowerUtils.unEscapeNewLines(value);
+					}
 					upgradeTarget.persistProperty(currentObject.peek(), name, type, castValue(type, value));
+					propertyCount++;
+					if (batchSize > 0 && type == DataType.REFERENCE && value != null 
+							&& !objectsRead.contains(value)) {
+						unreadReferences.add(value);
+					}
 				} else if (PROJECT_TAG.equals(localName)) {
-					// ignore
+					startReading(Integer.parseInt(attributes.getValue("file-version")));
 				} else {
-					logger.debug("Reading element " + localName);
+					if (logger.isDebugEnabled()) logger.debug("Reading element " + localName);
 					String type = localName.replace("..", "$");
 					String UUID = attributes.getValue("UUID");
-					int index = Integer.valueOf(attributes.getValue("index"));
+					int index = Integer.parseInt(attributes.getValue("index"));
 
 					String parent;
 					if (currentObject.isEmpty()) {
@@ -143,6 +275,12 @@ public class XMLPersisterReader {
 					}
 					upgradeTarget.persistObject(parent, type, UUID, index);
 					currentObject.push(UUID);
+					objectCount++;
+					objectsInBatch++;
+					if (batchSize > 0) {
+						objectsRead.add(UUID);
+						unreadReferences.remove(UUID);
+					}
 				}
 			} catch (SPPersistenceException e) {
 				throw new RuntimeException(e);
@@ -156,9 +294,50 @@ public class XMLPersisterReader {
 				throws SAXException {
 			if (!"property".equals(localName) && !PROJECT_TAG.equals(localName)) {
 				currentObject.pop();
+				if (batchSize > 0 && currentObject.size() == 1 && objectsInBatch >= batchSize 
+						&& unreadReferences.isEmpty()) {
+					try {
+						upgradeTarget.commit();
+						batchCount++;
+						upgradeTarget.begin();
+					} catch (SPPersistenceException e) {
+						throw new RuntimeException(e);
+					}
+					objectsInBatch = 0;
+				}
 			}
 		}
 		
 	}
+
+	/**
+	 * Counts the characters passed to the parser for the load statistics.
+	 */
+	private static class CountingReader extends FilterReader {
+		
+		private long count = 0;
+		
+		public CountingReader(Reader in) {
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int c = super.read();
+			if (c != -1) count++;
+			return c;
+		}
+		
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			int read = super.read(cbuf, off, len);
+			if (read > 0) count += read;
+			return read;
+		}
+		
+		public long getCount() {
+			return count;
+		}
+	}
 	
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.dao.binary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentProducer;
+import org.apache.http.entity.EntityTemplate;
+
+import ca.sqlpower.dao.HttpMessageSender;
+import ca.sqlpower.dao.SPPersistenceException;
+import ca.sqlpower.enterprise.client.SPServerInfo;
+
+/**
+ * An {@link HttpMessageSender} implementation that sends the messages of a
+ * {@link SPBinaryPersister}. The messages are written straight into the body
+ * of the request with the {@link SPBinaryPersister#CONTENT_TYPE} content type
+ * so the server can tell them apart from JSON messages.
+ */
+public class BinaryHttpMessageSender extends HttpMessageSender<byte[]> {
+	
+	private final List<byte[]> messages = new ArrayList<byte[]>();
+	
+	public BinaryHttpMessageSender(HttpClient httpClient, SPServerInfo serverInfo,
+			String rootUUID) {
+		super(httpClient, serverInfo, rootUUID);
+	}
+
+	public void send(byte[] content) throws SPPersistenceException {
+		messages.add(content);
+	}
+	
+	public void flush() throws SPPersistenceException {
+		try {
+			URI serverURI = getServerURI();
+			HttpPost postRequest = new HttpPost(serverURI);
+			final List<byte[]> messagesToSend = new ArrayList<byte[]>(messages);
+			EntityTemplate entity = new EntityTemplate(new ContentProducer() {
+				public void writeTo(OutputStream out) throws IOException {
+					for (byte[] message : messagesToSend) {
+						out.write(message);
+					}
+					out.flush();
+				}
+			});
+			entity.setContentType(SPBinaryPersister.CONTENT_TYPE);
+			postRequest.setEntity(entity);
+			postRequest.setHeader("Accept", SPBinaryPersister.CONTENT_TYPE + ", application/json");
+	        getHttpClient().execute(postRequest, new ResponseHandler<Void>() {
+				public Void handleResponse(HttpResponse response)
+						throws ClientProtocolException, IOException {
+					StatusLine statusLine = response.getStatusLine();
+					if (statusLine.getStatusCode() >= 400) {
+						throw new ClientProtocolException( 
+								"HTTP Post request returned an error: " +
+								"Code = " + statusLine.getStatusCode() + ", " +
+								"Reason = " + statusLine.getReasonPhrase());
+					}
+					return null;
+				}
+	        });
+		} catch (URISyntaxException e) {
+			throw new SPPersistenceException(null, e);
+		} catch (ClientProtocolException e) {
+			throw new SPPersistenceException(null, e);
+		} catch (IOException e) {
+			throw new SPPersistenceException(null, e);
+		} finally {
+			clear();
+		}
+	}
+	
+	public void clear() {
+		messages.clear();
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.dao.binary;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import ca.sqlpower.dao.SPPersister;
+
+/**
+ * The constants and primitive encodings shared by {@link SPBinaryPersister}
+ * and {@link SPBinaryMessageDecoder}.
+ * <p>
+ * A binary message starts with the {@link #MAGIC} bytes and a
+ * {@link #VERSION} byte, followed by one record per {@link SPPersister} call
+ * and an {@link #END} byte. Each record is a method byte followed by the
+ * arguments of the call. UUIDs, property names, type names and reference
+ * values are written as strings through a string table that is local to the
+ * message: the first time a string appears it is written out in full and
+ * every later time only its position in the table is written. Counts and
+ * indices are written as variable length integers. A stream may hold several
+ * messages one after the other.
+ */
+final class SPBinaryFormat {
+	
+	/**
+	 * The bytes every binary message starts with.
+	 */
+	static final byte[] MAGIC = {'S', 'P', 'B'};
+	
+	/**
+	 * The version of the format described here. This must be incremented if
+	 * the meaning of any of the bytes changes.
+	 */
+	static final int VERSION = 1;
+	
+	static final int END = 0;
+	static final int BEGIN = 1;
+	static final int COMMIT = 2;
+	static final int ROLLBACK = 3;
+	static final int PERSIST_OBJECT = 4;
+	static final int PERSIST_PROPERTY = 5;
+	static final int CHANGE_PROPERTY = 6;
+	static final int REMOVE_OBJECT = 7;
+	
+	/**
+	 * A string reference with this value is a null string.
+	 */
+	static final int NULL_STRING = 0;
+	
+	/**
+	 * A string reference with this value is followed by a string that has not
+	 * been written in this message before. The string is added to the end of
+	 * the string table. All other string references are an index into the
+	 * string table offset by {@link #FIRST_TABLE_INDEX}.
+	 */
+	static final int NEW_STRING = 1;
+	
+	static final int FIRST_TABLE_INDEX = 2;
+	
+	private SPBinaryFormat() {
+		//static methods only
+	}
+
+	/**
+	 * Writes an unsigned variable length integer. Seven bits are written per
+	 * byte starting with the lowest bits and the high bit of each byte is set
+	 * if more bytes follow.
+	 */
+	static void writeVarLong(DataOutput out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+	
+	static long readVarLong(DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Variable length integer is too long");
+	}
+	
+	static void writeVarInt(DataOutput out, int value) throws IOException {
+		writeVarLong(out, value & 0xFFFFFFFFL);
+	}
+	
+	static int readVarInt(DataInput in) throws IOException {
+		return (int) readVarLong(in);
+	}
+
+	/**
+	 * Writes a signed value so small negative numbers take as few bytes as
+	 * small positive numbers.
+	 */
+	static void writeSignedVarLong(DataOutput out, long value) throws IOException {
+		writeVarLong(out, (value << 1) ^ (value >> 63));
+	}
+	
+	static long readSignedVarLong(DataInput in) throws IOException {
+		long value = readVarLong(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	/**
+	 * Writes the length of the given bytes followed by the bytes.
+	 */
+	static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+		writeVarInt(out, bytes.length);
+		out.write(bytes);
+	}
+	
+	static byte[] readBytes(DataInput in) throws IOException {
+		int length = readVarInt(in);
+		if (length < 0) throw new IOException("Invalid length " + length);
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+	
+}
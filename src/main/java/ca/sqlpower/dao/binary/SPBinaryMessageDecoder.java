@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.dao.binary;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.apache.log4j.Logger;
+
+import ca.sqlpower.dao.MessageDecoder;
+import ca.sqlpower.dao.SPPersistenceException;
+import ca.sqlpower.dao.SPPersister;
+import ca.sqlpower.dao.SPPersister.DataType;
+
+/**
+ * An implementation of {@link MessageDecoder} that reads messages written by
+ * a {@link SPBinaryPersister} from a stream and makes the same method calls
+ * on the {@link SPPersister} provided in the constructor. Each call is made as
+ * soon as it is read so the stream, typically the content of an HTTP entity,
+ * never has to be held in memory.
+ */
+public class SPBinaryMessageDecoder implements MessageDecoder<InputStream> {
+
+	private static final Logger logger = Logger.getLogger(SPBinaryMessageDecoder.class);
+	
+	/**
+	 * A {@link SPPersister} that the decoder will make method calls on
+	 */
+	private final SPPersister persister;
+
+	/**
+	 * Creates a decoder that will make the persist calls in the messages it
+	 * decodes on the given {@link SPPersister}.
+	 */
+	public SPBinaryMessageDecoder(@Nonnull SPPersister persister) {
+		this.persister = persister;
+	}
+
+	/**
+	 * Returns true if content of the given content type should be decoded by
+	 * this class instead of as JSON. Parameters such as a character set are
+	 * ignored.
+	 */
+	public static boolean isBinaryContentType(String contentType) {
+		if (contentType == null) return false;
+		int parameterStart = contentType.indexOf(';');
+		if (parameterStart != -1) {
+			contentType = contentType.substring(0, parameterStart);
+		}
+		return contentType.trim().equalsIgnoreCase(SPBinaryPersister.CONTENT_TYPE);
+	}
+
+	/**
+	 * Decodes the messages in the given bytes.
+	 * 
+	 * @see #decode(InputStream)
+	 */
+	public void decode(@Nonnull byte[] message) throws SPPersistenceException {
+		decode(new ByteArrayInputStream(message));
+	}
+
+	/**
+	 * Reads every message in the given stream and makes the persist calls in
+	 * them until the end of the stream is reached. The stream is not closed.
+	 */
+	public void decode(@Nonnull InputStream message) throws SPPersistenceException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(message));
+		String uuid = null;
+		try {
+			synchronized (persister) {
+				while (readHeader(in)) {
+					List<String> stringTable = new ArrayList<String>();
+					int method;
+					while ((method = in.readUnsignedByte()) != SPBinaryFormat.END) {
+						uuid = decodeCall(in, method, stringTable);
+					}
+				}
+			}
+		} catch (IOException e) {
+			logger.error("Error decoding binary message", e);
+			throw new SPPersistenceException(uuid, e);
+		}
+	}
+
+	/**
+	 * Reads the start of a message. Returns false if the stream has ended
+	 * before a new message.
+	 */
+	private boolean readHeader(DataInputStream in) throws IOException {
+		int first = in.read();
+		if (first == -1) return false;
+		byte[] magic = new byte[SPBinaryFormat.MAGIC.length];
+		magic[0] = (byte) first;
+		in.readFully(magic, 1, magic.length - 1);
+		if (!Arrays.equals(magic, SPBinaryFormat.MAGIC)) {
+			throw new IOException("The stream does not contain a binary persist message");
+		}
+		int version = in.readUnsignedByte();
+		if (version != SPBinaryFormat.VERSION) {
+			throw new IOException("Unsupported binary persist message version " + version);
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the arguments of a single persist call and makes the call on the
+	 * persister.
+	 * 
+	 * @return The UUID the call was made on, or null if the call does not
+	 *         refer to an object.
+	 */
+	private String decodeCall(DataInputStream in, int method, List<String> stringTable) 
+			throws IOException, SPPersistenceException {
+		String parentUUID;
+		String uuid;
+		String propertyName;
+		DataType propertyType;
+		Object newValue;
+		switch (method) {
+		case SPBinaryFormat.BEGIN:
+			persister.begin();
+			return null;
+		case SPBinaryFormat.COMMIT:
+			persister.commit();
+			return null;
+		case SPBinaryFormat.ROLLBACK:
+			persister.rollback();
+			return null;
+		case SPBinaryFormat.PERSIST_OBJECT:
+			parentUUID = readString(in, stringTable);
+			String type = readString(in, stringTable);
+			uuid = readString(in, stringTable);
+			int index = SPBinaryFormat.readVarInt(in);
+			persister.persistObject(parentUUID, type, uuid, index);
+			return uuid;
+		case SPBinaryFormat.PERSIST_PROPERTY:
+			uuid = readString(in, stringTable);
+			propertyName = readString(in, stringTable);
+			propertyType = readDataType(in, stringTable);
+			newValue = readValue(in, propertyType, stringTable);
+			persister.persistProperty(uuid, propertyName, propertyType, newValue);
+			return uuid;
+		case SPBinaryFormat.CHANGE_PROPERTY:
+			uuid = readString(in, stringTable);
+			propertyName = readString(in, stringTable);
+			propertyType = readDataType(in, stringTable);
+			Object oldValue = readValue(in, propertyType, stringTable);
+			newValue = readValue(in, propertyType, stringTable);
+			persister.persistProperty(uuid, propertyName, propertyType, oldValue, newValue);
+			return uuid;
+		case SPBinaryFormat.REMOVE_OBJECT:
+			parentUUID = readString(in, stringTable);
+			uuid = readString(in, stringTable);
+			persister.removeObject(parentUUID, uuid);
+			return uuid;
+		default:
+			throw new IOException("Unknown persist method " + method);
+		}
+	}
+
+	/**
+	 * Reads a string reference and resolves it against the string table of
+	 * the current message.
+	 */
+	private String readString(DataInputStream in, List<String> stringTable) throws IOException {
+		int reference = SPBinaryFormat.readVarInt(in);
+		if (reference == SPBinaryFormat.NULL_STRING) {
+			return null;
+		} else if (reference == SPBinaryFormat.NEW_STRING) {
+			String s = new String(SPBinaryFormat.readBytes(in), "UTF-8");
+			stringTable.add(s);
+			return s;
+		}
+		int position = reference - SPBinaryFormat.FIRST_TABLE_INDEX;
+		if (position < 0 || position >= stringTable.size()) {
+			throw new IOException("Invalid string reference " + reference);
+		}
+		return stringTable.get(position);
+	}
+	
+	private DataType readDataType(DataInputStream in, List<String> stringTable) throws IOException {
+		String name = readString(in, stringTable);
+		try {
+			return DataType.valueOf(name);
+		} catch (RuntimeException e) {
+			throw new IOException("Unknown data type " + name);
+		}
+	}
+	
+	private Object readValue(DataInputStream in, DataType type, List<String> stringTable) 
+			throws IOException {
+		if (in.readUnsignedByte() == 0) return null;
+		switch (type) {
+		case BOOLEAN:
+			return Boolean.valueOf(in.readBoolean());
+		case DOUBLE:
+			return Double.valueOf(in.readDouble());
+		case FLOAT:
+			return Float.valueOf(in.readFloat());
+		case INTEGER:
+			return Integer.valueOf((int) SPBinaryFormat.readSignedVarLong(in));
+		case SHORT:
+			return Short.valueOf((short) SPBinaryFormat.readSignedVarLong(in));
+		case LONG:
+			return Long.valueOf(SPBinaryFormat.readSignedVarLong(in));
+		case REFERENCE:
+			return readString(in, stringTable);
+		case PNG_IMG:
+		case BLOB:
+			return new ByteArrayInputStream(SPBinaryFormat.readBytes(in));
+		case STRING:
+		default:
+			return new String(SPBinaryFormat.readBytes(in), "UTF-8");
+		}
+	}
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.dao.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import ca.sqlpower.dao.MessageSender;
+import ca.sqlpower.dao.SPPersistenceException;
+import ca.sqlpower.dao.SPPersister;
+import ca.sqlpower.dao.json.SPJSONPersister;
+import ca.sqlpower.util.SQLPowerUtils;
+
+/**
+ * A {@link SPPersister} implementation that serializes {@link SPPersister}
+ * method calls in a compact binary form and transmits them to a destination
+ * using a {@link MessageSender}. This is an alternative to the
+ * {@link SPJSONPersister} for large workspaces where encoding every call as
+ * JSON text is too slow. The calls of each outermost transaction are sent as
+ * a single message that can be read back with a {@link SPBinaryMessageDecoder}.
+ * See {@link SPBinaryFormat} for the layout of the messages.
+ */
+public class SPBinaryPersister implements SPPersister {
+	
+	/**
+	 * The content type of messages in this format when they are sent over
+	 * HTTP. Messages sent as "application/json" are still expected to be in
+	 * the {@link SPJSONPersister} format.
+	 */
+	public static final String CONTENT_TYPE = "application/x-sqlpower-persist";
+
+	private static final Logger logger = Logger.getLogger(SPBinaryPersister.class);
+	
+	/**
+	 * A count of transactions, mainly to keep track of nested transactions.
+	 */
+	private int transactionCount = 0;
+	
+	/**
+	 * A MessagePasser object that is responsible for transmitting the
+	 * encoded messages.
+	 */
+	private final MessageSender<byte[]> messageSender;
+
+	/**
+	 * Holds the message of the current transaction as it is encoded.
+	 */
+	private final ByteArrayOutputStream messageBuffer = new ByteArrayOutputStream();
+	
+	private final DataOutputStream out = new DataOutputStream(messageBuffer);
+
+	/**
+	 * The position of every string written in the current message in the
+	 * message's string table.
+	 */
+	private final Map<String, Integer> stringTable = new HashMap<String, Integer>();
+	
+	/**
+	 * Create a {@link SPBinaryPersister} that uses the given
+	 * {@link MessageSender} to transmit the encoded messages.
+	 */
+	public SPBinaryPersister(MessageSender<byte[]> messageSender) {
+		this.messageSender = messageSender;
+	}
+	
+	public void begin() throws SPPersistenceException {
+		try {
+			if (transactionCount == 0) {
+				resetMessage();
+				out.write(SPBinaryFormat.MAGIC);
+				out.writeByte(SPBinaryFormat.VERSION);
+			}
+			out.writeByte(SPBinaryFormat.BEGIN);
+		} catch (IOException e) {
+			logger.error("Exception encountered while encoding message. Rollback initiated.", e);
+			rollback();
+			throw new SPPersistenceException(null, e);
+		}
+		transactionCount++;
+	}
+
+	public void commit() throws SPPersistenceException {
+		if (transactionCount == 0) {
+			throw new SPPersistenceException(null, "Commit attempted while not in a transaction");
+		}
+		try {
+			out.writeByte(SPBinaryFormat.COMMIT);
+			if (transactionCount == 1) {
+				out.writeByte(SPBinaryFormat.END);
+				out.flush();
+				messageSender.send(messageBuffer.toByteArray());
+				resetMessage();
+				messageSender.flush();
+				transactionCount = 0;
+			} else {
+				transactionCount--;
+			}
+		} catch (Throwable t) {
+			logger.error("Exception encountered while sending message. Rollback initiated.", t);
+			rollback();
+			if (t instanceof SPPersistenceException) {
+				throw (SPPersistenceException) t;
+			} else if (t instanceof RuntimeException) {
+				throw (RuntimeException) t;
+			} else {
+				throw new RuntimeException(t);
+			}
+		}
+	}
+
+	public void persistObject(String parentUUID, String type, String uuid, int index)
+			throws SPPersistenceException {
+		checkInTransaction();
+		try {
+			out.writeByte(SPBinaryFormat.PERSIST_OBJECT);
+			writeString(parentUUID);
+			writeString(type);
+			writeString(uuid);
+			SPBinaryFormat.writeVarInt(out, index);
+		} catch (IOException e) {
+			logger.error(e);
+			rollback();
+			throw new SPPersistenceException(uuid, e);
+		}
+	}
+
+	public void persistProperty(String uuid, String propertyName, DataType type,
+			Object oldValue, Object newValue) throws SPPersistenceException {
+		checkInTransaction();
+		try {
+			out.writeByte(SPBinaryFormat.CHANGE_PROPERTY);
+			writeString(uuid);
+			writeString(propertyName);
+			writeString(type.name());
+			writeValue(type, oldValue);
+			writeValue(type, newValue);
+		} catch (IOException e) {
+			logger.error(e);
+			rollback();
+			throw new SPPersistenceException(uuid, e);
+		} catch (ClassCastException e) {
+			logger.error(e);
+			rollback();
+			throw new SPPersistenceException(uuid, e);
+		}
+	}
+
+	public void persistProperty(String uuid, String propertyName, DataType type, 
+			Object newValue) throws SPPersistenceException {
+		checkInTransaction();
+		try {
+			out.writeByte(SPBinaryFormat.PERSIST_PROPERTY);
+			writeString(uuid);
+			writeString(propertyName);
+			writeString(type.name());
+			writeValue(type, newValue);
+		} catch (IOException e) {
+			logger.error(e);
+			rollback();
+			throw new SPPersistenceException(uuid, e);
+		} catch (ClassCastException e) {
+			logger.error(e);
+			rollback();
+			throw new SPPersistenceException(uuid, e);
+		}
+	}
+
+	public void removeObject(String parentUUID, String uuid) throws SPPersistenceException {
+		checkInTransaction();
+		try {
+			out.writeByte(SPBinaryFormat.REMOVE_OBJECT);
+			writeString(parentUUID);
+			writeString(uuid);
+		} catch (IOException e) {
+			logger.error(e);
+			rollback();
+			throw new SPPersistenceException(uuid, e);
+		}
+	}
+
+	public void rollback() {
+		resetMessage();
+		messageSender.clear();
+		transactionCount = 0;
+	}
+	
+	public MessageSender<byte[]> getMessageSender() {
+		return messageSender;
+	}
+	
+	private void checkInTransaction() throws SPPersistenceException {
+		if (transactionCount == 0) {
+			throw new SPPersistenceException("Operation attempted while not in a transaction.");
+		}
+	}
+	
+	private void resetMessage() {
+		messageBuffer.reset();
+		stringTable.clear();
+	}
+
+	/**
+	 * Writes the given string as a reference into the string table of the
+	 * current message, adding the string to the table if it is not already
+	 * there.
+	 */
+	private void writeString(String s) throws IOException {
+		if (s == null) {
+			SPBinaryFormat.writeVarInt(out, SPBinaryFormat.NULL_STRING);
+			return;
+		}
+		Integer position = stringTable.get(s);
+		if (position != null) {
+			SPBinaryFormat.writeVarInt(out, position + SPBinaryFormat.FIRST_TABLE_INDEX);
+		} else {
+			stringTable.put(s, stringTable.size());
+			SPBinaryFormat.writeVarInt(out, SPBinaryFormat.NEW_STRING);
+			SPBinaryFormat.writeBytes(out, s.getBytes("UTF-8"));
+		}
+	}
+
+	/**
+	 * Writes a property value in the representation of its {@link DataType}.
+	 * Every value starts with a byte that is 0 if the value is null, in which
+	 * case nothing else is written.
+	 */
+	private void writeValue(DataType type, Object value) throws IOException {
+		if (value == null || type == DataType.NULL) {
+			out.writeByte(0);
+			return;
+		}
+		out.writeByte(1);
+		switch (type) {
+		case BOOLEAN:
+			out.writeBoolean((Boolean) value);
+			break;
+		case DOUBLE:
+			out.writeDouble(((Number) value).doubleValue());
+			break;
+		case FLOAT:
+			out.writeFloat(((Number) value).floatValue());
+			break;
+		case INTEGER:
+		case SHORT:
+		case LONG:
+			SPBinaryFormat.writeSignedVarLong(out, ((Number) value).longValue());
+			break;
+		case REFERENCE:
+			writeString((String) value);
+			break;
+		case PNG_IMG:
+		case BLOB:
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			SQLPowerUtils.copyStream((InputStream) value, bytes);
+			SPBinaryFormat.writeBytes(out, bytes.toByteArray());
+			break;
+		case STRING:
+		default:
+			SPBinaryFormat.writeBytes(out, value.toString().getBytes("UTF-8"));
+		}
+	}
+}
@@ -19,16 +19,42 @@
 
 package ca.sqlpower.dao.helper;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import ca.sqlpower.dao.PersistedSPOProperty;
 import ca.sqlpower.dao.PersistedSPObject;
+import ca.sqlpower.dao.SPPersistenceException;
 import ca.sqlpower.object.SPObject;
 
 import com.google.common.collect.Multimap;
 
 public abstract class AbstractSPPersisterHelper<T extends SPObject> implements SPPersisterHelper<T> {
 
+	/**
+	 * The {@link #getPersistedProperties()} of this helper in a set so
+	 * {@link #isPersistedProperty(String)} does not have to search the list.
+	 * The set is only assigned once it is complete as helpers are shared
+	 * between threads.
+	 */
+	private volatile Set<String> persistedPropertySet = null;
+
+	/**
+	 * Returns true if the given property is one of the
+	 * {@link #getPersistedProperties()}. This is checked on every property
+	 * change, so the properties are kept in a set instead of searching the
+	 * list each time.
+	 */
+	public boolean isPersistedProperty(String propertyName) throws SPPersistenceException {
+		Set<String> properties = persistedPropertySet;
+		if (properties == null) {
+			properties = new HashSet<String>(getPersistedProperties());
+			persistedPropertySet = properties;
+		}
+		return properties.contains(propertyName);
+	}
+
 	/**
 	 * Returns a simple string for use in exceptions from
 	 * {@link SPPersisterHelper#commitProperty(SPObject, String, Object)} and
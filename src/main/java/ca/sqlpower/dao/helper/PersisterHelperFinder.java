@@ -19,8 +19,8 @@
 
 package ca.sqlpower.dao.helper;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import ca.sqlpower.object.SPObject;
 
@@ -40,12 +40,49 @@ public class PersisterHelperFinder {
 	 * The persister helpers won't change at runtime and there is a limited
 	 * number of them, one per SPObject class, so this cache can help speed up
 	 * performance, with little memory consumption, for large object trees.
+	 * Helpers hold no state so one instance is shared by all threads. The
+	 * helpers are keyed by their own class name so the lookups by class and by
+	 * type name share one instance.
 	 */
-	private static final Map<Class<? extends SPObject>,  SPPersisterHelper<? extends SPObject>> cache = 
-			new HashMap<Class<? extends SPObject>, SPPersisterHelper<? extends SPObject>>();
+	private static final ConcurrentMap<String,  SPPersisterHelper<? extends SPObject>> helpers = 
+			new ConcurrentHashMap<String, SPPersisterHelper<? extends SPObject>>();
+	
+	/**
+	 * The helpers in {@link #helpers} by the class they persist, to avoid
+	 * building the helper class name on each lookup.
+	 */
+	private static final ConcurrentMap<Class<? extends SPObject>,  SPPersisterHelper<? extends SPObject>> cache = 
+			new ConcurrentHashMap<Class<? extends SPObject>, SPPersisterHelper<? extends SPObject>>();
+
+	/**
+	 * The same helpers as {@link #cache} keyed by the fully qualified name of
+	 * the class they persist, for the persist calls that only know the type
+	 * name.
+	 */
+	private static final ConcurrentMap<String,  SPPersisterHelper<? extends SPObject>> cacheByName = 
+			new ConcurrentHashMap<String, SPPersisterHelper<? extends SPObject>>();
+
+	/**
+	 * Registers the helper to use for the given class, instead of loading one
+	 * from the generated package the first time the class is looked up. If a
+	 * helper has already been found for the class, that helper is kept.
+	 * 
+	 * @return The helper that will be returned for the class.
+	 */
+	public static <T extends SPObject> SPPersisterHelper<? extends SPObject> register(
+			Class<T> persistClass, SPPersisterHelper<T> helper) {
+		SPPersisterHelper<? extends SPObject> registered = 
+			helpers.putIfAbsent(getPersisterHelperClassName(persistClass.getName()), helper);
+		if (registered == null) {
+			registered = helper;
+		}
+		cache.putIfAbsent(persistClass, registered);
+		cacheByName.putIfAbsent(persistClass.getName(), registered);
+		return registered;
+	}
 
 	/**
-	 * Returns a new instance of the persister helper for the given class. At
+	 * Returns the shared instance of the persister helper for the given class. At
 	 * current all persisters are located in the
 	 * ca.sqlpower.dao.helper.generated package but this will change.
 	 * 
@@ -64,12 +101,12 @@ public class PersisterHelperFinder {
 	 *             Thrown if the default constructor is not visible for the
 	 *             persister helper.
 	 */
-	@SuppressWarnings("unchecked")
 	public static SPPersisterHelper<? extends SPObject> findPersister(
 			Class<? extends SPObject> persistClass) 
 			throws ClassNotFoundException, InstantiationException, IllegalAccessException {
-		if (cache.get(persistClass) != null) {
-			return cache.get(persistClass);
+		SPPersisterHelper<? extends SPObject> cachedPersister = cache.get(persistClass);
+		if (cachedPersister != null) {
+			return cachedPersister;
 		}
 		String className;
 		if (persistClass.getSimpleName().indexOf("$") == -1) {
@@ -78,14 +115,13 @@ public class PersisterHelperFinder {
 			className = persistClass.getSimpleName().substring(persistClass.getSimpleName().lastIndexOf("$") + 1);
 		}
 		String persisterClassName = persistClass.getPackage().getName() + "." + GENERATED_PACKAGE_NAME + "." + className + "PersisterHelper";
-		Class<?> persisterClass = PersisterHelperFinder.class.getClassLoader().loadClass(persisterClassName);
-		SPPersisterHelper<? extends SPObject> newPersister = (SPPersisterHelper<? extends SPObject>) persisterClass.newInstance();
-		cache.put(persistClass, newPersister);
-		return newPersister;
+		SPPersisterHelper<? extends SPObject> newPersister = getHelper(persisterClassName);
+		cachedPersister = cache.putIfAbsent(persistClass, newPersister);
+		return cachedPersister != null ? cachedPersister : newPersister;
 	}
 	
 	/**
-	 * Returns a new instance of the persister helper for the given class. At
+	 * Returns the shared instance of the persister helper for the given class. At
 	 * current all persisters are located in the
 	 * ca.sqlpower.dao.helper.generated package but this will change.
 	 * 
@@ -104,12 +140,34 @@ public class PersisterHelperFinder {
 	 *             Thrown if the default constructor is not visible for the
 	 *             persister helper.
 	 */
-	@SuppressWarnings("unchecked")
 	public static SPPersisterHelper<? extends SPObject> findPersister(
 			String type) throws ClassNotFoundException, InstantiationException, IllegalAccessException {
-		String persisterClassName = getPersisterHelperClassName(type);
+		SPPersisterHelper<? extends SPObject> cachedPersister = cacheByName.get(type);
+		if (cachedPersister != null) {
+			return cachedPersister;
+		}
+		SPPersisterHelper<? extends SPObject> newPersister = getHelper(getPersisterHelperClassName(type));
+		cachedPersister = cacheByName.putIfAbsent(type, newPersister);
+		return cachedPersister != null ? cachedPersister : newPersister;
+	}
+
+	/**
+	 * Returns the shared instance of the persister helper with the given class
+	 * name, loading and instantiating it if no helper of that class has been
+	 * used yet. If several threads load the same helper at once only one of
+	 * the instances is kept and returned to all of them.
+	 */
+	@SuppressWarnings("unchecked")
+	private static SPPersisterHelper<? extends SPObject> getHelper(String persisterClassName) 
+			throws ClassNotFoundException, InstantiationException, IllegalAccessException {
+		SPPersisterHelper<? extends SPObject> helper = helpers.get(persisterClassName);
+		if (helper != null) {
+			return helper;
+		}
 		Class<?> persisterClass = PersisterHelperFinder.class.getClassLoader().loadClass(persisterClassName);
-		return (SPPersisterHelper<? extends SPObject>) persisterClass.newInstance();
+		SPPersisterHelper<? extends SPObject> newHelper = (SPPersisterHelper<? extends SPObject>) persisterClass.newInstance();
+		helper = helpers.putIfAbsent(persisterClassName, newHelper);
+		return helper != null ? helper : newHelper;
 	}
 	
 	/**
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.dao.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.http.client.HttpClient;
+import org.json.JSONObject;
+
+import ca.sqlpower.dao.StreamingHttpMessageSender;
+import ca.sqlpower.enterprise.client.SPServerInfo;
+
+/**
+ * A {@link StreamingHttpMessageSender} that sends its messages as the same
+ * JSON array the {@link JSONHttpMessageSender} sends, without building the
+ * array in memory first.
+ */
+public class StreamingJSONHttpMessageSender extends StreamingHttpMessageSender<JSONObject> {
+
+	public StreamingJSONHttpMessageSender(HttpClient httpClient, SPServerInfo serverInfo,
+			String rootUUID) {
+		super(httpClient, serverInfo, rootUUID);
+	}
+	
+	public StreamingJSONHttpMessageSender(HttpClient httpClient, SPServerInfo serverInfo,
+			String rootUUID, int chunkSize, int maxQueuedChunks) {
+		super(httpClient, serverInfo, rootUUID, chunkSize, maxQueuedChunks);
+	}
+
+	@Override
+	protected String getContentType() {
+		return "application/json; charset=UTF-8";
+	}
+	
+	@Override
+	protected void writeStart(OutputStream out) throws IOException {
+		out.write('[');
+	}
+	
+	@Override
+	protected void writeMessage(JSONObject content, int index, OutputStream out)
+			throws IOException {
+		if (index > 0) {
+			out.write(',');
+		}
+		out.write(content.toString().getBytes("UTF-8"));
+	}
+	
+	@Override
+	protected void writeEnd(OutputStream out) throws IOException {
+		out.write(']');
+	}
+}
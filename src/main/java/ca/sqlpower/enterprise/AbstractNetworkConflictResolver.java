@@ -19,7 +19,9 @@
 
 package ca.sqlpower.enterprise;
 
+import java.io.IOException;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -31,6 +33,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
@@ -39,6 +42,7 @@ import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.StringEntity;
 import org.apache.log4j.Logger;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 import org.springframework.security.AccessDeniedException;
@@ -241,7 +245,67 @@ public abstract class AbstractNetworkConflictResolver extends Thread {
     protected int currentRevision = 0;
     protected long serverTimestamp = 0;
     
+    /**
+     * The time to wait before contacting the server again after the first
+     * failure. The wait doubles after each further failure in a row, up to
+     * {@link #maxRetryDelay}.
+     */
     protected long retryDelay = 1000;
+    
+    /**
+     * The longest time to wait before contacting the server again after a
+     * failure.
+     */
+    protected long maxRetryDelay = 60000;
+    
+    /**
+     * The time waited after the last failure, or 0 if the last attempt to
+     * contact the server succeeded.
+     */
+    private long currentRetryDelay = 0;
+
+    /**
+     * True if updates should be streamed from the server over a long-lived
+     * request. This is turned off if the server does not stream updates, in
+     * which case the server is asked for each update in turn.
+     */
+    protected volatile boolean streamingUpdates = true;
+
+    /**
+     * The stream of updates being read, if any. Kept so that interrupting
+     * this thread can end the request it is blocked on.
+     */
+    private volatile ServerUpdateStream updateStream;
+
+    /**
+     * Set in the foreground when a streamed update could not be applied
+     * because changes were being sent to the server. The stream is then
+     * reopened from the revision the client is at.
+     */
+    private volatile boolean resyncNeeded = false;
+    
+    /**
+     * The number of updates from the server applied to the workspace.
+     */
+    private final AtomicLong updatesApplied = new AtomicLong();
+    
+    /**
+     * The total time, in nanoseconds, between each applied update arriving
+     * and finishing being applied.
+     */
+    private final AtomicLong totalUpdateLatency = new AtomicLong();
+    
+    /**
+     * The longest time, in nanoseconds, any applied update took between
+     * arriving and finishing being applied.
+     */
+    private final AtomicLong maxUpdateLatency = new AtomicLong();
+    
+    /**
+     * The time, in nanoseconds, the last applied update took between arriving
+     * and finishing being applied.
+     */
+    private volatile long lastUpdateLatency;
 
     /**
      * This double will store and be updated with the average wait time for each
@@ -370,6 +434,25 @@ public abstract class AbstractNetworkConflictResolver extends Thread {
      * @throws SPPersistenceException
      */
     protected void decodeMessage(JSONTokener tokener, int newRevision, long timestamp) {
+        decodeMessage(tokener, null, newRevision, timestamp);
+    }
+
+    /**
+     * Applies an update whose persist calls have already been parsed.
+     * 
+     * @param persistCalls
+     *            The persister calls of the update.
+     * @param newRevision
+     *            The new revision number.
+     */
+    protected void decodeMessage(JSONArray persistCalls, int newRevision, long timestamp) {
+        decodeMessage(null, persistCalls, newRevision, timestamp);
+    }
+
+    /**
+     * Applies an update given either as a tokener or as parsed persist calls.
+     */
+    private void decodeMessage(JSONTokener tokener, JSONArray persistCalls, int newRevision, long timestamp) {
         try {
             if (currentRevision < newRevision) {
                 List<UpdateListener> updateListenersCopy = new ArrayList<UpdateListener>(updateListeners);
@@ -377,7 +460,11 @@ public abstract class AbstractNetworkConflictResolver extends Thread {
                     listener.preUpdatePerformed(AbstractNetworkConflictResolver.this);
                 }
                 // Now we can apply the update ...
-                jsonDecoder.decode(tokener);
+                if (tokener != null) {
+                    jsonDecoder.decode(tokener);
+                } else {
+                    jsonDecoder.decode(persistCalls);
+                }
                 currentRevision = newRevision;
                 serverTimestamp = timestamp;
                 
@@ -411,6 +498,10 @@ public abstract class AbstractNetworkConflictResolver extends Thread {
     public void interrupt() {
         super.interrupt();
         cancelled = true;
+        ServerUpdateStream stream = updateStream;
+        if (stream != null) {
+            stream.close();
+        }
     }
     
     @Override
@@ -418,103 +509,14 @@ public abstract class AbstractNetworkConflictResolver extends Thread {
         try {
             while (!this.isInterrupted() && !cancelled) {
                try { 
-                   
-                   while (updating) { // this should wait for persisting to server as well.
-                       synchronized (this) {
-                           wait();
-                       }
-                   }                   
-                   updating = true;                   
-                   // Request an update from the server using the current revision number.                   
-                   JSONMessage message = getJsonArray(inboundHttpClient);
-                   
-                   // Status 410 (Gone) means the workspace was deleted                   
-                   if (message.getStatusCode() == 410) {
-                       for (UpdateListener listener : updateListeners) {
-                           listener.workspaceDeleted();                           
-                       }
-                       updateListeners.clear();
-                       interrupt();
-                   } else if (message.getStatusCode() == 412) { //Precondition failed
-                	   upf.createUserPrompter(message.getBody(), UserPromptType.MESSAGE, UserPromptOptions.OK, 
-                			   UserPromptResponse.OK, null, "OK").promptUser();
-                	   continue;
-                   } else if (message.getStatusCode() == 403) { // FORBIDDEN, timestamp is older than server
-            		   updateListeners.clear();
-            		   interrupt();
-                	   if (projectLocation.getUUID().equals("system")) {
-                		   upf.createUserPrompter("Server at " + projectLocation.getServiceInfo().getServerAddress() + "has failed since your session began." +
-                    			   " Please restart the program to synchronize the system workspace with the server." , 
-                    			   UserPromptType.MESSAGE, 
-                    			   UserPromptOptions.OK, 
-                    			   UserPromptResponse.OK, 
-                    			   null, "OK").promptUser();                		   
-                	   } else {
-                		   upf.createUserPrompter("Server at "  + projectLocation.getServiceInfo().getServerAddress() + 
-                				   " has failed since your session began." +
-                				   " Please use the refresh button to synchronize workspace " + projectLocation.getName() + 
-                				   " with the server.", 
-                				   UserPromptType.MESSAGE, 
-                				   UserPromptOptions.OK, 
-                				   UserPromptResponse.OK, 
-                				   null, "OK").promptUser();
-                	   }
+                   waitForUpdate();
+                   if (streamingUpdates) {
+                       streamUpdates();
+                   } else {
+                       pollForUpdate();
                    }
-                   
-                   // The updater may have been interrupted/closed/deleted while waiting for an update.
-                   if (this.isInterrupted() || cancelled) break;
-                   
-                   JSONObject json = new JSONObject(message.getBody());
-                   final JSONTokener tokener = new JSONTokener(json.getString("data"));
-                   final int jsonRevision = json.getInt("currentRevision");
-                   final long jsonTimestamp = json.getLong("serverTimestamp");
-                   
-                   runnable.runInForeground(new Runnable() {
-                       public void run() {
-                           try {
-                               if (!postingJSON.get()) {
-                                   decodeMessage(tokener, jsonRevision, jsonTimestamp);
-                               }
-                           } catch (AccessDeniedException e) {
-                               interrupt();
-                               List<UpdateListener> listenersToRemove = new ArrayList<UpdateListener>();
-                               for (UpdateListener listener : updateListeners) {
-                                   if (listener.updateException(AbstractNetworkConflictResolver.this, e)) {
-                                       listenersToRemove.add(listener);
-                                   }
-                               }
-                               updateListeners.removeAll(listenersToRemove);
-                               if (upf != null) {
-                                   upf.createUserPrompter(
-                                           "You do not have sufficient privileges to perform that action. " +
-                                           "Please hit the refresh button to synchronize with the server.", 
-                                           UserPromptType.MESSAGE, 
-                                           UserPromptOptions.OK, 
-                                           UserPromptResponse.OK, 
-                                           "OK", "OK").promptUser("");
-                               } else {
-                                   throw e;
-                               }
-                           } catch (Exception e) {
-                               // TODO: Discard corrupt workspace and start again from scratch.
-                               interrupt();
-                               List<UpdateListener> listenersToRemove = new ArrayList<UpdateListener>();
-                               for (UpdateListener listener : updateListeners) {
-                                   if (listener.updateException(AbstractNetworkConflictResolver.this, e)) {
-                                       listenersToRemove.add(listener);
-                                   }
-                               }
-                               updateListeners.removeAll(listenersToRemove);
-                               throw new RuntimeException("Update from server failed! Unable to decode the message: ", e);
-                           } finally {
-                               synchronized (AbstractNetworkConflictResolver.this) {
-                                   updating = false;
-                                   AbstractNetworkConflictResolver.this.notify();
-                               }
-                           }
-                       }
-                   });
                } catch (Exception ex) {
+            	   if (this.isInterrupted() || cancelled) break;
             	   Throwable root = ex;
             	   while (root != null) {
             		   if (root instanceof SPPersistenceException) {
@@ -525,8 +527,9 @@ public abstract class AbstractNetworkConflictResolver extends Thread {
             		   }
             		   root = root.getCause();
             	   }
-                   logger.error("Failed to contact server. Will retry in " + retryDelay + " ms.", ex);
-                   Thread.sleep(retryDelay);
+            	   long delay = nextRetryDelay();
+                   logger.error("Failed to contact server. Will retry in " + delay + " ms.", ex);
+                   Thread.sleep(delay);
                }
             }
         } catch (InterruptedException ex) {
@@ -535,6 +538,285 @@ public abstract class AbstractNetworkConflictResolver extends Thread {
         
         inboundHttpClient.getConnectionManager().shutdown();
     }
+
+    /**
+     * Waits until the update being applied in the foreground, if any, is
+     * finished.
+     */
+    private void waitForUpdate() throws InterruptedException {
+        synchronized (this) {
+            while (updating) { // this should wait for persisting to server as well.
+                wait();
+            }
+        }
+    }
+
+    /**
+     * Returns the time to wait before contacting the server again after a
+     * failure and doubles it for the next failure. Each wait is picked at
+     * random between half and all of the current delay so that many clients
+     * that lost the same server do not all come back at once.
+     */
+    private long nextRetryDelay() {
+        if (currentRetryDelay == 0) {
+            currentRetryDelay = retryDelay;
+        } else {
+            currentRetryDelay = Math.min(maxRetryDelay, currentRetryDelay * 2);
+        }
+        return currentRetryDelay / 2 + (long) (Math.random() * (currentRetryDelay / 2 + 1));
+    }
+
+    /**
+     * Asks the server for the changes since the current revision and applies
+     * them in the foreground.
+     */
+    private void pollForUpdate() throws JSONException, InterruptedException {
+        updating = true;
+        long requestNanos = System.nanoTime();
+        JSONMessage message;
+        try {
+            // Request an update from the server using the current revision number.
+            message = getJsonArray(inboundHttpClient);
+        } finally {
+            updating = false;
+        }
+        if (!handleUpdateStatus(message)) return;
+        
+        JSONObject json = new JSONObject(message.getBody());
+        JSONTokener tokener = new JSONTokener(json.getString("data"));
+        int jsonRevision = json.getInt("currentRevision");
+        long jsonTimestamp = json.getLong("serverTimestamp");
+        applyInForeground(tokener, null, jsonRevision, jsonTimestamp, requestNanos);
+        currentRetryDelay = 0;
+    }
+
+    /**
+     * Opens a stream of updates from the server and applies each update in
+     * the foreground as it arrives, one at a time. Returns when the server
+     * ends the stream, when an update cannot be applied to the current
+     * revision and the stream must be reopened, or when the server does not
+     * stream updates.
+     */
+    private void streamUpdates() throws IOException, InterruptedException {
+        ServerUpdateStream stream = new ServerUpdateStream(inboundHttpClient, getUpdateStreamURI());
+        updateStream = stream;
+        try {
+            // the thread may have been interrupted before the stream was set
+            if (this.isInterrupted() || cancelled) return;
+            JSONMessage response = stream.open();
+            if (response != null) {
+                if (response.getStatusCode() == 404) {
+                    logger.info("The server does not stream updates, asking for each update instead.");
+                    streamingUpdates = false;
+                } else if (handleUpdateStatus(response)) {
+                    throw new IOException("Unexpected response to a request for an update stream: " + 
+                            response.getStatusCode());
+                }
+                return;
+            }
+            currentRetryDelay = 0;
+            
+            ServerUpdateStream.Update update;
+            while ((update = stream.next()) != null) {
+                if (this.isInterrupted() || cancelled) return;
+                if (update.getCurrentRevision() <= currentRevision) continue;
+                if (update.getPreviousRevision() != currentRevision) {
+                    logger.debug("Revision " + update.getCurrentRevision() + " from the stream follows revision " + 
+                            update.getPreviousRevision() + " but the client is at revision " + 
+                            currentRevision + ", reopening the stream.");
+                    return;
+                }
+                applyInForeground(null, update.getPersistCalls(), update.getCurrentRevision(), 
+                        update.getServerTimestamp(), update.getReceivedNanos());
+                waitForUpdate();
+                if (resyncNeeded) {
+                    resyncNeeded = false;
+                    return;
+                }
+            }
+        } finally {
+            updateStream = null;
+            stream.close();
+        }
+    }
+
+    /**
+     * Handles the responses from the server that are not updates. If the
+     * server could not give an update this waits the same as after any other
+     * failure before returning.
+     * 
+     * @return True if the message holds an update to apply.
+     */
+    private boolean handleUpdateStatus(JSONMessage message) throws InterruptedException {
+        // Status 410 (Gone) means the workspace was deleted
+        if (message.getStatusCode() == 410) {
+            for (UpdateListener listener : updateListeners) {
+                listener.workspaceDeleted();                           
+            }
+            updateListeners.clear();
+            interrupt();
+        } else if (message.getStatusCode() == 412) { //Precondition failed
+            upf.createUserPrompter(message.getBody(), UserPromptType.MESSAGE, UserPromptOptions.OK, 
+                    UserPromptResponse.OK, null, "OK").promptUser();
+            long delay = nextRetryDelay();
+            logger.warn("The server could not give an update: " + message.getBody() + 
+                    " Will retry in " + delay + " ms.");
+            Thread.sleep(delay);
+            return false;
+        } else if (message.getStatusCode() == 403) { // FORBIDDEN, timestamp is older than server
+            updateListeners.clear();
+            interrupt();
+            if (projectLocation.getUUID().equals("system")) {
+                upf.createUserPrompter("Server at " + projectLocation.getServiceInfo().getServerAddress() + "has failed since your session began." +
+                        " Please restart the program to synchronize the system workspace with the server." , 
+                        UserPromptType.MESSAGE, 
+                        UserPromptOptions.OK, 
+                        UserPromptResponse.OK, 
+                        null, "OK").promptUser();                		   
+            } else {
+                upf.createUserPrompter("Server at "  + projectLocation.getServiceInfo().getServerAddress() + 
+                        " has failed since your session began." +
+                        " Please use the refresh button to synchronize workspace " + projectLocation.getName() + 
+                        " with the server.", 
+                        UserPromptType.MESSAGE, 
+                        UserPromptOptions.OK, 
+                        UserPromptResponse.OK, 
+                        null, "OK").promptUser();
+            }
+        }
+
+        // The updater may have been interrupted/closed/deleted while waiting for an update.
+        return !(this.isInterrupted() || cancelled);
+    }
+
+    /**
+     * Applies an update in the foreground, unless changes are being sent to
+     * the server at the time. The update is given either as a tokener or as
+     * parsed persist calls.
+     * 
+     * @param receivedNanos
+     *            The value of {@link System#nanoTime()} when the update
+     *            arrived, used to track how long updates take to apply.
+     */
+    private void applyInForeground(final JSONTokener tokener, final JSONArray persistCalls, 
+            final int jsonRevision, final long jsonTimestamp, final long receivedNanos) {
+        updating = true;
+        runnable.runInForeground(new Runnable() {
+            public void run() {
+                try {
+                    if (!postingJSON.get()) {
+                        decodeMessage(tokener, persistCalls, jsonRevision, jsonTimestamp);
+                        recordUpdateLatency(jsonRevision, System.nanoTime() - receivedNanos);
+                    } else {
+                        resyncNeeded = true;
+                    }
+                } catch (AccessDeniedException e) {
+                    interrupt();
+                    List<UpdateListener> listenersToRemove = new ArrayList<UpdateListener>();
+                    for (UpdateListener listener : updateListeners) {
+                        if (listener.updateException(AbstractNetworkConflictResolver.this, e)) {
+                            listenersToRemove.add(listener);
+                        }
+                    }
+                    updateListeners.removeAll(listenersToRemove);
+                    if (upf != null) {
+                        upf.createUserPrompter(
+                                "You do not have sufficient privileges to perform that action. " +
+                                "Please hit the refresh button to synchronize with the server.", 
+                                UserPromptType.MESSAGE, 
+                                UserPromptOptions.OK, 
+                                UserPromptResponse.OK, 
+                                "OK", "OK").promptUser("");
+                    } else {
+                        throw e;
+                    }
+                } catch (Exception e) {
+                    // TODO: Discard corrupt workspace and start again from scratch.
+                    interrupt();
+                    List<UpdateListener> listenersToRemove = new ArrayList<UpdateListener>();
+                    for (UpdateListener listener : updateListeners) {
+                        if (listener.updateException(AbstractNetworkConflictResolver.this, e)) {
+                            listenersToRemove.add(listener);
+                        }
+                    }
+                    updateListeners.removeAll(listenersToRemove);
+                    throw new RuntimeException("Update from server failed! Unable to decode the message: ", e);
+                } finally {
+                    synchronized (AbstractNetworkConflictResolver.this) {
+                        updating = false;
+                        AbstractNetworkConflictResolver.this.notify();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds the time an update took between arriving and being applied to the
+     * update statistics.
+     */
+    private void recordUpdateLatency(int revision, long latencyNanos) {
+        updatesApplied.incrementAndGet();
+        totalUpdateLatency.addAndGet(latencyNanos);
+        lastUpdateLatency = latencyNanos;
+        long max = maxUpdateLatency.get();
+        while (latencyNanos > max && !maxUpdateLatency.compareAndSet(max, latencyNanos)) {
+            max = maxUpdateLatency.get();
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Applied revision " + revision + " " + (latencyNanos / 1000000) + 
+                    " ms after it arrived");
+        }
+    }
+
+    /**
+     * Returns the number of updates from the server applied to the workspace.
+     */
+    public long getUpdatesApplied() {
+        return updatesApplied.get();
+    }
+
+    /**
+     * Returns the time between the last applied update arriving from the
+     * server and it being applied, in milliseconds. For updates the client
+     * asks for this includes the time waiting for the server to answer.
+     */
+    public double getLastUpdateLatencyMillis() {
+        return lastUpdateLatency / 1000000.0;
+    }
+
+    /**
+     * Returns the average time between applied updates arriving from the
+     * server and being applied, in milliseconds.
+     */
+    public double getAverageUpdateLatencyMillis() {
+        long count = updatesApplied.get();
+        if (count == 0) return 0;
+        return totalUpdateLatency.get() / 1000000.0 / count;
+    }
+
+    /**
+     * Returns the longest time any applied update took between arriving from
+     * the server and being applied, in milliseconds.
+     */
+    public double getMaxUpdateLatencyMillis() {
+        return maxUpdateLatency.get() / 1000000.0;
+    }
+
+    /**
+     * Returns the address to stream updates to the current revision from.
+     */
+    protected URI getUpdateStreamURI() {
+        try {
+            return new URI("http", null, 
+                    projectLocation.getServiceInfo().getServerAddress(), 
+                    projectLocation.getServiceInfo().getPort(),
+                    projectLocation.getServiceInfo().getPath() + contextRelativePath + "/updates", 
+                    "oldRevisionNo=" + currentRevision + "&serverTimestamp=" + serverTimestamp, null);
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
     
     /**
      * Creates and executes an HttpGet request for an update from the server.
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.enterprise;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * A long-lived request to a server that sends each new revision of a
+ * workspace as soon as it is committed, instead of the client asking for
+ * updates over and over.
+ * <p>
+ * The server answers the request with a chunked response whose body is a
+ * series of JSON objects, one per revision, separated by any amount of
+ * white space. The server may send white space alone to keep the connection
+ * open. Each object is of the form
+ * 
+ * <pre>
+ * {"previousRevision": 4, "currentRevision": 5, "serverTimestamp": 1234, "data": [ ...persist calls... ]}
+ * </pre>
+ * 
+ * where <code>data</code> holds the persist calls that turn the previous
+ * revision into the current one. Unlike the response to a single update
+ * request the persist calls are not a string inside another JSON object, so
+ * each revision is parsed once as it arrives and never copied.
+ * <p>
+ * If the server does not start streaming it is expected to answer in the
+ * same form as any other request, which is handled by a
+ * {@link JSONResponseHandler}.
+ */
+public class ServerUpdateStream {
+    
+    private static final Logger logger = Logger.getLogger(ServerUpdateStream.class);
+
+    /**
+     * The media type a client asks for when it wants updates streamed.
+     */
+    public static final String CONTENT_TYPE = "application/x-sqlpower-update-stream";
+
+    /**
+     * One revision received from the server.
+     */
+    public static class Update {
+        
+        private final int previousRevision;
+        private final int currentRevision;
+        private final long serverTimestamp;
+        private final JSONArray persistCalls;
+        private final long receivedNanos;
+        
+        public Update(int previousRevision, int currentRevision, long serverTimestamp, 
+                JSONArray persistCalls, long receivedNanos) {
+            this.previousRevision = previousRevision;
+            this.currentRevision = currentRevision;
+            this.serverTimestamp = serverTimestamp;
+            this.persistCalls = persistCalls;
+            this.receivedNanos = receivedNanos;
+        }
+        
+        /**
+         * The revision the persist calls of this update apply to.
+         */
+        public int getPreviousRevision() {
+            return previousRevision;
+        }
+        
+        /**
+         * The revision the workspace is at after this update is applied.
+         */
+        public int getCurrentRevision() {
+            return currentRevision;
+        }
+        
+        public long getServerTimestamp() {
+            return serverTimestamp;
+        }
+        
+        public JSONArray getPersistCalls() {
+            return persistCalls;
+        }
+
+        /**
+         * The value of {@link System#nanoTime()} when this update finished
+         * arriving.
+         */
+        public long getReceivedNanos() {
+            return receivedNanos;
+        }
+    }
+    
+    private final HttpClient client;
+    
+    private final HttpGet request;
+
+    /**
+     * Reads the revisions from the body of the response once the server has
+     * started streaming. Null until then.
+     */
+    private JSONTokener tokener;
+    
+    private volatile boolean closed;
+
+    /**
+     * @param client
+     *            The client to make the request with. The request holds a
+     *            connection of this client until the stream is closed.
+     * @param uri
+     *            The address to request updates from, including the revision
+     *            the client is at.
+     */
+    public ServerUpdateStream(HttpClient client, URI uri) {
+        this.client = client;
+        request = new HttpGet(uri);
+        request.setHeader("Accept", CONTENT_TYPE);
+    }
+
+    /**
+     * Sends the request and waits for the server to answer.
+     * 
+     * @return Null if the server has started streaming updates and
+     *         {@link #next()} can be called. Otherwise the server's response,
+     *         handled the same way as any other JSON response. A response with
+     *         a status of 404 means the server does not stream updates.
+     */
+    public JSONMessage open() throws IOException {
+        HttpResponse response = client.execute(request);
+        int status = response.getStatusLine().getStatusCode();
+        if (status == 200) {
+            HttpEntity entity = response.getEntity();
+            tokener = new JSONTokener(new BufferedReader(new InputStreamReader(entity.getContent(), "UTF-8")));
+            return null;
+        }
+        try {
+            if (status == 404) {
+                return new JSONMessage("Updates are not streamed by this server", status);
+            }
+            return new JSONResponseHandler().handleResponse(response);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Blocks until the next revision has arrived and returns it, or returns
+     * null if the server ended the response or the stream was closed.
+     * 
+     * @throws IOException
+     *             If the connection fails or the server sends something that
+     *             is not a revision.
+     */
+    public Update next() throws IOException {
+        if (tokener == null) {
+            throw new IllegalStateException("The stream has not been opened");
+        }
+        try {
+            if (closed || tokener.nextClean() == 0) return null;
+            tokener.back();
+            Object value = tokener.nextValue();
+            if (!(value instanceof JSONObject)) {
+                throw new IOException("Expected a revision from the server but got " + value);
+            }
+            JSONObject json = (JSONObject) value;
+            Update update = new Update(json.getInt("previousRevision"), json.getInt("currentRevision"), 
+                    json.getLong("serverTimestamp"), json.getJSONArray("data"), System.nanoTime());
+            if (logger.isDebugEnabled()) {
+                logger.debug("Received revision " + update.getCurrentRevision() + " with " + 
+                        update.getPersistCalls().length() + " persist calls");
+            }
+            return update;
+        } catch (JSONException e) {
+            if (closed) return null;
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            IOException ioe = new IOException("Could not read a revision from the server");
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Ends the request. A thread blocked in {@link #next()} will return
+     * null or throw an exception. This may be called from any thread and more
+     * than once.
+     */
+    public void close() {
+        closed = true;
+        request.abort();
+    }
+}
@@ -23,11 +23,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Queue;
 
 /**
  * Class for performing a breadth-first search of a graph starting
@@ -43,27 +39,6 @@ import java.util.Queue;
  */
 public class BreadthFirstSearch<V, E> {
     
-    /**
-     * The algorithm uses three states for each node, which we think
-     * of as three colours.
-     */
-    private enum Colour {
-        /**
-         * The undiscovered state.
-         */
-        WHITE,
-        
-        /**
-         * The discovered but not finished state.
-         */
-        GRAY,
-        
-        /**
-         * The discovered and finished state.
-         */
-        BLACK
-    }
-
     /**
      * The listeners who want to be notified of various aspects of the
      * search while it is in progress.
@@ -83,51 +58,111 @@ public class BreadthFirstSearch<V, E> {
      * Performs a breadth-first search of the given graph, starting
      * with the given node.  This algorithm is described in "Introduction
      * to Algorithms" by Cormen et al, Chapter 23.
+     * <p>
+     * The starting node does not have to be one of the model's nodes. If it
+     * is not, the search continues from the nodes the model says are adjacent
+     * to it.
      * 
      * @param model
      * @param startingNode
      * @return the list of nodes discovered, in the order they were discovered
      */
     public List<V> performSearch(GraphModel<V, E> model, V startingNode) {
-        List<V> discoveredNodes = new ArrayList<V>();
-        
-        Map<V, Colour> colour = new HashMap<V, Colour>();
-        Map<V, Integer> depth = new HashMap<V, Integer>();
-        Map<V, V> predecessor = new HashMap<V, V>();
-        
-        for (V u : model.getNodes()) {
-            colour.put(u, Colour.WHITE);
-            depth.put(u, Integer.MAX_VALUE);
-            predecessor.put(u, null);
+        GraphSnapshot<V> graph = new GraphSnapshot<V>(model, comparator);
+        int[] firstLevel = null;
+        if (graph.indexOf(startingNode) == -1) {
+            Collection<V> adjacentNodes = model.getAdjacentNodes(startingNode);
+            if (comparator != null) {
+                List<V> sorted = new ArrayList<V>(adjacentNodes);
+                Collections.sort(sorted, comparator);
+                adjacentNodes = sorted;
+            }
+            firstLevel = new int[adjacentNodes.size()];
+            int i = 0;
+            for (V v : adjacentNodes) {
+                firstLevel[i++] = graph.indexOf(v);
+            }
         }
-        
-        colour.put(startingNode, Colour.GRAY);
-        depth.put(startingNode, 0);
-        predecessor.put(startingNode, null);
+        return performSearch(graph, startingNode, firstLevel, new int[graph.getNodeCount()], 1);
+    }
+
+    /**
+     * Performs a breadth-first search of a snapshot of a graph, starting with
+     * the given node. Searching a snapshot saves copying the graph when
+     * several searches are made of the same graph. The comparator of this
+     * search is not used; the snapshot should be taken with it instead.
+     * <p>
+     * Unlike {@link #performSearch(GraphModel, Object)}, if the starting node
+     * is not in the snapshot only the starting node itself is discovered, as
+     * the snapshot does not know what it is adjacent to.
+     * 
+     * @param graph
+     * @param startingNode
+     * @return the list of nodes discovered, in the order they were discovered
+     */
+    public List<V> performSearch(GraphSnapshot<V> graph, V startingNode) {
+        return performSearch(graph, startingNode, null, new int[graph.getNodeCount()], 1);
+    }
+
+    /**
+     * Performs a breadth-first search of a snapshot of a graph. A node counts
+     * as discovered by this search when its entry in the marks array equals
+     * the given stamp, so a caller can make a series of independent searches
+     * with one array by giving each search a new stamp instead of clearing
+     * the array.
+     * 
+     * @param graph
+     *            The graph to search.
+     * @param startingNode
+     *            The node to start with.
+     * @param firstLevel
+     *            The indices of the nodes adjacent to the starting node, used
+     *            only if the starting node is not in the snapshot. Entries of
+     *            -1 are skipped. May be null.
+     * @param marks
+     *            The stamp of the last search that discovered each node, by
+     *            its index in the snapshot.
+     * @param stamp
+     *            The value that marks a node as discovered by this search.
+     * @return the list of nodes discovered, in the order they were discovered
+     */
+    List<V> performSearch(GraphSnapshot<V> graph, V startingNode, int[] firstLevel, int[] marks, int stamp) {
+        List<V> discoveredNodes = new ArrayList<V>();
         fireNodeDiscovered(startingNode);
         discoveredNodes.add(startingNode);
         
-        Queue<V> queue = new LinkedList<V>();
-        queue.add(startingNode);
-        while (!queue.isEmpty()) {
-            V u = queue.element();
-            Collection<V> adjacentNodes = model.getAdjacentNodes(u);
-            if (comparator != null) {
-            	adjacentNodes = new ArrayList<V>(adjacentNodes);
-            	Collections.sort((List<V>) adjacentNodes, comparator);
+        // every node is added to the queue at most once
+        int[] queue = new int[graph.getNodeCount()];
+        int head = 0;
+        int tail = 0;
+        int start = graph.indexOf(startingNode);
+        if (start != -1) {
+            marks[start] = stamp;
+            queue[tail++] = start;
+        } else if (firstLevel != null) {
+            for (int v : firstLevel) {
+                if (v != -1 && marks[v] != stamp) {
+                    marks[v] = stamp;
+                    queue[tail++] = v;
+                    V node = graph.getNode(v);
+                    fireNodeDiscovered(node);
+                    discoveredNodes.add(node);
+                }
             }
-			for (V v : adjacentNodes) {
-                if (colour.get(v) == Colour.WHITE) {
-                    colour.put(v, Colour.GRAY);
-                    depth.put(v, depth.get(u) + 1);
-                    predecessor.put(v, u);
-                    queue.add(v);
-                    fireNodeDiscovered(v);
-                    discoveredNodes.add(v);
+        }
+        while (head < tail) {
+            int u = queue[head++];
+            int adjacentCount = graph.getAdjacentCount(u);
+            for (int i = 0; i < adjacentCount; i++) {
+                int v = graph.getAdjacentNode(u, i);
+                if (marks[v] != stamp) {
+                    marks[v] = stamp;
+                    queue[tail++] = v;
+                    V node = graph.getNode(v);
+                    fireNodeDiscovered(node);
+                    discoveredNodes.add(node);
                 }
             }
-            queue.remove();
-            colour.put(u, Colour.BLACK);
         }
         
         return discoveredNodes;
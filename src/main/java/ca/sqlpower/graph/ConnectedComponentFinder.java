@@ -24,13 +24,19 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
 
 /**
  * Implements an algorithm that partitions a graph into its set of
- * connected components
+ * connected components.
+ * <p>
+ * A component is every node reachable from a node that was not in any of the
+ * components found before it. For graphs whose edges go both ways this
+ * partitions the nodes. For directed graphs a search can reach nodes that an
+ * earlier search already put in a component, so the components can overlap.
  */
 public class ConnectedComponentFinder<V, E> {
 
@@ -52,49 +58,51 @@ public class ConnectedComponentFinder<V, E> {
     
     public Set<Set<V>> findConnectedComponents(GraphModel<V, E> model) {
         
-        // all nodes in the graph that we have not yet assigned to a component
-        final Set<V> undiscovered;
+        // one snapshot is shared by all of the searches
+        GraphSnapshot<V> graph = new GraphSnapshot<V>(model, null);
+        
+        // the order to start new searches in
+        final List<V> startingNodes = new ArrayList<V>(graph.getNodeCount());
+        for (int i = 0; i < graph.getNodeCount(); i++) {
+            startingNodes.add(graph.getNode(i));
+        }
         if (comparator != null) {
-            ArrayList<V> sortedNodes = new ArrayList<V>(model.getNodes());
-            Collections.sort(sortedNodes, comparator);
-            undiscovered = new LinkedHashSet<V>(sortedNodes);
-        } else {
-            undiscovered = new HashSet<V>();
-            undiscovered.addAll(model.getNodes());
+            Collections.sort(startingNodes, comparator);
         }
 
         if (logger.isDebugEnabled()) {
-            logger.debug("Nodes to process:" + undiscovered);
-                
+            logger.debug("Nodes to process:" + startingNodes);
         }
 
-        // the current component of the graph we're discovering using the BFS
-        final Set<V> thisComponent = new HashSet<V>();
+        // the nodes already in a component, by index in the snapshot
+        boolean[] assigned = new boolean[graph.getNodeCount()];
+        
+        // each search marks the nodes it discovers with its own stamp, so
+        // searches are independent of each other without clearing the array
+        int[] marks = new int[graph.getNodeCount()];
+        int stamp = 0;
         
         // the components we've finished discovering
         Set<Set<V>> components = new LinkedHashSet<Set<V>>();
         
         BreadthFirstSearch<V, E> bfs = new BreadthFirstSearch<V, E>();
-        bfs.addBreadthFirstSearchListener(new BreadthFirstSearchListener<V>() {
-            public void nodeDiscovered(V node) {
-                undiscovered.remove(node);
-                thisComponent.add(node);
-            }
-        });
         
-        while (!undiscovered.isEmpty()) {
+        for (V node : startingNodes) {
+            if (assigned[graph.indexOf(node)]) continue;
             
             logger.debug("Starting new BFS");
             
-            V node = undiscovered.iterator().next();
-            bfs.performSearch(model, node);
+            stamp++;
+            List<V> thisComponent = bfs.performSearch(graph, node, null, marks, stamp);
+            for (V v : thisComponent) {
+                assigned[graph.indexOf(v)] = true;
+            }
             
             if (logger.isDebugEnabled()) {
                 logger.debug("  Search found "+thisComponent.size()+" nodes");
             }
             
             components.add(new HashSet<V>(thisComponent));
-            thisComponent.clear();
         }
         
         return components;
@@ -19,11 +19,8 @@
 
 package ca.sqlpower.graph;
 
-import java.util.Collection;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.log4j.Logger;
 
@@ -40,11 +37,30 @@ public class DepthFirstSearch<V, E> {
     private static final Logger logger = Logger.getLogger(DepthFirstSearch.class);
     
     /**
-     * Maps the vertices of the graph) to their associated VertexInfo instances.  
-     * VertexInfo objects store information about the DFS execution which will be 
-     * of interest to users of the class. 
+     * The snapshot of the graph the last search was performed on. Vertices
+     * are identified by their index in this snapshot in the arrays below.
      */
-    private Map<V, VertexInfo> vertexInfo;
+    private GraphSnapshot<V> graph;
+    
+    /**
+     * A serial number assigned to each vertex when it is first discovered by
+     * the DFS, or 0 if it has not been discovered.
+     */
+    private int[] discoveryTime;
+    
+    /**
+     * A serial number assigned to each vertex when the DFS leaves it, or 0
+     * if it has not been finished.
+     */
+    private int[] finishTime;
+    
+    /**
+     * The index of the vertex that the DFS was at when it discovered each
+     * vertex, or -1 if the vertex was the start of a search. In SQLTable
+     * terms, the predecessor is a pkTable which exports its key to this
+     * table.
+     */
+    private int[] predecessor;
     
     /**
      * Tracks the current visit time.  This variable is only useful
@@ -67,94 +83,7 @@ public class DepthFirstSearch<V, E> {
      */
 	private boolean cyclic = false;
 
-    /**
-     * The VertexInfo class contains visit information related to the DFS
-     * algorithm's discovery of a vertex in the graph.  It is capable of
-     * classifying a vertex as "white," "grey," and "black" depending on
-     * when it was started and finished by the DFS.
-     */
-    private class VertexInfo {
-        
-        /**
-         * A serial number assigned to this vertex when it is first discovered
-         * by the DFS.
-         */
-        private int discoveryTime;
-        
-        /**
-         * A serial number assigned to this vertex when the DFS leaves it.
-         */
-        private int finishTime;
-        
-        /**
-         * The vertex that the DFS was at when it discovered this vertex.
-         * In SQLTable terms, the predecessor is a pkTable which exports its
-         * key to this table.
-         */
-        private V predecessor;
-        
-        /**
-         * Returns true iff this vertex has not been started (discovered) yet.
-         */
-        public boolean isWhite() {
-            return (discoveryTime == 0 && finishTime == 0);
-        }
-        
-        /**
-         * Returns true iff this vertex has been started but not
-         * finished.
-         */
-        public boolean isGrey() {
-            return (discoveryTime != 0 && finishTime == 0);
-        }
-
-        /**
-         * Returns true iff this vertex has been started and finished.
-         */
-        public boolean isBlack() {
-            return finishTime != 0;
-        }
-        
-        /**
-         * See {@link #discoveryTime}.
-         */
-        public int getDiscoveryTime() {
-            return discoveryTime;
-        }
-        /**
-         * See {@link #discoveryTime}.
-         */
-        public void setDiscoveryTime(int discoveryTime) {
-            this.discoveryTime = discoveryTime;
-        }
-        /**
-         * See {@link #finishTime}.
-         */
-        public int getFinishTime() {
-            return finishTime;
-        }
-        /**
-         * See {@link #finishTime}.
-         */
-        public void setFinishTime(int finishTime) {
-            this.finishTime = finishTime;
-        }
-        /**
-         * See {@link #predecessor}.
-         */
-        public V getPredecessor() {
-            return predecessor;
-        }
-        /**
-         * See {@link #predecessor}.
-         */
-        public void setPredecessor(V predecessor) {
-            this.predecessor = predecessor;
-        }
-    }
-    
     public DepthFirstSearch() {
-    	vertexInfo = new HashMap<V, VertexInfo>();
     	finishOrder = new LinkedList<V>();
     }
 
@@ -170,50 +99,91 @@ public class DepthFirstSearch<V, E> {
         if (logger.isDebugEnabled()) {
             logger.debug("Performing Search on: " + model);
         }
-        Collection<V> vertices = model.getNodes();
-        vertexInfo.clear();
+        graph = new GraphSnapshot<V>(model, null);
+        int n = graph.getNodeCount();
+        discoveryTime = new int[n];
+        finishTime = new int[n];
+        predecessor = new int[n];
         finishOrder.clear();
-        for (V u : vertices) {
-            vertexInfo.put(u, new VertexInfo());
-        }
         visitTime = 0;
-        for (V u : vertices) {
-            VertexInfo vi = vertexInfo.get(u);
-            if (vi.isWhite()) visit(u, model);
+        
+        // the vertices on the current path and the position in the adjacency
+        // list each one is up to; each vertex is on the stack at most once
+        int[] stack = new int[n];
+        int[] nextAdjacent = new int[n];
+        for (int u = 0; u < n; u++) {
+            if (discoveryTime[u] == 0) visit(u, stack, nextAdjacent);
         }
     }
 
     /**
-     * The recursive subroutine of performSearch.  Explores the connected
-     * subgraph at u, colouring nodes as they are encountered. 
+     * The subroutine of performSearch.  Explores the connected
+     * subgraph at u, colouring nodes as they are encountered. The path
+     * from u to the current vertex is kept on the given stack instead of
+     * the call stack, so long chains of vertices cannot overflow it.
      * 
      * <p>This is an implementation of the DFS-VISIT routine in section
      * 23.3 of "Introduction to Algorithms" by Cormen et al (ISBN 
      * 0-07-013143-0).
      *
-     * @param u
-     * @param model
+     * @param u The index of the vertex to start at
+     * @param stack Space for the path of vertices being visited
+     * @param nextAdjacent Space for the next adjacent vertex to look at
+     * for each vertex on the path
      */
-    private boolean visit(V u, GraphModel<V, E> model) {
-    	boolean ret = true;
-        VertexInfo vi = vertexInfo.get(u);
-        vi.setDiscoveryTime(++visitTime);
-        for (V v : model.getAdjacentNodes(u)) {
-            VertexInfo vi2 = vertexInfo.get(v);
-            if (vi2 == null) {
-                logger.debug("Skipping vertex " + v + " because it is not in the set of tables to search");
-            } else {
-                if (vi2.isWhite()) {
-                    vi2.setPredecessor(u);
-                    visit(v, model);
-                } else if (vi2.isGrey()) {
-                	cyclic = true;
+    private void visit(int u, int[] stack, int[] nextAdjacent) {
+        int top = 0;
+        predecessor[u] = -1;
+        discoveryTime[u] = ++visitTime;
+        nextAdjacent[u] = 0;
+        stack[top++] = u;
+        while (top > 0) {
+            int w = stack[top - 1];
+            if (nextAdjacent[w] < graph.getAdjacentCount(w)) {
+                int v = graph.getAdjacentNode(w, nextAdjacent[w]++);
+                if (discoveryTime[v] == 0) {
+                    predecessor[v] = w;
+                    discoveryTime[v] = ++visitTime;
+                    nextAdjacent[v] = 0;
+                    stack[top++] = v;
+                } else if (finishTime[v] == 0) {
+                    cyclic = true;
                 }
+            } else {
+                finishTime[w] = ++visitTime;
+                finishOrder.addFirst(graph.getNode(w));
+                top--;
             }
         }
-        vi.setFinishTime(++visitTime);
-        finishOrder.addFirst(u);
-        return ret;
+    }
+    
+    /**
+     * Returns the serial number the last search gave the given vertex when it
+     * discovered it, or 0 if the vertex was not in the graph searched.
+     */
+    public int getDiscoveryTime(V vertex) {
+        int index = graph == null ? -1 : graph.indexOf(vertex);
+        return index == -1 ? 0 : discoveryTime[index];
+    }
+
+    /**
+     * Returns the serial number the last search gave the given vertex when it
+     * finished it, or 0 if the vertex was not in the graph searched.
+     */
+    public int getFinishTime(V vertex) {
+        int index = graph == null ? -1 : graph.indexOf(vertex);
+        return index == -1 ? 0 : finishTime[index];
+    }
+
+    /**
+     * Returns the vertex the last search was at when it discovered the given
+     * vertex, or null if the search started at the given vertex or the
+     * vertex was not in the graph searched.
+     */
+    public V getPredecessor(V vertex) {
+        int index = graph == null ? -1 : graph.indexOf(vertex);
+        if (index == -1 || predecessor[index] == -1) return null;
+        return graph.getNode(predecessor[index]);
     }
     
     /**
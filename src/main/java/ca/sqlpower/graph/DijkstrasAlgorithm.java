@@ -19,15 +19,17 @@
 
 package ca.sqlpower.graph;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
 
 /**
- * This class implements Dijkstra's algorithm.
+ * This class implements Dijkstra's algorithm. The nodes that have not been
+ * finished are kept in a binary heap so each step finds the next node in
+ * logarithmic time. If the graph is a {@link WeightedGraphModel} the weights
+ * of its edges are used, otherwise every edge has a weight of 1.
  *
  * @param <V> The type of vertices in the graph that will be used.
  * @param <E> The type of edges in the graph that will be used.
@@ -37,15 +39,15 @@ public class DijkstrasAlgorithm<V, E> {
 	Logger logger = Logger.getLogger(DijkstrasAlgorithm.class);
 	
 	/**
-	 * The map of nodes to the distance between them and the starting node. Infinity is 
-	 * represented by the maximum size of an int.
+	 * The snapshot of the graph the shortest paths were last calculated for.
 	 */
-	private Map<V, Integer> d = new HashMap<V, Integer>();
+	private GraphSnapshot<V> graph;
 	
 	/**
-	 * The map that contains <node, parent node> pairs when Dijkstra's algorithm is run.
+	 * The distance between each node, by index in {@link #graph}, and the
+	 * starting node. Infinity is used for nodes that cannot be reached.
 	 */
-	private Map<V, V> pi = new HashMap<V, V>();
+	private double[] d;
 	
 	/**
 	 * Performs Dijkstra's algorithm on the given graph, starting with the given
@@ -61,17 +63,34 @@ public class DijkstrasAlgorithm<V, E> {
 	 *         not reached.
 	 */
 	public Map<V, V> calculateShortestPaths(GraphModel<V, E> graph, V start) {
-		initializeSingleSource(graph, start);
-		List<V> S = new ArrayList<V>();
-		List<V> Q = new ArrayList<V>(graph.getNodes());
-		while (!Q.isEmpty()) {
-			V u = extractMin(Q);
-			S.add(u);
-			for (V v: graph.getAdjacentNodes(u)) {
-				relax(u, v);
+		this.graph = new GraphSnapshot<V>(graph, null);
+		int n = this.graph.getNodeCount();
+		d = new double[n];
+		Arrays.fill(d, Double.POSITIVE_INFINITY);
+		int[] pi = new int[n];
+		Arrays.fill(pi, -1);
+		
+		int s = this.graph.indexOf(start);
+		if (s != -1) {
+			d[s] = 0;
+			IndexedMinHeap Q = new IndexedMinHeap(d);
+			Q.insert(s);
+			while (!Q.isEmpty()) {
+				int u = Q.extractMin();
+				int adjacentCount = this.graph.getAdjacentCount(u);
+				for (int i = 0; i < adjacentCount; i++) {
+					relax(u, this.graph.getAdjacentNode(u, i), this.graph.getAdjacentWeight(u, i), pi, Q);
+				}
 			}
 		}
-		return pi;
+		
+		Map<V, V> piMap = new HashMap<V, V>();
+		for (int v = 0; v < n; v++) {
+			if (pi[v] != -1) {
+				piMap.put(this.graph.getNode(v), this.graph.getNode(pi[v]));
+			}
+		}
+		return piMap;
 	}
 
 	/**
@@ -83,49 +102,134 @@ public class DijkstrasAlgorithm<V, E> {
 	 *            to v.
 	 * @param v
 	 *            The node that has an edge with u that we wish to relax.
+	 * @param weight
+	 *            The weight of the edge from u to v.
+	 * @param pi
+	 *            The parent of each node on its shortest path.
+	 * @param q
+	 *            The nodes that have been reached but not finished.
 	 */
-	private void relax(V u, V v) {
-		if (d.get(v) > d.get(u) + 1) {
-			d.put(v, d.get(u) + 1);
-			pi.put(v, u);
+	private void relax(int u, int v, double weight, int[] pi, IndexedMinHeap q) {
+		if (d[v] > d[u] + weight) {
+			d[v] = d[u] + weight;
+			pi[v] = u;
+			if (q.contains(v)) {
+				q.decreaseKey(v);
+			} else {
+				q.insert(v);
+			}
 		}
-		
 	}
 
 	/**
-	 * Extracts the node that has the shortest path to the starting node. This
-	 * node will be removed from the given list.
-	 * 
-	 * @param q
-	 *            The list that contains the nodes we have not reached yet in
-	 *            Dijkstra's algorithm.
-	 * @return The node that has the shortest path to the starting node.
+	 * Returns the length of the shortest path from the starting node to the
+	 * given node found by the last call to
+	 * {@link #calculateShortestPaths(GraphModel, Object)}. Returns infinity if
+	 * the node was not reached.
 	 */
-	private V extractMin(List<V> q) {
-		V u = null;
-		for (V v: q) {
-			if (u == null || d.get(u) > d.get(v)) {
-				u = v;
-			}
-		}
-		q.remove(u);
-		return u;
+	public double getDistance(V node) {
+		int index = graph == null ? -1 : graph.indexOf(node);
+		if (index == -1) return Double.POSITIVE_INFINITY;
+		return d[index];
 	}
 
 	/**
-	 * Initializes the d and pi maps for finding the shortest paths in a graph
-	 * by using Dijkstra's algorithm.
-	 * 
-	 * @param graph
-	 *            The list of nodes in the graph we will be running Dijkstra's
-	 *            algorithm on.
-	 * @param start
-	 *            The starting node for finding the shortest path to.
+	 * A binary min heap of node indices ordered by their distance. Nodes with
+	 * the same distance come out in index order, which is the order the model
+	 * returned them. The position of each node in the heap is tracked so its
+	 * distance can be decreased in place.
 	 */
-	private void initializeSingleSource(GraphModel<V, E> graph, V start) {
-		for(V v: graph.getNodes()) {
-			d.put(v, new Integer(Integer.MAX_VALUE - 1));
+	private static class IndexedMinHeap {
+		
+		/**
+		 * The distances the nodes are ordered by.
+		 */
+		private final double[] keys;
+		
+		/**
+		 * The node indices in heap order.
+		 */
+		private final int[] heap;
+		
+		/**
+		 * The position of each node in {@link #heap}, or -1 if the node is
+		 * not in the heap.
+		 */
+		private final int[] position;
+		
+		private int size;
+		
+		IndexedMinHeap(double[] keys) {
+			this.keys = keys;
+			heap = new int[keys.length];
+			position = new int[keys.length];
+			Arrays.fill(position, -1);
+		}
+		
+		boolean isEmpty() {
+			return size == 0;
+		}
+		
+		boolean contains(int node) {
+			return position[node] != -1;
+		}
+		
+		void insert(int node) {
+			heap[size] = node;
+			position[node] = size;
+			siftUp(size++);
+		}
+		
+		/**
+		 * Moves the given node towards the top of the heap after its key
+		 * was decreased.
+		 */
+		void decreaseKey(int node) {
+			siftUp(position[node]);
+		}
+		
+		int extractMin() {
+			int min = heap[0];
+			position[min] = -1;
+			size--;
+			if (size > 0) {
+				heap[0] = heap[size];
+				position[heap[0]] = 0;
+				siftDown(0);
+			}
+			return min;
+		}
+		
+		private boolean less(int a, int b) {
+			return keys[a] < keys[b] || (keys[a] == keys[b] && a < b);
+		}
+		
+		private void siftUp(int i) {
+			int node = heap[i];
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (!less(node, heap[parent])) break;
+				heap[i] = heap[parent];
+				position[heap[i]] = i;
+				i = parent;
+			}
+			heap[i] = node;
+			position[node] = i;
+		}
+		
+		private void siftDown(int i) {
+			int node = heap[i];
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) break;
+				if (child + 1 < size && less(heap[child + 1], heap[child])) child++;
+				if (!less(heap[child], node)) break;
+				heap[i] = heap[child];
+				position[heap[i]] = i;
+				i = child;
+			}
+			heap[i] = node;
+			position[node] = i;
 		}
-		d.put(start, new Integer(0));
 	}
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.graph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A copy of the topology of a {@link GraphModel} where the nodes are
+ * numbered from 0 and the adjacency lists are stored in flat int arrays.
+ * The graph algorithms in this package take a snapshot before they start so
+ * they can track the state of each node in arrays instead of hash maps and
+ * so the model is only asked for the adjacent nodes of each node once.
+ * <p>
+ * Adjacent nodes that are not in the model's node collection are left out of
+ * the snapshot. Changes to the model after the snapshot was taken are not
+ * reflected in it.
+ *
+ * @param <V> The node (vertex) type
+ */
+public class GraphSnapshot<V> {
+
+    /**
+     * The nodes of the graph, in the order the model returned them. The
+     * index of a node in this list is its number in the snapshot.
+     */
+    private final List<V> nodes;
+    
+    /**
+     * Maps each node to its index in {@link #nodes}.
+     */
+    private final Map<V, Integer> indices;
+    
+    /**
+     * The adjacent nodes of node i are stored in {@link #targets} from
+     * offsets[i] up to but not including offsets[i + 1].
+     */
+    private final int[] offsets;
+    
+    /**
+     * The indices of the adjacent nodes of every node, grouped by node.
+     */
+    private final int[] targets;
+    
+    /**
+     * The weight of the edge to each entry in {@link #targets}, or null if
+     * the model was not a {@link WeightedGraphModel}.
+     */
+    private final double[] weights;
+
+    /**
+     * Takes a snapshot of the given model.
+     * 
+     * @param model
+     *            The graph to copy.
+     * @param comparator
+     *            If not null the adjacent nodes of each node are sorted with
+     *            this comparator. Otherwise they are kept in the order the
+     *            model returned them.
+     */
+    public GraphSnapshot(GraphModel<V, ?> model, Comparator<V> comparator) {
+        nodes = new ArrayList<V>(model.getNodes());
+        int n = nodes.size();
+        indices = new HashMap<V, Integer>(n * 4 / 3 + 1);
+        for (int i = 0; i < n; i++) {
+            indices.put(nodes.get(i), i);
+        }
+        
+        WeightedGraphModel<V, ?> weightedModel = null;
+        if (model instanceof WeightedGraphModel<?, ?>) {
+            weightedModel = (WeightedGraphModel<V, ?>) model;
+        }
+        
+        offsets = new int[n + 1];
+        int[] targets = new int[Math.max(n, 16)];
+        double[] weights = weightedModel == null ? null : new double[targets.length];
+        int edgeCount = 0;
+        for (int i = 0; i < n; i++) {
+            V u = nodes.get(i);
+            Collection<V> adjacentNodes = model.getAdjacentNodes(u);
+            if (comparator != null) {
+                List<V> sorted = new ArrayList<V>(adjacentNodes);
+                Collections.sort(sorted, comparator);
+                adjacentNodes = sorted;
+            }
+            for (V v : adjacentNodes) {
+                Integer target = indices.get(v);
+                if (target == null) continue;
+                if (edgeCount == targets.length) {
+                    int[] newTargets = new int[targets.length * 2];
+                    System.arraycopy(targets, 0, newTargets, 0, edgeCount);
+                    targets = newTargets;
+                    if (weights != null) {
+                        double[] newWeights = new double[newTargets.length];
+                        System.arraycopy(weights, 0, newWeights, 0, edgeCount);
+                        weights = newWeights;
+                    }
+                }
+                targets[edgeCount] = target;
+                if (weights != null) {
+                    double weight = weightedModel.getEdgeWeight(u, v);
+                    if (weight < 0) {
+                        throw new IllegalArgumentException("The edge from " + u + " to " + v + 
+                                " has a negative weight of " + weight);
+                    }
+                    weights[edgeCount] = weight;
+                }
+                edgeCount++;
+            }
+            offsets[i + 1] = edgeCount;
+        }
+        this.targets = targets;
+        this.weights = weights;
+    }
+    
+    /**
+     * Returns the number of nodes in the graph.
+     */
+    public int getNodeCount() {
+        return nodes.size();
+    }
+    
+    /**
+     * Returns the node with the given index.
+     */
+    public V getNode(int index) {
+        return nodes.get(index);
+    }
+
+    /**
+     * Returns the index of the given node or -1 if the node was not in the
+     * model when the snapshot was taken.
+     */
+    public int indexOf(V node) {
+        Integer index = indices.get(node);
+        if (index == null) return -1;
+        return index;
+    }
+
+    /**
+     * Returns the number of nodes adjacent to the node with the given index.
+     */
+    public int getAdjacentCount(int index) {
+        return offsets[index + 1] - offsets[index];
+    }
+
+    /**
+     * Returns the index of the i<sup>th</sup> node adjacent to the node with
+     * the given index.
+     */
+    public int getAdjacentNode(int index, int i) {
+        return targets[offsets[index] + i];
+    }
+
+    /**
+     * Returns the weight of the edge to the i<sup>th</sup> node adjacent to
+     * the node with the given index. This is always 1 if the model was not a
+     * {@link WeightedGraphModel}.
+     */
+    public double getAdjacentWeight(int index, int i) {
+        if (weights == null) return 1;
+        return weights[offsets[index] + i];
+    }
+}
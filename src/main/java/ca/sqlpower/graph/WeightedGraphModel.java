@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.graph;
+
+/**
+ * A {@link GraphModel} whose edges have a cost. Algorithms that look for
+ * the cheapest path, like {@link DijkstrasAlgorithm}, use the weights of a
+ * weighted model and treat every edge of any other model as having a weight
+ * of 1.
+ *
+ * @param <V> The node (vertex) type
+ * @param <E> The edge type
+ */
+public interface WeightedGraphModel<V, E> extends GraphModel<V, E> {
+
+    /**
+     * Returns the cost of following the edge from one node to an adjacent
+     * node. If there is more than one edge between the nodes the cost of the
+     * cheapest one should be returned.
+     * 
+     * @param from
+     *            The node the edge leaves from.
+     * @param to
+     *            A node in the adjacent node collection of <code>from</code>.
+     * @return The weight of the edge. Must not be negative.
+     */
+    double getEdgeWeight(V from, V to);
+}
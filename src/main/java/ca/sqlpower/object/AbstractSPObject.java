@@ -64,6 +64,12 @@ public abstract class AbstractSPObject implements SPObject {
 	 * boxes and any other side effects should not take place.
 	 */
 	private int magicDisableCount = 0;
+
+	/**
+	 * Name and type lookups over the children of this object. It is only
+	 * built and used if {@link #isChildIndexEnabled()} returns true.
+	 */
+	private final ChildIndex childIndex = new ChildIndex();
 	
 	@Constructor
 	public AbstractSPObject() {
@@ -121,7 +127,7 @@ public abstract class AbstractSPObject implements SPObject {
 		} catch (NoSuchFieldException e) {
 			throw new RuntimeException("The allowedChildTypes field must exist", e);
 		}
-		addChild(child,getChildren(childClass).size());
+		addChild(child, countChildren(childClass));
 	}
 	
     /**
@@ -187,13 +193,120 @@ public abstract class AbstractSPObject implements SPObject {
         return !getAllowedChildTypes().isEmpty();
     }
 	
+    /**
+     * Returns true if this object keeps a {@link ChildIndex} over its
+     * children. Objects that enable the index must fire a child added or
+     * child removed event for every change to their child list, or call
+     * {@link #invalidateChildIndex()} when they change the list without
+     * firing events. The index is disabled by default.
+     */
+    protected boolean isChildIndexEnabled() {
+        return false;
+    }
+
+    /**
+     * Returns the list of children the child index is built from. This must
+     * not cause the object to populate. By default this is
+     * {@link #getChildren()}.
+     */
+    protected List<? extends SPObject> getChildrenForIndex() {
+        return getChildren();
+    }
+
+    /**
+     * Forces the child index to be rebuilt the next time it is used. This
+     * must be called after children are removed from this object without a
+     * child removed event being fired.
+     */
+    protected void invalidateChildIndex() {
+        childIndex.invalidate();
+    }
+
+    /**
+     * Returns the number of children of this object that are of the given
+     * type. If the child index is enabled this does not copy or scan the
+     * child list.
+     */
+    protected int countChildren(Class<? extends SPObject> type) {
+        if (!isChildIndexEnabled()) {
+            return getChildren(type).size();
+        }
+        synchronized (childIndex) {
+            buildChildIndexIfNeeded();
+            return childIndex.count(type);
+        }
+    }
+
+    /**
+     * Returns the first child of the given type with the given name, or null
+     * if there is no such child. If the child index is enabled the child is
+     * found by a lookup in the index instead of a scan of the child list.
+     * 
+     * @param name
+     *            The name of the child to find.
+     * @param ignoreCase
+     *            True if the name comparison should not be case sensitive.
+     * @param type
+     *            The type of child to find.
+     */
+    protected <T extends SPObject> T findChildByName(String name, boolean ignoreCase, Class<T> type) {
+        if (!isChildIndexEnabled()) {
+            return findChildByName(name, ignoreCase, getChildren(type));
+        }
+        List<SPObject> candidates;
+        synchronized (childIndex) {
+            buildChildIndexIfNeeded();
+            candidates = childIndex.childrenNamed(name, ignoreCase);
+        }
+        T found = null;
+        for (SPObject candidate : candidates) {
+            if (!type.isInstance(candidate)) continue;
+            if (candidate.getParent() != this || !nameMatches(candidate, name, ignoreCase)) {
+                logger.warn("Child index of " + getName() + " is out of date, rebuilding it.");
+                childIndex.invalidate();
+                return findChildByName(name, ignoreCase, getChildren(type, getChildrenForIndex()));
+            }
+            if (found != null) {
+                // more than one match, the first one in child order wins
+                return findChildByName(name, ignoreCase, getChildren(type, getChildrenForIndex()));
+            }
+            found = type.cast(candidate);
+        }
+        return found;
+    }
+    
+    private static <T extends SPObject> T findChildByName(String name, boolean ignoreCase, List<T> children) {
+        for (T child : children) {
+            if (nameMatches(child, name, ignoreCase)) {
+                return child;
+            }
+        }
+        return null;
+    }
+    
+    private static boolean nameMatches(SPObject child, String name, boolean ignoreCase) {
+        if (child.getName() == null) {
+            return false;
+        } else if (ignoreCase) {
+            return child.getName().equalsIgnoreCase(name);
+        } else {
+            return child.getName().equals(name);
+        }
+    }
+    
+    private void buildChildIndexIfNeeded() {
+        if (!childIndex.isBuilt()) {
+            childIndex.build(getChildrenForIndex());
+        }
+    }
+	
     public int childPositionOffset(Class<? extends SPObject> childType) {  
         int offset = 0;
         for (Class<? extends SPObject> type : getAllowedChildTypes()) {
             if (type.isAssignableFrom(childType)) {
                 return offset;
             } else {
-                offset += getChildren(type).size();
+                offset += countChildren(type);
             }
         }
         throw new IllegalArgumentException(childType.getName() + 
@@ -253,6 +366,9 @@ public abstract class AbstractSPObject implements SPObject {
 	public void setName(String name) {
 		String oldName = this.name;
 		this.name = name;
+		if (parent instanceof AbstractSPObject) {
+			((AbstractSPObject) parent).childIndex.childRenamed(this, name);
+		}
 		firePropertyChange("name", oldName, name);
 	}
 
@@ -322,6 +438,7 @@ public abstract class AbstractSPObject implements SPObject {
      *         testing purposes.
      */
     protected SPChildEvent fireChildAdded(Class<? extends SPObject> type, SPObject child, int index) {
+    	childIndex.childAdded(child);
     	if (logger.isDebugEnabled()) logger.debug("Child Added: " + type + " notifying " + listeners.size() + " listeners");
     	
     	synchronized(listeners) {
@@ -360,6 +477,7 @@ public abstract class AbstractSPObject implements SPObject {
      *         testing purposes.
      */
     protected SPChildEvent fireChildRemoved(Class<? extends SPObject> type, SPObject child, int index) {
+    	childIndex.childRemoved(child);
     	logger.debug("Child Removed: " + type + " notifying " + listeners.size() + " listeners: " + listeners);
     	
     	synchronized(listeners) {
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.object;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A lookup table over the children of a single {@link AbstractSPObject}. It
+ * keeps the children grouped by name, by case-folded name and by concrete
+ * class so that finding a child by name or counting the children of a type
+ * does not require copying and scanning the parent's child list.
+ * <p>
+ * The index is built lazily from the parent's child list the first time it is
+ * needed and is then kept up to date by the parent's child added, child
+ * removed and name change notifications. Adding a child that is already
+ * indexed or removing one that is not is ignored, which lets the parent fire
+ * events for children that were put in its list before the index was built.
+ * Code that changes the child list without firing events must call
+ * {@link #invalidate()} so the index is rebuilt on next use.
+ * <p>
+ * All methods are synchronized on the index as lookups can come from
+ * threads other than the one modifying the parent.
+ */
+class ChildIndex {
+
+	/**
+	 * Every indexed child, mapped to the name it was indexed under. The
+	 * name is kept so the child can be found in the name maps again after
+	 * it has been renamed.
+	 */
+	private Map<SPObject, String> members;
+	
+	/**
+	 * Children grouped by their exact name. Children with a null name are
+	 * not in this map.
+	 */
+	private Map<String, List<SPObject>> byName;
+	
+	/**
+	 * Children grouped by their name after {@link #foldCase(String)}.
+	 */
+	private Map<String, List<SPObject>> byFoldedName;
+	
+	/**
+	 * The number of children of each concrete class.
+	 */
+	private Map<Class<?>, Integer> typeCounts;
+	
+	synchronized boolean isBuilt() {
+		return members != null;
+	}
+
+	/**
+	 * Discards the current contents of the index and indexes the given
+	 * children.
+	 */
+	synchronized void build(List<? extends SPObject> children) {
+		members = new IdentityHashMap<SPObject, String>(children.size() * 2);
+		byName = new HashMap<String, List<SPObject>>(children.size() * 2);
+		byFoldedName = new HashMap<String, List<SPObject>>(children.size() * 2);
+		typeCounts = new HashMap<Class<?>, Integer>();
+		for (SPObject child : children) {
+			add(child);
+		}
+	}
+
+	/**
+	 * Drops the index contents. The index will have to be built again before
+	 * it can be used.
+	 */
+	synchronized void invalidate() {
+		members = null;
+		byName = null;
+		byFoldedName = null;
+		typeCounts = null;
+	}
+	
+	synchronized void childAdded(SPObject child) {
+		if (isBuilt()) {
+			add(child);
+		}
+	}
+	
+	synchronized void childRemoved(SPObject child) {
+		if (!isBuilt() || !members.containsKey(child)) return;
+		String name = members.remove(child);
+		removeFromNameMaps(child, name);
+		Integer count = typeCounts.get(child.getClass());
+		if (count.intValue() == 1) {
+			typeCounts.remove(child.getClass());
+		} else {
+			typeCounts.put(child.getClass(), count - 1);
+		}
+	}
+	
+	synchronized void childRenamed(SPObject child, String newName) {
+		if (!isBuilt() || !members.containsKey(child)) return;
+		removeFromNameMaps(child, members.get(child));
+		members.put(child, newName);
+		addToNameMaps(child, newName);
+	}
+
+	/**
+	 * Returns the number of indexed children that are instances of the given
+	 * type.
+	 */
+	synchronized int count(Class<?> type) {
+		int count = 0;
+		for (Map.Entry<Class<?>, Integer> entry : typeCounts.entrySet()) {
+			if (type.isAssignableFrom(entry.getKey())) {
+				count += entry.getValue();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the children indexed under the given name, in no particular
+	 * order. The list returned is a copy and will not change with the index.
+	 * 
+	 * @param name
+	 *            The name to look for.
+	 * @param ignoreCase
+	 *            True if children whose name differs from the given name
+	 *            only by case should be returned as well.
+	 */
+	synchronized List<SPObject> childrenNamed(String name, boolean ignoreCase) {
+		if (name == null) return Collections.emptyList();
+		List<SPObject> children;
+		if (ignoreCase) {
+			children = byFoldedName.get(foldCase(name));
+		} else {
+			children = byName.get(name);
+		}
+		if (children == null) return Collections.emptyList();
+		return new ArrayList<SPObject>(children);
+	}
+	
+	private void add(SPObject child) {
+		if (members.containsKey(child)) return;
+		String name = child.getName();
+		members.put(child, name);
+		addToNameMaps(child, name);
+		Integer count = typeCounts.get(child.getClass());
+		typeCounts.put(child.getClass(), count == null ? 1 : count + 1);
+	}
+	
+	private void addToNameMaps(SPObject child, String name) {
+		if (name == null) return;
+		addToNameMap(byName, name, child);
+		addToNameMap(byFoldedName, foldCase(name), child);
+	}
+	
+	private void removeFromNameMaps(SPObject child, String name) {
+		if (name == null) return;
+		removeFromNameMap(byName, name, child);
+		removeFromNameMap(byFoldedName, foldCase(name), child);
+	}
+	
+	private static void addToNameMap(Map<String, List<SPObject>> map, String key, SPObject child) {
+		List<SPObject> children = map.get(key);
+		if (children == null) {
+			children = new ArrayList<SPObject>(1);
+			map.put(key, children);
+		}
+		children.add(child);
+	}
+	
+	private static void removeFromNameMap(Map<String, List<SPObject>> map, String key, SPObject child) {
+		List<SPObject> children = map.get(key);
+		if (children == null) return;
+		for (int i = 0; i < children.size(); i++) {
+			if (children.get(i) == child) {
+				children.remove(i);
+				break;
+			}
+		}
+		if (children.isEmpty()) {
+			map.remove(key);
+		}
+	}
+
+	/**
+	 * Folds the case of the given name the same way
+	 * {@link String#equalsIgnoreCase(String)} compares characters, so two
+	 * names fold to the same key exactly when they are equal ignoring case.
+	 */
+	static String foldCase(String name) {
+		char[] chars = name.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+		}
+		return new String(chars);
+	}
+}
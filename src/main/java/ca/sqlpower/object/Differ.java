@@ -10,6 +10,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import org.apache.log4j.Logger;
 
@@ -49,6 +52,25 @@ public class Differ implements SPPersister {
     
     private static final PersistedSPObject ROOT_PERSIST = new PersistedSPObject("0", "", "0", 0); 
     
+    /**
+     * Revisions with at least this many objects have the children of
+     * different objects diffed in parallel.
+     */
+    private static final int PARALLEL_THRESHOLD = 4096;
+    
+    /**
+     * The pool parallel diffs run in. Created the first time a large revision
+     * is diffed.
+     */
+    private static ForkJoinPool pool;
+    
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+    
     /**
      * Used by the {@link calcDiff()} method that takes a persister, to temporarily
      * store object persist calls that will be put into the old or new object revision lists. 
@@ -119,6 +141,19 @@ public class Differ implements SPPersister {
 	 * removed and added again when it is really just a single remove.
 	 */
 	private String parentClass;
+	
+	/**
+	 * Set when the object diff starts if the new revision is large enough to
+	 * be worth diffing the children of different objects in parallel.
+	 */
+	private boolean parallel;
+	
+	/**
+	 * Revisions with at least this many objects are diffed in parallel. There
+	 * is no point in doing so on a single processor.
+	 */
+	private int parallelThreshold = 
+		Runtime.getRuntime().availableProcessors() > 1 ? PARALLEL_THRESHOLD : Integer.MAX_VALUE;
     
     /**
      * A container class to store the persist calls of this differ.
@@ -141,11 +176,17 @@ public class Differ implements SPPersister {
          * {@link calcDiff()} methods to later be accessed, or persisted by {@link persistTo()}.
          */    
         protected final List<PersistedSPOProperty> propertyDiffPersists;
+        /**
+         * The objects in {@link #persistedSPOsToAdd}, to check if an object
+         * is already being added without searching the list.
+         */
+        protected final Set<PersistedSPObject> addedObjects;
         
         protected DifferPersistCalls() {
             persistedSPOsToAdd = new ArrayList<PersistedSPObject>();
             persistedSPOsToRemove = new ArrayList<PersistedSPObject>();
             propertyDiffPersists = new ArrayList<PersistedSPOProperty>();
+            addedObjects = new HashSet<PersistedSPObject>();
             
         }       
     } 
@@ -230,6 +271,14 @@ public class Differ implements SPPersister {
 		persistCalls = new DifferPersistCalls();
     }
 
+    /**
+     * Sets the number of objects a new revision must have for its children
+     * to be diffed in parallel. Lets tests exercise both paths on any machine.
+     */
+    void setParallelThreshold(int parallelThreshold) {
+    	this.parallelThreshold = parallelThreshold;
+    }
+
     /**
      * Calculates the lists of {@link PersistedSPObjects} that need to be added/removed
      * to/from the old list to make it the same as the new list.
@@ -453,6 +502,8 @@ public class Differ implements SPPersister {
     	Map<PersistedSPObject, Multimap<String, PersistedSPObject>> oldObjectTree = createObjectTree(oldObjectMap);
     	Map<PersistedSPObject, Multimap<String, PersistedSPObject>> newObjectTree = createObjectTree(newObjectMap);
     	
+    	parallel = newObjectMap.size() >= parallelThreshold;
+    	
     	if (parentClass == null) {
     		Set<String> rootKeys = new HashSet<String>();
     		Map<String, PersistedSPObject> oldRootMap = new HashMap<String, PersistedSPObject>();
@@ -480,19 +531,40 @@ public class Differ implements SPPersister {
     			PersistedSPObject newPSO = newRootMap.get(uuid);
 
     			if (oldPSO == null) {
-    				addPersistsRecursively(newPSO, newObjectTree);
+    				addPersistsRecursively(newPSO, newObjectTree, persistCalls);
     			} else if (newPSO == null) {
     				persistCalls.persistedSPOsToRemove.add(oldPSO);
     			} else if (!oldPSO.equals(newPSO)) {
     				persistCalls.persistedSPOsToRemove.add(oldPSO);
 
-    				addPersistsRecursively(newPSO, newObjectTree);
+    				addPersistsRecursively(newPSO, newObjectTree, persistCalls);
     			} else {
-    				calcChildDiff(oldPSO, oldObjectTree, newPSO, newObjectTree);
+    				diffChildren(oldPSO, oldObjectTree, newPSO, newObjectTree);
     			}
     		}
     	} else {
-    		calcChildDiff(ROOT_PERSIST, oldObjectTree, ROOT_PERSIST, newObjectTree);
+    		diffChildren(ROOT_PERSIST, oldObjectTree, ROOT_PERSIST, newObjectTree);
+    	}
+    	
+    	for (PersistedSPObject o : persistCalls.persistedSPOsToAdd) {
+    		needToAddProperties.add(o.getUUID());
+    	}
+    }
+    
+    /**
+     * Diffs the descendants of an object that exists in both revisions into
+     * this differ's persist calls, in the fork-join pool for large revisions.
+     */
+    private void diffChildren(PersistedSPObject oldParent,
+    		Map<PersistedSPObject, Multimap<String, PersistedSPObject>> oldObjectTree,
+    		PersistedSPObject newParent,
+    		Map<PersistedSPObject, Multimap<String, PersistedSPObject>> newObjectTree) {
+    	if (parallel) {
+    		ChildDiffTask task = new ChildDiffTask(oldParent, oldObjectTree, newParent, newObjectTree);
+    		getPool().invoke(task);
+    		task.mergeInto(persistCalls);
+    	} else {
+    		calcChildDiff(oldParent, oldObjectTree, newParent, newObjectTree, persistCalls);
     	}
     }
     
@@ -511,18 +583,30 @@ public class Differ implements SPPersister {
     
     /**
 	 * Calculating the difference between child objects by comparing the
-	 * children of the same type. This method walks each list of children
-	 * looking for differences and deciding if the differences are an add,
-	 * remove, or move. This is done over comparing each persist individually
-	 * because a remove or add near the start of the list causes all of the
-	 * indexes to be changed which causes all of the following objects to be
-	 * removed and added when it could instead be a single add or remove which
-	 * causes the index change.
+	 * children of the same type. Doing this over comparing each persist
+	 * individually matters because a remove or add near the start of the list
+	 * changes all of the following indexes, which would otherwise cause all of
+	 * the following objects to be removed and added when a single add or
+	 * remove would do.
+	 * <p>
+	 * For each type the positions of the old children in the new list are
+	 * looked up by UUID, and the longest increasing subsequence of those
+	 * positions is the largest set of children that can stay where they are.
+	 * Every other old child is removed and every other new child is added
+	 * with its descendants, which takes O(n log n) time for n children and
+	 * gives the fewest removes and adds. Children that stay have their own
+	 * children diffed, in parallel if this diff is running in the fork-join
+	 * pool.
+	 * 
+	 * @param calls
+	 *            The persist calls the diff of this parent's children is
+	 *            added to.
 	 */
     private void calcChildDiff(PersistedSPObject oldParent,
     		Map<PersistedSPObject, Multimap<String, PersistedSPObject>> oldObjectTree,
 			PersistedSPObject newParent,
-			Map<PersistedSPObject, Multimap<String, PersistedSPObject>> newObjectTree) {
+			Map<PersistedSPObject, Multimap<String, PersistedSPObject>> newObjectTree,
+			DifferPersistCalls calls) {
     	Multimap<String, PersistedSPObject> oldTypeMapping = oldObjectTree.get(oldParent);
     	Multimap<String, PersistedSPObject> newTypeMapping = newObjectTree.get(newParent);
     	Set<String> types = new HashSet<String>();
@@ -550,97 +634,149 @@ public class Differ implements SPPersister {
 
     		Collections.sort(oldChildren, new IndexComparator());
     		Collections.sort(newChildren, new IndexComparator());
-
-    		int oldIdx = 0;
-    		int newIdx = 0;
-    		//We track the objects treated as already inserted or removed and skip them so we don't double persist.
-    		Set<PersistedSPObject> oldHandledPersists = new HashSet<PersistedSPObject>();
-    		Set<PersistedSPObject> newHandledPersists = new HashSet<PersistedSPObject>();
-    		while (oldIdx < oldChildren.size() && newIdx < newChildren.size()) {
-    			PersistedSPObject oldObj = oldChildren.get(oldIdx);
-    			while (oldHandledPersists.contains(oldObj)) {
-    				oldIdx++;
-    				oldObj = oldChildren.get(oldIdx);
+    		
+    		Map<String, Integer> newPositions = new HashMap<String, Integer>(newChildren.size() * 2);
+    		for (int i = 0; i < newChildren.size(); i++) {
+    			newPositions.put(newChildren.get(i).getUUID(), i);
+    		}
+    		
+    		//The new position of each old child that still exists, in old order.
+    		int[] positions = new int[oldChildren.size()];
+    		int matched = 0;
+    		PersistedSPObject[] oldAtNewPosition = new PersistedSPObject[newChildren.size()];
+    		for (PersistedSPObject oldObj : oldChildren) {
+    			Integer position = newPositions.get(oldObj.getUUID());
+    			if (position != null) {
+    				positions[matched++] = position;
+    				oldAtNewPosition[position] = oldObj;
+    			}
+    		}
+    		
+    		boolean[] stays = new boolean[newChildren.size()];
+    		for (int position : longestIncreasingSubsequence(positions, matched)) {
+    			stays[position] = true;
+    		}
+    		
+    		for (PersistedSPObject oldObj : oldChildren) {
+    			Integer position = newPositions.get(oldObj.getUUID());
+    			if (position == null || !stays[position]) {
+    				calls.persistedSPOsToRemove.add(oldObj);
     			}
-    			PersistedSPObject newObj = newChildren.get(newIdx);
-    			while (newHandledPersists.contains(newObj)) {
-    				newIdx++;
-    				newObj = newChildren.get(newIdx);
+    		}
+    		
+    		Map<PersistedSPObject, ChildDiffTask> tasks = Collections.emptyMap();
+    		if (parallel && ForkJoinTask.inForkJoinPool()) {
+    			tasks = new HashMap<PersistedSPObject, ChildDiffTask>();
+    			for (int i = 0; i < newChildren.size(); i++) {
+    				PersistedSPObject newObj = newChildren.get(i);
+    				if (stays[i] && (oldObjectTree.containsKey(oldAtNewPosition[i]) || newObjectTree.containsKey(newObj))) {
+    					tasks.put(newObj, new ChildDiffTask(oldAtNewPosition[i], oldObjectTree, newObj, newObjectTree));
+    				}
     			}
-    			if (oldObj.getUUID().equals(newObj.getUUID())) {
-    				calcChildDiff(oldObj, oldObjectTree, newObj, newObjectTree);
-    				oldIdx++;
-    				newIdx++;
+    			if (tasks.size() > 1) {
+    				ForkJoinTask.invokeAll(tasks.values());
     			} else {
-    				//we need to figure out which side we are going to move.
-    				//The object with the shorter distance gets moved.
-    				int oldShiftIdx = 0;
-    				for (; oldShiftIdx + oldIdx < oldChildren.size(); oldShiftIdx++) {
-    					if (oldChildren.get(oldShiftIdx + oldIdx).getUUID().equals(newObj.getUUID())) break;
-    				}
-    				int newShiftIdx = 0;
-    				for (; newShiftIdx + newIdx < newChildren.size(); newShiftIdx++) {
-    					if (newChildren.get(newShiftIdx + newIdx).getUUID().equals(oldObj.getUUID())) break;
-    				}
-
-    				boolean incOldIdx = false;
-    				boolean incNewIdx = false;
-    				if (oldShiftIdx + oldIdx >= oldChildren.size()) {
-    					//Couldn't find new in old list. Add object and descendants
-    					addPersistsRecursively(newObj, newObjectTree);
-    					incNewIdx = true;
-    				}
-    				if (newShiftIdx + newIdx >= newChildren.size()) {
-    					//Couldn't find old in new list. remove object
-    					persistCalls.persistedSPOsToRemove.add(oldObj);
-    					incOldIdx = true;
-    				}
-    				if ((oldShiftIdx + oldIdx < oldChildren.size()) && (newShiftIdx + newIdx < newChildren.size())) {
-    					//This is a move. We only have to move the object with the lower value though.
-    					//If equal the rearrangement is a wash for performance.
-    					if (oldShiftIdx <= newShiftIdx) {
-    						persistCalls.persistedSPOsToRemove.add(oldObj);
-    						PersistedSPObject addObj = newChildren.get(newShiftIdx + newIdx);
-    						addPersistsRecursively(addObj, newObjectTree);
-    						newHandledPersists.add(addObj);
-    						incOldIdx = true;
-    					} else {
-    						PersistedSPObject remObj = oldChildren.get(oldShiftIdx + oldIdx);
-    						persistCalls.persistedSPOsToRemove.add(remObj);
-    						addPersistsRecursively(newObj, newObjectTree);
-    						oldHandledPersists.add(remObj);
-    						incNewIdx = true;
-    					}
-    				}
-    				//Increment indexes after we do comparisons.
-    				if (incOldIdx) oldIdx++;
-    				if (incNewIdx) newIdx++;
+    				tasks = Collections.emptyMap();
     			}
     		}
-
-    		while (oldIdx < oldChildren.size()) {
-    			PersistedSPObject oldObj = oldChildren.get(oldIdx);
-    			persistCalls.persistedSPOsToRemove.add(oldObj);
-    			oldIdx++;
-    		} 
-    		while (newIdx < newChildren.size()) {
-    			PersistedSPObject newObj = newChildren.get(newIdx);
-    			addPersistsRecursively(newObj, newObjectTree);
-    			newIdx++;
+    		
+    		for (int i = 0; i < newChildren.size(); i++) {
+    			PersistedSPObject newObj = newChildren.get(i);
+    			if (!stays[i]) {
+    				addPersistsRecursively(newObj, newObjectTree, calls);
+    			} else if (tasks.containsKey(newObj)) {
+    				tasks.get(newObj).mergeInto(calls);
+    			} else {
+    				calcChildDiff(oldAtNewPosition[i], oldObjectTree, newObj, newObjectTree, calls);
+    			}
     		}
     	}
     	
 	}
+
+	/**
+	 * Returns the indexes into the given values of a longest strictly
+	 * increasing subsequence of the first length values, in ascending order.
+	 * Each value is added to the end of the longest subsequence found so far
+	 * that it can extend, found by binary search over the smallest last value
+	 * of each subsequence length.
+	 */
+    private static int[] longestIncreasingSubsequence(int[] values, int length) {
+    	//tails[k] is the index of the smallest last value of any increasing subsequence of length k + 1.
+    	int[] tails = new int[length];
+    	int[] previous = new int[length];
+    	int longest = 0;
+    	for (int i = 0; i < length; i++) {
+    		int lo = 0;
+    		int hi = longest;
+    		while (lo < hi) {
+    			int mid = (lo + hi) >>> 1;
+    			if (values[tails[mid]] < values[i]) {
+    				lo = mid + 1;
+    			} else {
+    				hi = mid;
+    			}
+    		}
+    		previous[i] = lo > 0 ? tails[lo - 1] : -1;
+    		tails[lo] = i;
+    		if (lo == longest) longest++;
+    	}
+    	int[] result = new int[longest];
+    	for (int k = longest - 1, i = longest > 0 ? tails[longest - 1] : -1; k >= 0; k--, i = previous[i]) {
+    		result[k] = values[i];
+    	}
+    	return result;
+    }
+
+	/**
+	 * Diffs the children of an object that stayed in place in its own
+	 * {@link DifferPersistCalls} so sibling subtrees can be diffed at the same
+	 * time. The results are merged back in the order the children appear in
+	 * so the diff is the same as when it is calculated on one thread.
+	 */
+    private class ChildDiffTask extends RecursiveAction {
+    	
+    	private final PersistedSPObject oldParent;
+    	private final Map<PersistedSPObject, Multimap<String, PersistedSPObject>> oldObjectTree;
+    	private final PersistedSPObject newParent;
+    	private final Map<PersistedSPObject, Multimap<String, PersistedSPObject>> newObjectTree;
+    	private final DifferPersistCalls calls = new DifferPersistCalls();
+    	
+    	ChildDiffTask(PersistedSPObject oldParent,
+    			Map<PersistedSPObject, Multimap<String, PersistedSPObject>> oldObjectTree,
+    			PersistedSPObject newParent,
+    			Map<PersistedSPObject, Multimap<String, PersistedSPObject>> newObjectTree) {
+    		this.oldParent = oldParent;
+    		this.oldObjectTree = oldObjectTree;
+    		this.newParent = newParent;
+    		this.newObjectTree = newObjectTree;
+    	}
+    	
+    	@Override
+    	protected void compute() {
+    		calcChildDiff(oldParent, oldObjectTree, newParent, newObjectTree, calls);
+    	}
+    	
+    	void mergeInto(DifferPersistCalls target) {
+    		target.persistedSPOsToRemove.addAll(calls.persistedSPOsToRemove);
+    		for (PersistedSPObject o : calls.persistedSPOsToAdd) {
+    			if (target.addedObjects.add(o)) {
+    				target.persistedSPOsToAdd.add(o);
+    			}
+    		}
+    	}
+    }
     
-    private void addPersistsRecursively(PersistedSPObject object, Map<PersistedSPObject, Multimap<String, PersistedSPObject>> newObjectTree) {
-    	if (!persistCalls.persistedSPOsToAdd.contains(object)) {
-    		persistCalls.persistedSPOsToAdd.add(object);
-    		needToAddProperties.add(object.getUUID());
+    private void addPersistsRecursively(PersistedSPObject object, 
+    		Map<PersistedSPObject, Multimap<String, PersistedSPObject>> newObjectTree,
+    		DifferPersistCalls calls) {
+    	if (calls.addedObjects.add(object)) {
+    		calls.persistedSPOsToAdd.add(object);
     	}
     	Multimap<String, PersistedSPObject> typeMap = newObjectTree.get(object);
     	if (typeMap != null) {
     		for (PersistedSPObject pso : typeMap.values()) {
-    			addPersistsRecursively(pso, newObjectTree);
+    			addPersistsRecursively(pso, newObjectTree, calls);
     		}
     	}
     }
@@ -884,7 +1020,7 @@ public class Differ implements SPPersister {
         for (int i = 0; i < persistCalls.persistedSPOsToAdd.size(); i++) {
             if (persistCalls.persistedSPOsToAdd.get(i).getParentUUID().equals(workspaceUUID)) {
                 rootUUID = persistCalls.persistedSPOsToAdd.get(i).getUUID();
-                persistCalls.persistedSPOsToAdd.remove(i);
+                persistCalls.addedObjects.remove(persistCalls.persistedSPOsToAdd.remove(i));
                 break;
             }  
         }
@@ -904,12 +1040,15 @@ public class Differ implements SPPersister {
             for (int i = 0; i < persistCalls.persistedSPOsToAdd.size(); i++) {
                 PersistedSPObject child = persistCalls.persistedSPOsToAdd.get(i);
                 if (child.getParentUUID().equals(rootUUID)) {                    
-                    persistCalls.persistedSPOsToAdd.add(new PersistedSPObject(
+                    PersistedSPObject reparented = new PersistedSPObject(
                             newRootUUID,                            
                             child.getType(),
                             child.getUUID(),
-                            child.getIndex()));
-                    persistCalls.persistedSPOsToAdd.remove(i);
+                            child.getIndex());
+                    persistCalls.addedObjects.remove(persistCalls.persistedSPOsToAdd.remove(i));
+                    if (persistCalls.addedObjects.add(reparented)) {
+                        persistCalls.persistedSPOsToAdd.add(reparented);
+                    }
                     i--;
                 }
             }                        
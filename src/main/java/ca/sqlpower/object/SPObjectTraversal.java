@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.object;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import ca.sqlpower.object.SPObjectVisitor.VisitResult;
+import ca.sqlpower.sqlobject.SQLObject;
+
+/**
+ * Walks trees of {@link SPObject}s without recursion. The walks keep their
+ * own stack so deep trees cannot overflow the call stack, and they read
+ * the children of {@link SQLObject}s without populating them so a walk never
+ * goes to the database.
+ * <p>
+ * The children of each object are read once, when the walk reaches the
+ * object, so the visitor must not add or remove children of objects that
+ * have not been visited yet.
+ */
+public final class SPObjectTraversal {
+
+	private SPObjectTraversal() {
+		// static utility class
+	}
+
+	/**
+	 * Returns the children of the given object as the traversals see them.
+	 * {@link SQLObject}s are not populated and objects that do not allow
+	 * children are not asked for their child list at all.
+	 */
+	public static List<? extends SPObject> childrenOf(SPObject o) {
+		if (!o.allowsChildren()) return Collections.emptyList();
+		List<? extends SPObject> children;
+		if (o instanceof SQLObject) {
+			children = ((SQLObject) o).getChildrenWithoutPopulating();
+		} else {
+			children = o.getChildren();
+		}
+		if (children == null) return Collections.emptyList();
+		return children;
+	}
+
+	/**
+	 * Visits the given object and then its descendants, visiting each child
+	 * before the children that follow it.
+	 * 
+	 * @param root
+	 *            The object at the top of the tree to walk. Must not be null.
+	 * @param visitor
+	 *            The visitor to call for each object.
+	 * @return The object the visitor stopped the walk at or null if the
+	 *         whole tree was walked.
+	 */
+	public static SPObject preOrder(SPObject root, SPObjectVisitor visitor) {
+		if (root == null) {
+			throw new IllegalArgumentException("Cannot walk a null tree");
+		}
+		Deque<SPObject> stack = new ArrayDeque<SPObject>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			SPObject o = stack.pop();
+			VisitResult result = visitor.visit(o);
+			if (result == VisitResult.STOP) return o;
+			if (result == VisitResult.SKIP_CHILDREN) continue;
+			
+			List<? extends SPObject> children = childrenOf(o);
+			ListIterator<? extends SPObject> it = children.listIterator(children.size());
+			while (it.hasPrevious()) {
+				stack.push(it.previous());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Visits the descendants of the given object before visiting the object
+	 * itself. This is the order to use when removing or cleaning up a tree
+	 * from the bottom up.
+	 * 
+	 * @param root
+	 *            The object at the top of the tree to walk. Must not be null.
+	 * @param visitor
+	 *            The visitor to call for each object.
+	 * @return The object the visitor stopped the walk at or null if the
+	 *         whole tree was walked.
+	 */
+	public static SPObject postOrder(SPObject root, SPObjectVisitor visitor) {
+		if (root == null) {
+			throw new IllegalArgumentException("Cannot walk a null tree");
+		}
+		Deque<SPObject> nodes = new ArrayDeque<SPObject>();
+		Deque<Iterator<? extends SPObject>> children = new ArrayDeque<Iterator<? extends SPObject>>();
+		nodes.push(root);
+		children.push(childrenOf(root).iterator());
+		while (!nodes.isEmpty()) {
+			Iterator<? extends SPObject> it = children.peek();
+			if (it.hasNext()) {
+				SPObject child = it.next();
+				nodes.push(child);
+				children.push(childrenOf(child).iterator());
+			} else {
+				children.pop();
+				SPObject o = nodes.pop();
+				if (visitor.visit(o) == VisitResult.STOP) return o;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Visits the given object on the calling thread and then walks the
+	 * subtree of each of its children in pre-order on the given executor.
+	 * This is only meant for read-only work on a tree that is not changing;
+	 * the visitor will be called from several threads at once and must be
+	 * thread safe. If the visitor stops the walk in one subtree the walks of
+	 * the other subtrees stop at the next object they reach.
+	 * 
+	 * @param root
+	 *            The object at the top of the tree to walk. Must not be null.
+	 * @param visitor
+	 *            The thread safe visitor to call for each object.
+	 * @param executor
+	 *            The executor to walk the subtrees on.
+	 * @return An object the visitor stopped the walk at or null if the whole
+	 *         tree was walked. If more than one subtree was stopped the
+	 *         object from the first child's subtree is returned.
+	 * @throws InterruptedException
+	 *             If the calling thread is interrupted while waiting for the
+	 *             subtree walks to finish.
+	 */
+	public static SPObject visitInParallel(SPObject root, final SPObjectVisitor visitor, 
+			ExecutorService executor) throws InterruptedException {
+		if (root == null) {
+			throw new IllegalArgumentException("Cannot walk a null tree");
+		}
+		VisitResult result = visitor.visit(root);
+		if (result == VisitResult.STOP) return root;
+		if (result == VisitResult.SKIP_CHILDREN) return null;
+		
+		final AtomicBoolean stopped = new AtomicBoolean(false);
+		
+		List<? extends SPObject> rootChildren = childrenOf(root);
+		List<Future<SPObject>> walks = new ArrayList<Future<SPObject>>(rootChildren.size());
+		try {
+			for (final SPObject child : rootChildren) {
+				walks.add(executor.submit(new Callable<SPObject>() {
+					public SPObject call() throws Exception {
+						SubtreeVisitor subtreeVisitor = new SubtreeVisitor(visitor, stopped);
+						preOrder(child, subtreeVisitor);
+						return subtreeVisitor.stoppedAt;
+					}
+				}));
+			}
+			SPObject stoppedAt = null;
+			for (Future<SPObject> walk : walks) {
+				SPObject found = walk.get();
+				if (stoppedAt == null && found != null) {
+					stoppedAt = found;
+				}
+			}
+			return stoppedAt;
+		} catch (ExecutionException e) {
+			stopped.set(true);
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new RuntimeException(cause);
+		} finally {
+			for (Future<SPObject> walk : walks) {
+				walk.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Wraps the visitor of a parallel walk so that a stop in one subtree
+	 * stops the walks of the other subtrees. Only the walk that was stopped
+	 * by the visitor itself records where it stopped.
+	 */
+	private static class SubtreeVisitor implements SPObjectVisitor {
+		
+		private final SPObjectVisitor visitor;
+		
+		/**
+		 * Shared by all of the subtree walks of one parallel walk.
+		 */
+		private final AtomicBoolean stopped;
+		
+		/**
+		 * The object the wrapped visitor stopped this walk at, if any.
+		 */
+		private SPObject stoppedAt;
+		
+		public SubtreeVisitor(SPObjectVisitor visitor, AtomicBoolean stopped) {
+			this.visitor = visitor;
+			this.stopped = stopped;
+		}
+		
+		public VisitResult visit(SPObject o) {
+			if (stopped.get()) return VisitResult.STOP;
+			VisitResult result = visitor.visit(o);
+			if (result == VisitResult.STOP) {
+				stoppedAt = o;
+				stopped.set(true);
+			}
+			return result;
+		}
+	}
+}
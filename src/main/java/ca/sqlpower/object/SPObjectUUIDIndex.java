@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.object;
+
+import java.beans.PropertyChangeEvent;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import ca.sqlpower.util.SQLPowerUtils;
+
+/**
+ * A map of every {@link SPObject} in a tree keyed by UUID. The index is built
+ * once when it is created and then kept up to date from the child added,
+ * child removed and UUID change events fired by the objects in the tree, so
+ * looking up an object never walks the tree.
+ * <p>
+ * One index is meant to be shared by everything that needs to find objects
+ * in the same workspace, like the {@link ca.sqlpower.dao.SPSessionPersister}
+ * updating the workspace and the undo and rollback code that reverses its
+ * changes. Call {@link #cleanup()} when the index is no longer needed to
+ * stop it listening to the tree.
+ * <p>
+ * As the index listens to every object in the tree, the objects must fire
+ * their events on the foreground thread as with any other hierarchy
+ * listener.
+ */
+public class SPObjectUUIDIndex {
+
+	/**
+	 * The objects in the tree rooted at {@link #root}, keyed by their UUID.
+	 */
+	private final Map<String, SPObject> index = new HashMap<String, SPObject>();
+	
+	/**
+	 * The root of the tree this index covers.
+	 */
+	private final SPObject root;
+	
+	/**
+	 * Adds and removes the subtree of added and removed children and tracks
+	 * UUID changes.
+	 */
+	private final SPListener treeListener = new AbstractSPListener() {
+		
+		@Override
+		public void childAdded(SPChildEvent e) {
+			SQLPowerUtils.listenToHierarchy(e.getChild(), this);
+			SQLPowerUtils.addToIdMap(e.getChild(), index);
+		}
+		
+		@Override
+		public void childRemoved(SPChildEvent e) {
+			SQLPowerUtils.unlistenToHierarchy(e.getChild(), this);
+			for (Map.Entry<String, SPObject> removed : SQLPowerUtils.buildIdMap(e.getChild()).entrySet()) {
+				// an object with the same UUID may already have replaced the removed one
+				if (index.get(removed.getKey()) == removed.getValue()) {
+					index.remove(removed.getKey());
+				}
+			}
+		}
+		
+		@Override
+		public void propertyChanged(PropertyChangeEvent evt) {
+			if (!"UUID".equals(evt.getPropertyName())) return;
+			SPObject source = (SPObject) evt.getSource();
+			if (index.get(evt.getOldValue()) == source) {
+				index.remove(evt.getOldValue());
+			}
+			index.put(source.getUUID(), source);
+		}
+	};
+	
+	/**
+	 * Indexes the tree rooted at the given object and starts listening to it
+	 * for changes.
+	 */
+	public SPObjectUUIDIndex(SPObject root) {
+		if (root == null) {
+			throw new IllegalArgumentException("Root object is null");
+		}
+		this.root = root;
+		SQLPowerUtils.addToIdMap(root, index);
+		SQLPowerUtils.listenToHierarchy(root, treeListener);
+	}
+	
+	public SPObject getRoot() {
+		return root;
+	}
+
+	/**
+	 * Returns the object in the tree with the given UUID, or null if there is
+	 * no such object.
+	 * 
+	 * @throws ClassCastException
+	 *             if the object is not of the expected type.
+	 */
+	public <T extends SPObject> T get(String uuid, Class<T> expectedType) {
+		return expectedType.cast(index.get(uuid));
+	}
+	
+	public boolean contains(String uuid) {
+		return index.containsKey(uuid);
+	}
+	
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * Returns an unmodifiable view of the index. The view follows changes to
+	 * the tree.
+	 */
+	public Map<String, SPObject> asMap() {
+		return Collections.unmodifiableMap(index);
+	}
+
+	/**
+	 * Returns true if the given object or any of its ancestors has a UUID in
+	 * the given map. This follows parent references up from the object and
+	 * does not need to look at any other part of the tree.
+	 */
+	public static boolean isSelfOrAncestorIn(SPObject spo, Map<String, ?> uuids) {
+		if (uuids.isEmpty()) return false;
+		for (SPObject ancestor = spo; ancestor != null; ancestor = ancestor.getParent()) {
+			if (uuids.containsKey(ancestor.getUUID())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Stops listening to the tree. The index will not be updated after this
+	 * call.
+	 */
+	public void cleanup() {
+		SQLPowerUtils.unlistenToHierarchy(root, treeListener);
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.object;
+
+/**
+ * A callback for walking a tree of {@link SPObject}s with
+ * {@link SPObjectTraversal}. The value returned from {@link #visit(SPObject)}
+ * controls where the walk goes next, which lets a search stop as soon as it
+ * finds what it is looking for.
+ */
+public interface SPObjectVisitor {
+
+	/**
+	 * Tells the traversal what to do after an object has been visited.
+	 */
+	public enum VisitResult {
+		
+		/**
+		 * Keep walking the tree, including the children of the object just
+		 * visited.
+		 */
+		CONTINUE,
+		
+		/**
+		 * Keep walking the tree but do not visit the descendants of the
+		 * object just visited. In a post-order walk the descendants have
+		 * already been visited so this is the same as {@link #CONTINUE}.
+		 */
+		SKIP_CHILDREN,
+		
+		/**
+		 * Stop the walk. The object just visited is returned from the
+		 * traversal.
+		 */
+		STOP
+	}
+
+	/**
+	 * Called once for each object in the tree being walked.
+	 * 
+	 * @param o
+	 *            The object being visited. Never null.
+	 * @return Where the traversal should go next. Must not be null.
+	 */
+	VisitResult visit(SPObject o);
+}
@@ -25,6 +25,10 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.collections.map.MultiValueMap;
 import org.apache.log4j.Logger;
@@ -32,17 +36,86 @@ import org.apache.log4j.Logger;
 /**
  * This class keeps track of {@link SPVariableResolver}s that can resolve
  * namespaces and register to {@link SPObject} root objects.
+ * <p>
+ * Lookups do not lock the registry. Each root keeps an index of the
+ * resolvers for each namespace that has been looked up, which is rebuilt
+ * when a resolver is registered or deregistered or when
+ * {@link #namespacesChanged(SPObject)} is called. Resolvers whose namespaces
+ * can change must call that method when they do.
  */
 public class SPResolverRegistry {
 	
 	private static final Logger logger = Logger.getLogger(SPResolverRegistry.class);
 	
 	/**
-	 * Maps a root SPObject to a list of resolvers.
+	 * Maps a root SPObject to its resolvers.
 	 */
-	private static Map<String, List<SPVariableResolver>> resolvers = Collections.synchronizedMap(new WeakHashMap<String, List<SPVariableResolver>>());
+	private static Map<String, RootResolvers> resolvers = Collections.synchronizedMap(new WeakHashMap<String, RootResolvers>());
 	private static Map<String, TreeListener> listeners = Collections.synchronizedMap(new WeakHashMap<String, TreeListener>());
 	
+	/**
+	 * Incremented every time a resolver is registered or deregistered, or a
+	 * variable or namespace changes. See {@link #getVersion()}.
+	 */
+	private static final AtomicLong version = new AtomicLong();
+	
+	/**
+	 * The resolvers that resolve each namespace looked up, in registration
+	 * order.
+	 */
+	private static class NamespaceIndex {
+		
+		private final ConcurrentMap<String, List<SPVariableResolver>> byNamespace = 
+			new ConcurrentHashMap<String, List<SPVariableResolver>>();
+
+		/**
+		 * The resolvers for the null namespace, which cannot be a key of
+		 * {@link #byNamespace}. Null until it is looked up.
+		 */
+		private volatile List<SPVariableResolver> noNamespace;
+	}
+	
+	/**
+	 * The resolvers registered to one root object.
+	 */
+	private static class RootResolvers {
+		
+		private final List<SPVariableResolver> registered = new CopyOnWriteArrayList<SPVariableResolver>();
+
+		/**
+		 * This is replaced with an empty index when the resolvers change so a
+		 * lookup that started before the change cannot put a stale list in
+		 * the new index.
+		 */
+		private volatile NamespaceIndex index = new NamespaceIndex();
+		
+		List<SPVariableResolver> forNamespace(String namespace) {
+			NamespaceIndex current = index;
+			List<SPVariableResolver> matches = (namespace == null ? 
+					current.noNamespace : current.byNamespace.get(namespace));
+			if (matches == null) {
+				List<SPVariableResolver> found = new ArrayList<SPVariableResolver>();
+				for (SPVariableResolver resolver : registered) {
+					if (resolver.resolvesNamespace(namespace)) {
+						found.add(resolver);
+					}
+				}
+				matches = Collections.unmodifiableList(found);
+				if (namespace == null) {
+					current.noNamespace = matches;
+				} else {
+					current.byNamespace.putIfAbsent(namespace, matches);
+				}
+			}
+			return matches;
+		}
+		
+		void changed() {
+			index = new NamespaceIndex();
+			version.incrementAndGet();
+		}
+	}
+	
 	private SPResolverRegistry() {
 		// Everything in this class is static.
 		// No need to create instances of it.
@@ -85,17 +158,31 @@ public class SPResolverRegistry {
 			return null;
 		}
 		
+		SPObject root = getRoot(treeElement);
+		getRootResolvers(root);
+		return root;
+	}
+
+	/**
+	 * Returns the resolvers of the given root object, initializing the root
+	 * if this is the first time it is used.
+	 */
+	private static RootResolvers getRootResolvers(SPObject root) {
+		RootResolvers rootResolvers = resolvers.get(root.getUUID());
+		if (rootResolvers != null) {
+			return rootResolvers;
+		}
 		synchronized (resolvers) {
-			SPObject root = getRoot(treeElement);
 			// No need to init this tree twice.
-			if (!resolvers.containsKey(root.getUUID())) {
-				// Init this placeholder with an empty list
-				resolvers.put(root.getUUID(), Collections.synchronizedList(new ArrayList<SPVariableResolver>()));
+			rootResolvers = resolvers.get(root.getUUID());
+			if (rootResolvers == null) {
+				rootResolvers = new RootResolvers();
+				resolvers.put(root.getUUID(), rootResolvers);
 				listeners.put(root.getUUID(), new TreeListener());
 				// Now listen to the hierarchy for UUID change
 				root.addSPListener(listeners.get(root.getUUID()));
 			}
-			return root;
+			return rootResolvers;
 		}
 	}
 
@@ -111,11 +198,12 @@ public class SPResolverRegistry {
 	 */
 	public static void register(SPObject treeMember, SPVariableResolver resolver) {
 		if (treeMember != null && resolver != null) {
-			synchronized (resolvers) {
-				SPObject root = init(treeMember);
-				if (!resolvers.get(root.getUUID()).contains(resolver)) {
+			RootResolvers rootResolvers = getRootResolvers(getRoot(treeMember));
+			synchronized (rootResolvers) {
+				if (!rootResolvers.registered.contains(resolver)) {
 					logger.debug("Registering resolver - Namespace:" + resolver.getNamespace() + " bound to node:" + treeMember.getName());
-					resolvers.get(root.getUUID()).add(resolver);
+					rootResolvers.registered.add(resolver);
+					rootResolvers.changed();
 				}
 			}
 		}
@@ -133,14 +221,49 @@ public class SPResolverRegistry {
 	 */
 	public static void deregister(SPObject treeMember, SPVariableResolver resolver) {
 		if (treeMember != null && resolver != null) {
-			synchronized (resolvers) {
-				SPObject root = init(treeMember);
+			RootResolvers rootResolvers = getRootResolvers(getRoot(treeMember));
+			synchronized (rootResolvers) {
 				logger.debug("Deregistering resolver - Namespace:" + resolver.getNamespace() + " bound to node:" + treeMember.getName());
-				resolvers.get(root.getUUID()).remove(resolver);
+				rootResolvers.registered.remove(resolver);
+				rootResolvers.changed();
 			}
 		}
 	}
 
+	/**
+	 * Tells the registry that the namespaces resolved by a resolver
+	 * registered to the root of the given {@link SPObject} have changed, so
+	 * the namespace index of the root has to be rebuilt.
+	 */
+	public static void namespacesChanged(SPObject treeMember) {
+		if (treeMember != null) {
+			RootResolvers rootResolvers = resolvers.get(getRoot(treeMember).getUUID());
+			if (rootResolvers != null) {
+				rootResolvers.changed();
+				return;
+			}
+		}
+		version.incrementAndGet();
+	}
+
+	/**
+	 * Tells the registry that the value of a variable stored in a resolver
+	 * has changed. This only invalidates resolved values cached by
+	 * {@link SPVariableHelper}s.
+	 */
+	public static void variablesChanged() {
+		version.incrementAndGet();
+	}
+
+	/**
+	 * Returns a number that changes every time a resolver is registered or
+	 * deregistered, or a variable or namespace changes. Values resolved while
+	 * the version stays the same can be reused.
+	 */
+	public static long getVersion() {
+		return version.get();
+	}
+
 	/**
 	 * Creates a {@link List} of registered {@link SPVariableResolver}s that
 	 * resolves a given namespace for the root of a given {@link SPObject}.
@@ -149,28 +272,14 @@ public class SPResolverRegistry {
 	 *            The {@link SPObject} whose root to get the resolvers from.
 	 * @param namespace
 	 *            The namespace that the resolvers should resolve.
-	 * @return The created {@link List}.
+	 * @return The created {@link List}. It cannot be modified.
 	 */
 	public static List<SPVariableResolver> getResolvers(SPObject treeMember, String namespace) {
 		if (treeMember == null) {
 			return Collections.emptyList();
 		}
 		
-		synchronized (resolvers) {
-			SPObject root = init(treeMember);
-			if (root != null) {
-				List<SPVariableResolver> registeredResolvers = resolvers.get(root.getUUID());
-				List<SPVariableResolver> matches = new ArrayList<SPVariableResolver>();
-				for (SPVariableResolver resolver: registeredResolvers) {
-					if (resolver.resolvesNamespace(namespace)) {
-						matches.add(resolver);
-					}
-				}
-				return matches;
-			} else {
-				return Collections.emptyList();
-			}
-		}
+		return getRootResolvers(getRoot(treeMember)).forNamespace(namespace);
 	}
 
 	/**
@@ -184,19 +293,11 @@ public class SPResolverRegistry {
 	 * @return The first {@link SPVariableResolver} found.
 	 */
 	public static SPVariableResolver getResolver(SPObject treeMember, String namespace) {
-		if (treeMember == null) {
-			return null;
-		}
-		
-		synchronized (resolvers) {
-			SPObject root = init(treeMember);
-			for (SPVariableResolver resolver: resolvers.get(root.getUUID())) {
-				if (resolver.resolvesNamespace(namespace)) {
-					return resolver;
-				}
-			}
+		List<SPVariableResolver> matches = getResolvers(treeMember, namespace);
+		if (matches.isEmpty()) {
 			return null;
 		}
+		return matches.get(0);
 	}
 
 	/**
@@ -212,14 +313,11 @@ public class SPResolverRegistry {
 			return new MultiValueMap();
 		}
 		
-		synchronized (resolvers) {
-			MultiValueMap results = new MultiValueMap();
-			SPObject root = init(treeMember);
-			for (SPVariableResolver resolver: resolvers.get(root.getUUID())) {
-				results.put(resolver.getUserFriendlyName(), resolver.getNamespace());
-			}
-			return results;
+		MultiValueMap results = new MultiValueMap();
+		for (SPVariableResolver resolver: getRootResolvers(getRoot(treeMember)).registered) {
+			results.put(resolver.getUserFriendlyName(), resolver.getNamespace());
 		}
+		return results;
 	}
 
 	/**
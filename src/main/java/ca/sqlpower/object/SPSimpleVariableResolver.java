@@ -86,6 +86,7 @@ public class SPSimpleVariableResolver implements SPVariableResolver {
 	 */
 	public void setNamespace(String namespace) {
 		this.namespace = namespace;
+		SPResolverRegistry.namespacesChanged(owner);
 	}
 	
 	/**
@@ -93,6 +94,7 @@ public class SPSimpleVariableResolver implements SPVariableResolver {
 	 */
 	public void clear() {
 		this.variables.clear();
+		SPResolverRegistry.variablesChanged();
 	}
 	
 	/**
@@ -110,6 +112,7 @@ public class SPSimpleVariableResolver implements SPVariableResolver {
 			throw new IllegalArgumentException("Cannot store a namespaced variable of a different namespace than this resolver is configured with.");
 		}
 		this.variables.put(SPVariableHelper.getKey(key), value);
+		SPResolverRegistry.variablesChanged();
 	}
 	
 	public void update(String key, Object value) {
@@ -117,10 +120,12 @@ public class SPSimpleVariableResolver implements SPVariableResolver {
 			this.variables.remove(SPVariableHelper.getKey(key));
 		}
 		this.variables.put(SPVariableHelper.getKey(key), value);
+		SPResolverRegistry.variablesChanged();
 	}
 	
 	public void delete(String key) {
 		this.variables.remove(SPVariableHelper.getKey(key));
+		SPResolverRegistry.variablesChanged();
 	}
 
 	public Collection<Object> matches(String key, String partialValue) {
@@ -23,14 +23,14 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.collections.map.MultiValueMap;
 import org.apache.log4j.Logger;
@@ -70,13 +70,16 @@ import org.olap4j.PreparedOlapStatement;
  * use namespaces. This will prevent effective resolution of matches if
  * the namespace is not supported by the encountered {@link SPVariableResolver}.
  * 
+ * <p>Text with variables is parsed once into a {@link SPVariableTemplate}
+ * and reused. Helpers that resolve the same namespaced variables many times,
+ * such as when rendering a report, can also cache the resolved values with
+ * {@link #setCacheResolvedValues(boolean)}.
+ * 
  * @see {@link SPVariableResolver}
  * @author Luc Boudreau
  */
 public class SPVariableHelper implements SPVariableResolver {
 	
-	private final static Pattern varPattern = Pattern.compile("\\$\\{([^\\}]+)\\}");
-
 	private static final Logger logger = Logger.getLogger(SPVariableHelper.class);
 	
 	/**
@@ -92,6 +95,35 @@ public class SPVariableHelper implements SPVariableResolver {
 	 */
 	private final SPObject contextSource;
 	
+	/**
+	 * If true the values of namespaced variables are cached in
+	 * {@link #resolvedValues}.
+	 */
+	private boolean cacheResolvedValues = false;
+
+	/**
+	 * Values of namespaced variables by key and default value, with the
+	 * registry version they were resolved at.
+	 */
+	private final ConcurrentMap<List<Object>, ResolvedValue> resolvedValues = 
+		new ConcurrentHashMap<List<Object>, ResolvedValue>();
+	
+	/**
+	 * The registry version the oldest values in {@link #resolvedValues} may
+	 * have been resolved at. The cache is cleared when the registry changes
+	 * so values of old versions do not pile up.
+	 */
+	private volatile long resolvedVersion = -1;
+	
+	private static class ResolvedValue {
+		private final long version;
+		private final Object value;
+		
+		ResolvedValue(long version, Object value) {
+			this.version = version;
+			this.value = value;
+		}
+	}
 	
 	/**
 	 * Builds a variable helper to help resolve variables as values.
@@ -131,29 +163,7 @@ public class SPVariableHelper implements SPVariableResolver {
         // Make sure that the registry is ready.
         SPResolverRegistry.init(variableHelper.getContextSource());
         
-        StringBuilder text = new StringBuilder();
-        Matcher matcher = varPattern.matcher(textWithVars);
-        
-        int currentIndex = 0;
-        while (!matcher.hitEnd()) {
-            if (matcher.find()) {
-                String variableName = matcher.group(1);
-                Object variableValue;
-                if (variableName.equals("$")) {
-                    variableValue = "$";
-                } else {
-                    variableValue = variableHelper.resolve(variableName);
-                }
-                logger.debug("Found variable " + variableName + " = " + variableValue);
-                text.append(textWithVars.substring(currentIndex, matcher.start()));
-                text.append(variableValue);
-                currentIndex = matcher.end();
-            }  
-        }
-        
-        text.append(textWithVars.substring(currentIndex));
-        
-        return text.toString();
+        return SPVariableTemplate.compile(textWithVars).substitute(variableHelper);
     }
     
     /**
@@ -182,29 +192,10 @@ public class SPVariableHelper implements SPVariableResolver {
     	// Make sure that the registry is ready.
         SPResolverRegistry.init(variableHelper.getContextSource());
         
-        StringBuilder text = new StringBuilder();
-        Matcher matcher = varPattern.matcher(sql);
-        List<Object> vars = new LinkedList<Object>();
-        
-        // First, change all vars to '?' markers.
-        int currentIndex = 0;
-        while (!matcher.hitEnd()) {
-            if (matcher.find()) {
-                String variableName = matcher.group(1);
-                if (variableName.equals("$")) {
-                	vars.add("$");
-                } else {
-                	vars.add(variableHelper.resolve(variableName));
-                }
-                text.append(sql.substring(currentIndex, matcher.start()));
-                text.append("?");
-                currentIndex = matcher.end();
-            }  
-        }
-        text.append(sql.substring(currentIndex));
-        
-        // Now generate a prepared statement and inject it's variables.
-        PreparedStatement ps = connection.prepareStatement(text.toString());
+        // Change all vars to '?' markers and inject their values.
+        SPVariableTemplate template = SPVariableTemplate.compile(sql);
+        List<Object> vars = template.resolveParameters(variableHelper);
+        PreparedStatement ps = connection.prepareStatement(template.getParameterizedText());
         for (int i = 0; i < vars.size(); i++) {
     		ps.setObject(i+1, vars.get(i));
         }
@@ -247,29 +238,10 @@ public class SPVariableHelper implements SPVariableResolver {
     	// Make sure that the registry is ready.
         SPResolverRegistry.init(variableHelper.getContextSource());
         
-        StringBuilder text = new StringBuilder();
-        Matcher matcher = varPattern.matcher(mdxQuery);
-        List<Object> vars = new LinkedList<Object>();
-        
-        // First, change all vars to '?' markers.
-        int currentIndex = 0;
-        while (!matcher.hitEnd()) {
-            if (matcher.find()) {
-                String variableName = matcher.group(1);
-                if (variableName.equals("$")) {
-                	vars.add("$");
-                } else {
-                	vars.add(variableHelper.resolve(variableName));
-                }
-                text.append(mdxQuery.substring(currentIndex, matcher.start()));
-                text.append("?");
-                currentIndex = matcher.end();
-            }  
-        }
-        text.append(mdxQuery.substring(currentIndex));
-        
-        // Now generate a prepared statement and inject it's variables.
-        PreparedOlapStatement ps = connection.prepareOlapStatement(text.toString());
+        // Change all vars to '?' markers and inject their values.
+        SPVariableTemplate template = SPVariableTemplate.compile(mdxQuery);
+        List<Object> vars = template.resolveParameters(variableHelper);
+        PreparedOlapStatement ps = connection.prepareOlapStatement(template.getParameterizedText());
         for (int i = 0; i < vars.size(); i++) {
     		ps.setObject(i+1, vars.get(i));
         }
@@ -372,6 +344,24 @@ public class SPVariableHelper implements SPVariableResolver {
 	public void setGlobalCollectionResolve(boolean globalCollectionResolve) {
 		this.globalCollectionResolve = globalCollectionResolve;
 	}
+
+	/**
+	 * Sets if the values of namespaced variables resolved by
+	 * {@link #resolve(String, Object)} are kept and reused. The kept values
+	 * are dropped whenever {@link SPResolverRegistry#getVersion()} changes,
+	 * which happens when a resolver is registered or deregistered or a
+	 * variable changes. Only turn this on if the resolvers used report their
+	 * changes to the registry, as {@link SPSimpleVariableResolver} does, and
+	 * do not compute their values on every lookup. Off by default.
+	 */
+	public void setCacheResolvedValues(boolean cacheResolvedValues) {
+		this.cacheResolvedValues = cacheResolvedValues;
+		resolvedValues.clear();
+	}
+	
+	public boolean isCacheResolvedValues() {
+		return cacheResolvedValues;
+	}
 	
 	
 	
@@ -390,6 +380,9 @@ public class SPVariableHelper implements SPVariableResolver {
 		
 		try {
 			if (namespace != null) {
+				if (cacheResolvedValues) {
+					return resolveCached(key, namespace, defaultValue);
+				}
 				SPVariableResolver resolver = 
 					SPResolverRegistry.getResolver(this.contextSource, namespace);
 				if (resolver==null) {
@@ -418,6 +411,28 @@ public class SPVariableHelper implements SPVariableResolver {
 
 	
 	
+	/**
+	 * Resolves a namespaced variable using the values cached since the
+	 * registry last changed.
+	 */
+	private Object resolveCached(String key, String namespace, Object defaultValue) {
+		long version = SPResolverRegistry.getVersion();
+		if (version != resolvedVersion) {
+			resolvedValues.clear();
+			resolvedVersion = version;
+		}
+		List<Object> cacheKey = Arrays.<Object>asList(key, defaultValue);
+		ResolvedValue resolved = resolvedValues.get(cacheKey);
+		if (resolved != null && resolved.version == version) {
+			return resolved.value;
+		}
+		SPVariableResolver resolver = 
+			SPResolverRegistry.getResolver(this.contextSource, namespace);
+		Object value = (resolver == null ? defaultValue : resolver.resolve(key, defaultValue));
+		resolvedValues.put(cacheKey, new ResolvedValue(version, value));
+		return value;
+	}
+	
 	public Collection<Object> resolveCollection(String key) {
 		return this.resolveCollection(stripDefaultValue(key), getDefaultValue(key));
 	}
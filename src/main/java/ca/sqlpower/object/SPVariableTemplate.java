@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.object;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import ca.sqlpower.util.ConcurrentLruCache;
+
+/**
+ * Text with <code>${...}</code> variable references, split once into the
+ * literal text and the variables between it so it can be substituted many
+ * times without being parsed again. Templates are immutable and
+ * {@link #compile(String)} keeps the recently used ones so the same text is
+ * only parsed once.
+ * <p>
+ * A reference is a <code>${</code> followed by at least one character that
+ * is not a <code>}</code> and then a <code>}</code>, the same as the
+ * pattern {@link SPVariableHelper} has always used. <code>${$}</code> stands
+ * for a literal <code>$</code>.
+ */
+public final class SPVariableTemplate {
+	
+	/**
+	 * The most templates kept by {@link #compile(String)}.
+	 */
+	private static final int CACHE_SIZE = 512;
+	
+	private static final ConcurrentLruCache<String, SPVariableTemplate> cache = 
+		new ConcurrentLruCache<String, SPVariableTemplate>(CACHE_SIZE);
+
+	/**
+	 * Returns the template for the given text, parsing it only if it has not
+	 * been parsed recently.
+	 */
+	public static SPVariableTemplate compile(String text) {
+		SPVariableTemplate template = cache.get(text);
+		if (template == null) {
+			template = new SPVariableTemplate(text);
+			cache.put(text, template);
+		}
+		return template;
+	}
+	
+	private final String text;
+
+	/**
+	 * The text before, between and after the variables. There is always one
+	 * more literal than there are variables.
+	 */
+	private final String[] literals;
+
+	/**
+	 * The variable references as written, without the <code>${</code> and
+	 * <code>}</code>.
+	 */
+	private final String[] variables;
+
+	/**
+	 * The variable keys without their default values, or null for
+	 * <code>${$}</code>.
+	 */
+	private final String[] keys;
+	
+	private final String[] defaultValues;
+
+	/**
+	 * The text with each variable replaced by a <code>?</code> marker.
+	 */
+	private final String parameterizedText;
+	
+	private SPVariableTemplate(String text) {
+		this.text = text;
+		List<String> literalList = new ArrayList<String>();
+		List<String> variableList = new ArrayList<String>();
+		int literalStart = 0;
+		int searchFrom = 0;
+		while (true) {
+			int start = text.indexOf("${", searchFrom);
+			if (start == -1) break;
+			int end = text.indexOf('}', start + 2);
+			if (end == -1) break;
+			if (end == start + 2) {
+				// "${}" is not a variable but the $ may start one after it.
+				searchFrom = start + 1;
+				continue;
+			}
+			literalList.add(text.substring(literalStart, start));
+			variableList.add(text.substring(start + 2, end));
+			literalStart = end + 1;
+			searchFrom = end + 1;
+		}
+		literalList.add(text.substring(literalStart));
+		
+		literals = literalList.toArray(new String[literalList.size()]);
+		variables = variableList.toArray(new String[variableList.size()]);
+		keys = new String[variables.length];
+		defaultValues = new String[variables.length];
+		StringBuilder parameterized = new StringBuilder();
+		for (int i = 0; i < variables.length; i++) {
+			if (!variables[i].equals("$")) {
+				keys[i] = SPVariableHelper.stripDefaultValue(variables[i]);
+				defaultValues[i] = SPVariableHelper.getDefaultValue(variables[i]);
+			}
+			parameterized.append(literals[i]).append("?");
+		}
+		parameterized.append(literals[variables.length]);
+		parameterizedText = parameterized.toString();
+	}
+
+	/**
+	 * Returns the text with each variable replaced by its value from the
+	 * given helper.
+	 */
+	public String substitute(SPVariableHelper variableHelper) {
+		if (variables.length == 0) return text;
+		StringBuilder result = new StringBuilder(text.length());
+		for (int i = 0; i < variables.length; i++) {
+			result.append(literals[i]);
+			result.append(resolve(i, variableHelper));
+		}
+		result.append(literals[variables.length]);
+		return result.toString();
+	}
+
+	/**
+	 * Returns the values of the variables from the given helper in the order
+	 * of the <code>?</code> markers in {@link #getParameterizedText()}.
+	 */
+	public List<Object> resolveParameters(SPVariableHelper variableHelper) {
+		if (variables.length == 0) return Collections.emptyList();
+		List<Object> values = new ArrayList<Object>(variables.length);
+		for (int i = 0; i < variables.length; i++) {
+			values.add(resolve(i, variableHelper));
+		}
+		return values;
+	}
+	
+	private Object resolve(int variable, SPVariableHelper variableHelper) {
+		if (keys[variable] == null) return "$";
+		return variableHelper.resolve(keys[variable], defaultValues[variable]);
+	}
+	
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Returns the text with each variable replaced by a <code>?</code>, for
+	 * use as a prepared statement.
+	 */
+	public String getParameterizedText() {
+		return parameterizedText;
+	}
+	
+	public int getVariableCount() {
+		return variables.length;
+	}
+
+	/**
+	 * Returns a variable reference as it was written in the text, including
+	 * its namespace and default value.
+	 */
+	public String getVariable(int index) {
+		return variables[index];
+	}
+	
+	@Override
+	public String toString() {
+		return text;
+	}
+}
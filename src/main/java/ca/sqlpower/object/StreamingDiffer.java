@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.object;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ca.sqlpower.dao.PersistCallStream;
+import ca.sqlpower.dao.PersistedSPOProperty;
+import ca.sqlpower.dao.PersistedSPObject;
+import ca.sqlpower.dao.SPPersistenceException;
+import ca.sqlpower.dao.SPPersister;
+import ca.sqlpower.dao.SPPersister.DataType;
+import ca.sqlpower.dao.SPTransactionElement;
+import ca.sqlpower.util.SQLPowerUtils;
+
+/**
+ * Calculates the difference between two revisions like the {@link Differ},
+ * but reads each revision as a {@link PersistCallStream} and sends the diff
+ * to a persister as it goes instead of loading both revisions into lists and
+ * maps first. The streams are walked together in one pass. Only the path to
+ * the current object, the properties of the current object and a limited
+ * number of persist calls read ahead are kept in memory.
+ * <p>
+ * Children that are in the same place in both revisions are diffed, and
+ * children that are only in one revision are removed or added with their
+ * descendants. When the next children of an object are not the same, the
+ * streams are read ahead, at most {@link #getLookahead()} persist calls, to
+ * find where each child is in the other revision. Like the {@link Differ},
+ * the child that has to move less far is kept in place and the other is
+ * removed and added again. Children that cannot be found in the lookahead
+ * are treated as removed or added, which still gives a correct diff but may
+ * move more objects than needed.
+ * <p>
+ * All of the diff is sent in one transaction. Removes and adds of a moved
+ * object are not sorted so the target must apply removes before adds when
+ * committing, as {@link ca.sqlpower.dao.SPSessionPersister} does.
+ */
+public class StreamingDiffer {
+
+	/**
+	 * The default maximum number of persist calls read ahead in each stream
+	 * when looking for a child that moved.
+	 */
+	public static final int DEFAULT_LOOKAHEAD = 10000;
+	
+	private final int lookahead;
+	
+	private Cursor oldCursor;
+	private Cursor newCursor;
+	private SPPersister target;
+	
+	private int objectsAdded;
+	private int objectsRemoved;
+	private int propertiesPersisted;
+	
+	public StreamingDiffer() {
+		this(DEFAULT_LOOKAHEAD);
+	}
+	
+	public StreamingDiffer(int lookahead) {
+		if (lookahead < 1) throw new IllegalArgumentException("The lookahead must be at least 1.");
+		this.lookahead = lookahead;
+	}
+
+	/**
+	 * Reads both streams to the end and sends the persist calls that change
+	 * the old revision into the new one to the target. Property changes are
+	 * sent as unconditional persists of the new value, like
+	 * {@link Differ#persistTo(SPPersister)}. The target's transaction is
+	 * rolled back if either stream or the target fails.
+	 */
+	public synchronized void diff(PersistCallStream oldStream, PersistCallStream newStream, 
+			SPPersister target) throws SPPersistenceException {
+		oldCursor = new Cursor(oldStream);
+		newCursor = new Cursor(newStream);
+		this.target = target;
+		objectsAdded = 0;
+		objectsRemoved = 0;
+		propertiesPersisted = 0;
+		target.begin();
+		try {
+			diffChildren(null);
+			target.commit();
+		} catch (SPPersistenceException e) {
+			target.rollback();
+			throw e;
+		} catch (RuntimeException e) {
+			target.rollback();
+			throw e;
+		} finally {
+			oldCursor = null;
+			newCursor = null;
+			this.target = null;
+		}
+	}
+
+	/**
+	 * Diffs the children of the object with the given UUID, which are next in
+	 * both streams. A null UUID diffs the objects at the top of the streams.
+	 */
+	private void diffChildren(String parentUUID) throws SPPersistenceException {
+		//Old children removed because they are further along in the new stream.
+		Set<String> movedOut = new HashSet<String>();
+		//New children added because they are further along in the old stream.
+		Set<String> movedIn = new HashSet<String>();
+		while (true) {
+			PersistedSPObject oldObj = oldCursor.peekChild(parentUUID);
+			PersistedSPObject newObj = newCursor.peekChild(parentUUID);
+			if (oldObj == null && newObj == null) return;
+			
+			if (newObj == null || (oldObj != null && movedIn.remove(oldObj.getUUID()))) {
+				removeSubtree(oldObj);
+			} else if (oldObj == null || movedOut.remove(newObj.getUUID())) {
+				addSubtree();
+			} else if (oldObj.getUUID().equals(newObj.getUUID())) {
+				if (oldObj.getType().equals(newObj.getType())) {
+					diffObject(oldObj, newObj);
+					diffChildren(newObj.getUUID());
+				} else {
+					removeSubtree(oldObj);
+					addSubtree();
+				}
+			} else {
+				//The same choice as the Differ: the object with the shorter distance gets moved.
+				int oldShift = oldCursor.findSibling(parentUUID, newObj.getUUID());
+				int newShift = newCursor.findSibling(parentUUID, oldObj.getUUID());
+				if (oldShift == -1 || newShift == -1) {
+					if (oldShift == -1) {
+						addSubtree();
+					}
+					if (newShift == -1) {
+						removeSubtree(oldObj);
+					}
+				} else if (oldShift <= newShift) {
+					removeSubtree(oldObj);
+					movedOut.add(oldObj.getUUID());
+				} else {
+					addSubtree();
+					movedIn.add(newObj.getUUID());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the given object and its properties from both streams and
+	 * persists the properties that are different.
+	 */
+	private void diffObject(PersistedSPObject oldObj, PersistedSPObject newObj) throws SPPersistenceException {
+		oldCursor.take();
+		Map<String, PersistedSPOProperty> oldProperties = new HashMap<String, PersistedSPOProperty>();
+		for (PersistedSPOProperty property : oldCursor.takeProperties(oldObj.getUUID())) {
+			oldProperties.put(property.getPropertyName(), property);
+		}
+		newCursor.take();
+		for (PersistedSPOProperty newProperty : newCursor.takeProperties(newObj.getUUID())) {
+			PersistedSPOProperty oldProperty = oldProperties.remove(newProperty.getPropertyName());
+			if (oldProperty == null || !valuesEqual(oldProperty, newProperty)) {
+				persistProperty(newProperty);
+			}
+		}
+		for (PersistedSPOProperty oldProperty : oldProperties.values()) {
+			// The property was changed to null.
+			target.persistProperty(oldProperty.getUUID(), oldProperty.getPropertyName(), 
+					oldProperty.getDataType(), null);
+			propertiesPersisted++;
+		}
+	}
+	
+	private static boolean valuesEqual(PersistedSPOProperty oldProperty, PersistedSPOProperty newProperty) {
+		if (oldProperty.getDataType() != newProperty.getDataType()) return false;
+		if (newProperty.getDataType() == DataType.PNG_IMG 
+				&& oldProperty.getNewValue() != null && newProperty.getNewValue() != null) {
+			return PersistedSPOProperty.imageObjectsAreEqual(oldProperty.getNewValue(), newProperty.getNewValue());
+		}
+		return SQLPowerUtils.areEqual(oldProperty.getNewValue(), newProperty.getNewValue());
+	}
+	
+	private void persistProperty(PersistedSPOProperty property) throws SPPersistenceException {
+		target.persistProperty(property.getUUID(), property.getPropertyName(), 
+				property.getDataType(), property.getNewValue());
+		propertiesPersisted++;
+	}
+	
+	private void removeSubtree(PersistedSPObject object) throws SPPersistenceException {
+		target.removeObject(object.getParentUUID(), object.getUUID());
+		objectsRemoved++;
+		walkSubtree(oldCursor, false);
+	}
+	
+	/**
+	 * Persists the object next in the new stream with its properties and
+	 * descendants.
+	 */
+	private void addSubtree() throws SPPersistenceException {
+		walkSubtree(newCursor, true);
+	}
+
+	/**
+	 * Reads the object next in the given stream and all of its descendants,
+	 * persisting them and their properties to the target if add is true.
+	 */
+	private void walkSubtree(Cursor cursor, boolean add) throws SPPersistenceException {
+		List<String> path = new ArrayList<String>();
+		PersistedSPObject object = (PersistedSPObject) cursor.take();
+		while (object != null) {
+			path.add(object.getUUID());
+			if (add) {
+				target.persistObject(object.getParentUUID(), object.getType(), 
+						object.getUUID(), object.getIndex());
+				objectsAdded++;
+			}
+			for (PersistedSPOProperty property : cursor.takeProperties(object.getUUID())) {
+				if (add) {
+					persistProperty(property);
+				}
+			}
+			
+			object = (PersistedSPObject) cursor.peek(0);
+			if (object == null) return;
+			while (!path.isEmpty() && !path.get(path.size() - 1).equals(object.getParentUUID())) {
+				path.remove(path.size() - 1);
+			}
+			if (path.isEmpty()) return;
+			cursor.take();
+		}
+	}
+	
+	public int getLookahead() {
+		return lookahead;
+	}
+
+	/**
+	 * Returns the number of objects, including descendants, persisted by the
+	 * last diff.
+	 */
+	public int getObjectsAdded() {
+		return objectsAdded;
+	}
+
+	/**
+	 * Returns the number of objects removed by the last diff. Descendants of
+	 * removed objects are not counted as they are not removed separately.
+	 */
+	public int getObjectsRemoved() {
+		return objectsRemoved;
+	}
+	
+	public int getPropertiesPersisted() {
+		return propertiesPersisted;
+	}
+
+	/**
+	 * Reads a {@link PersistCallStream} with a buffer of the persist calls
+	 * read ahead.
+	 */
+	private class Cursor {
+		
+		private final PersistCallStream stream;
+		
+		private final List<SPTransactionElement> buffer = new ArrayList<SPTransactionElement>();
+		
+		/**
+		 * The position in the buffer of the next persist call.
+		 */
+		private int head = 0;
+		
+		private boolean ended = false;
+		
+		Cursor(PersistCallStream stream) {
+			this.stream = stream;
+		}
+
+		/**
+		 * Returns the persist call the given number of calls after the next
+		 * one without reading past it, or null if the stream ends first.
+		 */
+		SPTransactionElement peek(int offset) throws SPPersistenceException {
+			while (head + offset >= buffer.size() && !ended) {
+				SPTransactionElement element = stream.next();
+				if (element == null) {
+					ended = true;
+				} else {
+					buffer.add(element);
+				}
+			}
+			if (head + offset < buffer.size()) {
+				return buffer.get(head + offset);
+			}
+			return null;
+		}
+		
+		SPTransactionElement take() throws SPPersistenceException {
+			SPTransactionElement element = peek(0);
+			if (element == null) return null;
+			head++;
+			if (head == buffer.size()) {
+				buffer.clear();
+				head = 0;
+			} else if (head >= 1024 && head * 2 >= buffer.size()) {
+				buffer.subList(0, head).clear();
+				head = 0;
+			}
+			return element;
+		}
+
+		/**
+		 * Reads the properties following the object with the given UUID.
+		 */
+		List<PersistedSPOProperty> takeProperties(String uuid) throws SPPersistenceException {
+			List<PersistedSPOProperty> properties = new ArrayList<PersistedSPOProperty>();
+			while (peek(0) instanceof PersistedSPOProperty) {
+				PersistedSPOProperty property = (PersistedSPOProperty) take();
+				if (!property.getUUID().equals(uuid)) {
+					throw new SPPersistenceException(property.getUUID(), 
+							"Persist calls must be ordered. A property of [" + property.getUUID() 
+							+ "] was read while the current object was [" + uuid + "]");
+				}
+				properties.add(property);
+			}
+			return properties;
+		}
+
+		/**
+		 * Returns the next object if it is a child of the object with the
+		 * given UUID, or any object if the UUID is null.
+		 */
+		PersistedSPObject peekChild(String parentUUID) throws SPPersistenceException {
+			SPTransactionElement element = peek(0);
+			if (element == null) return null;
+			if (!(element instanceof PersistedSPObject)) {
+				throw new SPPersistenceException(null, 
+						"Persist calls must be ordered. A property was read that does not follow its object: " + element);
+			}
+			PersistedSPObject object = (PersistedSPObject) element;
+			if (parentUUID == null || parentUUID.equals(object.getParentUUID())) {
+				return object;
+			}
+			return null;
+		}
+
+		/**
+		 * Looks ahead for a child of the object with the given parent UUID
+		 * with the given UUID, starting at the next object. Returns the
+		 * number of siblings before it, or -1 if it is not a child of the
+		 * parent or cannot be found within the lookahead.
+		 */
+		int findSibling(String parentUUID, String uuid) throws SPPersistenceException {
+			List<String> path = new ArrayList<String>();
+			int siblings = 0;
+			for (int i = 0; i < lookahead; i++) {
+				SPTransactionElement element = peek(i);
+				if (element == null) return -1;
+				if (!(element instanceof PersistedSPObject)) continue;
+				PersistedSPObject object = (PersistedSPObject) element;
+				while (!path.isEmpty() && !path.get(path.size() - 1).equals(object.getParentUUID())) {
+					path.remove(path.size() - 1);
+				}
+				if (path.isEmpty()) {
+					if (parentUUID != null && !parentUUID.equals(object.getParentUUID())) return -1;
+					if (object.getUUID().equals(uuid)) return siblings;
+					siblings++;
+				}
+				path.add(object.getUUID());
+			}
+			return -1;
+		}
+	}
+}
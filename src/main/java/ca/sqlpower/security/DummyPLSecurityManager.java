@@ -20,6 +20,10 @@
 package ca.sqlpower.security;
 
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 import ca.sqlpower.sql.DatabaseObject;
 
 /**
@@ -51,6 +55,9 @@ public class DummyPLSecurityManager extends PLSecurityManager {
 	public boolean canCreateAny(Connection con, String objectType) { return true; }
 	public void checkModify(Connection con, DatabaseObject obj) { return; }
 	public boolean canModify(Connection con, DatabaseObject obj) { return true; }
+	public <T extends DatabaseObject> List<T> canModify(Connection con, Collection<T> objs) {
+		return new ArrayList<T>(objs);
+	}
 	public void checkDelete(Connection con, DatabaseObject obj) { return; }
 	public boolean canDelete(Connection con, DatabaseObject obj) { return true; }
 	public void checkExecute(Connection con, DatabaseObject obj) { return; }
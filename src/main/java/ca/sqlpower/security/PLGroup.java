@@ -208,6 +208,11 @@ public class PLGroup implements DatabaseObject, java.io.Serializable {
 				("filter is not allowed unless non-null userName is specified");
 		}
 
+		if (filter != null && filter.isEmpty()) {
+			// an empty IN() list is not valid SQL, and nothing can match it anyway
+			return Collections.EMPTY_LIST;
+		}
+
 		List results = new LinkedList();
         Statement stmt = null;
         try {
@@ -342,6 +347,7 @@ public class PLGroup implements DatabaseObject, java.io.Serializable {
 												+" rows; should have been 1");
 			}
 		} finally {
+			PLSecurityManager.permissionsChanged();
 			if (stmt != null) {
 				stmt.close();
 			}
@@ -384,6 +390,7 @@ public class PLGroup implements DatabaseObject, java.io.Serializable {
 												+" rows; should have been 1");
 			}
 		} finally {
+			PLSecurityManager.permissionsChanged();
 			if (stmt != null) {
 				stmt.close();
 			}
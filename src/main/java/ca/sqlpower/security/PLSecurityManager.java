@@ -20,11 +20,20 @@
 package ca.sqlpower.security;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
@@ -50,8 +59,39 @@ public class PLSecurityManager implements java.io.Serializable {
 	public static final String INVALID_MANAGER = "security.invalid";
 	public static final String INSUFFICIENT_ACCESS = "security.insufficient";
 
+	/**
+	 * Bumped every time this class (or PLGroup's membership methods)
+	 * changes a privilege or group membership row.  Permission
+	 * snapshots remember the value they were loaded under and reload
+	 * themselves once it moves on.
+	 */
+	private static final AtomicLong permissionsVersion = new AtomicLong();
+
+	/**
+	 * The default for {@link #setPermissionsMaxAge(long)}: one minute.
+	 */
+	public static final long DEFAULT_PERMISSIONS_MAX_AGE = 60000;
+
+	/**
+	 * How long, in milliseconds, a permission snapshot is trusted
+	 * before it is read from the database again even if nothing
+	 * reported a change.  This bounds how long changes made by other
+	 * processes, or changes that committed after their
+	 * permissionsChanged() call, can go unnoticed.
+	 */
+	private static volatile long permissionsMaxAge = DEFAULT_PERMISSIONS_MAX_AGE;
+
 	PLUser principal;
 
+	/**
+	 * The principal's privileges as of the last time they were read
+	 * from the database.  All the instance checkXXX() and canXXX()
+	 * methods are answered from this snapshot, which is reloaded
+	 * lazily whenever it goes stale or gets older than
+	 * {@link #getPermissionsMaxAge()}.
+	 */
+	private transient volatile PermissionSnapshot permissions;
+
 	/**
 	 * For the dummy subclass.
 	 */
@@ -145,7 +185,7 @@ public class PLSecurityManager implements java.io.Serializable {
 		if (principal == null) {
 			throw new PLSecurityException(MODIFY_PERMISSION, INVALID_MANAGER, null);
 		}
-		checkPermission(con, principal, getSystemObject(objectType), CREATE_PERMISSION, true);
+		checkCachedPermission(con, getSystemObject(objectType), CREATE_PERMISSION, true);
 	}
 
 	/**
@@ -159,7 +199,7 @@ public class PLSecurityManager implements java.io.Serializable {
 		if (principal == null) {
 			throw new PLSecurityException(MODIFY_PERMISSION, INVALID_MANAGER, null);
 		}
-		return checkPermission(con, principal, getSystemObject(objectType), CREATE_PERMISSION, false);
+		return checkCachedPermission(con, getSystemObject(objectType), CREATE_PERMISSION, false);
 	}
 
 	/**
@@ -178,7 +218,7 @@ public class PLSecurityManager implements java.io.Serializable {
 		if (principal == null) {
 			throw new PLSecurityException(MODIFY_PERMISSION, INVALID_MANAGER, obj);
 		}
-		checkPermission(con, principal, obj, MODIFY_PERMISSION, true);
+		checkCachedPermission(con, obj, MODIFY_PERMISSION, true);
 	}
 
 	/**
@@ -192,7 +232,7 @@ public class PLSecurityManager implements java.io.Serializable {
 		if (principal == null) {
 			throw new PLSecurityException(MODIFY_PERMISSION, INVALID_MANAGER, obj);
 		}
-		return checkPermission(con, principal, obj, MODIFY_PERMISSION, false);
+		return checkCachedPermission(con, obj, MODIFY_PERMISSION, false);
 	}
 
 	/**
@@ -206,7 +246,30 @@ public class PLSecurityManager implements java.io.Serializable {
 		if (principal == null) {
 			throw new PLSecurityException(MODIFY_PERMISSION, INVALID_MANAGER, null);
 		}
-		return checkPermission(con, principal, getSystemObject(objectType), MODIFY_PERMISSION, false);
+		return checkCachedPermission(con, getSystemObject(objectType), MODIFY_PERMISSION, false);
+	}
+
+	/**
+	 * Checks a whole collection of objects the same way as
+	 * canModify(Connection, DatabaseObject), and returns the ones the
+	 * principal may modify, in the collection's iteration order.  The
+	 * principal's privileges are read at most once for the whole
+	 * batch, so this is the method to use when deciding which rows of
+	 * a long list should be editable.
+	 */
+	public <T extends DatabaseObject> List<T> canModify(Connection con, Collection<T> objs)
+		throws SQLException {
+		if (principal == null) {
+			throw new PLSecurityException(MODIFY_PERMISSION, INVALID_MANAGER, null);
+		}
+		PermissionSnapshot snapshot = getPermissions(con);
+		List<T> modifiable = new ArrayList<T>(objs.size());
+		for (T obj : objs) {
+			if (snapshot.allows(obj, MODIFY_PERMISSION)) {
+				modifiable.add(obj);
+			}
+		}
+		return modifiable;
 	}
 
 	/**
@@ -225,7 +288,7 @@ public class PLSecurityManager implements java.io.Serializable {
 		if (principal == null) {
 			throw new PLSecurityException(DELETE_PERMISSION, INVALID_MANAGER, obj);
 		}
-		checkPermission(con, principal, obj, DELETE_PERMISSION, true);
+		checkCachedPermission(con, obj, DELETE_PERMISSION, true);
 	}
 
 	/**
@@ -239,7 +302,7 @@ public class PLSecurityManager implements java.io.Serializable {
 		if (principal == null) {
 			throw new PLSecurityException(DELETE_PERMISSION, INVALID_MANAGER, obj);
 		}
-		return checkPermission(con, principal, obj, DELETE_PERMISSION, false);
+		return checkCachedPermission(con, obj, DELETE_PERMISSION, false);
 	}
 
 	/**
@@ -258,7 +321,7 @@ public class PLSecurityManager implements java.io.Serializable {
 		if (principal == null) {
 			throw new PLSecurityException(EXECUTE_PERMISSION, INVALID_MANAGER, obj);
 		}
-		checkPermission(con, principal, obj, EXECUTE_PERMISSION, true);
+		checkCachedPermission(con, obj, EXECUTE_PERMISSION, true);
 	}
 
 	/**
@@ -272,7 +335,7 @@ public class PLSecurityManager implements java.io.Serializable {
 		if (principal == null) {
 			throw new PLSecurityException(EXECUTE_PERMISSION, INVALID_MANAGER, obj);
 		}
-		return checkPermission(con, principal, obj, EXECUTE_PERMISSION, false);
+		return checkCachedPermission(con, obj, EXECUTE_PERMISSION, false);
 	}
 
 	/**
@@ -291,7 +354,7 @@ public class PLSecurityManager implements java.io.Serializable {
 		if (principal == null) {
 			throw new PLSecurityException(GRANT_PERMISSION, INVALID_MANAGER, obj);
 		}
-		checkPermission(con, principal, obj, GRANT_PERMISSION, true);
+		checkCachedPermission(con, obj, GRANT_PERMISSION, true);
 	}
 
 	/**
@@ -305,7 +368,7 @@ public class PLSecurityManager implements java.io.Serializable {
 		if (principal == null) {
 			throw new PLSecurityException(GRANT_PERMISSION, INVALID_MANAGER, obj);
 		}
-		return checkPermission(con, principal, obj, GRANT_PERMISSION, false);
+		return checkCachedPermission(con, obj, GRANT_PERMISSION, false);
 	}
 
 	/**
@@ -324,7 +387,7 @@ public class PLSecurityManager implements java.io.Serializable {
 		if (principal == null) {
 			throw new PLSecurityException(NOTIFY_PERMISSION, INVALID_MANAGER, obj);
 		}
-		checkPermission(con, principal, obj, NOTIFY_PERMISSION, true);
+		checkCachedPermission(con, obj, NOTIFY_PERMISSION, true);
 	}
 
 	/**
@@ -338,13 +401,94 @@ public class PLSecurityManager implements java.io.Serializable {
 		if (principal == null) {
 			throw new PLSecurityException(NOTIFY_PERMISSION, INVALID_MANAGER, obj);
 		}
-		return checkPermission(con, principal, obj, NOTIFY_PERMISSION, false);
+		return checkCachedPermission(con, obj, NOTIFY_PERMISSION, false);
+	}
+
+	/**
+	 * Does the work for all the instance checkXXX and canXXX methods.
+	 * Gives the same answer as {@link #checkPermission(Connection,
+	 * PLUser, DatabaseObject, String, boolean)} for the principal, but
+	 * from the in-memory permission snapshot instead of a round of
+	 * queries per call.
+	 */
+	private boolean checkCachedPermission(Connection con,
+										  DatabaseObject obj,
+										  String perm,
+										  boolean exceptionWhenDenied)
+		throws SQLException, PLSecurityException {
+
+		if (getPermissions(con).allows(obj, perm)) {
+			return true;
+		}
+		if (exceptionWhenDenied) {
+			throw new PLSecurityException(perm, INSUFFICIENT_ACCESS, obj);
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the principal's permission snapshot, loading it from
+	 * the database first if there isn't one yet or if privileges or
+	 * group memberships have changed since it was loaded.
+	 */
+	private PermissionSnapshot getPermissions(Connection con) throws SQLException {
+		PLUser p = principal;
+		PermissionSnapshot snapshot = permissions;
+		if (snapshot == null || !snapshot.isCurrentFor(p)) {
+			snapshot = PermissionSnapshot.load(con, p);
+			permissions = snapshot;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Discards this security manager's cached copy of the principal's
+	 * privileges, so the next check reads them from the database
+	 * again.  Changes made through this class are picked up
+	 * automatically; call this after changing privilege tables by
+	 * some other means (or after rolling back a transaction that
+	 * changed them).
+	 */
+	public void refreshPermissions() {
+		permissions = null;
+	}
+
+	/**
+	 * Marks every security manager's cached privileges as stale.
+	 * Call this after changing the privilege or group membership
+	 * tables outside of this class.
+	 *
+	 * <p>The methods of this class and PLGroup that change those
+	 * tables call this themselves, but before the caller's
+	 * transaction commits.  A check made on another connection in
+	 * between can still read the old rows and cache them as current,
+	 * so callers that commit their own transactions should call this
+	 * again right after the commit.  Otherwise the old privileges can
+	 * stay in use for up to {@link #getPermissionsMaxAge()}.
+	 */
+	public static void permissionsChanged() {
+		permissionsVersion.incrementAndGet();
+	}
+
+	/**
+	 * Sets how long, in milliseconds, a security manager answers
+	 * checks from the privileges it has read before reading them
+	 * again.  A value of 0 or less means snapshots are only reloaded
+	 * after {@link #permissionsChanged()}.
+	 */
+	public static void setPermissionsMaxAge(long millis) {
+		permissionsMaxAge = millis;
+	}
+
+	public static long getPermissionsMaxAge() {
+		return permissionsMaxAge;
 	}
 
 	/**
 	 * Use this method (or the checkXXX methods, which call this one)
-	 * to find out if a given user has a certain permission.  All the
-	 * checkXXX methods work by calling this one.
+	 * to find out if a given user has a certain permission.  The
+	 * instance checkXXX methods give the same answers as this one,
+	 * but from a cached snapshot of the principal's privileges.
 	 *
 	 * @param exceptionWhenDenied If true, this method will throw a
 	 * PLSecurityException instead of returning false.
@@ -855,6 +999,7 @@ public class PLSecurityManager implements java.io.Serializable {
 					throw new IllegalStateException("Could not update or insert permission!");
 				}
 			} // end if (updateCount == 0)
+			permissionsChanged();
 
 			// If this is a kpi, and we are setting execute=y, and it didn't use to be y, 
 			// also set the view_kpi_ind to y.
@@ -951,6 +1096,7 @@ public class PLSecurityManager implements java.io.Serializable {
 		try {
 			stmt = con.createStatement();
 			stmt.executeUpdate(sql.toString());
+			permissionsChanged();
 
 			// If this is a Kpi, give the user "view kpi" privileges
 			if(obj.getObjectType().equals("KPI")){
@@ -1016,6 +1162,7 @@ public class PLSecurityManager implements java.io.Serializable {
 			sql.append(SQL.quote(obj.getObjectType()));
 			sql.append(" AND object_name=").append(SQL.quote(obj.getObjectName()));
 			stmt.executeUpdate(sql.toString());
+			permissionsChanged();
 			
 			if (obj.getObjectType().equals("TRANSACTION")) {
 				sql.setLength(0);
@@ -1090,6 +1237,7 @@ public class PLSecurityManager implements java.io.Serializable {
 			sql.append(" WHERE object_type=").append(SQL.quote(obj.getObjectType()));
 			sql.append(" AND object_name=").append(SQL.quote(obj.getObjectName()));
 			stmt.executeUpdate(sql.toString());
+			permissionsChanged();
 			
 			if (obj.getObjectType().equals("TRANSACTION")) {
 				sql.setLength(0);
@@ -1174,6 +1322,7 @@ public class PLSecurityManager implements java.io.Serializable {
 	 */
 	public void invalidate() {
 		principal = null;
+		permissions = null;
 	}
 
 	/**
@@ -1217,4 +1366,237 @@ public class PLSecurityManager implements java.io.Serializable {
 			}
 		}
 	}
+
+	/**
+	 * An immutable, in-memory copy of one user's privileges: the rows
+	 * of USER_OBJECT_PRIVS and USER_SYSTEM_PRIVS for the user, merged
+	 * with those of every group the user belongs to (subject to the
+	 * user's group name filter).  It is loaded with one query for the
+	 * object privileges and one for the system privileges, and knows
+	 * when it has gone stale or too old to trust.
+	 */
+	static class PermissionSnapshot {
+
+		/**
+		 * The permissions that have a column in the object privilege
+		 * tables, in the order their columns are selected.
+		 */
+		private static final String[] OBJECT_PERMISSIONS = {
+			MODIFY_PERMISSION, DELETE_PERMISSION, EXECUTE_PERMISSION,
+			GRANT_PERMISSION, NOTIFY_PERMISSION };
+
+		/**
+		 * The permissions that have a column in the system privilege
+		 * tables, in the order their columns are selected.
+		 */
+		private static final String[] SYSTEM_PERMISSIONS = {
+			CREATE_PERMISSION, MODIFY_PERMISSION, DELETE_PERMISSION,
+			EXECUTE_PERMISSION, GRANT_PERMISSION, NOTIFY_PERMISSION };
+
+		private final String userId;
+		private final Set<String> groupNameFilter;
+		private final long version;
+
+		/**
+		 * The {@link System#currentTimeMillis()} at which loading
+		 * this snapshot started.
+		 */
+		private final long loadTime;
+
+		/**
+		 * Permission bits by object type, then by object name.
+		 */
+		private final Map<String, Map<String, Integer>> objectPrivs =
+			new HashMap<String, Map<String, Integer>>();
+
+		/**
+		 * Permission bits that apply to every object of a type, by
+		 * object type.
+		 */
+		private final Map<String, Integer> systemPrivs = new HashMap<String, Integer>();
+
+		private PermissionSnapshot(String userId, Set<?> groupNameFilter, long version) {
+			this.userId = userId;
+			if (groupNameFilter == null) {
+				this.groupNameFilter = null;
+			} else {
+				this.groupNameFilter = new HashSet<String>();
+				for (Object groupName : groupNameFilter) {
+					this.groupNameFilter.add((String) groupName);
+				}
+			}
+			this.version = version;
+			this.loadTime = System.currentTimeMillis();
+		}
+
+		/**
+		 * Reads all of the given user's privileges from the database.
+		 */
+		static PermissionSnapshot load(Connection con, PLUser p) throws SQLException {
+			// read the version first so a change made while we query still marks us stale
+			PermissionSnapshot snapshot = new PermissionSnapshot
+				(p.getUserId(), p.getGroupNameFilter(), permissionsVersion.get());
+			snapshot.loadPrivs(con, false);
+			snapshot.loadPrivs(con, true);
+			return snapshot;
+		}
+
+		/**
+		 * Returns true if this snapshot still describes the given
+		 * user's privileges: it was loaded for the same user and group
+		 * name filter, nothing has changed the privilege tables
+		 * through this package since, and it is not older than the
+		 * maximum age.
+		 */
+		boolean isCurrentFor(PLUser p) {
+			if (version != permissionsVersion.get() || !userId.equals(p.getUserId())) {
+				return false;
+			}
+			long maxAge = permissionsMaxAge;
+			if (maxAge > 0 && System.currentTimeMillis() - loadTime >= maxAge) {
+				return false;
+			}
+			Set<?> filter = p.getGroupNameFilter();
+			return groupNameFilter == null ? filter == null : groupNameFilter.equals(filter);
+		}
+
+		/**
+		 * Returns true if the user holds the given permission on obj,
+		 * either specifically or through a system privilege on obj's
+		 * type, directly or by way of a group.
+		 */
+		boolean allows(DatabaseObject obj, String perm) {
+			if (perm.equals(CREATE_PERMISSION) && !(obj instanceof AllDatabaseObject)) {
+				throw new IllegalArgumentException
+					("CREATE_PERMISSION is only valid for AllDatabaseObject types.");
+			}
+			int bit = permToBit(perm);
+			Integer sysBits = systemPrivs.get(obj.getObjectType());
+			if (sysBits != null && (sysBits.intValue() & bit) != 0) {
+				return true;
+			}
+			if (obj instanceof AllDatabaseObject) {
+				return false;
+			}
+			Map<String, Integer> byName = objectPrivs.get(obj.getObjectType());
+			if (byName == null) {
+				return false;
+			}
+			Integer bits = byName.get(obj.getObjectName());
+			return bits != null && (bits.intValue() & bit) != 0;
+		}
+
+		/**
+		 * Selects the user's own rows and those of the user's groups
+		 * from either the object or the system privilege tables in a
+		 * single statement, and merges them into this snapshot.
+		 */
+		private void loadPrivs(Connection con, boolean system) throws SQLException {
+			String[] perms = system ? SYSTEM_PERMISSIONS : OBJECT_PERMISSIONS;
+			boolean includeGroups = groupNameFilter == null || !groupNameFilter.isEmpty();
+
+			StringBuffer sql = new StringBuffer(500);
+			sql.append("SELECT object_type");
+			if (!system) {
+				sql.append(", object_name");
+			}
+			for (int i = 0; i < perms.length; i++) {
+				sql.append(", ").append(system ? sysPermToColName(perms[i]) : permToColName(perms[i]));
+			}
+			sql.append(system ? " FROM user_system_privs" : " FROM user_object_privs");
+			sql.append(" WHERE user_id=?");
+			if (includeGroups) {
+				sql.append(" UNION ALL SELECT gp.object_type");
+				if (!system) {
+					sql.append(", gp.object_name");
+				}
+				for (int i = 0; i < perms.length; i++) {
+					sql.append(", gp.").append(system ? sysPermToColName(perms[i]) : permToColName(perms[i]));
+				}
+				sql.append(system ? " FROM group_system_privs gp" : " FROM group_object_privs gp");
+				sql.append(", pl_group g, user_group ug");
+				sql.append(" WHERE gp.group_name=g.group_name");
+				sql.append(" AND g.group_name=ug.group_name");
+				sql.append(" AND ug.user_id=?");
+				if (groupNameFilter != null) {
+					sql.append(" AND g.group_name IN(");
+					for (int i = 0; i < groupNameFilter.size(); i++) {
+						sql.append(i == 0 ? "?" : ", ?");
+					}
+					sql.append(")");
+				}
+			}
+
+			PreparedStatement ps = null;
+			ResultSet rs = null;
+			try {
+				ps = con.prepareStatement(sql.toString());
+				int param = 1;
+				ps.setString(param++, userId);
+				if (includeGroups) {
+					ps.setString(param++, userId);
+					if (groupNameFilter != null) {
+						for (String groupName : groupNameFilter) {
+							ps.setString(param++, groupName);
+						}
+					}
+				}
+				rs = ps.executeQuery();
+				int firstIndCol = system ? 2 : 3;
+				while (rs.next()) {
+					int bits = 0;
+					for (int i = 0; i < perms.length; i++) {
+						if ("Y".equals(rs.getString(firstIndCol + i))) {
+							bits |= permToBit(perms[i]);
+						}
+					}
+					if (bits == 0) {
+						continue;
+					}
+					String type = rs.getString(1);
+					if (system) {
+						merge(systemPrivs, type, bits);
+					} else {
+						Map<String, Integer> byName = objectPrivs.get(type);
+						if (byName == null) {
+							byName = new HashMap<String, Integer>();
+							objectPrivs.put(type, byName);
+						}
+						merge(byName, rs.getString(2), bits);
+					}
+				}
+			} finally {
+				if (rs != null) rs.close();
+				if (ps != null) ps.close();
+			}
+		}
+
+		private static void merge(Map<String, Integer> privs, String key, int bits) {
+			Integer existing = privs.get(key);
+			privs.put(key, Integer.valueOf(existing == null ? bits : existing.intValue() | bits));
+		}
+
+		/**
+		 * Converts the permission strings (for example,
+		 * MODIFY_PERMISSION) to the bit that represents them in a
+		 * snapshot.
+		 */
+		private static int permToBit(String perm) {
+			if (perm.equals(MODIFY_PERMISSION)) {
+				return 1;
+			} else if (perm.equals(DELETE_PERMISSION)) {
+				return 2;
+			} else if (perm.equals(EXECUTE_PERMISSION)) {
+				return 4;
+			} else if (perm.equals(GRANT_PERMISSION)) {
+				return 8;
+			} else if (perm.equals(NOTIFY_PERMISSION)) {
+				return 16;
+			} else if (perm.equals(CREATE_PERMISSION)) {
+				return 32;
+			} else {
+				throw new IllegalArgumentException("Unknown permission '"+perm+"'");
+			}
+		}
+	}
 }
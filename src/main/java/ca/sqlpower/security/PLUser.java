@@ -537,6 +537,9 @@ public class PLUser implements DatabaseObject, java.io.Serializable {
 		Statement stmt = null;
 		ResultSet rs = null;
 		List results = new LinkedList();
+		if (filter != null && filter.isEmpty()) {
+			return results;
+		}
 		StringBuffer sql = new StringBuffer();
 		sql.append("SELECT group_name FROM user_group WHERE user_id=")
 			.append(SQL.quote(getUserId()));
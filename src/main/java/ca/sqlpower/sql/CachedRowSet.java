@@ -18,10 +18,16 @@ import java.sql.SQLXML;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -48,10 +54,39 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 
 	private static final Logger logger = Logger.getLogger(CachedRowSet.class);
 
+	/**
+	 * The ways a CachedRowSet can keep its rows in memory. The mode is chosen
+	 * with {@link CachedRowSet#setStorageMode(StorageMode)} and takes effect
+	 * the next time the row set is populated.
+	 */
+	public static enum StorageMode {
+
+		/**
+		 * Each row is kept as an <code>Object[]</code> exactly as it came
+		 * from the driver. This is the default.
+		 */
+		ROWS,
+
+		/**
+		 * Each column is kept in its own array, using primitive arrays for
+		 * integer, long and double columns and dictionary encoding for string
+		 * columns. See {@link ColumnarRowList} for details. This uses much
+		 * less memory for large numeric result sets, at the cost of
+		 * allocating a new array every time a whole row is requested.
+		 */
+		COLUMNAR
+	}
+
 	private static final int BEFORE_FIRST_ROW = -1;
     private static final int INSERT_ROW = -2;
     private boolean makeUppercase = true;
 
+    /**
+     * The storage mode that will be used the next time this row set is
+     * populated.
+     */
+    private StorageMode storageMode = StorageMode.ROWS;
+
 	/**
 	 * The current row number in the result set.  Calling next() will
 	 * increment this (if there are more rows to go).
@@ -70,6 +105,21 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 */
 	protected List<Object[]> data;
 
+	/**
+	 * The same list as {@link #data} when this row set was populated in
+	 * {@link StorageMode#COLUMNAR} mode, and null otherwise. When this is
+	 * set, {@link #curRow} is not kept up to date while moving between rows;
+	 * values are read straight from the column arrays instead.
+	 */
+	protected ColumnarRowList columnarData;
+
+	/**
+	 * The indexes built by {@link #getHashIndex(int...)} and
+	 * {@link #getSortedIndex(int...)}, by kind and column list. Null until the
+	 * first index is asked for, and set back to null whenever the rows change.
+	 */
+	private transient volatile Map<String, RowIndex> indexes;
+
 	/**
 	 * The current row.  This gets updated by next().
 	 */
@@ -92,29 +142,68 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * rows are added.
      */
 	private final List<RowSetChangeListener> rowSetListeners =
-	    new ArrayList<RowSetChangeListener>();
+	    new CopyOnWriteArrayList<RowSetChangeListener>();
 	
 	/**
 	 * This is the "populate" method for streaming result sets. This method will
 	 * update the cached row set with a new row every time one is inserted into
-	 * the result set and notify the listener of the new row. Only rowLimit rows
+	 * the result set and notify the listeners of the new row. Only rowLimit rows
 	 * will be stored in the cached row set and when the row limit is reached
 	 * the oldest row in the cached row set will be removed.
+	 * <p>
+	 * This is the same as calling
+	 * {@link #follow(ResultSet, int, int, long, String...)} with an event batch
+	 * size of 1 and no event interval.
 	 * 
 	 * @param rs
 	 *            The result set to track.
-	 * @param listener
-	 *            A listener that will be notified that a new row was added to
-	 *            the cached row set. More listeners can be added from the
-	 *            {@link CachedRowSet#addRowSetChangeListener(RowSetChangeListener)}
-	 *            method.
 	 * @param rowLimit
 	 *            The maximum number of rows this cached row set will store. Old
 	 *            rows will be removed when necessary to make room for new rows.
 	 * @throws SQLException 
 	 */
 	public void follow(ResultSet rs, int rowLimit, String ... extraColNames) throws SQLException {
-	    data = Collections.synchronizedList(new ArrayList<Object[]>());
+		follow(rs, rowLimit, 1, 0, extraColNames);
+	}
+
+	/**
+	 * This is the "populate" method for streaming result sets. Only rowLimit
+	 * rows will be stored in the cached row set and when the row limit is
+	 * reached the oldest row in the cached row set will be removed. The rows
+	 * are kept in a {@link RingBufferRowList}, so dropping the oldest row
+	 * takes constant time and other threads can read this row set without
+	 * waiting on the thread calling this method.
+	 * <p>
+	 * Rather than notifying the listeners once for every row, the rows can be
+	 * reported in batches. An event is fired as soon as eventBatchSize rows
+	 * have been added since the last event. If eventIntervalMillis is greater
+	 * than 0, any rows still waiting to be reported are also reported every
+	 * eventIntervalMillis milliseconds, so a slow trickle of rows does not sit
+	 * unreported. Those events are delivered on a timer thread rather than the
+	 * thread calling this method. Any rows still waiting when the result set
+	 * runs out are reported before this method returns.
+	 * 
+	 * @param rs
+	 *            The result set to track.
+	 * @param rowLimit
+	 *            The maximum number of rows this cached row set will store. Old
+	 *            rows will be removed when necessary to make room for new rows.
+	 * @param eventBatchSize
+	 *            The number of new rows to report in each
+	 *            {@link RowSetChangeEvent}. Values less than 1 are treated as
+	 *            1.
+	 * @param eventIntervalMillis
+	 *            The longest time, in milliseconds, a new row will wait to be
+	 *            reported. 0 or less means rows are only reported in full
+	 *            batches and when the result set runs out.
+	 * @throws SQLException
+	 */
+	public void follow(ResultSet rs, int rowLimit, int eventBatchSize, long eventIntervalMillis,
+			String ... extraColNames) throws SQLException {
+	    RingBufferRowList rows = new RingBufferRowList(rowLimit);
+	    data = rows;
+	    columnarData = null;
+	    invalidateIndexes();
 	    logger.debug("crs@" + System.identityHashCode(this) + " starting to follow...");
 	    
 		rsmd = new CachedResultSetMetaData(rs.getMetaData(), this.makeUppercase);
@@ -129,39 +218,104 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 					String.class.getName());
 		}
 
-		int rowNum = 0;
-		while (rs.next()) {
-		    
-			if (logger.isDebugEnabled()) {
-		        logger.debug("crs@" + System.identityHashCode(this) + " populating Row " + rowNum);
-		    }
-			
-		    Object[] row = new Object[colCount];
-			
-			for (int i = 0; i < rsColCount; i++) {
-				
-				Object o = rs.getObject(i+1);
-				
+		RowAddedBatcher batcher = new RowAddedBatcher(eventBatchSize, eventIntervalMillis);
+		try {
+			int rowNum = 0;
+			while (rs.next()) {
+
 				if (logger.isDebugEnabled()) {
-					if (o == null) {
-						logger.debug("   Col "+i+": null");
-					} else {
-						logger.debug("   Col "+i+": "+o+" ("+o.getClass()+")");
-					}								
+					logger.debug("crs@" + System.identityHashCode(this) + " populating Row " + rowNum);
 				}
-				
-				row[i] = o;
-			}
-            
-			synchronized (data) {	
-				data.add(row);				
-				while (data.size() > rowLimit) { 
-					data.remove(0);
+
+				Object[] row = new Object[colCount];
+
+				for (int i = 0; i < rsColCount; i++) {
+
+					Object o = rs.getObject(i+1);
+
+					if (logger.isDebugEnabled()) {
+						if (o == null) {
+							logger.debug("   Col "+i+": null");
+						} else {
+							logger.debug("   Col "+i+": "+o+" ("+o.getClass()+")");
+						}								
+					}
+
+					row[i] = o;
 				}
+
+				rows.add(row);
+				batcher.rowAdded(row, rowNum);
+				rowNum++;
 			}
-			
-			fireRowAdded(row, rowNum);
-			rowNum++;
+		} finally {
+			batcher.finish();
+		}
+	}
+
+	/**
+	 * Collects the rows added by
+	 * {@link CachedRowSet#follow(ResultSet, int, int, long, String...)} and
+	 * fires one {@link RowSetChangeEvent} for each batch of them.
+	 */
+	private class RowAddedBatcher {
+
+		private final int batchSize;
+
+		/**
+		 * Flushes the pending rows at a fixed interval. Null if rows are only
+		 * reported in full batches.
+		 */
+		private final Timer timer;
+
+		/**
+		 * The number of rows added since the last event was fired.
+		 */
+		private int pendingRows;
+
+		/**
+		 * The most recently added row and its row number.
+		 */
+		private Object[] lastRow;
+		private int lastRowNum;
+
+		RowAddedBatcher(int batchSize, long intervalMillis) {
+			this.batchSize = Math.max(batchSize, 1);
+			if (intervalMillis > 0 && this.batchSize > 1) {
+				timer = new Timer("crs@" + System.identityHashCode(CachedRowSet.this) + " row events", true);
+				timer.schedule(new TimerTask() {
+					@Override
+					public void run() {
+						flush();
+					}
+				}, intervalMillis, intervalMillis);
+			} else {
+				timer = null;
+			}
+		}
+
+		synchronized void rowAdded(Object[] row, int rowNum) {
+			lastRow = row;
+			lastRowNum = rowNum;
+			pendingRows++;
+			if (pendingRows >= batchSize) {
+				flush();
+			}
+		}
+
+		synchronized void flush() {
+			if (pendingRows > 0) {
+				int count = pendingRows;
+				pendingRows = 0;
+				fireRowsAdded(lastRow, lastRowNum, count);
+			}
+		}
+
+		void finish() {
+			if (timer != null) {
+				timer.cancel();
+			}
+			flush();
 		}
 	}
 	
@@ -170,28 +324,162 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 * will not be linked to the original one and will not be 
 	 * populated nor refreshed. It is a snapshot of the current state
 	 * of the resultset.
+	 * <p>
+	 * The rows are sorted by building a list of row numbers in sorted order
+	 * (see {@link RowSorter}), and large row sets are sorted in parallel.
+	 * Like {@link #extract(int[])}, the copy gets its own row arrays but
+	 * shares the (immutable) values in them with this row set.
 	 * 
 	 * @param c
 	 * 
 	 * @return A copy of this rs, sorted
 	 */
 	public CachedRowSet sort(RowComparator c) {
-		
-		CachedRowSet newRs = new CachedRowSet();
-		try {
-			newRs.populate(this);
-		} catch (SQLException e) {
-			throw new RuntimeException(e);
+		RowSnapshot snapshot = snapshot();
+		int[] order = new RowSorter(snapshot).sort(c);
+		for (int i = 0; i < order.length; i++) {
+			order[i]++;
 		}
-		
-		
-		if (this.data != null) {
-			synchronized (data) {	
-				Collections.sort(newRs.data, c);
+		return extract(snapshot, order);
+	}
+
+	/**
+	 * Returns an index on the given columns that finds rows by exact key
+	 * matches. The index is built the first time it is asked for and reused
+	 * until the rows of this row set change.
+	 * 
+	 * @param columns
+	 *            The columns to index. The first column is 1.
+	 * @throws UnsupportedOperationException
+	 *             if this row set is following a streaming result set, since
+	 *             its row numbers change as old rows are dropped.
+	 */
+	public HashRowIndex getHashIndex(int ... columns) {
+		String name = "hash" + Arrays.toString(columns);
+		Map<String, RowIndex> indexes = getIndexes();
+		synchronized (indexes) {
+			HashRowIndex index = (HashRowIndex) indexes.get(name);
+			if (index == null) {
+				index = new HashRowIndex(snapshotForIndex(), columns);
+				indexes.put(name, index);
 			}
+			return index;
 		}
-		
-		return newRs;
+	}
+
+	/**
+	 * Returns an index on the given columns that keeps the rows in key order,
+	 * for range lookups. The index is built the first time it is asked for and
+	 * reused until the rows of this row set change.
+	 * 
+	 * @param columns
+	 *            The columns to index. The first column is 1.
+	 * @throws UnsupportedOperationException
+	 *             if this row set is following a streaming result set, since
+	 *             its row numbers change as old rows are dropped.
+	 */
+	public SortedRowIndex getSortedIndex(int ... columns) {
+		String name = "sorted" + Arrays.toString(columns);
+		Map<String, RowIndex> indexes = getIndexes();
+		synchronized (indexes) {
+			SortedRowIndex index = (SortedRowIndex) indexes.get(name);
+			if (index == null) {
+				index = new SortedRowIndex(snapshotForIndex(), columns);
+				indexes.put(name, index);
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Returns a new row set holding the rows of this one that have the given
+	 * key in the given index. The new row set shares its metadata with this
+	 * one, but has its own copy of the rows.
+	 * 
+	 * @param index
+	 *            An index obtained from this row set.
+	 * @param key
+	 *            The key to look up in the index.
+	 */
+	public CachedRowSet extract(RowIndex index, Object ... key) {
+		return extract(index.lookup(key));
+	}
+
+	/**
+	 * Returns a new row set holding the given rows of this one, in the given
+	 * order. The new row set shares its metadata with this one, but has its
+	 * own copy of the rows, so updates made to either row set are not seen
+	 * by the other.
+	 * 
+	 * @param rowNumbers
+	 *            The numbers of the rows to copy. The first row is 1.
+	 */
+	public CachedRowSet extract(int[] rowNumbers) {
+		return extract(snapshot(), rowNumbers);
+	}
+
+	private CachedRowSet extract(RowSnapshot snapshot, int[] rowNumbers) {
+		CachedRowSet extracted = new CachedRowSet();
+		extracted.rsmd = rsmd;
+		extracted.makeUppercase = makeUppercase;
+		extracted.storageMode = storageMode;
+		if (snapshot.getColumnarData() != null) {
+			int[] rows = new int[rowNumbers.length];
+			for (int i = 0; i < rows.length; i++) {
+				rows[i] = rowNumbers[i] - 1;
+			}
+			extracted.columnarData = snapshot.getColumnarData().select(rows);
+			extracted.data = extracted.columnarData;
+		} else {
+			List<Object[]> rows = new ArrayList<Object[]>(rowNumbers.length);
+			for (int rowNumber : rowNumbers) {
+				rows.add(snapshot.getRow(rowNumber - 1).clone());
+			}
+			extracted.data = Collections.synchronizedList(rows);
+		}
+		return extracted;
+	}
+
+	/**
+	 * Takes a snapshot of the rows currently in this row set for sorting,
+	 * indexing and extracting.
+	 */
+	RowSnapshot snapshot() {
+		if (data == null) {
+			return new RowSnapshot(new Object[0][]);
+		}
+		synchronized (data) {
+			if (columnarData != null) {
+				return new RowSnapshot(columnarData, columnarData.size());
+			} else {
+				return new RowSnapshot(data.toArray(new Object[data.size()][]));
+			}
+		}
+	}
+
+	private RowSnapshot snapshotForIndex() {
+		if (data instanceof RingBufferRowList) {
+			throw new UnsupportedOperationException(
+					"Indexes are not supported on row sets that follow a result set");
+		}
+		return snapshot();
+	}
+
+	private Map<String, RowIndex> getIndexes() {
+		Map<String, RowIndex> indexes = this.indexes;
+		if (indexes == null) {
+			indexes = new HashMap<String, RowIndex>();
+			this.indexes = indexes;
+		}
+		return indexes;
+	}
+
+	/**
+	 * Throws away the indexes on this row set. This has to be called whenever
+	 * rows are added or changed.
+	 */
+	private void invalidateIndexes() {
+		indexes = null;
 	}
 
     /**
@@ -242,15 +530,26 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 		}
 
 		int rowNum = 0;
-		data = Collections.synchronizedList(new ArrayList<Object[]>());
+		invalidateIndexes();
+		if (storageMode == StorageMode.COLUMNAR) {
+			columnarData = new ColumnarRowList(colCount);
+			data = columnarData;
+		} else {
+			columnarData = null;
+			data = Collections.synchronizedList(new ArrayList<Object[]>());
+		}
 
 		if (rs.getType() != ResultSet.TYPE_FORWARD_ONLY) {
 			rs.beforeFirst();
 		}
 		
+		// the columnar list copies each row's values, so one array can be reused
+		Object[] row = null;
 		while (rs.next()) {
 		    if (logger.isDebugEnabled()) logger.debug("Populating Row "+rowNum);
-			Object[] row = new Object[colCount];
+		    if (row == null || columnarData == null) {
+		    	row = new Object[colCount];
+		    }
 			for (int i = 0; i < rsColCount; i++) {
 				Object o = rs.getObject(i+1);
 				if (o == null) {
@@ -270,6 +569,10 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
                 logger.debug("Skipped this row (rejected by filter)");
             }
 		}
+		
+		if (columnarData != null) {
+			columnarData.trimToSize();
+		}
 	}
 
 	public static class RowComparator implements Comparator<Object[]>, java.io.Serializable {
@@ -295,7 +598,28 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 			sortCols.add(new SortCol(columnIndex, ascending));
 		}
 
-		@SuppressWarnings("unchecked")
+		/**
+		 * Returns the number of columns this comparator sorts by.
+		 */
+		int getSortColumnCount() {
+			return sortCols.size();
+		}
+
+		/**
+		 * Returns the column number (the first column is 1) of the given sort
+		 * column. Sort column 0 is the primary sort column.
+		 */
+		int getSortColumnIndex(int sortColumn) {
+			return sortCols.get(sortColumn).columnIndex;
+		}
+
+		/**
+		 * Returns true if the given sort column sorts in ascending order.
+		 */
+		boolean isSortColumnAscending(int sortColumn) {
+			return sortCols.get(sortColumn).ascending;
+		}
+
         public int compare(Object[] r1, Object[] r2) {
 //			Object[] r1 = (Object[]) row1;
 //			Object[] r2 = (Object[]) row2;
@@ -306,33 +630,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 				if (r1 == null && r2 == null) diff = 0;
 				else if (r1 == null) diff = -1;
 				else if (r2 == null) diff = 1;
-				else if (r1[sc.columnIndex - 1] instanceof Number && r2[sc.columnIndex - 1] instanceof Number) {
-					double d1 = ((Number) r1[sc.columnIndex - 1]).doubleValue();
-					double d2 = ((Number) r2[sc.columnIndex - 1]).doubleValue();  // see threepio
-					if (d1 < d2) diff = -1;
-					else if (d1 > d2) diff = 1;
-					else diff = 0;
-				} else if (r1[sc.columnIndex - 1] instanceof String && r2[sc.columnIndex - 1] instanceof String) {
-					String s1 = ((String) r1[sc.columnIndex - 1]);
-					String s2 = ((String) r2[sc.columnIndex - 1]);
-					diff = s1.compareToIgnoreCase(s2);
-				} else if (r1[sc.columnIndex - 1] instanceof Comparable && r2[sc.columnIndex - 1] instanceof Comparable) {
-				    Comparable c1 = (Comparable) r1[sc.columnIndex - 1];
-				    Comparable c2 = (Comparable) r2[sc.columnIndex - 1];
-				    
-				    //This may throw an exception if c1 and c2 are not of mutually comparable types.
-				    //That would mean the same column contains two different types of objects
-				    //that cannot be compared to each other, which we think would be a fault in the JDBC driver.
-				    diff = c1.compareTo(c2); 
-				} else {
-				    Object r1ColVal = r1[sc.columnIndex - 1];
-                    Object r2ColVal = r2[sc.columnIndex - 1];
-				    if (r1ColVal == null && r2ColVal == null) diff = 0;
-				    else if (r1ColVal == null) diff = -1;
-				    else if (r2ColVal == null) diff = 1;
-				    else diff = 0; // relying on stability of MergeSort to keep rows in order database returned them in
-				    
-				}
+				else diff = RowSorter.compareValues(r1[sc.columnIndex - 1], r2[sc.columnIndex - 1]);
 
 				if (diff != 0) {
 					if (sc.ascending) break;
@@ -396,6 +694,32 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 			return data.size();
 		}
 	}
+
+	/**
+	 * Returns the value at the given row and column without moving the
+	 * cursor. This is meant for callers like table models that read cells in
+	 * any order and would otherwise have to move the cursor back and forth
+	 * for every value.
+	 * 
+	 * @param row
+	 *            The row to read. The first row is 0.
+	 * @param columnIndex
+	 *            The column to read. The first column is 1, as with the
+	 *            getXXX() methods.
+	 * @throws IndexOutOfBoundsException
+	 *             If there is no such row.
+	 */
+	public Object getValueAt(int row, int columnIndex) {
+		if (data == null) {
+			throw new IndexOutOfBoundsException("Row " + row + " requested from an empty row set");
+		}
+		synchronized (data) {
+			if (columnarData != null) {
+				return columnarData.getValue(row, columnIndex - 1);
+			}
+			return data.get(row)[columnIndex - 1];
+		}
+	}
 	
 	/**
 	 * Tells this cached result set if it should make all column names upper case.
@@ -406,12 +730,37 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	}
 
 	/**
-	 * Returns the list of rows in this result set.
+	 * Sets the way rows will be stored the next time this row set is
+	 * populated. Row sets that are already populated keep their current
+	 * storage until they are populated again.
+	 */
+	public void setStorageMode(@Nonnull StorageMode storageMode) {
+		if (storageMode == null) {
+			throw new NullPointerException("Null storage mode not allowed");
+		}
+		this.storageMode = storageMode;
+	}
+
+	/**
+	 * Returns the storage mode that will be used the next time this row set
+	 * is populated.
+	 */
+	public StorageMode getStorageMode() {
+		return storageMode;
+	}
+
+	/**
+	 * Returns the list of rows in this result set. For row sets populated in
+	 * {@link StorageMode#COLUMNAR} mode this is an unmodifiable view rather
+	 * than a copy, and each row is built from the column arrays as it is
+	 * requested.
 	 */
 	public List<Object[]> getData() {
 		if (data == null)
 			return new ArrayList<Object[]>();
-		else {			
+		else if (columnarData != null) {
+			return Collections.unmodifiableList(columnarData);
+		} else {			
 			synchronized (data) {	
 				return Collections.unmodifiableList(new ArrayList<Object[]>(data));
 			}
@@ -454,7 +803,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * 
      * @param listener
      *            The listener to add (must not be null).
-     * @see #follow(ResultSet, RowSetChangeListener, int, String...)
+     * @see #follow(ResultSet, int, int, long, String...)
      */
 	public void addRowSetListener(@Nonnull RowSetChangeListener listener) {
 	    if (listener == null) {
@@ -484,12 +833,28 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      *            The row number where the new row was inserted
      */
 	protected void fireRowAdded(Object[] row, int rowNum) {
+		fireRowsAdded(row, rowNum, 1);
+	}
+
+    /**
+     * Fires one event for a batch of rows that were added one after the other.
+     * This CachedRowSet is the event's source. The rows should already have
+     * been inserted into the result set prior to calling this method.
+     * 
+     * @param lastRow
+     *            The actual data in the last of the new rows
+     * @param lastRowNum
+     *            The row number where the last of the new rows was inserted
+     * @param rowCount
+     *            The number of rows in the batch
+     */
+	protected void fireRowsAdded(Object[] lastRow, int lastRowNum, int rowCount) {
 	    if (logger.isDebugEnabled()) {
 	        logger.debug("crs@" + System.identityHashCode(this) +
                 " firing RowAdded for " + rowSetListeners.size() + " listeners...");
 	    }
 	    
-	    RowSetChangeEvent evt = new RowSetChangeEvent(this, row, rowNum);
+	    RowSetChangeEvent evt = new RowSetChangeEvent(this, lastRow, lastRowNum, rowCount);
 	    for (int i = rowSetListeners.size() - 1; i >= 0; i--) {
 	        RowSetChangeListener l = rowSetListeners.get(i);
 	        if (logger.isDebugEnabled()) {
@@ -501,6 +866,59 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	    }
 	}
 	
+	/**
+	 * Returns true if this row set is using {@link StorageMode#COLUMNAR}
+	 * storage and the cursor is on one of the stored rows (as opposed to the
+	 * insert row, or before the first row).
+	 */
+	private boolean isOnColumnarRow() {
+		return columnarData != null && rownum >= 0;
+	}
+
+	/**
+	 * Returns the value of the given column in the current row, and makes it
+	 * the column {@link #wasNull()} will report on.
+	 * 
+	 * @param columnIndex
+	 *            The column to read. The first column is 1.
+	 */
+	private Object currentValue(int columnIndex) {
+		curCol = columnIndex - 1;
+		if (isOnColumnarRow()) {
+			return columnarData.getValue(rownum, curCol);
+		}
+		return curRow[curCol];
+	}
+
+	/**
+	 * Replaces the value of the given column in the current row.
+	 * 
+	 * @param columnIndex
+	 *            The column to update. The first column is 1.
+	 */
+	private void updateValue(int columnIndex, Object value) {
+		if (isOnColumnarRow()) {
+			columnarData.setValue(rownum, columnIndex - 1, value);
+		} else {
+			curRow[columnIndex - 1] = value;
+		}
+		if (rownum != INSERT_ROW) {
+			invalidateIndexes();
+		}
+	}
+
+	/**
+	 * Returns the values in the current row. For row sets using
+	 * {@link StorageMode#COLUMNAR} storage, this is a copy that is built on
+	 * request, so changing it will not change this row set.
+	 */
+	protected Object[] getCurrentRow() {
+		if (isOnColumnarRow()) {
+			return columnarData.get(rownum);
+		}
+		return curRow;
+	}
+
 	// =============================================
 	// RESULTSET INTERFACE IS BELOW THIS LINE
 	// =============================================
@@ -521,8 +939,11 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 * get methods for native java types (which can't be null).
 	 */
     public boolean wasNull() throws SQLException {
-		if (curRow == null || curCol < 0)
+		if ((curRow == null && !isOnColumnarRow()) || curCol < 0)
 			throw new SQLException("You haven't accessed a value with a getXXX() method yet!");
+		if (isOnColumnarRow()) {
+			return columnarData.isNull(rownum, curCol);
+		}
 		return curRow[curCol] == null;
 	}
     
@@ -535,11 +956,15 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 * (the first column number is 1, not 0).
 	 */
     public String getString(int columnIndex) throws SQLException {
-		curCol = columnIndex - 1;
-		if (curRow[columnIndex - 1] == null) {
+		if (isOnColumnarRow()) {
+			curCol = columnIndex - 1;
+			return columnarData.getString(rownum, curCol);
+		}
+		Object value = currentValue(columnIndex);
+		if (value == null) {
 			return null;
 		} else {
-			return curRow[columnIndex - 1].toString();
+			return value.toString();
 		}
 	}
 
@@ -548,11 +973,11 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 * (the first column number is 1, not 0).
 	 */
     public boolean getBoolean(int columnIndex) throws SQLException {
-		curCol = columnIndex - 1;
-		if (curRow[columnIndex - 1] == null) {
+		Object value = currentValue(columnIndex);
+		if (value == null) {
 			return false;
 		} else {
-			return ((Boolean) curRow[columnIndex - 1]).booleanValue();
+			return ((Boolean) value).booleanValue();
 		}
 	}
 
@@ -561,11 +986,11 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 * (the first column number is 1, not 0).
 	 */
     public byte getByte(int columnIndex) throws SQLException {
-		curCol = columnIndex - 1;
-		if (curRow[columnIndex - 1] == null) {
+		Object value = currentValue(columnIndex);
+		if (value == null) {
 			return (byte) 0;
 		} else {
-			return ((Number) curRow[columnIndex - 1]).byteValue();
+			return ((Number) value).byteValue();
 		}
 	}
 
@@ -574,11 +999,11 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 * (the first column number is 1, not 0).
 	 */
     public short getShort(int columnIndex) throws SQLException {
-		curCol = columnIndex - 1;
-		if (curRow[columnIndex - 1] == null) {
+		Object value = currentValue(columnIndex);
+		if (value == null) {
 			return (short) 0;
 		} else {
-			return ((Number) curRow[columnIndex - 1]).shortValue();
+			return ((Number) value).shortValue();
 		}
 	}
 
@@ -587,11 +1012,15 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 * (the first column number is 1, not 0).
 	 */
     public int getInt(int columnIndex) throws SQLException {
-		curCol = columnIndex - 1;
-		if (curRow[columnIndex - 1] == null) {
+		if (isOnColumnarRow()) {
+			curCol = columnIndex - 1;
+			return columnarData.getInt(rownum, curCol);
+		}
+		Object value = currentValue(columnIndex);
+		if (value == null) {
 			return (int) 0;
 		} else {
-			return ((Number) curRow[columnIndex - 1]).intValue();
+			return ((Number) value).intValue();
 		}
 	}
 
@@ -600,11 +1029,15 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 * (the first column number is 1, not 0).
 	 */
     public long getLong(int columnIndex) throws SQLException {
-		curCol = columnIndex - 1;
-		if (curRow[columnIndex - 1] == null) {
+		if (isOnColumnarRow()) {
+			curCol = columnIndex - 1;
+			return columnarData.getLong(rownum, curCol);
+		}
+		Object value = currentValue(columnIndex);
+		if (value == null) {
 			return (long) 0;
 		} else {
-			return ((Number) curRow[columnIndex - 1]).longValue();
+			return ((Number) value).longValue();
 		}
 	}
 
@@ -613,11 +1046,11 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 * (the first column number is 1, not 0).
 	 */
     public float getFloat(int columnIndex) throws SQLException {
-		curCol = columnIndex - 1;
-		if (curRow[columnIndex - 1] == null) {
+		Object value = currentValue(columnIndex);
+		if (value == null) {
 			return (float) 0;
 		} else {
-			return ((Number) curRow[columnIndex - 1]).floatValue();
+			return ((Number) value).floatValue();
 		}
 	}
 
@@ -626,11 +1059,15 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 * (the first column number is 1, not 0).
 	 */
     public double getDouble(int columnIndex) throws SQLException {
-		curCol = columnIndex - 1;
-		if (curRow[columnIndex - 1] == null) {
+		if (isOnColumnarRow()) {
+			curCol = columnIndex - 1;
+			return columnarData.getDouble(rownum, curCol);
+		}
+		Object value = currentValue(columnIndex);
+		if (value == null) {
 			return (double) 0;
 		} else {
-			return ((Number) curRow[columnIndex - 1]).doubleValue();
+			return ((Number) value).doubleValue();
 		}
 	}
 
@@ -653,11 +1090,11 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 * (the first column number is 1, not 0).
 	 */
     public java.sql.Date getDate(int columnIndex) throws SQLException {
-		curCol = columnIndex - 1;
-		if (curRow[columnIndex - 1] == null) {
+		Object value = currentValue(columnIndex);
+		if (value == null) {
 			return null;
 		} else {
-			java.util.Date uDate = (java.util.Date) curRow[columnIndex - 1];
+			java.util.Date uDate = (java.util.Date) value;
 			return new java.sql.Date (uDate.getTime());
 		}
 	}
@@ -667,11 +1104,11 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 * (the first column number is 1, not 0).
 	 */
     public java.sql.Time getTime(int columnIndex) throws SQLException {
-		curCol = columnIndex - 1;
-		if (curRow[columnIndex - 1] == null) {
+		Object value = currentValue(columnIndex);
+		if (value == null) {
 			return null;
 		} else {
-			return (java.sql.Time) curRow[columnIndex - 1];
+			return (java.sql.Time) value;
 		}
 	}
 
@@ -680,11 +1117,11 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 * (the first column number is 1, not 0).
 	 */
     public java.sql.Timestamp getTimestamp(int columnIndex) throws SQLException {
-		curCol = columnIndex - 1;
-		if (curRow[columnIndex - 1] == null) {
+		Object value = currentValue(columnIndex);
+		if (value == null) {
 			return null;
 		} else {
-			return (java.sql.Timestamp) curRow[columnIndex - 1];
+			return (java.sql.Timestamp) value;
 		}
 	}
 
@@ -714,8 +1151,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 * (the first column number is 1, not 0).
 	 */
     public Object getObject(int columnIndex) throws SQLException {
-		curCol = columnIndex - 1;
-		return curRow[columnIndex - 1];
+		return currentValue(columnIndex);
 	}
 
     /**
@@ -730,8 +1166,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 * (the first column number is 1, not 0).
 	 */
     public Ref getRef(int i) throws SQLException {
-		curCol = i - 1;
-		return (Ref) curRow[i - 1];
+		return (Ref) currentValue(i);
 	}
 
 	/**
@@ -739,8 +1174,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 * (the first column number is 1, not 0).
 	 */
     public Blob getBlob(int i) throws SQLException {
-		curCol = i - 1;
-		return (Blob) curRow[i - 1];
+		return (Blob) currentValue(i);
 	}
 
 	/**
@@ -748,8 +1182,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 * (the first column number is 1, not 0).
 	 */
     public Clob getClob(int i) throws SQLException {
-		curCol = i - 1;
-		return (Clob) curRow[i - 1];
+		return (Clob) currentValue(i);
 	}
 
 	/**
@@ -757,8 +1190,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 * (the first column number is 1, not 0).
 	 */
     public Array getArray(int i) throws SQLException {
-		curCol = i - 1;
-		return (Array) curRow[i - 1];
+		return (Array) currentValue(i);
 	}
 
     /**
@@ -788,11 +1220,11 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 * the URL is returned.
 	 */
     public java.net.URL getURL(int columnIndex) throws SQLException {
-		curCol = columnIndex - 1;
-		if (curRow[curCol] == null) {
+		Object value = currentValue(columnIndex);
+		if (value == null) {
 			return null;
-		} else if (curRow[curCol] instanceof java.net.URL) {
-			return (java.net.URL) curRow[curCol];
+		} else if (value instanceof java.net.URL) {
+			return (java.net.URL) value;
 		} else try {
 			return new java.net.URL(getString(columnIndex));
 		} catch (java.net.MalformedURLException e) {
@@ -1141,7 +1573,9 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 			
 			// now do the positioning
 			if (data.size() > 0) {
-				curRow = (Object[]) data.get(rownum);
+				if (columnarData == null) {
+					curRow = (Object[]) data.get(rownum);
+				}
 				return true;
 			} else {
 				return false;
@@ -1202,7 +1636,9 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 				return false;
 			}
 			
-			curRow = (Object[]) data.get(rownum);
+			if (columnarData == null) {
+				curRow = (Object[]) data.get(rownum);
+			}
 			return true;
 		}
 	}
@@ -1278,13 +1714,12 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	 * be converted and returned in a BigDecimal.
 	 */
     public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
-		curCol = columnIndex - 1;
-		Object curColObject = curRow[columnIndex - 1];
+		Object curColObject = currentValue(columnIndex);
 		if (curColObject == null) {
 			return new BigDecimal(0);
 		} else {
 			if (curColObject instanceof BigDecimal) {
-				return (BigDecimal) curRow[columnIndex - 1];
+				return (BigDecimal) curColObject;
 			} else if (curColObject instanceof Number) {
 				return new BigDecimal(String.valueOf(curColObject));
 			} else {
@@ -1368,7 +1803,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * the change will remain in memory for the life of this CachedRowSet.
      */
     public void updateNull(int columnIndex) throws SQLException {
-        curRow[columnIndex - 1] = null;
+        updateValue(columnIndex, null);
 	}
 
     /**
@@ -1377,7 +1812,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * the change will remain in memory for the life of this CachedRowSet.
      */
     public void updateBoolean(int columnIndex, boolean x) throws SQLException {
-        curRow[columnIndex - 1] = (x ? Boolean.TRUE : Boolean.FALSE);
+        updateValue(columnIndex, (x ? Boolean.TRUE : Boolean.FALSE));
 	}
 
     /**
@@ -1386,7 +1821,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * the change will remain in memory for the life of this CachedRowSet.
      */
     public void updateByte(int columnIndex, byte x) throws SQLException {
-        curRow[columnIndex - 1] = BigDecimal.valueOf(x);
+        updateValue(columnIndex, BigDecimal.valueOf(x));
 	}
 
     /**
@@ -1395,7 +1830,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * the change will remain in memory for the life of this CachedRowSet.
      */
     public void updateShort(int columnIndex, short x) throws SQLException {
-        curRow[columnIndex - 1] = BigDecimal.valueOf(x);
+        updateValue(columnIndex, BigDecimal.valueOf(x));
 	}
 
     /**
@@ -1404,7 +1839,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * the change will remain in memory for the life of this CachedRowSet.
      */
     public void updateInt(int columnIndex, int x) throws SQLException {
-		curRow[columnIndex - 1] = BigDecimal.valueOf(x);
+		updateValue(columnIndex, BigDecimal.valueOf(x));
 	}
 
     /**
@@ -1413,7 +1848,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * the change will remain in memory for the life of this CachedRowSet.
      */
     public void updateLong(int columnIndex, long x) throws SQLException {
-        curRow[columnIndex - 1] = BigDecimal.valueOf(x);
+        updateValue(columnIndex, BigDecimal.valueOf(x));
 	}
 
     /**
@@ -1422,7 +1857,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * the change will remain in memory for the life of this CachedRowSet.
      */
     public void updateFloat(int columnIndex, float x) throws SQLException {
-        curRow[columnIndex - 1] = BigDecimal.valueOf(x);
+        updateValue(columnIndex, BigDecimal.valueOf(x));
 	}
 
     /**
@@ -1431,7 +1866,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * the change will remain in memory for the life of this CachedRowSet.
      */
     public void updateDouble(int columnIndex, double x) throws SQLException {
-        curRow[columnIndex - 1] = BigDecimal.valueOf(x);
+        updateValue(columnIndex, BigDecimal.valueOf(x));
 	}
 
     /**
@@ -1440,7 +1875,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * the change will remain in memory for the life of this CachedRowSet.
      */
     public void updateBigDecimal(int columnIndex, BigDecimal x) throws SQLException {
-        curRow[columnIndex - 1] = x;
+        updateValue(columnIndex, x);
 	}
 
     /**
@@ -1449,7 +1884,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * the change will remain in memory for the life of this CachedRowSet.
      */
     public void updateString(int columnIndex, String x) throws SQLException {
-        curRow[columnIndex - 1] = x;
+        updateValue(columnIndex, x);
 	}
 
     /**
@@ -1458,7 +1893,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * the change will remain in memory for the life of this CachedRowSet.
      */
     public void updateBytes(int columnIndex, byte x[]) throws SQLException {
-        curRow[columnIndex - 1] = x;
+        updateValue(columnIndex, x);
 	}
 
     /**
@@ -1467,7 +1902,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * the change will remain in memory for the life of this CachedRowSet.
      */
     public void updateDate(int columnIndex, java.sql.Date x) throws SQLException {
-        curRow[columnIndex - 1] = x;
+        updateValue(columnIndex, x);
 	}
 
     /**
@@ -1476,7 +1911,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * the change will remain in memory for the life of this CachedRowSet.
      */
     public void updateTime(int columnIndex, java.sql.Time x) throws SQLException {
-        curRow[columnIndex - 1] = x;
+        updateValue(columnIndex, x);
 	}
 
     /**
@@ -1486,7 +1921,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      */
     public void updateTimestamp(int columnIndex, java.sql.Timestamp x)
 		throws SQLException {
-        curRow[columnIndex - 1] = x;
+        updateValue(columnIndex, x);
 	}
 
 	/**
@@ -1519,7 +1954,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * the change will remain in memory for the life of this CachedRowSet.
      */
     public void updateObject(int columnIndex, Object x, int scale) throws SQLException {
-        curRow[columnIndex - 1] = x;
+        updateValue(columnIndex, x);
 	}
 
     /**
@@ -1528,7 +1963,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * the change will remain in memory for the life of this CachedRowSet.
      */
     public void updateObject(int columnIndex, Object x) throws SQLException {
-        curRow[columnIndex - 1] = x;
+        updateValue(columnIndex, x);
 	}
 
     /**
@@ -1537,7 +1972,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * the change will remain in memory for the life of this CachedRowSet.
      */
     public void updateArray(int columnIndex, java.sql.Array x) throws SQLException {
-        curRow[columnIndex - 1] = x;
+        updateValue(columnIndex, x);
 	}
 
     /**
@@ -1546,7 +1981,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * the change will remain in memory for the life of this CachedRowSet.
      */
 	public void updateClob(int columnIndex, java.sql.Clob x) throws SQLException {
-        curRow[columnIndex - 1] = x;
+        updateValue(columnIndex, x);
 	}
 
     /**
@@ -1555,7 +1990,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * the change will remain in memory for the life of this CachedRowSet.
      */
 	public void updateBlob(int columnIndex, java.sql.Blob x) throws SQLException {
-        curRow[columnIndex - 1] = x;
+        updateValue(columnIndex, x);
 	}
 
     /**
@@ -1564,8 +1999,8 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
      * the change will remain in memory for the life of this CachedRowSet.
      */
     public void updateRef(int columnIndex, java.sql.Ref x) throws SQLException {
-        if (curRow == null) throw new SQLException("Not on a valid row");
-        curRow[columnIndex - 1] = x;
+        if (curRow == null && !isOnColumnarRow()) throw new SQLException("Not on a valid row");
+        updateValue(columnIndex, x);
 	}
 	
     // ====================================
@@ -1819,6 +2254,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
     		data.add(curRow);
     		insertRowAlreadyInserted = true;
 		}
+    	invalidateIndexes();
     }
 
     public void moveToCurrentRow() throws SQLException {
@@ -2094,8 +2530,7 @@ public class CachedRowSet implements ResultSet, java.io.Serializable {
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T> T getObject(int columnIndex, Class<T> type) throws SQLException {
-		curCol = columnIndex - 1;
-		return (T) curRow[columnIndex - 1];
+		return (T) currentValue(columnIndex);
 	}
 
 	@SuppressWarnings("unchecked")
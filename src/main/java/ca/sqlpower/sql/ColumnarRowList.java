@@ -0,0 +1,795 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.sql;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A column-oriented list of rows for {@link CachedRowSet}. Rather than keeping
+ * one <code>Object[]</code> per row, each column is kept in its own array.
+ * Columns whose values are all {@link Integer}, {@link Long} or {@link Double}
+ * are stored in primitive arrays, {@link String} columns are dictionary
+ * encoded, and everything else falls back to a plain <code>Object[]</code>.
+ * Every column also keeps a bitmap of which rows are null.
+ * <p>
+ * The storage type of a column is chosen from the first non-null value added
+ * to it. If a later value does not have exactly the same class, the column is
+ * converted to the generic object representation, so {@link #get(int)} always
+ * hands back values of the same classes that were originally added.
+ * <p>
+ * This class implements {@link List} so it can be used anywhere the row list
+ * of a {@link CachedRowSet} is expected. Each call to {@link #get(int)}
+ * materializes a new row array; callers that only need individual cells
+ * should use {@link #getValue(int, int)} or one of the primitive getters,
+ * which do not box.
+ * <p>
+ * Structural changes and whole-row access are synchronized on this list, like
+ * the {@link java.util.Collections#synchronizedList(List)} it replaces. The
+ * single-cell getters are not synchronized, in the same way reading the current
+ * row of a {@link CachedRowSet} is not.
+ */
+public class ColumnarRowList extends AbstractList<Object[]> implements RandomAccess, java.io.Serializable {
+
+    /**
+     * The smallest number of rows a string column has to hold before
+     * {@link #trimToSize()} considers dropping its dictionary because there are
+     * too many distinct values for the encoding to pay off.
+     */
+    private static final int MIN_ROWS_FOR_DICTIONARY_CHECK = 1024;
+
+    /**
+     * The storage for each column, in column order.
+     */
+    private final Column[] columns;
+
+    /**
+     * The number of rows in this list.
+     */
+    private int size;
+
+    /**
+     * The number of rows each column currently has room for.
+     */
+    private int capacity;
+
+    /**
+     * Creates a new, empty list of rows with the given number of columns.
+     */
+    public ColumnarRowList(int columnCount) {
+        this(columnCount, 16);
+    }
+
+    /**
+     * Creates a new, empty list of rows with the given number of columns and
+     * enough room for the given number of rows before the column arrays have
+     * to grow.
+     */
+    public ColumnarRowList(int columnCount, int initialCapacity) {
+        if (initialCapacity < 1) {
+            initialCapacity = 1;
+        }
+        capacity = initialCapacity;
+        columns = new Column[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columns[i] = new NullColumn(capacity);
+        }
+    }
+
+    /**
+     * Returns the number of columns in each row of this list.
+     */
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns a newly-allocated copy of the given row. Changes to the returned
+     * array are not reflected in this list; use {@link #set(int, Object[])} or
+     * {@link #setValue(int, int, Object)} for that.
+     */
+    @Override
+    public synchronized Object[] get(int row) {
+        checkRow(row);
+        Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = columns[i].get(row);
+        }
+        return values;
+    }
+
+    /**
+     * Appends a copy of the given row to the end of this list. Missing trailing
+     * values in a short row are treated as nulls.
+     */
+    @Override
+    public synchronized boolean add(Object[] row) {
+        ensureCapacity(size + 1);
+        size++;
+        for (int i = 0; i < columns.length; i++) {
+            setCell(size - 1, i, i < row.length ? row[i] : null);
+        }
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Replaces the values in the given row with a copy of the given values.
+     */
+    @Override
+    public synchronized Object[] set(int row, Object[] values) {
+        Object[] old = get(row);
+        for (int i = 0; i < columns.length; i++) {
+            setCell(row, i, i < values.length ? values[i] : null);
+        }
+        return old;
+    }
+
+    /**
+     * Removes all rows from this list. Each column goes back to being untyped.
+     */
+    @Override
+    public synchronized void clear() {
+        size = 0;
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new NullColumn(capacity);
+        }
+        modCount++;
+    }
+
+    /**
+     * Returns the value at the given row and column (both 0-based), boxed the
+     * same way it was when it was added.
+     */
+    public Object getValue(int row, int column) {
+        checkRow(row);
+        return columns[column].get(row);
+    }
+
+    /**
+     * Returns true if the value at the given row and column is null.
+     */
+    public boolean isNull(int row, int column) {
+        checkRow(row);
+        return columns[column].isNull(row);
+    }
+
+    /**
+     * Returns the value at the given row and column as an int. Nulls are
+     * returned as 0, and non-numeric values cause a {@link ClassCastException}.
+     */
+    public int getInt(int row, int column) {
+        checkRow(row);
+        Column c = columns[column];
+        return c.isNull(row) ? 0 : c.getInt(row);
+    }
+
+    /**
+     * Returns the value at the given row and column as a long. Nulls are
+     * returned as 0, and non-numeric values cause a {@link ClassCastException}.
+     */
+    public long getLong(int row, int column) {
+        checkRow(row);
+        Column c = columns[column];
+        return c.isNull(row) ? 0L : c.getLong(row);
+    }
+
+    /**
+     * Returns the value at the given row and column as a double. Nulls are
+     * returned as 0, and non-numeric values cause a {@link ClassCastException}.
+     */
+    public double getDouble(int row, int column) {
+        checkRow(row);
+        Column c = columns[column];
+        return c.isNull(row) ? 0.0 : c.getDouble(row);
+    }
+
+    /**
+     * Returns the string representation of the value at the given row and
+     * column, or null if the value is null.
+     */
+    public String getString(int row, int column) {
+        checkRow(row);
+        Column c = columns[column];
+        return c.isNull(row) ? null : c.getString(row);
+    }
+
+    /**
+     * Replaces the value at the given row and column. If the value does not
+     * fit the column's current storage type, the column is converted to the
+     * generic object representation first.
+     */
+    public synchronized void setValue(int row, int column, Object value) {
+        checkRow(row);
+        setCell(row, column, value);
+    }
+
+    /**
+     * Shrinks every column array to exactly the number of rows in this list,
+     * and drops the lookup tables that are only needed while rows are being
+     * added. String columns with so many distinct values that dictionary
+     * encoding no longer saves space are converted to plain object columns.
+     * {@link CachedRowSet} calls this once populating is finished.
+     */
+    public synchronized void trimToSize() {
+        capacity = Math.max(size, 1);
+        for (int i = 0; i < columns.length; i++) {
+            Column c = columns[i];
+            if (c instanceof StringColumn && size >= MIN_ROWS_FOR_DICTIONARY_CHECK
+                    && ((StringColumn) c).dictionary.size() > size / 2) {
+                c = c.toObjectColumn(capacity);
+            }
+            c.resize(capacity);
+            c.compact();
+            columns[i] = c;
+        }
+    }
+
+    /**
+     * Returns a new list holding copies of the given rows of this list, in the
+     * given order. Values are copied column by column without being boxed.
+     * 
+     * @param rows
+     *            The 0-based indexes of the rows to copy. A row may appear
+     *            more than once.
+     */
+    public synchronized ColumnarRowList select(int[] rows) {
+        for (int row : rows) {
+            checkRow(row);
+        }
+        ColumnarRowList selected = new ColumnarRowList(columns.length, rows.length);
+        for (int i = 0; i < columns.length; i++) {
+            selected.columns[i] = columns[i].select(rows, selected.capacity);
+        }
+        selected.size = rows.length;
+        return selected;
+    }
+
+    private void setCell(int row, int column, Object value) {
+        Column c = columns[column];
+        if (value == null) {
+            c.setNull(row);
+        } else if (c.accepts(value)) {
+            c.set(row, value);
+        } else {
+            if (c instanceof NullColumn) {
+                c = Column.forValue(value, capacity, c.nulls);
+            } else {
+                c = c.toObjectColumn(capacity);
+            }
+            c.set(row, value);
+            columns[column] = c;
+        }
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity <= capacity) return;
+        int newCapacity = Math.max(minCapacity, capacity + (capacity >> 1) + 1);
+        for (Column c : columns) {
+            c.resize(newCapacity);
+        }
+        capacity = newCapacity;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " is out of range (size=" + size + ")");
+        }
+    }
+
+    /**
+     * The storage for a single column. Every column keeps a null bitmap; the
+     * subclasses hold the non-null values in whatever form suits them.
+     */
+    private static abstract class Column implements java.io.Serializable {
+
+        /**
+         * One bit per row, set when the value in that row is null.
+         */
+        long[] nulls;
+
+        Column(int capacity, long[] nulls) {
+            this.nulls = nulls == null ? new long[wordsFor(capacity)] : copyOf(nulls, wordsFor(capacity));
+        }
+
+        /**
+         * Returns a column suited to storing values of the same class as the
+         * given value, carrying over the given null bitmap.
+         */
+        static Column forValue(Object value, int capacity, long[] nulls) {
+            Class<?> c = value.getClass();
+            if (c == Integer.class) {
+                return new IntColumn(capacity, nulls);
+            } else if (c == Long.class) {
+                return new LongColumn(capacity, nulls);
+            } else if (c == Double.class) {
+                return new DoubleColumn(capacity, nulls);
+            } else if (c == String.class) {
+                return new StringColumn(capacity, nulls);
+            } else {
+                return new ObjectColumn(capacity, nulls);
+            }
+        }
+
+        final boolean isNull(int row) {
+            return (nulls[row >>> 6] & (1L << row)) != 0;
+        }
+
+        final void setNull(int row) {
+            nulls[row >>> 6] |= (1L << row);
+        }
+
+        final Object get(int row) {
+            return isNull(row) ? null : getNonNull(row);
+        }
+
+        final void set(int row, Object value) {
+            nulls[row >>> 6] &= ~(1L << row);
+            setNonNull(row, value);
+        }
+
+        void resize(int capacity) {
+            nulls = copyOf(nulls, wordsFor(capacity));
+        }
+
+        /**
+         * Releases anything that is only needed to add more values quickly.
+         */
+        void compact() {
+            // most columns have nothing to release
+        }
+
+        /**
+         * Returns a copy of this column that stores boxed objects, for when a
+         * value of an unexpected class comes along.
+         */
+        ObjectColumn toObjectColumn(int capacity) {
+            ObjectColumn oc = new ObjectColumn(capacity, nulls);
+            int rows = Math.min(capacity, length());
+            for (int i = 0; i < rows; i++) {
+                if (!isNull(i)) {
+                    oc.values[i] = getNonNull(i);
+                }
+            }
+            return oc;
+        }
+
+        int getInt(int row) {
+            return ((Number) getNonNull(row)).intValue();
+        }
+
+        long getLong(int row) {
+            return ((Number) getNonNull(row)).longValue();
+        }
+
+        double getDouble(int row) {
+            return ((Number) getNonNull(row)).doubleValue();
+        }
+
+        String getString(int row) {
+            return getNonNull(row).toString();
+        }
+
+        /**
+         * Returns a new column of the same type holding the given rows of
+         * this one, with room for the given number of rows.
+         */
+        final Column select(int[] rows, int capacity) {
+            Column selected = emptyCopy(capacity);
+            for (int i = 0; i < rows.length; i++) {
+                if (isNull(rows[i])) {
+                    selected.setNull(i);
+                } else {
+                    selected.copyValue(this, rows[i], i);
+                }
+            }
+            return selected;
+        }
+
+        /**
+         * Returns a new, empty column of the same type as this one.
+         */
+        abstract Column emptyCopy(int capacity);
+
+        /**
+         * Copies the value in the given row of the given column, which is
+         * always of the same type as this one, into the given row of this
+         * column.
+         */
+        abstract void copyValue(Column source, int sourceRow, int row);
+
+        /**
+         * Returns the number of rows this column's value array has room for.
+         */
+        abstract int length();
+
+        abstract boolean accepts(Object value);
+
+        abstract Object getNonNull(int row);
+
+        abstract void setNonNull(int row, Object value);
+
+        static int wordsFor(int capacity) {
+            return (capacity + 63) >>> 6;
+        }
+
+        private static long[] copyOf(long[] a, int length) {
+            long[] copy = new long[length];
+            System.arraycopy(a, 0, copy, 0, Math.min(a.length, length));
+            return copy;
+        }
+    }
+
+    /**
+     * A column that has only ever held nulls, so its type is not known yet.
+     */
+    private static class NullColumn extends Column {
+
+        private int length;
+
+        NullColumn(int capacity) {
+            super(capacity, null);
+            length = capacity;
+        }
+
+        @Override
+        void resize(int capacity) {
+            super.resize(capacity);
+            length = capacity;
+        }
+
+        int length() {
+            return length;
+        }
+
+        Column emptyCopy(int capacity) {
+            return new NullColumn(capacity);
+        }
+
+        void copyValue(Column source, int sourceRow, int row) {
+            throw new IllegalStateException("Column has no values");
+        }
+
+        boolean accepts(Object value) {
+            return false;
+        }
+
+        Object getNonNull(int row) {
+            throw new IllegalStateException("Column has no values");
+        }
+
+        void setNonNull(int row, Object value) {
+            throw new IllegalStateException("Column has no values");
+        }
+    }
+
+    private static class IntColumn extends Column {
+
+        private int[] values;
+
+        IntColumn(int capacity, long[] nulls) {
+            super(capacity, nulls);
+            values = new int[capacity];
+        }
+
+        @Override
+        void resize(int capacity) {
+            super.resize(capacity);
+            int[] a = new int[capacity];
+            System.arraycopy(values, 0, a, 0, Math.min(values.length, capacity));
+            values = a;
+        }
+
+        Column emptyCopy(int capacity) {
+            return new IntColumn(capacity, null);
+        }
+
+        void copyValue(Column source, int sourceRow, int row) {
+            values[row] = ((IntColumn) source).values[sourceRow];
+        }
+
+        int length() {
+            return values.length;
+        }
+
+        boolean accepts(Object value) {
+            return value.getClass() == Integer.class;
+        }
+
+        Object getNonNull(int row) {
+            return Integer.valueOf(values[row]);
+        }
+
+        void setNonNull(int row, Object value) {
+            values[row] = ((Integer) value).intValue();
+        }
+
+        int getInt(int row) {
+            return values[row];
+        }
+
+        long getLong(int row) {
+            return values[row];
+        }
+
+        double getDouble(int row) {
+            return values[row];
+        }
+
+        String getString(int row) {
+            return Integer.toString(values[row]);
+        }
+    }
+
+    private static class LongColumn extends Column {
+
+        private long[] values;
+
+        LongColumn(int capacity, long[] nulls) {
+            super(capacity, nulls);
+            values = new long[capacity];
+        }
+
+        @Override
+        void resize(int capacity) {
+            super.resize(capacity);
+            long[] a = new long[capacity];
+            System.arraycopy(values, 0, a, 0, Math.min(values.length, capacity));
+            values = a;
+        }
+
+        Column emptyCopy(int capacity) {
+            return new LongColumn(capacity, null);
+        }
+
+        void copyValue(Column source, int sourceRow, int row) {
+            values[row] = ((LongColumn) source).values[sourceRow];
+        }
+
+        int length() {
+            return values.length;
+        }
+
+        boolean accepts(Object value) {
+            return value.getClass() == Long.class;
+        }
+
+        Object getNonNull(int row) {
+            return Long.valueOf(values[row]);
+        }
+
+        void setNonNull(int row, Object value) {
+            values[row] = ((Long) value).longValue();
+        }
+
+        int getInt(int row) {
+            return (int) values[row];
+        }
+
+        long getLong(int row) {
+            return values[row];
+        }
+
+        double getDouble(int row) {
+            return values[row];
+        }
+
+        String getString(int row) {
+            return Long.toString(values[row]);
+        }
+    }
+
+    private static class DoubleColumn extends Column {
+
+        private double[] values;
+
+        DoubleColumn(int capacity, long[] nulls) {
+            super(capacity, nulls);
+            values = new double[capacity];
+        }
+
+        @Override
+        void resize(int capacity) {
+            super.resize(capacity);
+            double[] a = new double[capacity];
+            System.arraycopy(values, 0, a, 0, Math.min(values.length, capacity));
+            values = a;
+        }
+
+        Column emptyCopy(int capacity) {
+            return new DoubleColumn(capacity, null);
+        }
+
+        void copyValue(Column source, int sourceRow, int row) {
+            values[row] = ((DoubleColumn) source).values[sourceRow];
+        }
+
+        int length() {
+            return values.length;
+        }
+
+        boolean accepts(Object value) {
+            return value.getClass() == Double.class;
+        }
+
+        Object getNonNull(int row) {
+            return Double.valueOf(values[row]);
+        }
+
+        void setNonNull(int row, Object value) {
+            values[row] = ((Double) value).doubleValue();
+        }
+
+        int getInt(int row) {
+            return (int) values[row];
+        }
+
+        long getLong(int row) {
+            return (long) values[row];
+        }
+
+        double getDouble(int row) {
+            return values[row];
+        }
+
+        String getString(int row) {
+            return Double.toString(values[row]);
+        }
+    }
+
+    /**
+     * A dictionary-encoded string column. Each distinct string is stored once
+     * and every row holds the index of its string in the dictionary.
+     */
+    private static class StringColumn extends Column {
+
+        private int[] codes;
+
+        private final ArrayList<String> dictionary = new ArrayList<String>();
+
+        /**
+         * Maps each string in the dictionary to its code. Only needed while
+         * values are being added, so it is dropped by {@link #compact()} and
+         * rebuilt on demand.
+         */
+        private transient Map<String, Integer> lookup = new HashMap<String, Integer>();
+
+        StringColumn(int capacity, long[] nulls) {
+            super(capacity, nulls);
+            codes = new int[capacity];
+        }
+
+        @Override
+        void resize(int capacity) {
+            super.resize(capacity);
+            int[] a = new int[capacity];
+            System.arraycopy(codes, 0, a, 0, Math.min(codes.length, capacity));
+            codes = a;
+        }
+
+        @Override
+        void compact() {
+            dictionary.trimToSize();
+            lookup = null;
+        }
+
+        Column emptyCopy(int capacity) {
+            StringColumn copy = new StringColumn(capacity, null);
+            copy.dictionary.addAll(dictionary);
+            copy.lookup = null;
+            return copy;
+        }
+
+        void copyValue(Column source, int sourceRow, int row) {
+            codes[row] = ((StringColumn) source).codes[sourceRow];
+        }
+
+        int length() {
+            return codes.length;
+        }
+
+        boolean accepts(Object value) {
+            return value.getClass() == String.class;
+        }
+
+        Object getNonNull(int row) {
+            return dictionary.get(codes[row]);
+        }
+
+        String getString(int row) {
+            return dictionary.get(codes[row]);
+        }
+
+        void setNonNull(int row, Object value) {
+            if (lookup == null) {
+                lookup = new HashMap<String, Integer>();
+                for (int i = 0; i < dictionary.size(); i++) {
+                    lookup.put(dictionary.get(i), i);
+                }
+            }
+            Integer code = lookup.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add((String) value);
+                lookup.put((String) value, code);
+            }
+            codes[row] = code;
+        }
+    }
+
+    /**
+     * The fallback column type, which stores each value as-is.
+     */
+    private static class ObjectColumn extends Column {
+
+        private Object[] values;
+
+        ObjectColumn(int capacity, long[] nulls) {
+            super(capacity, nulls);
+            values = new Object[capacity];
+        }
+
+        @Override
+        void resize(int capacity) {
+            super.resize(capacity);
+            Object[] a = new Object[capacity];
+            System.arraycopy(values, 0, a, 0, Math.min(values.length, capacity));
+            values = a;
+        }
+
+        @Override
+        ObjectColumn toObjectColumn(int capacity) {
+            return this;
+        }
+
+        Column emptyCopy(int capacity) {
+            return new ObjectColumn(capacity, null);
+        }
+
+        void copyValue(Column source, int sourceRow, int row) {
+            values[row] = ((ObjectColumn) source).values[sourceRow];
+        }
+
+        int length() {
+            return values.length;
+        }
+
+        boolean accepts(Object value) {
+            return true;
+        }
+
+        Object getNonNull(int row) {
+            return values[row];
+        }
+
+        void setNonNull(int row, Object value) {
+            values[row] = value;
+        }
+    }
+}
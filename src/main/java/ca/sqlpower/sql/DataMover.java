@@ -27,18 +27,63 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.commons.dbcp.ConnectionFactory;
 import org.apache.log4j.Logger;
 
+import ca.sqlpower.util.Monitorable;
+
 /**
  * The DataMover class is used to move data and structure from one
  * database to another, even if they are not from the same vendor.
+ * <p>
+ * By default each row is inserted with its own statement execution and the
+ * whole table is committed at the end, all on the calling thread. For large
+ * tables the copy can be tuned with {@link #setBatchSize(int)},
+ * {@link #setCommitInterval(int)} and {@link #setFetchSize(int)}, and spread
+ * over several destination connections with {@link #setWriterThreadCount(int)}
+ * and {@link #setDestinationConnectionFactory(ConnectionFactory)}. Several
+ * tables can be copied at once with {@link #copyTables(Collection)}.
+ * <p>
+ * The progress of a copy can be watched through the {@link Monitorable}
+ * interface, and detailed counts and timings for each table are available
+ * from {@link #getStatistics()}.
+ * <p>
+ * A table copy that fails rolls back the rows it has not committed yet, but
+ * some work may already be committed by then. Rows are committed every
+ * {@link #setCommitInterval(int) commit interval} if one is set. With writer
+ * threads, the table is created and emptied and that is committed before the
+ * writers start, since they insert through connections of their own; each
+ * writer then commits its own share of the rows. A failed copy can therefore
+ * leave the destination table emptied or partly loaded.
  */
-public class DataMover {
+public class DataMover implements Monitorable {
 	
 	private static final Logger logger = Logger.getLogger(DataMover.class);
 	
+	/**
+	 * The number of rows the reader hands to the writer threads at a time when
+	 * rows are not being batched.
+	 */
+	private static final int DEFAULT_ROWS_PER_HANDOFF = 100;
+
+	/**
+	 * Tells a writer thread there are no more rows coming.
+	 */
+	private static final List<Object[]> END_OF_ROWS = new ArrayList<Object[]>();
+	
 	protected boolean debug = false;
 
 	/**
@@ -70,6 +115,66 @@ public class DataMover {
 	 */
 	protected boolean truncatingDestinationTable;
 
+	/**
+	 * The number of rows to send to the destination database in each JDBC
+	 * batch. 1 or less means every row is inserted on its own.
+	 */
+	private int batchSize = 1;
+
+	/**
+	 * The number of rows to insert between commits. 0 or less means each
+	 * table is committed only once all its rows have been inserted.
+	 */
+	private int commitInterval;
+
+	/**
+	 * The fetch size hint given to the statement reading the source table. 0
+	 * leaves the driver's default in place.
+	 */
+	private int fetchSize;
+
+	/**
+	 * The number of threads inserting rows into each destination table, each
+	 * with its own connection from {@link #destinationConnectionFactory}. 0
+	 * means rows are inserted by the thread reading them, through
+	 * {@link #dstCon}.
+	 */
+	private int writerThreadCount;
+
+	/**
+	 * The number of tables {@link #copyTables(Collection)} copies at once.
+	 */
+	private int tableThreadCount = 1;
+
+	/**
+	 * Supplies extra connections to the source database for copying several
+	 * tables at once. May be null.
+	 */
+	private ConnectionFactory sourceConnectionFactory;
+
+	/**
+	 * Supplies extra connections to the destination database for writer
+	 * threads and for copying several tables at once. May be null.
+	 */
+	private ConnectionFactory destinationConnectionFactory;
+
+	/**
+	 * The counts and timings of every table this data mover has copied or
+	 * is copying, in the order they were started.
+	 */
+	private final List<DataMoverStatistics> statistics =
+		new CopyOnWriteArrayList<DataMoverStatistics>();
+
+	private volatile boolean started;
+
+	private volatile boolean cancelled;
+
+	/**
+	 * The number of copy operations currently running. This data mover is
+	 * finished when it has started and this goes back to 0.
+	 */
+	private final AtomicInteger runningCopies = new AtomicInteger();
+
 	/**
 	 * Constructs a data mover instance for moving data from source to
 	 * dest.  Sets the connections to non-autocommit mode.
@@ -84,8 +189,11 @@ public class DataMover {
 	 * destination database having the same name.
 	 */
 	public void copyTable(String tableName) throws SQLException {
-		String destTable = tableName.substring(tableName.lastIndexOf('.') + 1);
-		copyTable(destTable, tableName);
+		copyTable(destinationTableNameFor(tableName), tableName);
+	}
+
+	private static String destinationTableNameFor(String sourceTableName) {
+		return sourceTableName.substring(sourceTableName.lastIndexOf('.') + 1);
 	}
 
 	/**
@@ -94,16 +202,110 @@ public class DataMover {
 	 * database.
 	 */
 	public int copyTable(String destTableName, String sourceTableName) throws SQLException {
+		DataMoverStatistics stats = new DataMoverStatistics(sourceTableName, destTableName);
+		statistics.add(stats);
+		startCopy();
+		try {
+			return copyTable(destTableName, sourceTableName, srcCon, dstCon, stats);
+		} finally {
+			runningCopies.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Copies each of the given source tables to a destination table of the
+	 * same name (without any catalog or schema qualifiers). If a table thread
+	 * count greater than 1 has been set and both a source and a destination
+	 * connection factory have been given, that many tables are copied at
+	 * once, each with its own pair of connections. Otherwise the tables are
+	 * copied one after the other using this data mover's connections.
+	 * <p>
+	 * If any table fails to copy, the tables that have not started yet are
+	 * skipped and the first failure is thrown once the tables already being
+	 * copied have finished.
+	 * 
+	 * @return The statistics for each table, in the order given.
+	 */
+	public List<DataMoverStatistics> copyTables(Collection<String> sourceTableNames) throws SQLException {
+		List<DataMoverStatistics> tableStats = new ArrayList<DataMoverStatistics>();
+		for (String sourceTableName : sourceTableNames) {
+			DataMoverStatistics stats = new DataMoverStatistics(
+					sourceTableName, destinationTableNameFor(sourceTableName));
+			tableStats.add(stats);
+			statistics.add(stats);
+		}
+		startCopy();
+		try {
+			if (tableThreadCount > 1 && sourceTableNames.size() > 1 &&
+					sourceConnectionFactory != null && destinationConnectionFactory != null) {
+				copyTablesInParallel(tableStats);
+			} else {
+				for (DataMoverStatistics stats : tableStats) {
+					if (cancelled) break;
+					copyTable(stats.getDestinationTableName(), stats.getSourceTableName(),
+							srcCon, dstCon, stats);
+				}
+			}
+		} finally {
+			runningCopies.decrementAndGet();
+		}
+		return tableStats;
+	}
+
+	private void copyTablesInParallel(List<DataMoverStatistics> tableStats) throws SQLException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(tableThreadCount, tableStats.size()));
+		final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+		final AtomicReference<SQLException> sqlFailure = new AtomicReference<SQLException>();
+		try {
+			for (final DataMoverStatistics stats : tableStats) {
+				executor.execute(new Runnable() {
+					public void run() {
+						if (cancelled || failure.get() != null || sqlFailure.get() != null) return;
+						Connection tableSrcCon = null;
+						Connection tableDstCon = null;
+						try {
+							tableSrcCon = sourceConnectionFactory.createConnection();
+							tableDstCon = destinationConnectionFactory.createConnection();
+							copyTable(stats.getDestinationTableName(), stats.getSourceTableName(),
+									tableSrcCon, tableDstCon, stats);
+						} catch (SQLException e) {
+							sqlFailure.compareAndSet(null, e);
+						} catch (RuntimeException e) {
+							failure.compareAndSet(null, e);
+						} finally {
+							closeQuietly(tableSrcCon);
+							closeQuietly(tableDstCon);
+						}
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			awaitTermination(executor);
+		}
+		if (failure.get() != null) throw failure.get();
+		if (sqlFailure.get() != null) throw sqlFailure.get();
+	}
+
+	/**
+	 * Copies one table using the given connections, recording its progress
+	 * in the given statistics.
+	 */
+	private int copyTable(String destTableName, String sourceTableName,
+			Connection srcCon, Connection dstCon, DataMoverStatistics stats) throws SQLException {
 		Statement srcStmt = null;
 		Statement tmpStmt = null;
 		PreparedStatement dstStmt = null;
 		ResultSet srcRS = null;
 		ResultSetMetaData srcRSMD = null;
-		long startTime = System.currentTimeMillis();
 		int numRows = 0;
+		stats.started();
 		
 		try {
 			srcStmt = srcCon.createStatement();
+			if (fetchSize > 0) {
+				srcStmt.setFetchSize(fetchSize);
+			}
 			lastSqlString = "select * from "+sourceTableName;
 			srcRS = srcStmt.executeQuery(lastSqlString);
 			srcRSMD = srcRS.getMetaData();
@@ -118,7 +320,7 @@ public class DataMover {
 					tmpStmt.executeQuery(lastSqlString);
 				} catch (SQLException e) {
 					// We assume this means the table needs to be created
-					createDestinationTable(srcRSMD, destTableName);
+					createDestinationTable(dstCon, srcRSMD, destTableName);
 					dstCon.commit();
 					logger.debug("Created destination table "+destTableName);
 				} finally {
@@ -137,24 +339,25 @@ public class DataMover {
 			}
 
 			lastSqlString = generateInsertStatement(srcRSMD, destTableName);
-			dstStmt = dstCon.prepareStatement(lastSqlString);
-
-			int numberOfColumns = srcRSMD.getColumnCount();
-			while (srcRS.next()) {
-				if (debug) logger.debug("Row "+numRows);
-				for (int col = 1; col <= numberOfColumns; col++) {
-				    if (debug) logger.debug(srcRS.getMetaData().getColumnName(col)+":"+srcRS.getObject(col)+ "(type="+srcRSMD.getColumnType(col)+")"+srcRS.getObject(col));
-					Object object = null; 
-					if (srcRS.getObject(col) != null){
-						object = (srcRS.getObject(col).getClass() == BigDecimal.class)? ((BigDecimal) srcRS.getObject(col)).doubleValue():srcRS.getObject(col);
-					}
-					dstStmt.setObject(col,object , srcRSMD.getColumnType(col));
+			if (writerThreadCount > 0 && destinationConnectionFactory != null) {
+				// the writers need to see the created or emptied table
+				dstCon.commit();
+				numRows = copyRowsInParallel(srcRS, srcRSMD, lastSqlString, stats);
+			} else {
+				dstStmt = dstCon.prepareStatement(lastSqlString);
+				RowWriter writer = new RowWriter(dstCon, dstStmt, srcRSMD, stats);
+				int numberOfColumns = srcRSMD.getColumnCount();
+				long readStart = System.nanoTime();
+				while (!cancelled && srcRS.next()) {
+					Object[] row = readRow(srcRS, srcRSMD, numberOfColumns, numRows);
+					stats.rowsRead(1, System.nanoTime() - readStart);
+					writer.write(row);
+					numRows++;
+					readStart = System.nanoTime();
 				}
-				dstStmt.executeUpdate();
-				numRows++;
+				writer.finish();
 			}
 			
-			dstCon.commit();
 			logger.debug("Committed transaction");
 			
 		} catch (SQLException e) {
@@ -166,16 +369,305 @@ public class DataMover {
 			throw new RuntimeException(
 			        "Prepared insert statement failed at row " + numRows + ":\n" + lastSqlString, e);
 		} finally {
+			stats.finished();
 			if (srcRS != null) srcRS.close();
 			if (srcStmt != null) srcStmt.close();
 			if (dstStmt != null) dstStmt.close();
 			if (tmpStmt != null) tmpStmt.close();
 		}
-		long endTime = System.currentTimeMillis();
-		long elapsedTime = endTime-startTime;
-		logger.debug(numRows+" rows copied in "+elapsedTime+" ms. ("+((double) numRows)/((double) elapsedTime)*1000.0+" rows/sec)");
+		logger.debug(stats);
+		return (int) stats.getRowsWritten();
+	}
+
+	/**
+	 * Reads the rows of the source result set on the calling thread and hands
+	 * them off to {@link #writerThreadCount} writer threads, each inserting
+	 * through its own destination connection. If reading or any writer fails,
+	 * every writer rolls back its uncommitted rows and the first failure is
+	 * thrown once they have all stopped.
+	 * 
+	 * @return The number of rows read.
+	 */
+	private int copyRowsInParallel(ResultSet srcRS, ResultSetMetaData srcRSMD, String insertSql,
+			DataMoverStatistics stats) throws SQLException {
+		int rowsPerHandoff = batchSize > 1 ? batchSize : DEFAULT_ROWS_PER_HANDOFF;
+		BlockingQueue<List<Object[]>> queue =
+			new ArrayBlockingQueue<List<Object[]>>(writerThreadCount * 2);
+		AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		List<Thread> writers = new ArrayList<Thread>();
+		for (int i = 0; i < writerThreadCount; i++) {
+			Thread t = new Thread(new WriterThread(queue, insertSql, srcRSMD, stats, failure),
+					"DataMover writer " + (i + 1) + " for " + stats.getDestinationTableName());
+			writers.add(t);
+			t.start();
+		}
+		
+		int numRows = 0;
+		try {
+			int numberOfColumns = srcRSMD.getColumnCount();
+			List<Object[]> rows = new ArrayList<Object[]>(rowsPerHandoff);
+			long readStart = System.nanoTime();
+			while (!cancelled && failure.get() == null && srcRS.next()) {
+				rows.add(readRow(srcRS, srcRSMD, numberOfColumns, numRows));
+				numRows++;
+				if (rows.size() >= rowsPerHandoff) {
+					stats.rowsRead(rows.size(), System.nanoTime() - readStart);
+					if (!handOff(queue, rows, failure, stats)) break;
+					rows = new ArrayList<Object[]>(rowsPerHandoff);
+					readStart = System.nanoTime();
+				}
+			}
+			if (!rows.isEmpty()) {
+				stats.rowsRead(rows.size(), System.nanoTime() - readStart);
+				handOff(queue, rows, failure, stats);
+			}
+		} catch (SQLException e) {
+			// the writers must roll back instead of committing a partial table
+			failure.compareAndSet(null, e);
+		} catch (RuntimeException e) {
+			failure.compareAndSet(null, e);
+		} finally {
+			for (int i = 0; i < writers.size(); i++) {
+				handOff(queue, END_OF_ROWS, failure, stats);
+			}
+			for (Thread t : writers) {
+				try {
+					t.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(e);
+				}
+			}
+		}
+		
+		Exception e = failure.get();
+		if (e instanceof SQLException) {
+			throw (SQLException) e;
+		} else if (e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		} else if (e != null) {
+			throw new RuntimeException(e);
+		}
 		return numRows;
 	}
+
+	/**
+	 * Puts the given rows on the queue for the writer threads, waiting for
+	 * room if necessary.
+	 * 
+	 * @return false if the rows could not be handed off because a writer
+	 *         failed.
+	 */
+	private boolean handOff(BlockingQueue<List<Object[]>> queue, List<Object[]> rows,
+			AtomicReference<Exception> failure, DataMoverStatistics stats) {
+		long waitStart = System.nanoTime();
+		try {
+			while (!queue.offer(rows, 100, TimeUnit.MILLISECONDS)) {
+				if (failure.get() != null) {
+					return false;
+				}
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} finally {
+			stats.readerWaited(System.nanoTime() - waitStart);
+		}
+	}
+
+	/**
+	 * Reads the current row of the given result set, getting each value only
+	 * once.
+	 */
+	private Object[] readRow(ResultSet srcRS, ResultSetMetaData srcRSMD, int numberOfColumns, int rowNum)
+			throws SQLException {
+		if (debug) logger.debug("Row "+rowNum);
+		Object[] row = new Object[numberOfColumns];
+		for (int col = 1; col <= numberOfColumns; col++) {
+			Object object = srcRS.getObject(col);
+			if (debug) logger.debug(srcRSMD.getColumnName(col)+":"+object+ "(type="+srcRSMD.getColumnType(col)+")");
+			if (object != null && object.getClass() == BigDecimal.class) {
+				object = ((BigDecimal) object).doubleValue();
+			}
+			row[col - 1] = object;
+		}
+		return row;
+	}
+
+	/**
+	 * Inserts rows through one prepared statement, batching and committing
+	 * them according to this data mover's settings.
+	 */
+	private class RowWriter {
+
+		private final Connection con;
+		private final PreparedStatement stmt;
+		private final int[] columnTypes;
+		private final DataMoverStatistics stats;
+		private final boolean batching;
+
+		/**
+		 * The number of rows added to the current batch.
+		 */
+		private int batchedRows;
+
+		/**
+		 * The number of rows inserted since the last commit.
+		 */
+		private int uncommittedRows;
+
+		RowWriter(Connection con, PreparedStatement stmt, ResultSetMetaData rsmd,
+				DataMoverStatistics stats) throws SQLException {
+			this.con = con;
+			this.stmt = stmt;
+			this.stats = stats;
+			columnTypes = new int[rsmd.getColumnCount()];
+			for (int col = 1; col <= columnTypes.length; col++) {
+				columnTypes[col - 1] = rsmd.getColumnType(col);
+			}
+			batching = batchSize > 1 && con.getMetaData().supportsBatchUpdates();
+		}
+
+		void write(Object[] row) throws SQLException {
+			long start = System.nanoTime();
+			for (int col = 1; col <= row.length; col++) {
+				stmt.setObject(col, row[col - 1], columnTypes[col - 1]);
+			}
+			if (batching) {
+				stmt.addBatch();
+				batchedRows++;
+				if (batchedRows >= batchSize) {
+					stmt.executeBatch();
+					stats.batchWritten(batchedRows, System.nanoTime() - start);
+					uncommittedRows += batchedRows;
+					batchedRows = 0;
+				} else {
+					stats.batchAdded(System.nanoTime() - start);
+				}
+			} else {
+				stmt.executeUpdate();
+				stats.batchWritten(1, System.nanoTime() - start);
+				uncommittedRows++;
+			}
+			if (commitInterval > 0 && uncommittedRows >= commitInterval) {
+				commit();
+			}
+		}
+
+		/**
+		 * Sends any rows left in the current batch and commits.
+		 */
+		void finish() throws SQLException {
+			if (batchedRows > 0) {
+				long start = System.nanoTime();
+				stmt.executeBatch();
+				stats.batchWritten(batchedRows, System.nanoTime() - start);
+				batchedRows = 0;
+			}
+			commit();
+		}
+
+		private void commit() throws SQLException {
+			long start = System.nanoTime();
+			con.commit();
+			stats.committed(System.nanoTime() - start);
+			uncommittedRows = 0;
+		}
+	}
+
+	/**
+	 * Takes rows off the queue filled by
+	 * {@link DataMover#copyRowsInParallel(ResultSet, ResultSetMetaData, String, DataMoverStatistics)}
+	 * and inserts them through a destination connection of its own.
+	 */
+	private class WriterThread implements Runnable {
+
+		private final BlockingQueue<List<Object[]>> queue;
+		private final String insertSql;
+		private final ResultSetMetaData rsmd;
+		private final DataMoverStatistics stats;
+
+		/**
+		 * The first exception thrown by any of the writers. Once this is set,
+		 * every writer rolls back and stops.
+		 */
+		private final AtomicReference<Exception> failure;
+
+		WriterThread(BlockingQueue<List<Object[]>> queue, String insertSql, ResultSetMetaData rsmd,
+				DataMoverStatistics stats, AtomicReference<Exception> failure) {
+			this.queue = queue;
+			this.insertSql = insertSql;
+			this.rsmd = rsmd;
+			this.stats = stats;
+			this.failure = failure;
+		}
+
+		public void run() {
+			Connection con = null;
+			PreparedStatement stmt = null;
+			try {
+				con = destinationConnectionFactory.createConnection();
+				con.setAutoCommit(false);
+				stmt = con.prepareStatement(insertSql);
+				RowWriter writer = new RowWriter(con, stmt, rsmd, stats);
+				while (true) {
+					long waitStart = System.nanoTime();
+					List<Object[]> rows = queue.take();
+					stats.writerWaited(System.nanoTime() - waitStart);
+					if (rows == END_OF_ROWS || failure.get() != null) break;
+					for (Object[] row : rows) {
+						writer.write(row);
+					}
+				}
+				if (failure.get() == null) {
+					writer.finish();
+				} else {
+					con.rollback();
+				}
+			} catch (Exception e) {
+				failure.compareAndSet(null, e);
+				logger.error("Writer thread failed", e);
+				try {
+					if (con != null) con.rollback();
+				} catch (Exception e2) {
+					logger.error("Roll back on error failed", e2);
+				}
+			} finally {
+				try {
+					if (stmt != null) stmt.close();
+				} catch (SQLException e) {
+					logger.error("Failed to close insert statement", e);
+				}
+				closeQuietly(con);
+			}
+		}
+	}
+
+	private void startCopy() {
+		started = true;
+		runningCopies.incrementAndGet();
+	}
+
+	private static void closeQuietly(Connection con) {
+		if (con == null) return;
+		try {
+			con.close();
+		} catch (SQLException e) {
+			logger.error("Failed to close connection", e);
+		}
+	}
+
+	private static void awaitTermination(ExecutorService executor) {
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				// keep waiting for the tables that are still being copied
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
 	
 	protected String summarizeResultSetMetaData(ResultSetMetaData rsmd) throws SQLException {
 		StringBuffer summary = new StringBuffer(200);
@@ -224,6 +716,15 @@ public class DataMover {
 	 * the one described by rsmd.
 	 */
 	protected void createDestinationTable(ResultSetMetaData rsmd, String destTable)
+		throws SQLException {
+		createDestinationTable(dstCon, rsmd, destTable);
+	}
+
+	/**
+	 * Creates a table through the given destination connection that is
+	 * similar to the one described by rsmd.
+	 */
+	protected void createDestinationTable(Connection dstCon, ResultSetMetaData rsmd, String destTable)
 		throws SQLException {
 		SqlTypeConverter tc = SqlTypeConverter.getInstance(dstCon);
 		StringBuffer sql = new StringBuffer(200);
@@ -350,6 +851,173 @@ public class DataMover {
 		this.truncatingDestinationTable = argTruncatingDestinationTable;
 	}
 
+	/**
+	 * Gets the number of rows sent to the destination in each JDBC batch.
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Sets the number of rows sent to the destination in each JDBC batch. A
+	 * value of 1 or less, or a destination driver that does not support batch
+	 * updates, means each row is inserted on its own.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Gets the number of rows inserted between commits.
+	 */
+	public int getCommitInterval() {
+		return commitInterval;
+	}
+
+	/**
+	 * Sets the number of rows inserted between commits. A value of 0 or less
+	 * commits each table once, after all its rows have been inserted. When
+	 * rows are batched, commits happen on the first batch boundary after the
+	 * interval is reached. Note that a failure part way through a table
+	 * leaves the rows committed before it in the destination.
+	 */
+	public void setCommitInterval(int commitInterval) {
+		this.commitInterval = commitInterval;
+	}
+
+	/**
+	 * Gets the fetch size hint given to the source query.
+	 */
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * Sets the fetch size hint given to the source query. A value of 0 leaves
+	 * the driver's default in place.
+	 */
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Gets the number of threads inserting into each destination table.
+	 */
+	public int getWriterThreadCount() {
+		return writerThreadCount;
+	}
+
+	/**
+	 * Sets the number of threads inserting into each destination table. Each
+	 * writer thread commits through its own connection from the destination
+	 * connection factory, so a failure in one writer cannot roll back the
+	 * rows another writer has already committed. The rows are not inserted in
+	 * the order they were read. A value of 0, or not having a destination
+	 * connection factory, inserts on the thread doing the reading.
+	 */
+	public void setWriterThreadCount(int writerThreadCount) {
+		this.writerThreadCount = writerThreadCount;
+	}
+
+	/**
+	 * Gets the number of tables {@link #copyTables(Collection)} copies at
+	 * once.
+	 */
+	public int getTableThreadCount() {
+		return tableThreadCount;
+	}
+
+	/**
+	 * Sets the number of tables {@link #copyTables(Collection)} copies at
+	 * once. Values greater than 1 only take effect when both a source and a
+	 * destination connection factory have been set.
+	 */
+	public void setTableThreadCount(int tableThreadCount) {
+		this.tableThreadCount = tableThreadCount;
+	}
+
+	public ConnectionFactory getSourceConnectionFactory() {
+		return sourceConnectionFactory;
+	}
+
+	/**
+	 * Sets the factory used to open extra source connections when copying
+	 * several tables at once. The connections it creates are closed by this
+	 * data mover when it is done with them.
+	 */
+	public void setSourceConnectionFactory(ConnectionFactory sourceConnectionFactory) {
+		this.sourceConnectionFactory = sourceConnectionFactory;
+	}
+
+	public ConnectionFactory getDestinationConnectionFactory() {
+		return destinationConnectionFactory;
+	}
+
+	/**
+	 * Sets the factory used to open extra destination connections for writer
+	 * threads and for copying several tables at once. The connections it
+	 * creates are closed by this data mover when it is done with them.
+	 */
+	public void setDestinationConnectionFactory(ConnectionFactory destinationConnectionFactory) {
+		this.destinationConnectionFactory = destinationConnectionFactory;
+	}
+
+	/**
+	 * Returns the statistics of every table this data mover has started
+	 * copying, in the order they were started.
+	 */
+	public List<DataMoverStatistics> getStatistics() {
+		return Collections.unmodifiableList(statistics);
+	}
+
+	/**
+	 * Returns the total number of rows written to the destination so far.
+	 */
+	public int getProgress() {
+		long rows = 0;
+		for (DataMoverStatistics stats : statistics) {
+			rows += stats.getRowsWritten();
+		}
+		return (int) rows;
+	}
+
+	/**
+	 * Returns null because the number of rows to copy is not known in
+	 * advance.
+	 */
+	public Integer getJobSize() {
+		return null;
+	}
+
+	public boolean hasStarted() {
+		return started;
+	}
+
+	public boolean isFinished() {
+		return started && runningCopies.get() == 0;
+	}
+
+	public String getMessage() {
+		for (DataMoverStatistics stats : statistics) {
+			if (stats.getElapsedMillis() > 0 && !stats.isFinished()) {
+				return "Copying " + stats.getSourceTableName() + " (" + stats.getRowsWritten() + " rows)";
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Setting this to true stops the copies in progress after the row being
+	 * read; the rows already read are still written and committed.
+	 */
+	public void setCancelled(boolean cancelled) {
+		this.cancelled = cancelled;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
 	public static void main(String[] args) throws Exception {
 		DataMover mover = null;
 		try {
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.sql;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts and timings for one table copied by a {@link DataMover}. The numbers
+ * are updated while the copy is running, so they can be polled from another
+ * thread to watch its progress. All times are wall-clock times summed over
+ * every thread that took part in that stage, so with several writer threads
+ * the write time can be greater than the elapsed time.
+ */
+public class DataMoverStatistics {
+
+    private final String sourceTableName;
+    
+    private final String destinationTableName;
+    
+    private final AtomicLong rowsRead = new AtomicLong();
+    
+    private final AtomicLong rowsWritten = new AtomicLong();
+    
+    private final AtomicLong batchesWritten = new AtomicLong();
+    
+    private final AtomicLong commits = new AtomicLong();
+    
+    private final AtomicLong readNanos = new AtomicLong();
+    
+    private final AtomicLong writeNanos = new AtomicLong();
+    
+    private final AtomicLong commitNanos = new AtomicLong();
+    
+    /**
+     * Time the reader spent waiting for the writers to make room for more
+     * rows. A large value here means the destination is the bottleneck.
+     */
+    private final AtomicLong readerWaitNanos = new AtomicLong();
+    
+    /**
+     * Time the writers spent waiting for the reader to supply rows. A large
+     * value here means the source is the bottleneck.
+     */
+    private final AtomicLong writerWaitNanos = new AtomicLong();
+    
+    private volatile long startTime;
+    
+    private volatile long endTime;
+
+    public DataMoverStatistics(String sourceTableName, String destinationTableName) {
+        this.sourceTableName = sourceTableName;
+        this.destinationTableName = destinationTableName;
+    }
+
+    void started() {
+        startTime = System.currentTimeMillis();
+    }
+    
+    void finished() {
+        endTime = System.currentTimeMillis();
+    }
+    
+    void rowsRead(long rows, long nanos) {
+        rowsRead.addAndGet(rows);
+        readNanos.addAndGet(nanos);
+    }
+    
+    void batchWritten(long rows, long nanos) {
+        rowsWritten.addAndGet(rows);
+        batchesWritten.incrementAndGet();
+        writeNanos.addAndGet(nanos);
+    }
+    
+    /**
+     * Records time spent adding rows to a batch that has not been sent yet.
+     */
+    void batchAdded(long nanos) {
+        writeNanos.addAndGet(nanos);
+    }
+    
+    void committed(long nanos) {
+        commits.incrementAndGet();
+        commitNanos.addAndGet(nanos);
+    }
+    
+    void readerWaited(long nanos) {
+        readerWaitNanos.addAndGet(nanos);
+    }
+    
+    void writerWaited(long nanos) {
+        writerWaitNanos.addAndGet(nanos);
+    }
+
+    public String getSourceTableName() {
+        return sourceTableName;
+    }
+
+    public String getDestinationTableName() {
+        return destinationTableName;
+    }
+
+    public long getRowsRead() {
+        return rowsRead.get();
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    public long getBatchesWritten() {
+        return batchesWritten.get();
+    }
+
+    public long getCommits() {
+        return commits.get();
+    }
+
+    public long getReadMillis() {
+        return readNanos.get() / 1000000;
+    }
+
+    public long getWriteMillis() {
+        return writeNanos.get() / 1000000;
+    }
+
+    public long getCommitMillis() {
+        return commitNanos.get() / 1000000;
+    }
+
+    public long getReaderWaitMillis() {
+        return readerWaitNanos.get() / 1000000;
+    }
+
+    public long getWriterWaitMillis() {
+        return writerWaitNanos.get() / 1000000;
+    }
+
+    /**
+     * Returns true once the copy has finished, whether or not it succeeded.
+     */
+    public boolean isFinished() {
+        return endTime != 0;
+    }
+
+    /**
+     * Returns the time since the copy started, or the total time it took if
+     * it has finished. Returns 0 if the copy has not started.
+     */
+    public long getElapsedMillis() {
+        if (startTime == 0) {
+            return 0;
+        }
+        long end = endTime != 0 ? endTime : System.currentTimeMillis();
+        return end - startTime;
+    }
+
+    /**
+     * Returns the average number of rows written per second so far.
+     */
+    public double getRowsPerSecond() {
+        long elapsed = getElapsedMillis();
+        if (elapsed == 0) {
+            return 0;
+        }
+        return getRowsWritten() * 1000.0 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return sourceTableName + " -> " + destinationTableName + ": " +
+            getRowsWritten() + " rows in " + getElapsedMillis() + " ms (" +
+            Math.round(getRowsPerSecond()) + " rows/sec; read " + getReadMillis() +
+            " ms, write " + getWriteMillis() + " ms in " + getBatchesWritten() +
+            " batches, commit " + getCommitMillis() + " ms in " + getCommits() +
+            " commits, reader waited " + getReaderWaitMillis() +
+            " ms, writers waited " + getWriterWaitMillis() + " ms)";
+    }
+}
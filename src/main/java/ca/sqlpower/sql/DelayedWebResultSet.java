@@ -8,8 +8,7 @@ import java.sql.Statement;
 import org.apache.log4j.Logger;
 
 import ca.sqlpower.util.Cache;
-import ca.sqlpower.util.LeastRecentlyUsedCache;
-import ca.sqlpower.util.SynchronizedCache;
+import ca.sqlpower.util.Caches;
 
 
 public class DelayedWebResultSet extends WebResultSet {
@@ -285,7 +284,7 @@ public class DelayedWebResultSet extends WebResultSet {
 		if (resultCache == null) {
 			synchronized (resultCacheMutex) {
 				if (resultCache == null) {
-					resultCache = new SynchronizedCache(new LeastRecentlyUsedCache(100));
+					resultCache = Caches.newLeastRecentlyUsedCache(100);
 				}
 			}
 		}
@@ -299,7 +298,7 @@ public class DelayedWebResultSet extends WebResultSet {
 		if (resultCache == null) {
 			synchronized (resultCacheMutex) {
 				if (resultCache == null) {
-					resultCache = new SynchronizedCache(new LeastRecentlyUsedCache(100));
+					resultCache = Caches.newLeastRecentlyUsedCache(100);
 				}
 			}
 		}
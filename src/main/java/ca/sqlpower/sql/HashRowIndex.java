@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.sql;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link RowIndex} that finds rows by hashing their keys. Keys match when
+ * their values are equal according to {@link Object#equals(Object)}, so
+ * string keys are case sensitive and, for example, an {@link Integer} will not
+ * match a {@link Long} with the same value.
+ */
+public class HashRowIndex implements RowIndex {
+
+    private static final int[] NO_ROWS = new int[0];
+
+    private final int[] columns;
+
+    /**
+     * Maps each key to the numbers of the rows having that key, in ascending
+     * order. For single-column indexes the key is the column value itself;
+     * otherwise it is a list of the values.
+     */
+    private final Map<Object, int[]> rowsByKey;
+
+    /**
+     * Builds an index on the given columns of the given rows.
+     * 
+     * @param rows
+     *            The rows to index.
+     * @param columns
+     *            The columns to index. The first column is 1.
+     */
+    HashRowIndex(RowSnapshot rows, int ... columns) {
+        this.columns = columns.clone();
+        Map<Object, RowNumbers> builder = new HashMap<Object, RowNumbers>();
+        Object[] values = new Object[columns.length];
+        for (int row = 0; row < rows.getRowCount(); row++) {
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = rows.getValue(row, columns[i] - 1);
+            }
+            Object key = makeKey(values);
+            RowNumbers rowNumbers = builder.get(key);
+            if (rowNumbers == null) {
+                rowNumbers = new RowNumbers();
+                builder.put(key, rowNumbers);
+            }
+            rowNumbers.add(row + 1);
+        }
+        rowsByKey = new HashMap<Object, int[]>(builder.size() * 4 / 3 + 1);
+        for (Map.Entry<Object, RowNumbers> entry : builder.entrySet()) {
+            rowsByKey.put(entry.getKey(), entry.getValue().toArray());
+        }
+    }
+
+    private Object makeKey(Object[] values) {
+        if (values.length == 1) {
+            return values[0];
+        } else {
+            return Arrays.asList(values.clone());
+        }
+    }
+
+    public int[] getColumns() {
+        return columns.clone();
+    }
+
+    public int[] lookup(Object ... key) {
+        checkKey(key);
+        int[] rows = rowsByKey.get(makeKey(key));
+        return rows == null ? NO_ROWS : rows.clone();
+    }
+
+    /**
+     * Returns true if at least one row has the given key.
+     */
+    public boolean containsKey(Object ... key) {
+        checkKey(key);
+        return rowsByKey.containsKey(makeKey(key));
+    }
+
+    /**
+     * Returns the number of distinct keys in this index.
+     */
+    public int getKeyCount() {
+        return rowsByKey.size();
+    }
+
+    private void checkKey(Object[] key) {
+        if (key.length != columns.length) {
+            throw new IllegalArgumentException("This index needs " + columns.length +
+                    " key values but " + key.length + " were given");
+        }
+    }
+
+    /**
+     * A growable list of row numbers, used while the index is being built.
+     */
+    private static class RowNumbers {
+
+        private int[] rows = new int[2];
+
+        private int size;
+
+        void add(int row) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = row;
+        }
+
+        int[] toArray() {
+            return size == rows.length ? rows : Arrays.copyOf(rows, size);
+        }
+    }
+}
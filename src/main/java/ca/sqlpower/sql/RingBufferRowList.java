@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.sql;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed-size list of rows for {@link CachedRowSet#follow(java.sql.ResultSet, int, String...)}.
+ * Once the list holds its limit of rows, adding a new row drops the oldest
+ * one in constant time instead of shifting every remaining row down.
+ * <p>
+ * This list is meant to have a single writer: only one thread may call
+ * {@link #add(Object[])}. Any number of other threads may
+ * read it at the same time without locking. A reader always sees complete
+ * rows, but because old rows drop off the front while new rows are added, the
+ * row at a given index can change from one call to the next, just as it did
+ * with the list this replaces.
+ */
+public class RingBufferRowList extends AbstractList<Object[]> implements RandomAccess, java.io.Serializable {
+
+    /**
+     * The maximum number of rows this list will hold.
+     */
+    private final int rowLimit;
+
+    /**
+     * The row storage. There is one more slot than {@link #rowLimit} so the
+     * writer always has a slot to fill that no reader can be looking at.
+     */
+    private final AtomicReferenceArray<Object[]> slots;
+
+    /**
+     * The total number of rows ever added to this list. Row number
+     * <i>n</i> (counting from 0 since the list was created) lives in slot
+     * <i>n</i> modulo the number of slots. This is only ever written by the
+     * writer thread, and writing it publishes the newest row to readers.
+     */
+    private volatile long rowsAdded;
+
+    /**
+     * Creates a new empty list that will hold at most the given number of
+     * rows.
+     */
+    public RingBufferRowList(int rowLimit) {
+        this.rowLimit = Math.max(rowLimit, 0);
+        slots = new AtomicReferenceArray<Object[]>(this.rowLimit + 1);
+    }
+
+    /**
+     * Appends the given row, dropping the oldest row if this list is already
+     * full. Must only be called from the writer thread.
+     */
+    @Override
+    public boolean add(Object[] row) {
+        long seq = rowsAdded;
+        slots.set((int) (seq % slots.length()), row);
+        rowsAdded = seq + 1;
+        return true;
+    }
+
+    /**
+     * Returns the row at the given index, where 0 is the oldest row still in
+     * this list.
+     */
+    @Override
+    public Object[] get(int index) {
+        while (true) {
+            long added = rowsAdded;
+            int size = (int) Math.min(added, rowLimit);
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + " is out of range (size=" + size + ")");
+            }
+            long seq = added - size + index;
+            Object[] row = slots.get((int) (seq % slots.length()));
+            
+            // if the writer has come all the way around the ring since we
+            // looked, the slot may hold a newer row; look again
+            if (rowsAdded - seq < slots.length()) {
+                return row;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(rowsAdded, rowLimit);
+    }
+
+    /**
+     * Returns the maximum number of rows this list will hold.
+     */
+    public int getRowLimit() {
+        return rowLimit;
+    }
+
+    /**
+     * Returns the number of rows that have been added to this list since it
+     * was created, including the ones that have since been dropped.
+     */
+    public long getTotalRowsAdded() {
+        return rowsAdded;
+    }
+}
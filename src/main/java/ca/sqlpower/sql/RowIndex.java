@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.sql;
+
+/**
+ * An index over one or more columns of a {@link CachedRowSet}, which finds the
+ * rows having a given key without scanning every row. Indexes are obtained
+ * from {@link CachedRowSet#getHashIndex(int...)} and
+ * {@link CachedRowSet#getSortedIndex(int...)}, and the rows they find can be
+ * copied into a row set of their own with
+ * {@link CachedRowSet#extract(RowIndex, Object...)}.
+ * <p>
+ * An index describes the rows as they were when it was built. Row sets throw
+ * away their indexes when their rows change, so always ask the row set for
+ * the index again rather than holding on to it across changes.
+ */
+public interface RowIndex {
+
+    /**
+     * Returns the column numbers this index covers, in key order. The first
+     * column is 1.
+     */
+    int[] getColumns();
+
+    /**
+     * Returns the numbers of the rows whose key matches the given values. The
+     * first row is 1, as in {@link CachedRowSet#absolute(int)}. If there are
+     * no such rows, the array is empty.
+     * 
+     * @param key
+     *            One value for each column of this index, in the same order
+     *            as {@link #getColumns()}.
+     */
+    int[] lookup(Object ... key);
+}
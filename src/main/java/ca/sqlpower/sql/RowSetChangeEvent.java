@@ -25,10 +25,34 @@ public class RowSetChangeEvent {
 	private final Object[] row;
 	private final int rowNumber;
 	
+	/**
+	 * The number of consecutive rows this event reports, ending with
+	 * {@link #row}.
+	 */
+	private final int rowCount;
+	
 	public RowSetChangeEvent(CachedRowSet rs, Object[] row, int rowNumber) {
+		this(rs, row, rowNumber, 1);
+	}
+
+	/**
+	 * Creates an event reporting a batch of rows that were added one after
+	 * the other.
+	 * 
+	 * @param rs
+	 *            The row set the rows were added to.
+	 * @param row
+	 *            The last of the added rows.
+	 * @param rowNumber
+	 *            The row number of the last of the added rows.
+	 * @param rowCount
+	 *            The number of rows added.
+	 */
+	public RowSetChangeEvent(CachedRowSet rs, Object[] row, int rowNumber, int rowCount) {
 		this.rs = rs;
 		this.row = row;
 		this.rowNumber = rowNumber;
+		this.rowCount = rowCount;
 	}
 
 	public CachedRowSet getRs() {
@@ -43,4 +67,19 @@ public class RowSetChangeEvent {
 		return rowNumber;
 	}
 
+	/**
+	 * Returns the number of rows this event reports. The rows are numbered
+	 * {@link #getFirstRowNumber()} through {@link #getRowNumber()}.
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Returns the row number of the first row this event reports.
+	 */
+	public int getFirstRowNumber() {
+		return rowNumber - rowCount + 1;
+	}
+
 }
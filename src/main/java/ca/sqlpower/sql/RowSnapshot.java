@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.sql;
+
+/**
+ * A fixed view of the rows of a {@link CachedRowSet}, taken so that sorting
+ * and index building can read every cell without holding the row set's lock
+ * or moving its cursor. For row sets stored as rows, the snapshot copies the
+ * references to the row arrays (not the values in them); for columnar row sets
+ * it reads the {@link ColumnarRowList} directly.
+ */
+class RowSnapshot {
+
+    private final Object[][] rows;
+    
+    private final ColumnarRowList columns;
+    
+    private final int rowCount;
+
+    /**
+     * Creates a snapshot of the given row arrays.
+     */
+    RowSnapshot(Object[][] rows) {
+        this.rows = rows;
+        this.columns = null;
+        this.rowCount = rows.length;
+    }
+
+    /**
+     * Creates a snapshot of the first rowCount rows of the given columnar
+     * storage.
+     */
+    RowSnapshot(ColumnarRowList columns, int rowCount) {
+        this.rows = null;
+        this.columns = columns;
+        this.rowCount = rowCount;
+    }
+    
+    int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the columnar storage this snapshot reads from, or null if it is
+     * a snapshot of row arrays.
+     */
+    ColumnarRowList getColumnarData() {
+        return columns;
+    }
+
+    /**
+     * Returns the given 0-based row. For snapshots of row arrays this is the
+     * row set's own array; for columnar snapshots it is a new copy.
+     */
+    Object[] getRow(int row) {
+        if (rows != null) {
+            return rows[row];
+        } else {
+            return columns.get(row);
+        }
+    }
+
+    /**
+     * Returns the value in the given row and column. Both are 0-based.
+     */
+    Object getValue(int row, int column) {
+        if (rows != null) {
+            return rows[row][column];
+        } else {
+            return columns.getValue(row, column);
+        }
+    }
+}
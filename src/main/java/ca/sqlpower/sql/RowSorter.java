@@ -0,0 +1,467 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.sql;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ca.sqlpower.sql.CachedRowSet.RowComparator;
+
+/**
+ * Sorts the rows of a {@link RowSnapshot} without moving them. The result of a
+ * sort is an array of row indexes in sorted order, which the caller can use to
+ * pick rows out of the snapshot.
+ * <p>
+ * The rows are compared in the same way as {@link RowComparator#compare(Object[], Object[])},
+ * but the way to compare each sort column is decided once per sort instead of
+ * once per comparison. The values of each sort column are first copied into
+ * an array suited to their type (for example a <code>double[]</code> for
+ * numeric columns), and the sort compares those. Large row sets are sorted
+ * with a merge sort split across the available processors. Like
+ * {@link java.util.Collections#sort(java.util.List)}, the sort is stable.
+ * <p>
+ * Subclasses of {@link RowComparator} may compare rows in their own way, so
+ * rows sorted with one are compared by calling the comparator on each pair.
+ */
+class RowSorter {
+
+    /**
+     * Row sets with at least this many rows are sorted in parallel, and each
+     * parallel task keeps splitting until its part is smaller than this.
+     */
+    private static final int PARALLEL_THRESHOLD = 8192;
+    
+    /**
+     * Ranges smaller than this are sorted with an insertion sort.
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    /**
+     * The pool parallel sorts run in. Created the first time a large row set
+     * is sorted.
+     */
+    private static ForkJoinPool pool;
+    
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+
+    /**
+     * Compares two column values the way {@link RowComparator} always has:
+     * numbers by their double values, strings ignoring case, other
+     * {@link Comparable}s with compareTo, and nulls before everything else.
+     * Values that cannot be compared are considered equal.
+     */
+    @SuppressWarnings("unchecked")
+    static int compareValues(Object v1, Object v2) {
+        if (v1 instanceof Number && v2 instanceof Number) {
+            return compareDoubles(((Number) v1).doubleValue(), ((Number) v2).doubleValue());  // see threepio
+        } else if (v1 instanceof String && v2 instanceof String) {
+            return ((String) v1).compareToIgnoreCase((String) v2);
+        } else if (v1 instanceof Comparable && v2 instanceof Comparable) {
+            //This may throw an exception if c1 and c2 are not of mutually comparable types.
+            //That would mean the same column contains two different types of objects
+            //that cannot be compared to each other, which we think would be a fault in the JDBC driver.
+            return ((Comparable<Object>) v1).compareTo(v2);
+        } else if (v1 == null && v2 == null) {
+            return 0;
+        } else if (v1 == null) {
+            return -1;
+        } else if (v2 == null) {
+            return 1;
+        } else {
+            return 0; // relying on stability of MergeSort to keep rows in order database returned them in
+        }
+    }
+    
+    private static int compareDoubles(double d1, double d2) {
+        if (d1 < d2) return -1;
+        else if (d1 > d2) return 1;
+        else return 0;
+    }
+
+    private final RowSnapshot rows;
+    
+    RowSorter(RowSnapshot rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * Returns the indexes of the rows of the snapshot in the order given by
+     * the comparator.
+     */
+    int[] sort(RowComparator c) {
+        if (c.getClass() != RowComparator.class) {
+            int n = rows.getRowCount();
+            Object[][] rowArrays = new Object[n][];
+            int[] order = new int[n];
+            for (int i = 0; i < n; i++) {
+                rowArrays[i] = rows.getRow(i);
+                order[i] = i;
+            }
+            mergeSort(order, new int[n], 0, n, new RowComparatorOrder(rowArrays, c));
+            return order;
+        }
+        int columnCount = c.getSortColumnCount();
+        ColumnKeys[] keys = new ColumnKeys[columnCount];
+        boolean[] ascending = new boolean[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            keys[i] = keysFor(c.getSortColumnIndex(i) - 1);
+            ascending[i] = c.isSortColumnAscending(i);
+        }
+        return sort(new KeyComparator(keys, ascending));
+    }
+
+    /**
+     * Returns the indexes of the rows of the snapshot sorted in ascending
+     * order of the given 0-based columns.
+     */
+    int[] sort(ColumnKeys[] keys) {
+        boolean[] ascending = new boolean[keys.length];
+        java.util.Arrays.fill(ascending, true);
+        return sort(new KeyComparator(keys, ascending));
+    }
+    
+    private int[] sort(KeyComparator comparator) {
+        int n = rows.getRowCount();
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        if (comparator.keys.length == 0) {
+            return order;
+        }
+        int[] buffer = new int[n];
+        if (n >= PARALLEL_THRESHOLD && Runtime.getRuntime().availableProcessors() > 1) {
+            getPool().invoke(new MergeSortTask(order, buffer, 0, n, comparator));
+        } else {
+            mergeSort(order, buffer, 0, n, comparator);
+        }
+        return order;
+    }
+
+    /**
+     * Copies the values of the given 0-based column into the most specific
+     * {@link ColumnKeys} that can hold all of them. Columns that mix
+     * unrelated types of values get compared one pair at a time.
+     */
+    ColumnKeys keysFor(int column) {
+        int n = rows.getRowCount();
+        boolean allNumbers = true;
+        boolean allStrings = true;
+        boolean sameComparableClass = true;
+        Class<?> firstClass = null;
+        Object[] values = new Object[n];
+        for (int i = 0; i < n; i++) {
+            Object v = rows.getValue(i, column);
+            values[i] = v;
+            if (v != null) {
+                allNumbers &= v instanceof Number;
+                allStrings &= v instanceof String;
+                if (firstClass == null) {
+                    firstClass = v.getClass();
+                }
+                sameComparableClass &= v instanceof Comparable && v.getClass() == firstClass;
+            }
+        }
+        if (allNumbers) {
+            return new NumberKeys(values);
+        } else if (allStrings) {
+            return new StringKeys(values);
+        } else if (sameComparableClass) {
+            return new ComparableKeys(values);
+        } else {
+            return new ObjectKeys(values);
+        }
+    }
+    
+    private static void mergeSort(int[] a, int[] buffer, int lo, int hi, RowOrder c) {
+        if (hi - lo < INSERTION_SORT_THRESHOLD) {
+            insertionSort(a, lo, hi, c);
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        mergeSort(a, buffer, lo, mid, c);
+        mergeSort(a, buffer, mid, hi, c);
+        merge(a, buffer, lo, mid, hi, c);
+    }
+    
+    private static void insertionSort(int[] a, int lo, int hi, RowOrder c) {
+        for (int i = lo + 1; i < hi; i++) {
+            int row = a[i];
+            int j = i - 1;
+            while (j >= lo && c.compare(a[j], row) > 0) {
+                a[j + 1] = a[j];
+                j--;
+            }
+            a[j + 1] = row;
+        }
+    }
+
+    /**
+     * Merges the sorted ranges [lo, mid) and [mid, hi) of a. Equal rows from
+     * the left range go first, which keeps the sort stable.
+     */
+    private static void merge(int[] a, int[] buffer, int lo, int mid, int hi, RowOrder c) {
+        if (c.compare(a[mid - 1], a[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(a, lo, buffer, lo, hi - lo);
+        int i = lo;
+        int j = mid;
+        int k = lo;
+        while (i < mid && j < hi) {
+            if (c.compare(buffer[j], buffer[i]) < 0) {
+                a[k++] = buffer[j++];
+            } else {
+                a[k++] = buffer[i++];
+            }
+        }
+        while (i < mid) {
+            a[k++] = buffer[i++];
+        }
+        while (j < hi) {
+            a[k++] = buffer[j++];
+        }
+    }
+    
+    private static class MergeSortTask extends RecursiveAction {
+        
+        private final int[] a;
+        private final int[] buffer;
+        private final int lo;
+        private final int hi;
+        private final KeyComparator c;
+        
+        MergeSortTask(int[] a, int[] buffer, int lo, int hi, KeyComparator c) {
+            this.a = a;
+            this.buffer = buffer;
+            this.lo = lo;
+            this.hi = hi;
+            this.c = c;
+        }
+        
+        @Override
+        protected void compute() {
+            if (hi - lo < PARALLEL_THRESHOLD) {
+                mergeSort(a, buffer, lo, hi, c);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new MergeSortTask(a, buffer, lo, mid, c),
+                    new MergeSortTask(a, buffer, mid, hi, c));
+            merge(a, buffer, lo, mid, hi, c);
+        }
+    }
+
+    /**
+     * Compares rows given by their indexes in the snapshot.
+     */
+    private static abstract class RowOrder {
+        
+        abstract int compare(int r1, int r2);
+    }
+
+    /**
+     * Compares rows by a list of sort columns in turn.
+     */
+    private static class KeyComparator extends RowOrder {
+        
+        private final ColumnKeys[] keys;
+        private final boolean[] ascending;
+        
+        KeyComparator(ColumnKeys[] keys, boolean[] ascending) {
+            this.keys = keys;
+            this.ascending = ascending;
+        }
+        
+        @Override
+        int compare(int r1, int r2) {
+            for (int i = 0; i < keys.length; i++) {
+                int diff = keys[i].compare(r1, r2);
+                if (diff != 0) {
+                    return ascending[i] ? diff : -diff;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Compares rows with a {@link RowComparator}, one pair of row arrays at a
+     * time.
+     */
+    private static class RowComparatorOrder extends RowOrder {
+        
+        private final Object[][] rows;
+        private final RowComparator c;
+        
+        RowComparatorOrder(Object[][] rows, RowComparator c) {
+            this.rows = rows;
+            this.c = c;
+        }
+        
+        @Override
+        int compare(int r1, int r2) {
+            return c.compare(rows[r1], rows[r2]);
+        }
+    }
+
+    /**
+     * The values of one column, copied out of the rows in a form that is
+     * quick to compare.
+     */
+    static abstract class ColumnKeys {
+
+        /**
+         * Compares the values in two rows, giving the same result as
+         * {@link RowSorter#compareValues(Object, Object)}.
+         */
+        abstract int compare(int r1, int r2);
+
+        /**
+         * Compares the value in the given row to the given value, giving the
+         * same result as {@link RowSorter#compareValues(Object, Object)}.
+         */
+        abstract int compareTo(int row, Object value);
+    }
+    
+    private static class NumberKeys extends ColumnKeys {
+        
+        private final double[] values;
+        
+        /**
+         * The rows whose values are null. Null if no rows are null.
+         */
+        private final boolean[] nulls;
+        
+        NumberKeys(Object[] column) {
+            values = new double[column.length];
+            boolean[] nullRows = null;
+            for (int i = 0; i < column.length; i++) {
+                if (column[i] == null) {
+                    if (nullRows == null) {
+                        nullRows = new boolean[column.length];
+                    }
+                    nullRows[i] = true;
+                } else {
+                    values[i] = ((Number) column[i]).doubleValue();
+                }
+            }
+            nulls = nullRows;
+        }
+        
+        @Override
+        int compare(int r1, int r2) {
+            if (nulls != null && (nulls[r1] || nulls[r2])) {
+                return nulls[r1] == nulls[r2] ? 0 : (nulls[r1] ? -1 : 1);
+            }
+            return compareDoubles(values[r1], values[r2]);
+        }
+        
+        @Override
+        int compareTo(int row, Object value) {
+            if (nulls != null && nulls[row]) {
+                return compareValues(null, value);
+            } else if (value instanceof Number) {
+                return compareDoubles(values[row], ((Number) value).doubleValue());
+            } else {
+                return compareValues(Double.valueOf(values[row]), value);
+            }
+        }
+    }
+    
+    private static class StringKeys extends ColumnKeys {
+        
+        private final String[] values;
+        
+        StringKeys(Object[] column) {
+            values = new String[column.length];
+            System.arraycopy(column, 0, values, 0, column.length);
+        }
+        
+        @Override
+        int compare(int r1, int r2) {
+            String s1 = values[r1];
+            String s2 = values[r2];
+            if (s1 != null && s2 != null) {
+                return s1.compareToIgnoreCase(s2);
+            }
+            return s1 == s2 ? 0 : (s1 == null ? -1 : 1);
+        }
+        
+        @Override
+        int compareTo(int row, Object value) {
+            return compareValues(values[row], value);
+        }
+    }
+    
+    private static class ComparableKeys extends ColumnKeys {
+        
+        private final Comparable<Object>[] values;
+        
+        @SuppressWarnings("unchecked")
+        ComparableKeys(Object[] column) {
+            values = new Comparable[column.length];
+            System.arraycopy(column, 0, values, 0, column.length);
+        }
+        
+        @Override
+        int compare(int r1, int r2) {
+            Comparable<Object> c1 = values[r1];
+            Comparable<Object> c2 = values[r2];
+            if (c1 != null && c2 != null) {
+                return c1.compareTo(c2);
+            }
+            return c1 == c2 ? 0 : (c1 == null ? -1 : 1);
+        }
+        
+        @Override
+        int compareTo(int row, Object value) {
+            return compareValues(values[row], value);
+        }
+    }
+
+    /**
+     * For columns with values of several unrelated types, which have to be
+     * compared one pair at a time.
+     */
+    private static class ObjectKeys extends ColumnKeys {
+        
+        private final Object[] values;
+        
+        ObjectKeys(Object[] column) {
+            values = column;
+        }
+        
+        @Override
+        int compare(int r1, int r2) {
+            return compareValues(values[r1], values[r2]);
+        }
+        
+        @Override
+        int compareTo(int row, Object value) {
+            return compareValues(values[row], value);
+        }
+    }
+}
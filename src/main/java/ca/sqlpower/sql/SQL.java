@@ -17,8 +17,8 @@ import java.util.List;
 import org.apache.log4j.Logger;
 
 import ca.sqlpower.util.Cache;
+import ca.sqlpower.util.Caches;
 import ca.sqlpower.util.LabelValueBean;
-import ca.sqlpower.util.LeastRecentlyUsedCache;
 
 public class SQL {
 
@@ -28,7 +28,7 @@ public class SQL {
 	 * A cache of the last 20 column types we looked up in the
 	 * database.  See {@link #columnType(Connection,String,String,String)}.
 	 */
-	private static Cache colTypeCache = new LeastRecentlyUsedCache(20);
+	private static Cache colTypeCache = Caches.newLeastRecentlyUsedCache(20);
 
     /**
      * This class cannot be instantiated
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.sql;
+
+import ca.sqlpower.sql.CachedRowSet.RowComparator;
+import ca.sqlpower.sql.RowSorter.ColumnKeys;
+
+/**
+ * A {@link RowIndex} that keeps the rows sorted by their keys, so it can find
+ * ranges of keys as well as exact matches. Keys are ordered the same way
+ * {@link RowComparator} orders rows: numbers by value, strings ignoring case,
+ * and nulls first. That also means exact matches on string columns ignore
+ * case.
+ */
+public class SortedRowIndex implements RowIndex {
+
+    private final int[] columns;
+
+    /**
+     * The values of each indexed column.
+     */
+    private final ColumnKeys[] keys;
+
+    /**
+     * The 0-based row indexes, sorted by key.
+     */
+    private final int[] order;
+
+    /**
+     * Builds an index on the given columns of the given rows.
+     * 
+     * @param rows
+     *            The rows to index.
+     * @param columns
+     *            The columns to index. The first column is 1.
+     */
+    SortedRowIndex(RowSnapshot rows, int ... columns) {
+        this.columns = columns.clone();
+        RowSorter sorter = new RowSorter(rows);
+        keys = new ColumnKeys[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            keys[i] = sorter.keysFor(columns[i] - 1);
+        }
+        order = sorter.sort(keys);
+    }
+
+    public int[] getColumns() {
+        return columns.clone();
+    }
+
+    /**
+     * Returns the numbers of the rows whose key matches the given values, in
+     * key order. Fewer values than there are columns can be given, in which
+     * case only the leading columns of the key have to match.
+     */
+    public int[] lookup(Object ... key) {
+        checkKey(key);
+        return rowNumbers(lowerBound(key, true), lowerBound(key, false));
+    }
+
+    /**
+     * Returns the numbers of the rows whose keys are at least from and less
+     * than to, in key order. Either bound may be null to leave that end of
+     * the range open, and either may give fewer values than there are
+     * columns.
+     */
+    public int[] lookupRange(Object[] from, Object[] to) {
+        int start = 0;
+        int end = order.length;
+        if (from != null) {
+            checkKey(from);
+            start = lowerBound(from, true);
+        }
+        if (to != null) {
+            checkKey(to);
+            end = Math.max(start, lowerBound(to, true));
+        }
+        return rowNumbers(start, end);
+    }
+
+    /**
+     * Returns the numbers of every row, in key order.
+     */
+    public int[] getSortedRows() {
+        return rowNumbers(0, order.length);
+    }
+
+    /**
+     * Returns the position in {@link #order} of the first row whose key is
+     * not less than the given key (if inclusive) or greater than it (if not).
+     */
+    private int lowerBound(Object[] key, boolean inclusive) {
+        int lo = 0;
+        int hi = order.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int diff = compare(order[mid], key);
+            if (diff < 0 || (!inclusive && diff == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int compare(int row, Object[] key) {
+        for (int i = 0; i < key.length; i++) {
+            int diff = keys[i].compareTo(row, key[i]);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    private int[] rowNumbers(int start, int end) {
+        int[] rows = new int[end - start];
+        for (int i = start; i < end; i++) {
+            rows[i - start] = order[i] + 1;
+        }
+        return rows;
+    }
+
+    private void checkKey(Object[] key) {
+        if (key.length > columns.length) {
+            throw new IllegalArgumentException("This index has " + columns.length +
+                    " key columns but " + key.length + " key values were given");
+        }
+    }
+}
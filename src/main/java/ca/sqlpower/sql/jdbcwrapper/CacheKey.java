@@ -19,6 +19,7 @@
 
 package ca.sqlpower.sql.jdbcwrapper;
 
+import java.io.Serializable;
 import java.sql.DatabaseMetaData;
 import java.sql.SQLException;
 
@@ -26,9 +27,10 @@ import java.sql.SQLException;
  * A simple object suitable for use as a cache key when caching information
  * about JDBC metadata at the schema level.
  * <p>
- * Instances of this class are immutable.
+ * Instances of this class are immutable. They are serializable so they can be
+ * stored with metadata snapshots in a {@link MetaDataSnapshotStore}.
  */
-public final class CacheKey {
+public final class CacheKey implements Serializable {
 
     private final String dsAddress;
     private final String catalogName;
@@ -49,11 +51,35 @@ public final class CacheKey {
      *            the underlying data source doesn't have schemas.
      */
     public CacheKey(DatabaseMetaData dbmd, String catalogName, String schemaName) throws SQLException {
-        this.dsAddress = dbmd.getURL() + ";" + dbmd.getUserName();
+        this.dsAddress = dataSourceAddress(dbmd);
         this.catalogName = catalogName;
         this.schemaName = schemaName;
     }
 
+    /**
+     * Returns the string that identifies the data source of the given
+     * metadata in cache keys: its URL and user name.
+     */
+    public static String dataSourceAddress(DatabaseMetaData dbmd) throws SQLException {
+        return dbmd.getURL() + ";" + dbmd.getUserName();
+    }
+
+    /**
+     * Returns the URL and user name of the data source this key belongs to,
+     * in the form produced by {@link #dataSourceAddress(DatabaseMetaData)}.
+     */
+    public String getDataSourceAddress() {
+        return dsAddress;
+    }
+
+    public String getCatalogName() {
+        return catalogName;
+    }
+
+    public String getSchemaName() {
+        return schemaName;
+    }
+
     /**
      * Generates a hash code based on the data source, catalog, and schema names.
      */
@@ -29,6 +29,12 @@ import java.sql.RowIdLifetime;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import ca.sqlpower.util.CacheStats;
 
 /**
  * The DatabaseMetaDataDecorator delegates all operations to a protected DatabaseMetaData instance.
@@ -39,6 +45,8 @@ import java.util.Date;
  * @version $Id$
  */
 public abstract class DatabaseMetaDataDecorator implements DatabaseMetaData {
+
+    private static final Logger logger = Logger.getLogger(DatabaseMetaDataDecorator.class);
     
     /**
      * The instance that performs all JDBC operations.
@@ -94,66 +102,241 @@ public abstract class DatabaseMetaDataDecorator implements DatabaseMetaData {
      */
     public static final String CACHE_STALE_DATE = "cacheStaleDate";
 
+    /**
+     * See {@link #setSnapshotStore(MetaDataSnapshotStore)}.
+     */
+    private static volatile MetaDataSnapshotStore snapshotStore;
+
+    /**
+     * The cache, key and schema fingerprint of the last snapshot lookup that
+     * missed on this thread. The fingerprint is taken before the caller loads
+     * the value from the database so that a schema change during the load
+     * can't be stamped with the new fingerprint. It is only good until the
+     * caller's load finishes, see {@link #endCachedResultLoad()}.
+     */
+    private static final ThreadLocal<Object[]> pendingSnapshotFingerprint = new ThreadLocal<Object[]>();
+
     /**
      * Retrieves a cached result from the give cache, taking into account stale
-     * dating and whether or not caching is turned on. Also handles thread
-     * synchronization by accessing the cache while synchronized on the given
-     * cache object.
+     * dating and whether or not caching is turned on. If the cache stale date
+     * hint is newer than the last time the key's data source was invalidated
+     * in the given cache, all of that data source's entries are dropped first;
+     * entries for other data sources are left alone. The cache is safe for
+     * concurrent use, so no synchronization is needed here.
      * 
      * @param <T>
      *            The cache's value type
      * @param cache
      *            The cache to retrieve the value from (if appropriate to the
-     *            current cache settings). This cache will be flushed if it's
-     *            stale.
+     *            current cache settings).
      * @param key
      *            The key to attempt to retrieve from the cache.
      * @return The cached item (if caching is enabled and the given cache was
      *         not stale) or null.
      */
-    protected <T> T getCachedResult(MetaDataCache<CacheKey, T> cache, CacheKey key) {
+    protected <T> T getCachedResult(MetaDataCache<T> cache, CacheKey key) {
+        pendingSnapshotFingerprint.remove();
         CacheType ct = cacheType.get();
         if (ct == CacheType.NO_CACHE) {
             return null;
         }
-        synchronized (cache) {
-            Date staleDate = cacheStaleDate.get();
-            if (staleDate != null && cache.getLastFlushDate().before(staleDate)) {
-                cache.flush();
-                return null;
-            }
-            return cache.get(key);
+        if (invalidateIfStale(cache, key)) {
+            return null;
+        }
+        T result = cache.get(key);
+        if (result == null && snapshotStore != null) {
+            result = loadSnapshot(cache, key);
+        }
+        return result;
+    }
+
+    /**
+     * Looks for a snapshot of the given entry in the snapshot store, and puts
+     * it in the cache if its schema fingerprint still matches. Whether or not
+     * a snapshot is found, the current fingerprint is remembered for this
+     * thread so the value the caller is about to load from the database can
+     * be saved with the fingerprint taken before the load.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T loadSnapshot(MetaDataCache<T> cache, CacheKey key) {
+        MetaDataSnapshotStore store = snapshotStore;
+        String fingerprint;
+        try {
+            fingerprint = getSchemaFingerprint(key.getCatalogName(), key.getSchemaName());
+        } catch (SQLException e) {
+            logger.warn("Couldn't get the schema fingerprint for " + key.getSchemaName(), e);
+            return null;
+        }
+        if (fingerprint == null) {
+            return null;
+        }
+        pendingSnapshotFingerprint.set(new Object[] { cache, key, fingerprint });
+        T result = (T) store.load(cache.getName(), key, fingerprint);
+        if (result != null) {
+            logger.debug("Using metadata snapshot for " + key.getSchemaName() + " in " + cache.getName());
+            pendingSnapshotFingerprint.remove();
+            cache.put(key, result);
         }
+        return result;
     }
 
     /**
      * Puts a key-value association into the give cache, taking into account
-     * stale dating and whether or not caching is turned on. Also handles thread
-     * synchronization by accessing the cache while synchronized on the given
-     * cache object.
+     * stale dating and whether or not caching is turned on.
      * 
      * @param <T>
      *            The cache's value type
      * @param cache
      *            The cache to put the value into (if appropriate to the current
-     *            cache settings). This cache will be flushed if it's stale.
+     *            cache settings). The key's data source will be invalidated
+     *            in this cache first if it's stale.
      * @param key
      *            The key to store into the cache.
      * @param value
      *            The value to associate with the given key.
      */
-    protected <T> void putCachedResult(MetaDataCache<CacheKey, T> cache, CacheKey key, T value) {
+    protected <T> void putCachedResult(MetaDataCache<T> cache, CacheKey key, T value) {
+        CacheType ct = cacheType.get();
+        if (ct == CacheType.NO_CACHE) {
+            return;
+        }
+        invalidateIfStale(cache, key);
+        cache.put(key, value);
+    }
+
+    /**
+     * Works like {@link #putCachedResult(MetaDataCache, CacheKey, Object)},
+     * but also records how long the value took to load from the database in
+     * the cache's statistics.
+     * 
+     * @param loadNanos
+     *            The time spent loading the value, from
+     *            {@link System#nanoTime()}.
+     */
+    protected <T> void putCachedResult(MetaDataCache<T> cache, CacheKey key, T value, long loadNanos) {
         CacheType ct = cacheType.get();
         if (ct == CacheType.NO_CACHE) {
             return;
         }
-        synchronized (cache) {
-            Date staleDate = cacheStaleDate.get();
-            if (staleDate != null && cache.getLastFlushDate().before(staleDate)) {
-                cache.flush();
-            }
-            cache.put(key, value);
+        invalidateIfStale(cache, key);
+        cache.put(key, value, loadNanos);
+        saveSnapshot(cache, key, value);
+    }
+
+    /**
+     * Forgets the schema fingerprint remembered by a
+     * {@link #getCachedResult(MetaDataCache, CacheKey)} call that missed.
+     * Subclasses call this in a finally block once they are done loading
+     * the missing value, so a load that fails can't leave a fingerprint
+     * behind for a later {@link #putCachedResult(MetaDataCache, CacheKey, Object, long)}
+     * to save a snapshot with.
+     */
+    protected void endCachedResultLoad() {
+        pendingSnapshotFingerprint.remove();
+    }
+
+    /**
+     * Saves the given freshly loaded value to the snapshot store, if there is
+     * one and the schema fingerprint was taken by the
+     * {@link #getCachedResult(MetaDataCache, CacheKey)} call that missed.
+     */
+    private <T> void saveSnapshot(MetaDataCache<T> cache, CacheKey key, T value) {
+        MetaDataSnapshotStore store = snapshotStore;
+        Object[] pending = pendingSnapshotFingerprint.get();
+        pendingSnapshotFingerprint.remove();
+        if (store == null || pending == null || pending[0] != cache || !key.equals(pending[1])) {
+            return;
+        }
+        store.save(cache.getName(), key, (String) pending[2], value);
+    }
+
+    /**
+     * Returns a short string that changes whenever the structure of the given
+     * schema changes, such as the time of its most recent DDL statement. This
+     * is what decides whether a snapshot from the
+     * {@link #setSnapshotStore(MetaDataSnapshotStore) snapshot store} can be
+     * used instead of asking the database.
+     * <p>
+     * This implementation returns null, meaning the database can't cheaply
+     * tell when a schema changed, so snapshots are never used. Subclasses for
+     * databases that can should override it.
+     */
+    protected String getSchemaFingerprint(String catalog, String schema) throws SQLException {
+        return null;
+    }
+
+    /**
+     * Sets the store that cached metadata is saved to and reloaded from
+     * across sessions, or null to keep cached metadata in memory only (the
+     * default). Only databases whose decorator provides a
+     * {@link #getSchemaFingerprint(String, String) schema fingerprint} use the
+     * store.
+     */
+    public static void setSnapshotStore(MetaDataSnapshotStore store) {
+        snapshotStore = store;
+    }
+
+    public static MetaDataSnapshotStore getSnapshotStore() {
+        return snapshotStore;
+    }
+
+    /**
+     * Drops the key's data source from the given cache if the current
+     * thread's cache stale date hint is newer than the last time it was
+     * invalidated.
+     * 
+     * @return true if the data source was invalidated.
+     */
+    private boolean invalidateIfStale(MetaDataCache<?> cache, CacheKey key) {
+        Date staleDate = cacheStaleDate.get();
+        if (staleDate != null &&
+                cache.getLastInvalidationDate(key.getDataSourceAddress()).before(staleDate)) {
+            cache.invalidate(key.getDataSourceAddress());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes the cached metadata of one catalog and schema of the given
+     * database from every metadata cache, so the next request for it goes
+     * to the database. Cached metadata for other schemas is kept.
+     * 
+     * @param dbmd
+     *            The metadata of the database whose cached results are stale.
+     * @param catalog
+     *            The catalog, or null if the database has no catalogs.
+     * @param schema
+     *            The schema, or null if the database has no schemas.
+     */
+    public static void invalidateCachedMetaData(DatabaseMetaData dbmd, String catalog, String schema)
+            throws SQLException {
+        String dataSourceAddress = CacheKey.dataSourceAddress(dbmd);
+        for (MetaDataCache<?> cache : MetaDataCache.getAllCaches()) {
+            cache.invalidate(dataSourceAddress, catalog, schema);
+        }
+    }
+
+    /**
+     * Removes all cached metadata of the given database from every metadata
+     * cache. Cached metadata for other databases is kept.
+     */
+    public static void invalidateCachedMetaData(DatabaseMetaData dbmd) throws SQLException {
+        String dataSourceAddress = CacheKey.dataSourceAddress(dbmd);
+        for (MetaDataCache<?> cache : MetaDataCache.getAllCaches()) {
+            cache.invalidate(dataSourceAddress);
+        }
+    }
+
+    /**
+     * Returns the statistics of every metadata cache, keyed by cache name.
+     */
+    public static Map<String, CacheStats> getMetaDataCacheStats() {
+        Map<String, CacheStats> stats = new LinkedHashMap<String, CacheStats>();
+        for (MetaDataCache<?> cache : MetaDataCache.getAllCaches()) {
+            stats.put(cache.getName(), cache.getStats());
         }
+        return stats;
     }
 
     /**
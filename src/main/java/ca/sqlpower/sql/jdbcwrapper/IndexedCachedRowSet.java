@@ -24,11 +24,9 @@ package ca.sqlpower.sql.jdbcwrapper;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
 
 import ca.sqlpower.sql.CachedRowSet;
+import ca.sqlpower.sql.HashRowIndex;
 
 /**
  * An optimization on top of CachedRowSet that allows easy extraction of a
@@ -36,61 +34,48 @@ import ca.sqlpower.sql.CachedRowSet;
  * that it is not necessary to iterate over every row and pass it to a filter,
  * as is required in the base CachedRowSet.
  * <p>
+ * This is a convenience for the common case of splitting database metadata
+ * results up by table name. The same can be done on any column, or set of
+ * columns, of any CachedRowSet with {@link CachedRowSet#getHashIndex(int...)}
+ * and {@link CachedRowSet#extract(ca.sqlpower.sql.RowIndex, Object...)}.
+ * <p>
  * For reference, This optimization provided an order of magnitude performance
  * increase when used together with {@link OracleDatabaseMetaDataDecorator} when
  * populating SQLObjects of the Oracle 10g SYS schema.
  */
 class IndexedCachedRowSet extends CachedRowSet {
 
-    private final Map<String, Integer> tableStartRows;
     private final int tableNameColumn;
     
+    /**
+     * Rebuilt on first use after this row set is deserialized.
+     */
+    private transient HashRowIndex tableIndex;
+    
     public IndexedCachedRowSet(ResultSet rs, int tableNameColumn) throws SQLException {
         super();
-        this.tableNameColumn = tableNameColumn;
         super.populate(rs);
-        tableStartRows = buildIndex();
+        this.tableNameColumn = tableNameColumn;
+        tableIndex = getHashIndex(tableNameColumn);
     }
     
-    /**
-     * This is the constructor used internally to create the single-table
-     * results.
-     */
-    private IndexedCachedRowSet() throws SQLException {
-        tableStartRows = null;
-        tableNameColumn = -1;
-    }
-
-    private Map<String, Integer> buildIndex() throws SQLException {
-        String currentTableName = "";
-        HashMap<String, Integer> index = new HashMap<String, Integer>();
-        while (next()) {
-            String tableNameThisRow = getString(tableNameColumn);
-            if (!currentTableName.equals(tableNameThisRow)) {
-                currentTableName = tableNameThisRow;
-                index.put(tableNameThisRow, getRow());
-            }
+    private synchronized HashRowIndex getTableIndex() {
+        if (tableIndex == null) {
+            tableIndex = getHashIndex(tableNameColumn);
         }
-        return index;
+        return tableIndex;
     }
-
+    
     public boolean containsTable(String tableName) {
-        return tableStartRows.containsKey(tableName);
+        return getTableIndex().containsKey(tableName);
     }
     
     public synchronized CachedRowSet extractSingleTable(String tableName) throws SQLException {
-        Integer row = tableStartRows.get(tableName);
-        if (row == null) {
+        HashRowIndex tableIndex = getTableIndex();
+        if (!tableIndex.containsKey(tableName)) {
             throw new IllegalArgumentException("Table "+tableName+" is not in this rowset");
         }
-        absolute(row - 1);
-        IndexedCachedRowSet extracted = new IndexedCachedRowSet();
-        extracted.rsmd = rsmd;
-        extracted.data = new ArrayList<Object[]>();
-        while (next() && tableName.equals(getString(tableNameColumn))) {
-            extracted.data.add(curRow);
-        }
-        return extracted;
+        return extract(tableIndex, tableName);
     }
     
 }
\ No newline at end of file
@@ -19,82 +19,237 @@
 
 package ca.sqlpower.sql.jdbcwrapper;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.collections.map.AbstractReferenceMap;
-import org.apache.commons.collections.map.ReferenceMap;
-
+import ca.sqlpower.sql.CachedRowSet;
 import ca.sqlpower.util.Cache;
 import ca.sqlpower.util.CacheStats;
+import ca.sqlpower.util.ConcurrentLruCache;
 
 /**
- * A cache implementation that holds its values via weak references, so they
- * will be freed when there is memory pressure (or when the cache is flushed,
- * of course).
+ * A bounded cache of schema-level JDBC metadata. Entries are evicted least
+ * recently used first once the cache holds more than its maximum number of
+ * members, or once the total number of rows in the cached row sets exceeds
+ * its maximum row count. The row limit applies to the cache as a whole, so a
+ * single row set may have as many rows as the whole limit. Entries can also be
+ * given a time to live.
+ * <p>
+ * The cache is safe for concurrent use without any outside synchronization.
+ * Cached row sets are shared, so callers still have to synchronize on a row
+ * set while moving its cursor.
+ * <p>
+ * Every instance is registered so its statistics and limits can be reached
+ * through {@link #getAllCaches()}. The registry only holds weak references, so
+ * a cache that is no longer used elsewhere is dropped from it.
  * 
- * @param <K> The cache key type
  * @param <V> The cache value type
  */
-class MetaDataCache<K, V> implements Cache<K, V> {
+public class MetaDataCache<V> implements Cache<CacheKey, V> {
 
-    @SuppressWarnings("unchecked")
-    private final Map<K, V> data = new ReferenceMap(AbstractReferenceMap.HARD, AbstractReferenceMap.SOFT);
+    /**
+     * The default maximum number of schema-level entries in a cache.
+     */
+    public static final int DEFAULT_MAX_MEMBERS = 1000;
 
-    private long lastFlushDate;
-    
-    private final MyCacheStats stats = new MyCacheStats();
-    
     /**
-     * A CacheStats type where we can actually increment the values!
+     * The default maximum number of rows, summed over all cached row sets,
+     * in a cache.
      */
-    private class MyCacheStats extends CacheStats {
-        
-        public void incrementHits() {
-            totalRequested++;
-            totalHits++;
-        }
-        
-        public void incrementMisses() {
-            totalRequested++;
-            totalMisses++;
-        }
-        
-        public void incrementInserts(int number) {
-            totalInserted += number;
+    public static final long DEFAULT_MAX_ROWS = 2000000;
+
+    /**
+     * The number of segments the cache is split into. Metadata lookups are
+     * short, so a few segments are enough to keep worker threads from
+     * queueing up.
+     */
+    private static final int CONCURRENCY_LEVEL = 4;
+
+    /**
+     * Every cache created so far that has not been garbage collected. Cleared
+     * references are removed by {@link #getAllCaches()}.
+     */
+    private static final List<WeakReference<MetaDataCache<?>>> allCaches =
+        new CopyOnWriteArrayList<WeakReference<MetaDataCache<?>>>();
+
+    /**
+     * Weighs cached row sets by their row count.
+     */
+    private static final ConcurrentLruCache.Weigher<Object, Object> ROW_COUNT_WEIGHER =
+        new ConcurrentLruCache.Weigher<Object, Object>() {
+        public int weigh(Object key, Object value) {
+            if (value instanceof CachedRowSet) {
+                return Math.max(1, ((CachedRowSet) value).size());
+            }
+            return 1;
         }
-        
     };
     
-    public MetaDataCache() {
+    private final String name;
+
+    private final ConcurrentLruCache<CacheKey, V> data;
+
+    /**
+     * The last time the entries of each data source were invalidated, keyed
+     * by {@link CacheKey#getDataSourceAddress()}. Data sources that are not
+     * in this map were last invalidated by the last flush.
+     */
+    private final ConcurrentMap<String, Date> invalidationDates = new ConcurrentHashMap<String, Date>();
+    
+    /**
+     * Creates a new cache with the default limits and registers it.
+     * 
+     * @param name
+     *            A short description of what this cache holds, used to tell
+     *            the caches apart in {@link #getAllCaches()}.
+     */
+    public MetaDataCache(String name) {
+        this.name = name;
+        data = new ConcurrentLruCache<CacheKey, V>(DEFAULT_MAX_MEMBERS, CONCURRENCY_LEVEL);
+        data.setWeigher(ROW_COUNT_WEIGHER);
+        data.setMaxWeight(DEFAULT_MAX_ROWS);
+        allCaches.add(new WeakReference<MetaDataCache<?>>(this));
+    }
+
+    /**
+     * Returns every metadata cache created so far that is still in use.
+     */
+    public static List<MetaDataCache<?>> getAllCaches() {
+        List<MetaDataCache<?>> caches = new ArrayList<MetaDataCache<?>>();
+        List<WeakReference<MetaDataCache<?>>> cleared = new ArrayList<WeakReference<MetaDataCache<?>>>();
+        for (WeakReference<MetaDataCache<?>> ref : allCaches) {
+            MetaDataCache<?> cache = ref.get();
+            if (cache == null) {
+                cleared.add(ref);
+            } else {
+                caches.add(cache);
+            }
+        }
+        allCaches.removeAll(cleared);
+        return Collections.unmodifiableList(caches);
+    }
+
+    public String getName() {
+        return name;
     }
 
     public void flush() {
-        clear();
+        data.flush();
+        invalidationDates.clear();
     }
 
     public Date getLastFlushDate() {
-        return new Date(lastFlushDate);
+        return data.getLastFlushDate();
+    }
+
+    /**
+     * Returns the last time the given data source's entries were all
+     * invalidated, either by {@link #invalidate(String)} or by a flush.
+     */
+    public Date getLastInvalidationDate(String dataSourceAddress) {
+        Date date = invalidationDates.get(dataSourceAddress);
+        Date flushDate = getLastFlushDate();
+        if (date == null || date.before(flushDate)) {
+            return flushDate;
+        }
+        return date;
+    }
+
+    /**
+     * Removes every entry belonging to the given data source.
+     * 
+     * @param dataSourceAddress
+     *            The data source, as given by
+     *            {@link CacheKey#getDataSourceAddress()}.
+     */
+    public void invalidate(String dataSourceAddress) {
+        invalidationDates.put(dataSourceAddress, new Date());
+        for (CacheKey key : new ArrayList<CacheKey>(data.keySet())) {
+            if (key.getDataSourceAddress().equals(dataSourceAddress)) {
+                data.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Removes the entry for one catalog and schema of the given data source,
+     * leaving the rest of that data source's entries in place.
+     */
+    public void invalidate(String dataSourceAddress, String catalogName, String schemaName) {
+        for (CacheKey key : new ArrayList<CacheKey>(data.keySet())) {
+            if (key.getDataSourceAddress().equals(dataSourceAddress)
+                    && equal(key.getCatalogName(), catalogName)
+                    && equal(key.getSchemaName(), schemaName)) {
+                data.remove(key);
+            }
+        }
+    }
+    
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
     }
 
     public int getMaxMembers() {
-        return Integer.MAX_VALUE;
+        return data.getMaxMembers();
+    }
+
+    public void setMaxMembers(int maxMembers) {
+        data.setMaxMembers(maxMembers);
+    }
+
+    /**
+     * Returns the most rows, summed over every cached row set, this cache
+     * will hold.
+     */
+    public long getMaxRows() {
+        return data.getMaxWeight();
     }
 
+    public void setMaxRows(long maxRows) {
+        data.setMaxWeight(maxRows);
+    }
+
+    /**
+     * Makes entries put in this cache from now on expire after the given
+     * time. A time of 0 means entries never expire, which is the default.
+     */
+    public void setTimeToLive(long time, TimeUnit unit) {
+        data.setTimeToLive(time, unit);
+    }
+
+    public long getTimeToLive(TimeUnit unit) {
+        return data.getTimeToLive(unit);
+    }
+
+    /**
+     * Returns the statistics of this cache, including the load times
+     * recorded through {@link #put(CacheKey, Object, long)}.
+     */
     public CacheStats getStats() {
-        return stats;
+        return data.getStats();
     }
 
-    public void setMaxMembers(int argMaxMembers) {
-        throw new UnsupportedOperationException("This cache uses weak references, and doesn't limit max members");
+    /**
+     * Puts a freshly loaded value in the cache, recording how long it took to
+     * load in the statistics.
+     */
+    public V put(CacheKey key, V value, long loadNanos) {
+        data.recordLoad(loadNanos);
+        return data.put(key, value);
     }
 
     public void clear() {
         data.clear();
-        stats.cacheFlush();
-        lastFlushDate = System.currentTimeMillis();
     }
 
     public boolean containsKey(Object key) {
@@ -105,7 +260,7 @@ class MetaDataCache<K, V> implements Cache<K, V> {
         return data.containsValue(value);
     }
 
-    public Set<java.util.Map.Entry<K, V>> entrySet() {
+    public Set<Map.Entry<CacheKey, V>> entrySet() {
         return data.entrySet();
     }
 
@@ -114,13 +269,7 @@ class MetaDataCache<K, V> implements Cache<K, V> {
     }
 
     public V get(Object key) {
-        V v = data.get(key);
-        if (v == null) {
-            stats.incrementMisses();
-        } else {
-            stats.incrementHits();
-        }
-        return v;
+        return data.get(key);
     }
 
     public int hashCode() {
@@ -131,17 +280,15 @@ class MetaDataCache<K, V> implements Cache<K, V> {
         return data.isEmpty();
     }
 
-    public Set<K> keySet() {
+    public Set<CacheKey> keySet() {
         return data.keySet();
     }
 
-    public V put(K key, V value) {
-        stats.incrementInserts(1);
+    public V put(CacheKey key, V value) {
         return data.put(key, value);
     }
 
-    public void putAll(Map<? extends K, ? extends V> t) {
-        stats.incrementInserts(t.size());
+    public void putAll(Map<? extends CacheKey, ? extends V> t) {
         data.putAll(t);
     }
 
@@ -156,5 +303,9 @@ class MetaDataCache<K, V> implements Cache<K, V> {
     public Collection<V> values() {
         return data.values();
     }
-    
+
+    @Override
+    public String toString() {
+        return "MetaDataCache " + name + ": " + size() + " entries";
+    }
 }
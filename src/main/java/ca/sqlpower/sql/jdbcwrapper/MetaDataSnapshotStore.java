@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.sql.jdbcwrapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps copies of cached metadata in local files so they can be reused by
+ * later sessions without going back to the database. Each snapshot is stored
+ * in its own gzipped file along with a fingerprint of the schema it came
+ * from, and is only handed back if the schema's current fingerprint still
+ * matches. What goes into a fingerprint is up to each database's
+ * {@link DatabaseMetaDataDecorator#getSchemaFingerprint(String, String)}; it
+ * should change whenever the schema's structure does.
+ * <p>
+ * Any problem reading or writing a snapshot is logged and treated as if the
+ * snapshot did not exist, since the database can always be asked again.
+ * <p>
+ * Snapshot files are read back with Java serialization, so anyone who can
+ * write to the snapshot directory chooses what gets deserialized. Only the
+ * classes that make up a cached row set and its key are accepted; a file
+ * naming any other class is rejected before that class is loaded.
+ */
+public class MetaDataSnapshotStore {
+
+    private static final Logger logger = Logger.getLogger(MetaDataSnapshotStore.class);
+    
+    /**
+     * Written at the start of every snapshot file. Change this when the file
+     * format changes, so old snapshots are ignored instead of misread.
+     */
+    private static final int FORMAT_VERSION = 1;
+    
+    private static final String SUFFIX = ".snapshot";
+
+    /**
+     * The JDK classes a snapshot may contain: boxed values, the JDBC date
+     * and time types, and the collections row sets keep their rows in.
+     */
+    private static final Set<String> ALLOWED_JDK_CLASSES = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "java.lang.String", "java.lang.Number", "java.lang.Boolean", "java.lang.Character",
+            "java.lang.Byte", "java.lang.Short", "java.lang.Integer", "java.lang.Long",
+            "java.lang.Float", "java.lang.Double", "java.lang.Enum",
+            "java.math.BigDecimal", "java.math.BigInteger",
+            "java.util.Date", "java.sql.Date", "java.sql.Time", "java.sql.Timestamp",
+            "java.util.ArrayList", "java.util.LinkedList", "java.util.HashMap", "java.util.LinkedHashMap",
+            "java.util.HashSet", "java.util.LinkedHashSet",
+            "java.util.Collections$SynchronizedCollection", "java.util.Collections$SynchronizedList",
+            "java.util.Collections$SynchronizedRandomAccessList",
+            "java.util.concurrent.CopyOnWriteArrayList")));
+
+    /**
+     * The snapshot value classes of this library a snapshot may contain.
+     * Their nested classes are allowed too.
+     */
+    private static final Set<String> ALLOWED_SNAPSHOT_CLASSES = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "ca.sqlpower.sql.jdbcwrapper.CacheKey",
+            "ca.sqlpower.sql.jdbcwrapper.IndexedCachedRowSet",
+            "ca.sqlpower.sql.CachedRowSet",
+            "ca.sqlpower.sql.CachedResultSetMetaData",
+            "ca.sqlpower.sql.ColumnarRowList",
+            "ca.sqlpower.sql.RingBufferRowList")));
+
+    /**
+     * Reads snapshot files, refusing to resolve any class that isn't part of
+     * a snapshot.
+     */
+    private static class SnapshotInputStream extends ObjectInputStream {
+
+        SnapshotInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!isAllowed(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "Not allowed in a metadata snapshot");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+            throw new InvalidClassException("Proxy classes are not allowed in a metadata snapshot");
+        }
+
+        private static boolean isAllowed(String name) {
+            if (name.startsWith("[")) {
+                String component = name.substring(name.lastIndexOf('[') + 1);
+                if (component.length() == 1) {
+                    // an array of a primitive type
+                    return true;
+                }
+                if (!component.startsWith("L") || !component.endsWith(";")) {
+                    return false;
+                }
+                name = component.substring(1, component.length() - 1);
+                if (name.equals("java.lang.Object")) {
+                    return true;
+                }
+            }
+            if (ALLOWED_JDK_CLASSES.contains(name)) {
+                return true;
+            }
+            int nested = name.indexOf('$');
+            String outer = nested < 0 ? name : name.substring(0, nested);
+            return ALLOWED_SNAPSHOT_CLASSES.contains(outer);
+        }
+    }
+
+    private final File directory;
+
+    /**
+     * Creates a store that keeps its snapshots in the given directory. The
+     * directory doesn't have to exist yet; it is created by the first
+     * {@link #save(String, CacheKey, String, Object)}.
+     */
+    public MetaDataSnapshotStore(File directory) {
+        this.directory = directory;
+    }
+    
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the snapshot saved for the given cache and key, or null if
+     * there isn't one or it was taken with a different schema fingerprint.
+     */
+    public Object load(String cacheName, CacheKey key, String fingerprint) {
+        File file = fileFor(cacheName, key);
+        if (!file.exists()) {
+            return null;
+        }
+        ObjectInputStream in = null;
+        try {
+            in = new SnapshotInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))));
+            if (in.readInt() != FORMAT_VERSION
+                    || !cacheName.equals(in.readObject())
+                    || !key.equals(in.readObject())
+                    || !fingerprint.equals(in.readObject())) {
+                logger.debug("Snapshot " + file + " is out of date");
+                return null;
+            }
+            return in.readObject();
+        } catch (Exception e) {
+            logger.warn("Couldn't read metadata snapshot " + file, e);
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Saves a snapshot of the given value, replacing any earlier snapshot for
+     * the same cache and key.
+     */
+    public void save(String cacheName, CacheKey key, String fingerprint, Object value) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            logger.warn("Couldn't create metadata snapshot directory " + directory);
+            return;
+        }
+        File file = fileFor(cacheName, key);
+        File tempFile = null;
+        ObjectOutputStream out = null;
+        try {
+            tempFile = File.createTempFile("metadata", ".tmp", directory);
+            out = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile))));
+            out.writeInt(FORMAT_VERSION);
+            out.writeObject(cacheName);
+            out.writeObject(key);
+            out.writeObject(fingerprint);
+            out.writeObject(value);
+            out.close();
+            out = null;
+            file.delete();
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Couldn't rename " + tempFile + " to " + file);
+            }
+            tempFile = null;
+        } catch (IOException e) {
+            logger.warn("Couldn't write metadata snapshot " + file, e);
+        } finally {
+            close(out);
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes the snapshot for the given cache and key, if there is one.
+     */
+    public void delete(String cacheName, CacheKey key) {
+        fileFor(cacheName, key).delete();
+    }
+
+    /**
+     * Deletes every snapshot in this store.
+     */
+    public void clear() {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        for (File f : files) {
+            if (f.getName().endsWith(SUFFIX)) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Names snapshot files by a digest of the cache name and key, which keeps
+     * the names short and free of characters the file system might reject.
+     * The file itself records the full name and key, so a digest collision
+     * just looks like an out of date snapshot.
+     */
+    private File fileFor(String cacheName, CacheKey key) {
+        String id = cacheName + "\n" + key.getDataSourceAddress() + "\n" +
+            key.getCatalogName() + "\n" + key.getSchemaName();
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(id.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2 + SUFFIX.length());
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            name.append(SUFFIX);
+            return new File(directory, name.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void close(Closeable c) {
+        if (c == null) return;
+        try {
+            c.close();
+        } catch (IOException e) {
+            logger.warn("Couldn't close metadata snapshot stream", e);
+        }
+    }
+}
@@ -82,10 +82,10 @@ public class OracleDatabaseMetaDataDecorator extends DatabaseMetaDataDecorator {
 	 * in subsequent queries.
      * <p>
      * This field should be accessed via {@link #getCachedResult(MetaDataCache, CacheKey)}
-     * and {@link #putCachedResult(MetaDataCache, CacheKey, Object)}.
+     * and {@link #putCachedResult(MetaDataCache, CacheKey, Object, long)}.
 	 */
-    private static final MetaDataCache<CacheKey, CachedRowSet> importedAndExportedKeysCache =
-        new MetaDataCache<CacheKey, CachedRowSet>();
+    private static final MetaDataCache<CachedRowSet> importedAndExportedKeysCache =
+        new MetaDataCache<CachedRowSet>("Oracle imported and exported keys");
     
     /**
 	 * A cache of column metadata. When queried the first time, we cache the
@@ -93,10 +93,10 @@ public class OracleDatabaseMetaDataDecorator extends DatabaseMetaDataDecorator {
 	 * queries.
 	 * <p>
 	 * This field should be accessed via {@link #getCachedResult(MetaDataCache, CacheKey)}
-	 * and {@link #putCachedResult(MetaDataCache, CacheKey, Object)}.
+	 * and {@link #putCachedResult(MetaDataCache, CacheKey, Object, long)}.
 	 */
-    private static final MetaDataCache<CacheKey, IndexedCachedRowSet> columnsCache =
-        new MetaDataCache<CacheKey, IndexedCachedRowSet>();
+    private static final MetaDataCache<IndexedCachedRowSet> columnsCache =
+        new MetaDataCache<IndexedCachedRowSet>("Oracle columns");
     
     @Override
 	public ResultSet getTypeInfo() throws SQLException {
@@ -269,6 +269,47 @@ public class OracleDatabaseMetaDataDecorator extends DatabaseMetaDataDecorator {
         return crs;
     }
     
+    /**
+     * Fingerprints a schema by the number of objects it owns and the time of
+     * the most recent DDL on any of them, both of which Oracle keeps in
+     * ALL_OBJECTS. Returns null for a null schema, since the caches are then
+     * holding results for every schema at once.
+     */
+    @Override
+    protected String getSchemaFingerprint(String catalog, String schema) throws SQLException {
+        if (schema == null) {
+            return null;
+        }
+        Statement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = getConnection().createStatement();
+            String sql = "SELECT COUNT(*), TO_CHAR(MAX(last_ddl_time), 'YYYYMMDDHH24MISS')" +
+                " FROM all_objects WHERE owner = " + SQL.quote(schema);
+            logger.debug("Schema fingerprint sql statement was " + sql);
+            rs = stmt.executeQuery(sql);
+            if (!rs.next()) {
+                return null;
+            }
+            return rs.getString(1) + ";" + rs.getString(2);
+        } finally {
+            if (rs != null) {
+                try {
+                    rs.close();
+                } catch (SQLException ex) {
+                    logger.warn("Failed to close result set. Squishing this exception: ", ex);
+                }
+            }
+            if (stmt != null) {
+                try {
+                    stmt.close();
+                } catch (SQLException ex) {
+                    logger.warn("Failed to close statement. Squishing this exception: ", ex);
+                }
+            }
+        }
+    }
+    
     /**
 	 * This uses an index name and a table name to find out the index type. The
 	 * index type is returned as a map of Index name and index types
@@ -324,6 +365,7 @@ public class OracleDatabaseMetaDataDecorator extends DatabaseMetaDataDecorator {
 	        CachedRowSet cachedResult = getCachedResult(importedAndExportedKeysCache, cacheKey);
 
 	        if (cachedResult == null) {
+	            long loadStart = System.nanoTime();
 		        /*
 				 * Oracle's JDBC drivers does not find relationships on alternate
 				 * keys. The following query is based on the query Oracle's driver
@@ -375,7 +417,7 @@ public class OracleDatabaseMetaDataDecorator extends DatabaseMetaDataDecorator {
 		        if (cacheType.get() == null || cacheType.get().equals(CacheType.NO_CACHE)) {
 		        	return result;
 		        } else {
-		        	putCachedResult(importedAndExportedKeysCache, cacheKey, result);
+		        	putCachedResult(importedAndExportedKeysCache, cacheKey, result, System.nanoTime() - loadStart);
 		        	cachedResult = result;
 		        }
 	        }
@@ -402,6 +444,7 @@ public class OracleDatabaseMetaDataDecorator extends DatabaseMetaDataDecorator {
 			
 			return crs;
 		} finally {
+			endCachedResultLoad();
 			if (rs != null) {
                 try {
                     rs.close();
@@ -431,6 +474,7 @@ public class OracleDatabaseMetaDataDecorator extends DatabaseMetaDataDecorator {
 	        CachedRowSet cachedResult = getCachedResult(importedAndExportedKeysCache, cacheKey);
 
 	        if (cachedResult == null) {
+	            long loadStart = System.nanoTime();
 		        /*
 				 * Oracle's JDBC drivers does not find relationships on alternate
 				 * keys. The following query is based on the query Oracle's driver
@@ -482,7 +526,7 @@ public class OracleDatabaseMetaDataDecorator extends DatabaseMetaDataDecorator {
 		        if (cacheType.get() == null || cacheType.get().equals(CacheType.NO_CACHE)) {
 		        	return result;
 		        } else {
-		        	putCachedResult(importedAndExportedKeysCache, cacheKey, result);
+		        	putCachedResult(importedAndExportedKeysCache, cacheKey, result, System.nanoTime() - loadStart);
 		        	cachedResult = result;
 		        }
 	        }
@@ -509,6 +553,7 @@ public class OracleDatabaseMetaDataDecorator extends DatabaseMetaDataDecorator {
 			
 			return crs;
 		} finally {
+			endCachedResultLoad();
 			if (rs != null) {
                 try {
                     rs.close();
@@ -545,6 +590,7 @@ public class OracleDatabaseMetaDataDecorator extends DatabaseMetaDataDecorator {
 		try {
 		    IndexedCachedRowSet cachedResult = getCachedResult(columnsCache, cacheKey);
 			if (cachedResult == null) {
+			    long loadStart = System.nanoTime();
 			    logger.debug("No cached data found. Querying data dictionary...");
 				stmt = getConnection().createStatement();
 				
@@ -612,7 +658,7 @@ public class OracleDatabaseMetaDataDecorator extends DatabaseMetaDataDecorator {
 		        	return result;
 		        } else {
 		            IndexedCachedRowSet result = new IndexedCachedRowSet(rs, 3);
-		        	putCachedResult(columnsCache, cacheKey, result);
+		        	putCachedResult(columnsCache, cacheKey, result, System.nanoTime() - loadStart);
 		        	cachedResult = result;
 		        }
 			}
@@ -664,6 +710,7 @@ public class OracleDatabaseMetaDataDecorator extends DatabaseMetaDataDecorator {
 			
 			return filtered;
 		} finally {
+			endCachedResultLoad();
 			if (rs != null) {
                 try {
                     rs.close();
@@ -272,6 +272,7 @@ public class SQLCatalog extends SQLObject {
                     catalog.tables.remove((SQLTable) table);
                 }
             }
+            catalog.invalidateChildIndex();
             catalog.populated = false;
             throw new RuntimeException(e);
         }
@@ -380,6 +381,15 @@ public class SQLCatalog extends SQLObject {
 		return Collections.unmodifiableList(children);
 	}
 
+	/**
+	 * Catalogs index their schemas and tables so finding one by name does
+	 * not scan the child list.
+	 */
+	@Override
+	protected boolean isChildIndexEnabled() {
+		return true;
+	}
+
 	@Override
 	protected boolean removeChildImpl(SPObject child) {
 		if (child instanceof SQLSchema) {
@@ -118,6 +118,15 @@ public class SQLDatabase extends SQLObject implements java.io.Serializable, Prop
 	 * it is the play pen database.
 	 */
 	private String name;
+
+	/**
+	 * Held while the tables of this database populate their columns, indices
+	 * and relationships. Populating one table can populate others in the same
+	 * database, so this must be taken before any table's own lock. Tables in
+	 * other databases populate independently. This is an array only because
+	 * plain Objects are not serializable.
+	 */
+	private final Object tablePopulationLock = new Object[0];
 	
 	@Constructor
 	public SQLDatabase(@ConstructorParameter(parameterType=ParameterType.PROPERTY, 
@@ -280,6 +289,7 @@ public class SQLDatabase extends SQLObject implements java.io.Serializable, Prop
                     db.tables.remove((SQLTable) table);
                 }
             }
+            db.invalidateChildIndex();
             db.populated = false;
             throw new RuntimeException(e);
         }
@@ -655,6 +665,14 @@ public class SQLDatabase extends SQLObject implements java.io.Serializable, Prop
 		}
 	}
 
+	/**
+	 * Returns the lock that the tables of this database hold while they
+	 * populate. See {@link #tablePopulationLock}.
+	 */
+	Object getTablePopulationLock() {
+		return tablePopulationLock;
+	}
+
 	/**
 	 * Returns a JDBC connection to the backing database, if there
 	 * is one.  The connection that you get will be yours and only yours
@@ -883,6 +901,15 @@ public class SQLDatabase extends SQLObject implements java.io.Serializable, Prop
 		return Collections.unmodifiableList(children);
 	}
 
+	/**
+	 * Databases without catalogs or schemas hold their tables directly, so
+	 * the children are indexed for name lookups and appends.
+	 */
+	@Override
+	protected boolean isChildIndexEnabled() {
+		return true;
+	}
+
 	@Override
 	protected boolean removeChildImpl(SPObject child) {
 		if (child instanceof SQLCatalog) {
@@ -767,13 +767,37 @@ public class SQLIndex extends SQLObject {
 	 */
     static List<SQLIndex> fetchIndicesForTableAndUpdatePK(DatabaseMetaData dbmd, final SQLTable targetTable) throws SQLException,
             SQLObjectException {
+        final IndexMetaData metaData = fetchIndexMetaData(dbmd, targetTable.getCatalogName(),
+                targetTable.getSchemaName(), targetTable.getName());
+        final List<SQLIndex> indexes = metaData.createIndices();
+        Runnable runner = new Runnable() {
+            public void run() {
+                try {
+                    metaData.applyTo(targetTable, indexes);
+                } catch (SQLObjectException e) {
+                    throw new SQLObjectRuntimeException(e);
+                }
+            }
+        };
+        try {
+            targetTable.getRunnableDispatcher().runInForeground(runner);
+        } catch (SessionNotFoundException e) {
+            runner.run();
+        }
+        return indexes;
+    }
+
+    /**
+     * Reads the primary key and index descriptions of the given table from
+     * the given database metadata. Nothing in the model is touched, so this
+     * can be called on any thread. See {@link IndexMetaData} for applying the
+     * result to the table.
+     */
+    static IndexMetaData fetchIndexMetaData(DatabaseMetaData dbmd, String catalog, String schema,
+            String tableName) throws SQLException {
         ResultSet rs = null;
 
-        String catalog = targetTable.getCatalogName();
-        String schema = targetTable.getSchemaName();
-        String tableName = targetTable.getName();
-        
-        List<SQLIndex> indexes = new ArrayList<SQLIndex>();
+        List<IndexDescription> indexes = new ArrayList<IndexDescription>();
         
         try {
             String pkName = null;
@@ -791,39 +815,13 @@ public class SQLIndex extends SQLObject {
             	}
             }
             
-            Runnable runner = new Runnable() {
-				public void run() {
-					for (Map.Entry<Integer, String> namedPositions : pkColPositionToName.entrySet()) {
-						if (!targetTable.isColumnsPopulated()) {
-							throw new IllegalStateException("Table " + targetTable + " is missing columns, cannot populate primary key.");
-						}
-						try {
-							SQLColumn col = targetTable.getColumnByName(namedPositions.getValue(), false, true);
-							if (col != null) {
-								targetTable.changeColumnIndex(
-										targetTable.getColumnsWithoutPopulating().indexOf(col), 
-										namedPositions.getKey(), true);
-							} else {
-								logger.error("Column " + namedPositions.getValue() + " not found in " + targetTable);
-								throw new RuntimeException("Column " + col.getName() + " not found in " + targetTable);
-							}
-						} catch (SQLObjectException e) {
-							throw new SQLObjectRuntimeException(e);
-						}
-					}
-				}
-			};
-			try {
-				targetTable.getRunnableDispatcher().runInForeground(runner);
-			} catch (SessionNotFoundException e) {
-				runner.run();
-			}
             rs.close();
             rs = null;
 
             logger.debug("SQLIndex.addIndicesToTable: catalog=" + catalog + "; schema=" + schema + "; tableName=" +
                     tableName + "; primary key name=" + pkName);
-            SQLIndex idx = null;
+            IndexDescription pkIndex = null;
+            IndexDescription idx = null;
             rs = dbmd.getIndexInfo(catalog, schema, tableName, false, true);
             while (rs.next()) {
                 /*
@@ -873,70 +871,23 @@ public class SQLIndex extends SQLObject {
                     continue;
                 } else if (pos == 1) {
                     logger.debug("Found index " + name);
-                    idx = new SQLIndex(name, !nonUnique, qualifier, type, filter);
-                    idx.setClustered(isClustered);
+                    idx = new IndexDescription(name, !nonUnique, qualifier, type, filter, isClustered);
                     if (name.equals(pkName)) {
-                    	final SQLIndex pkIndex = idx;
-                    	Runnable pkIndexUpdate = new Runnable() {
-							public void run() {
-								try {
-									targetTable.getPrimaryKeyIndexWithoutPopulating().updateToMatch(pkIndex, false);
-								} catch (SQLObjectException e) {
-									throw new SQLObjectRuntimeException(e);
-								}
-							}
-						};
-						try {
-							targetTable.getRunnableDispatcher().runInForeground(pkIndexUpdate);
-						} catch (SessionNotFoundException e) {
-							pkIndexUpdate.run();
-						}
-						
-                    	idx = targetTable.getPrimaryKeyIndexWithoutPopulating();
+                    	pkIndex = idx;
                     } else {
                     	indexes.add(idx);
                     }
                 }
 
-                //Child columns of pk fixed before this loop
-                if (!idx.isPrimaryKeyIndex()) {
-                	logger.debug("Adding column " + colName + " to index " + idx.getName());
-
-                	final SQLIndex nonPKIndex = idx;
-                	Runnable indexChildRunner = new Runnable() {
-					
-						public void run() {
-							if (!targetTable.isColumnsPopulated()) {
-								throw new IllegalStateException("Table " + targetTable + 
-										" is missing columns, cannot populate indices.");
-							}
-							SQLColumn tableCol;
-							try {
-								tableCol = targetTable.getColumnByName(colName, false, true);
-								Column indexCol;
-								if (tableCol != null) {
-									indexCol = new Column(tableCol, aOrD);
-								} else {
-									indexCol = new Column(colName, aOrD); // probably an expression like "col1+col2"
-								}
-
-								nonPKIndex.addChild(indexCol);
-							} catch (SQLObjectException e) {
-								throw new SQLObjectRuntimeException(e);
-							}
-						}
-					};
-					try {
-						targetTable.getRunnableDispatcher().runInForeground(indexChildRunner);
-					} catch (SessionNotFoundException e) {
-						indexChildRunner.run();
-					}
+                //Child columns of pk come from the primary key result set
+                if (idx != pkIndex) {
+                	idx.columns.add(new IndexColumn(colName, aOrD));
                 }
             }
             rs.close();
             rs = null;
 
-            return indexes;
+            return new IndexMetaData(pkName, pkColPositionToName, pkIndex, indexes);
             
         } finally {
             try {
@@ -948,6 +899,150 @@ public class SQLIndex extends SQLObject {
         }
     }
 
+    /**
+     * One column of an index as read from the index info result set.
+     */
+    private static class IndexColumn {
+        private final String name;
+        private final AscendDescend ascendingOrDescending;
+
+        IndexColumn(String name, AscendDescend ascendingOrDescending) {
+            this.name = name;
+            this.ascendingOrDescending = ascendingOrDescending;
+        }
+    }
+
+    /**
+     * The properties and columns of one index as read from the index info
+     * result set.
+     */
+    private static class IndexDescription {
+        private final String name;
+        private final boolean unique;
+        private final String qualifier;
+        private final String type;
+        private final String filter;
+        private final boolean clustered;
+        private final List<IndexColumn> columns = new ArrayList<IndexColumn>();
+
+        IndexDescription(String name, boolean unique, String qualifier, String type,
+                String filter, boolean clustered) {
+            this.name = name;
+            this.unique = unique;
+            this.qualifier = qualifier;
+            this.type = type;
+            this.filter = filter;
+            this.clustered = clustered;
+        }
+
+        SQLIndex createIndex() {
+            SQLIndex idx = new SQLIndex(name, unique, qualifier, type, filter);
+            idx.setClustered(clustered);
+            return idx;
+        }
+    }
+
+    /**
+     * The primary key and index descriptions of one table as returned by
+     * {@link SQLIndex#fetchIndexMetaData(DatabaseMetaData, String, String, String)}.
+     * Applying them to the table updates its primary key and index columns,
+     * so that has to be done on the foreground thread once the table's
+     * columns are populated.
+     */
+    static class IndexMetaData {
+
+        private final String pkName;
+
+        /**
+         * The names of the primary key columns keyed by their position in
+         * the primary key, starting at 0.
+         */
+        private final SortedMap<Integer, String> pkColPositionToName;
+
+        /**
+         * The description of the primary key index, or null if the index
+         * info didn't include one.
+         */
+        private final IndexDescription pkIndex;
+
+        /**
+         * The descriptions of all the indices other than the primary key, in
+         * the order the database returned them.
+         */
+        private final List<IndexDescription> indices;
+
+        private IndexMetaData(String pkName, SortedMap<Integer, String> pkColPositionToName,
+                IndexDescription pkIndex, List<IndexDescription> indices) {
+            this.pkName = pkName;
+            this.pkColPositionToName = pkColPositionToName;
+            this.pkIndex = pkIndex;
+            this.indices = indices;
+        }
+
+        /**
+         * Creates a new index with no columns for each index other than the
+         * primary key. This can be done on any thread.
+         */
+        List<SQLIndex> createIndices() {
+            List<SQLIndex> indexes = new ArrayList<SQLIndex>();
+            for (IndexDescription desc : indices) {
+                indexes.add(desc.createIndex());
+            }
+            return indexes;
+        }
+
+        /**
+         * Moves the primary key columns of the given table to match the
+         * database, updates the table's primary key index and adds the
+         * table's columns to the given indices. This must be called on the
+         * foreground thread after the table's columns are populated.
+         * 
+         * @param targetTable
+         *            The table the metadata was fetched for.
+         * @param indexes
+         *            The indices {@link #createIndices()} returned for this
+         *            metadata.
+         */
+        void applyTo(SQLTable targetTable, List<SQLIndex> indexes) throws SQLObjectException {
+            for (Map.Entry<Integer, String> namedPositions : pkColPositionToName.entrySet()) {
+                if (!targetTable.isColumnsPopulated()) {
+                    throw new IllegalStateException("Table " + targetTable + " is missing columns, cannot populate primary key.");
+                }
+                SQLColumn col = targetTable.getColumnByName(namedPositions.getValue(), false, true);
+                if (col != null) {
+                    targetTable.changeColumnIndex(
+                            targetTable.getColumnsWithoutPopulating().indexOf(col),
+                            namedPositions.getKey(), true);
+                } else {
+                    logger.error("Column " + namedPositions.getValue() + " not found in " + targetTable);
+                    throw new RuntimeException("Column " + namedPositions.getValue() + " not found in " + targetTable);
+                }
+            }
+            if (pkIndex != null) {
+                logger.debug("Updating primary key " + pkName + " of " + targetTable);
+                targetTable.getPrimaryKeyIndexWithoutPopulating().updateToMatch(pkIndex.createIndex(), false);
+            }
+            for (int i = 0; i < indices.size(); i++) {
+                SQLIndex nonPKIndex = indexes.get(i);
+                for (IndexColumn column : indices.get(i).columns) {
+                    if (!targetTable.isColumnsPopulated()) {
+                        throw new IllegalStateException("Table " + targetTable +
+                                " is missing columns, cannot populate indices.");
+                    }
+                    logger.debug("Adding column " + column.name + " to index " + nonPKIndex.getName());
+                    SQLColumn tableCol = targetTable.getColumnByName(column.name, false, true);
+                    Column indexCol;
+                    if (tableCol != null) {
+                        indexCol = new Column(tableCol, column.ascendingOrDescending);
+                    } else {
+                        indexCol = new Column(column.name, column.ascendingOrDescending); // probably an expression like "col1+col2"
+                    }
+                    nonPKIndex.addChild(indexCol);
+                }
+            }
+        }
+    }
+
     @Transient @Accessor
     public boolean isPrimaryKeyIndex() {
     	if (getParent() == null) return false;
@@ -309,9 +309,29 @@ public abstract class SQLObject extends AbstractSPObject implements java.io.Seri
 	 */
 	@NonProperty
 	public abstract List<? extends SQLObject> getChildrenWithoutPopulating();
+
+	/**
+	 * The child index of a {@link SQLObject} must not populate it, so it is
+	 * built from {@link #getChildrenWithoutPopulating()}.
+	 */
+	@Override
+	protected List<? extends SPObject> getChildrenForIndex() {
+		return getChildrenWithoutPopulating();
+	}
 	
 	@NonProperty
+	@SuppressWarnings("unchecked")
 	public <T extends SPObject> List<T> getChildrenWithoutPopulating(Class<T> type) {
+		if (type.isAssignableFrom(SQLObject.class)) {
+			return (List<T>) getChildrenWithoutPopulating();
+		} else if (isChildIndexEnabled()) {
+			int count = countChildren(type);
+			if (count == 0) {
+				return Collections.emptyList();
+			} else if (count == countChildren(SQLObject.class)) {
+				return (List<T>) getChildrenWithoutPopulating();
+			}
+		}
 		List<T> children = new ArrayList<T>();
 		for (SQLObject child : getChildrenWithoutPopulating()) {
 			if (type.isAssignableFrom(child.getClass())) {
@@ -385,7 +405,11 @@ public abstract class SQLObject extends AbstractSPObject implements java.io.Seri
 	 * @throws SQLObjectException 
 	 */
 	public void addChild(SQLObject newChild) throws SQLObjectException {
-		addChild(newChild, getChildrenWithoutPopulating(newChild.getClass()).size());
+		if (isChildIndexEnabled()) {
+			addChild(newChild, countChildren(newChild.getClass()));
+		} else {
+			addChild(newChild, getChildrenWithoutPopulating(newChild.getClass()).size());
+		}
 	}
 	
 	// ------------------- sql object event support -------------------
@@ -501,13 +525,14 @@ public abstract class SQLObject extends AbstractSPObject implements java.io.Seri
 	 */
     @NonProperty
     private <T extends SQLObject> T getChildByNameImpl(String name, boolean ignoreCase, Class<T> childType) {
-        for (T o : getChildren(childType)) {
-            if ( (ignoreCase && o.getName().equalsIgnoreCase(name))
-                  || ( (!ignoreCase) && o.getName().equals(name)) ) {
-                return o;
+        if (isChildIndexEnabled() && isMagicEnabled()) {
+            try {
+                populate();
+            } catch (SQLObjectException e) {
+                throw new RuntimeException("Could not populate " + getName(), e);
             }
         }
-        return null;
+        return findChildByName(name, ignoreCase, childType);
     }
     
     /**
@@ -147,13 +147,7 @@ public class SQLSchema extends SQLObject {
 
 	public SQLTable findTableByName(String tableName) throws SQLObjectException {
 		populate();
-		for (SQLTable child : tables) {
-			logger.debug("getTableByName: is child '"+child.getName()+"' equal to '"+tableName+"'?");		
-			if (child.getName().equalsIgnoreCase(tableName)) {
-				return child;
-			}
-		}
-		return null;
+		return getChildByNameIgnoreCase(tableName, SQLTable.class);
 	}
 
 	public String toString() {
@@ -253,8 +247,10 @@ public class SQLSchema extends SQLObject {
             schema.populated = true;
             
             schema.begin("Populating schema");
+            int index = schema.tables.size() - children.size();
             for (SQLTable table : children) {
-                schema.fireChildAdded(SQLTable.class, table, schema.tables.indexOf(table));
+                schema.fireChildAdded(SQLTable.class, table, index);
+                index++;
             }
             schema.firePropertyChange("populated", false, true);
             schema.commit();
@@ -263,6 +259,7 @@ public class SQLSchema extends SQLObject {
             for (SQLTable table : children) {
                 schema.tables.remove(table);
             }
+            schema.invalidateChildIndex();
             schema.populated = false;
             throw new RuntimeException(e);
         }
@@ -316,6 +313,15 @@ public class SQLSchema extends SQLObject {
 		return Collections.unmodifiableList(new ArrayList<SQLTable>(tables));
 	}
 
+	/**
+	 * A schema can hold tens of thousands of tables, so it keeps an index
+	 * of its tables for name lookups and appends.
+	 */
+	@Override
+	protected boolean isChildIndexEnabled() {
+		return true;
+	}
+
 	@Override
 	protected boolean removeChildImpl(SPObject child) {
 		if (child instanceof SQLTable) {
@@ -24,10 +24,17 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 
@@ -43,6 +50,7 @@ import ca.sqlpower.object.annotation.NonProperty;
 import ca.sqlpower.object.annotation.Transient;
 import ca.sqlpower.sql.CachedRowSet;
 import ca.sqlpower.sqlobject.SQLIndex.Column;
+import ca.sqlpower.sqlobject.SQLIndex.IndexMetaData;
 import ca.sqlpower.sqlobject.SQLRelationship.SQLImportedKey;
 import ca.sqlpower.util.SQLPowerUtils;
 import ca.sqlpower.util.SessionNotFoundException;
@@ -345,6 +353,20 @@ public class SQLTable extends SQLObject {
         }
     }
 
+	/**
+	 * Returns the lock held while this table populates its children. Tables
+	 * share the lock of their parent database, so populating tables in
+	 * different databases never waits on the same lock. Tables that are not
+	 * in a database fall back to a lock shared by all such tables.
+	 */
+	private Object getPopulationLock() {
+		SQLDatabase db = getParentDatabase();
+		if (db == null) {
+			return SQLTable.class;
+		}
+		return db.getTablePopulationLock();
+	}
+
 	/**
 	 * Populates the columns of all tables from the database that are not
 	 * already populated. If successful, then the indices for just this table
@@ -354,7 +376,7 @@ public class SQLTable extends SQLObject {
 	 */
     protected void populateColumns() throws SQLObjectException {
     	if (columnsPopulated) return;
-    	synchronized(getClass()) {
+    	synchronized(getPopulationLock()) {
     		synchronized(this) {
     			if (columns.size() > 0) {
     				throw new IllegalStateException("Can't populate table because it already contains columns");
@@ -382,7 +404,8 @@ public class SQLTable extends SQLObject {
 	 * <p>
 	 * Note that this class will iterate over all columns, obtaining locks on
 	 * all them. Any methods calling this must be sure to synchronize on the
-	 * class <b>before</b> the table instance, or else risk causing deadlock.
+	 * {@link #getPopulationLock() population lock} <b>before</b> the table
+	 * instance, or else risk causing deadlock.
 	 * <p>
 	 * This is a helper method for {@link #populateColumns()}.
 	 * 
@@ -397,7 +420,7 @@ public class SQLTable extends SQLObject {
 	 *            The SQLObject that contains all of the tables in the system.
 	 * @throws SQLObjectException
 	 */
-    private synchronized static void populateAllColumns(final String catalogName, final String schemaName,
+    private static void populateAllColumns(final String catalogName, final String schemaName,
     		final String tableName,
     		final SQLDatabase parentDB, final SQLObject tableContainer) throws SQLObjectException {
     	Connection con = null;
@@ -451,6 +474,225 @@ public class SQLTable extends SQLObject {
 		}
     }
 
+    /**
+     * Fetches a piece of a table's metadata from the database. Used by
+     * {@link SQLTable#populateTablesInParallel(SQLDatabase, Collection, int, boolean)}
+     * to run the same fetch on many tables at once.
+     */
+    private static interface TableFetcher<T> {
+        T fetch(SQLTable table) throws SQLException, SQLObjectException;
+    }
+
+    /**
+     * Populates the columns and indices of the given tables, and optionally
+     * their exported key relationships, fetching the metadata of many tables
+     * at once. Each fetch runs on one of <code>threadCount</code> worker
+     * threads with its own connection from the database's connection pool.
+     * The columns are fetched once for each schema the tables are in, and the
+     * indices and relationships once for each table.
+     * <p>
+     * The workers only read the metadata. Everything fetched, including the
+     * changes to each table's primary key, is applied to the tables on the
+     * foreground thread: the columns and indices in one transaction, then the
+     * relationships in a second one, since fetching relationships looks up
+     * the columns of the tables they refer to. Tables whose children were
+     * populated by someone else in the meantime are skipped, so the table
+     * population lock is not held while this method waits on the foreground
+     * thread.
+     * 
+     * @param db
+     *            The database all the tables belong to.
+     * @param tables
+     *            The tables to populate.
+     * @param threadCount
+     *            The number of fetches to run at once.
+     * @param includeRelationships
+     *            If true, the exported keys of each table are populated as
+     *            well. The database must already be populated down to the
+     *            table level.
+     * @throws IllegalArgumentException
+     *             if one of the tables does not belong to the given database.
+     */
+    public static void populateTablesInParallel(final SQLDatabase db, Collection<SQLTable> tables,
+            int threadCount, boolean includeRelationships) throws SQLObjectException {
+        for (SQLTable t : tables) {
+            if (t.getParentDatabase() != db) {
+                throw new IllegalArgumentException("Table " + t + " is not in database " + db);
+            }
+        }
+        final List<SQLTable> needColumns = new ArrayList<SQLTable>();
+        final Map<List<String>, SQLTable> schemaTables = new LinkedHashMap<List<String>, SQLTable>();
+        List<SQLTable> needIndices = new ArrayList<SQLTable>();
+        for (SQLTable t : tables) {
+            if (!t.isColumnsPopulated()) {
+                needColumns.add(t);
+                // the first table of each schema stands in for the whole schema
+                List<String> schemaKey = Arrays.asList(t.getCatalogName(), t.getSchemaName());
+                if (!schemaTables.containsKey(schemaKey)) {
+                    schemaTables.put(schemaKey, t);
+                }
+            }
+            if (!t.isIndicesPopulated()) needIndices.add(t);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threadCount));
+        try {
+            Map<SQLTable, Future<ListMultimap<String, SQLColumn>>> columnFutures = submitAll(executor,
+                    schemaTables.values(), new TableFetcher<ListMultimap<String, SQLColumn>>() {
+                public ListMultimap<String, SQLColumn> fetch(SQLTable table) throws SQLException, SQLObjectException {
+                    Connection con = null;
+                    try {
+                        con = db.getConnection();
+                        return SQLColumn.fetchColumnsForTable(table.getCatalogName(),
+                                table.getSchemaName(), null, con.getMetaData());
+                    } finally {
+                        closeQuietly(con);
+                    }
+                }
+            });
+            Map<SQLTable, Future<IndexMetaData>> indexFutures = submitAll(executor, needIndices,
+                    new TableFetcher<IndexMetaData>() {
+                public IndexMetaData fetch(SQLTable table) throws SQLException, SQLObjectException {
+                    // Views don't have indices (and Oracle throws an error)
+                    if ("VIEW".equals(table.getObjectType())) {
+                        return null;
+                    }
+                    Connection con = null;
+                    try {
+                        con = db.getConnection();
+                        return SQLIndex.fetchIndexMetaData(con.getMetaData(), table.getCatalogName(),
+                                table.getSchemaName(), table.getName());
+                    } finally {
+                        closeQuietly(con);
+                    }
+                }
+            });
+            final Map<SQLTable, ListMultimap<String, SQLColumn>> columns = getAll(db, columnFutures);
+            final Map<SQLTable, IndexMetaData> indices = getAll(db, indexFutures);
+            runInForeground(db, new Runnable() {
+                public void run() {
+                    try {
+                        db.begin("Populating columns and indices of " + needColumns.size() + " tables");
+                        for (SQLTable table : needColumns) {
+                            // someone beat us to this already
+                            if (table.isColumnsPopulated()) continue;
+                            SQLTable schemaTable = schemaTables.get(
+                                    Arrays.asList(table.getCatalogName(), table.getSchemaName()));
+                            populateColumnsWithList(table, columns.get(schemaTable).get(table.getName()));
+                        }
+                        for (Map.Entry<SQLTable, IndexMetaData> entry : indices.entrySet()) {
+                            SQLTable table = entry.getKey();
+                            if (table.isIndicesPopulated()) continue;
+                            List<SQLIndex> tableIndices;
+                            if (entry.getValue() == null) {
+                                tableIndices = Collections.emptyList();
+                            } else {
+                                tableIndices = entry.getValue().createIndices();
+                                entry.getValue().applyTo(table, tableIndices);
+                            }
+                            populateIndicesWithList(table, tableIndices);
+                        }
+                        db.commit();
+                    } catch (Throwable t) {
+                        db.rollback(t.getMessage());
+                        throw new RuntimeException(t);
+                    }
+                }
+            });
+
+            if (!includeRelationships) return;
+            List<SQLTable> needRelationships = new ArrayList<SQLTable>();
+            for (SQLTable t : tables) {
+                if (!t.isExportedKeysPopulated()) needRelationships.add(t);
+            }
+            final Map<SQLTable, List<SQLRelationship>> relationships = getAll(db, submitAll(executor,
+                    needRelationships, new TableFetcher<List<SQLRelationship>>() {
+                public List<SQLRelationship> fetch(SQLTable table) throws SQLObjectException {
+                    return SQLRelationship.fetchExportedKeys(table, null);
+                }
+            }));
+            runInForeground(db, new Runnable() {
+                public void run() {
+                    try {
+                        db.begin("Populating relationships of " + relationships.size() + " tables");
+                        for (Map.Entry<SQLTable, List<SQLRelationship>> entry : relationships.entrySet()) {
+                            if (entry.getKey().isExportedKeysPopulated()) continue;
+                            List<SQLRelationship> tableRelationships = entry.getValue();
+                            if (tableRelationships == null) {
+                                tableRelationships = Collections.emptyList();
+                            }
+                            populateRelationshipsWithList(entry.getKey(), tableRelationships);
+                        }
+                        db.commit();
+                    } catch (Throwable t) {
+                        db.rollback(t.getMessage());
+                        throw new RuntimeException(t);
+                    }
+                }
+            });
+        } finally {
+            // stops any fetches still running after one of them failed
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Submits the given fetcher to the given executor once for each of the
+     * given tables.
+     * 
+     * @return The pending fetches, in the same order as the tables.
+     */
+    private static <T> Map<SQLTable, Future<T>> submitAll(ExecutorService executor,
+            Collection<SQLTable> tables, final TableFetcher<T> fetcher) {
+        Map<SQLTable, Future<T>> futures = new LinkedHashMap<SQLTable, Future<T>>();
+        for (final SQLTable table : tables) {
+            futures.put(table, executor.submit(new Callable<T>() {
+                public T call() throws Exception {
+                    return fetcher.fetch(table);
+                }
+            }));
+        }
+        return futures;
+    }
+
+    /**
+     * Waits for all of the given fetches to finish.
+     * 
+     * @return The fetched values, in the same order as the given fetches.
+     *         A value is null if its fetch found nothing.
+     */
+    private static <T> Map<SQLTable, T> getAll(SQLDatabase db, Map<SQLTable, Future<T>> futures)
+            throws SQLObjectException {
+        Map<SQLTable, T> results = new LinkedHashMap<SQLTable, T>();
+        try {
+            for (Map.Entry<SQLTable, Future<T>> entry : futures.entrySet()) {
+                results.put(entry.getKey(), entry.getValue().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLObjectException("Interrupted while populating tables of " + db.getName(), e);
+        } catch (ExecutionException e) {
+            throw new SQLObjectException("Failed to populate tables of " + db.getName(), e.getCause());
+        }
+        return results;
+    }
+
+    private static void runInForeground(SQLDatabase db, Runnable runner) {
+        try {
+            db.getRunnableDispatcher().runInForeground(runner);
+        } catch (SessionNotFoundException e) {
+            runner.run();
+        }
+    }
+
+    private static void closeQuietly(Connection con) {
+        if (con == null) return;
+        try {
+            con.close();
+        } catch (SQLException ex) {
+            logger.error("Couldn't close connection. Squishing this exception: ", ex);
+        }
+    }
+
     /**
      * Used to populate a table based on a list containing all of the column
      * children of the table. This method must be called on the foreground
@@ -609,9 +851,9 @@ public class SQLTable extends SQLObject {
 	}
 	
 	protected void populateImportedKeys() throws SQLObjectException {
-		// Must synchronize on class before instance. See populateAllColumns
+		// Must synchronize on the population lock before instance. See populateAllColumns
 		if (importedKeysPopulated) return;
-		synchronized(getClass()) {
+		synchronized(getPopulationLock()) {
 			synchronized(this) {
 
 				CachedRowSet crs = null;
@@ -677,8 +919,8 @@ public class SQLTable extends SQLObject {
 	 * @throws SQLObjectException
 	 */
 	protected void populateExportedKeys() throws SQLObjectException {
-		// Must synchronize on class before instance. See populateAllColumns
-		synchronized(getClass()) {
+		// Must synchronize on the population lock before instance. See populateAllColumns
+		synchronized(getPopulationLock()) {
 			synchronized(this) {
 				populateColumns();
 				populateIndices();
@@ -1560,8 +1802,8 @@ public class SQLTable extends SQLObject {
 	 */
 	@NonProperty
 	public List<SQLColumn> getColumns() throws SQLObjectException {
-		// Must synchronize on class before instance. See populateAllColumns
-		synchronized(getClass()) {
+		// Must synchronize on the population lock before instance. See populateAllColumns
+		synchronized(getPopulationLock()) {
 			synchronized(this) {
 				populateColumns();
 				return getColumnsWithoutPopulating();
@@ -1657,8 +1899,8 @@ public class SQLTable extends SQLObject {
      */
 	@NonProperty
     public List<SQLIndex> getUniqueIndices() throws SQLObjectException {
-		// Must synchronize on class before instance. See populateAllColumns
-		synchronized(getClass()) {
+		// Must synchronize on the population lock before instance. See populateAllColumns
+		synchronized(getPopulationLock()) {
 			synchronized(this) {
 				populateColumns();
 				populateIndices();
@@ -22,6 +22,8 @@ package ca.sqlpower.swingui.table;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 import javax.swing.SwingUtilities;
@@ -29,25 +31,99 @@ import javax.swing.table.AbstractTableModel;
 
 import org.apache.log4j.Logger;
 
+import ca.sqlpower.sql.CachedRowSet;
+
 /**
  * This is a basic table model that takes in a result set to be displayed in a
  * table. This model can export a given set of rows to a CSV or HTML file. The
  * result set is not allowed to be modified in this table.
+ * <p>
+ * Cells of a {@link CachedRowSet} are read straight from its storage without
+ * moving its cursor. Other result sets are read a page of rows at a time and
+ * the most recently used pages are kept, so large results from a live cursor
+ * are neither cached whole nor read one cell per cursor movement. The row
+ * count of such result sets and the column classes of all result sets are
+ * remembered until {@link #dataChanged()} or {@link #setRs(ResultSet)} is
+ * called.
  */
 public class ResultSetTableModel extends AbstractTableModel {
     
+	/**
+	 * The number of rows read from a result set that is not a
+	 * {@link CachedRowSet} each time a row that is not cached is requested.
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 200;
+	
+	/**
+	 * The number of pages of rows kept for result sets that are not
+	 * {@link CachedRowSet}s.
+	 */
+	public static final int DEFAULT_MAX_PAGES = 20;
+	
 	/**
 	 * This result set holds the cell entries in the table. 
 	 */
 	private ResultSet rs = null;
 	
+	/**
+	 * The number of rows read into each page.
+	 */
+	private final int pageSize;
+	
+	/**
+	 * The pages of rows read from a result set that is not a
+	 * {@link CachedRowSet}, keyed by page number, in order of use with the
+	 * least recently used page first.
+	 */
+	private final Map<Integer, Object[][]> pages;
+	
+	/**
+	 * The number of rows in a result set that is not a {@link CachedRowSet},
+	 * or -1 if it has not been counted since the data last changed.
+	 */
+	private int rowCount = -1;
+	
+	/**
+	 * The class of each column, or null if they have not been worked out
+	 * since the data last changed.
+	 */
+	private Class<?>[] columnClasses;
+	
 	/**
 	 * The result set passed in here must be scrollable. If it is not
 	 * it should be wrapped in a CachedRowSet first.
 	 * 
 	 */
 	public ResultSetTableModel(@Nullable ResultSet result) {
+		this(result, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES);
+	}
+
+	/**
+	 * The result set passed in here must be scrollable. If it is not it should
+	 * be wrapped in a CachedRowSet first.
+	 * 
+	 * @param result
+	 *            The result set to display.
+	 * @param pageSize
+	 *            The number of rows to read at a time from a result set that
+	 *            is not a {@link CachedRowSet}.
+	 * @param maxPages
+	 *            The number of pages of rows to keep from a result set that
+	 *            is not a {@link CachedRowSet}.
+	 */
+	public ResultSetTableModel(@Nullable ResultSet result, int pageSize, final int maxPages) {
+		if (pageSize <= 0 || maxPages <= 0) {
+			throw new IllegalArgumentException("The page size and page count must be positive but were " + 
+					pageSize + " and " + maxPages);
+		}
 		this.rs = result;
+		this.pageSize = pageSize;
+		pages = new LinkedHashMap<Integer, Object[][]>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Object[][]> eldest) {
+				return size() > maxPages;
+			}
+		};
 	}
 	
 	/**
@@ -56,12 +132,26 @@ public class ResultSetTableModel extends AbstractTableModel {
 	 */
 	public void setRs(ResultSet rs) {
 		this.rs = rs;
+		clearCache();
+	}
+
+	/**
+	 * Forgets the row count, column classes and pages of rows read from the
+	 * current result set.
+	 */
+	private void clearCache() {
+		rowCount = -1;
+		columnClasses = null;
+		pages.clear();
 	}
 	
 	public int getColumnCount() {
 		if (rs == null) {
 			return 0;
 		}
+		if (columnClasses != null) {
+			return columnClasses.length;
+		}
 		try {
 			int i = 0;
 			while (rs.getMetaData() == null && i < 100) {
@@ -90,28 +180,66 @@ public class ResultSetTableModel extends AbstractTableModel {
 		if (rs == null) {
 			return 0;
 		}
-		int newRowCount;
-		try {
-			int prevRow = rs.getRow();
-			rs.afterLast();
-			newRowCount = rs.getRow();
-			rs.absolute(prevRow);
-		} catch (SQLException e) {
-			throw new RuntimeException("Could not access the result set given to the table model", e);
+		if (rs instanceof CachedRowSet) {
+			return ((CachedRowSet) rs).size();
 		}
-		return newRowCount;
+		if (rowCount == -1) {
+			try {
+				int prevRow = rs.getRow();
+				rs.afterLast();
+				if (rs.previous()) {
+					rowCount = rs.getRow();
+				} else {
+					rowCount = 0;
+				}
+				rs.absolute(prevRow);
+			} catch (SQLException e) {
+				throw new RuntimeException("Could not access the result set given to the table model", e);
+			}
+		}
+		return rowCount;
 	}
 
 	public Object getValueAt(int rowIndex, int columnIndex) {
 		if (rs == null) {
 			return null;
 		}
+		if (rs instanceof CachedRowSet) {
+			return ((CachedRowSet) rs).getValueAt(rowIndex, columnIndex + 1);
+		}
+		Object[][] page = pages.get(rowIndex / pageSize);
+		if (page == null) {
+			page = readPage(rowIndex / pageSize);
+			pages.put(rowIndex / pageSize, page);
+		}
+		Object[] row = page[rowIndex % pageSize];
+		if (row == null) {
+			throw new IndexOutOfBoundsException("Row " + rowIndex + " is past the end of the result set");
+		}
+		return row[columnIndex];
+	}
+
+	/**
+	 * Reads the rows of the given page from the result set, leaving the
+	 * cursor where it was. Rows of the page past the end of the result set
+	 * are left null.
+	 */
+	private Object[][] readPage(int pageNumber) {
 		try {
 			int prevRow = rs.getRow();
-			rs.absolute(rowIndex + 1);
-			Object objectAtPosition = rs.getObject(columnIndex + 1);
+			int columnCount = rs.getMetaData().getColumnCount();
+			Object[][] page = new Object[pageSize][];
+			boolean onRow = rs.absolute(pageNumber * pageSize + 1);
+			for (int i = 0; i < pageSize && onRow; i++) {
+				Object[] row = new Object[columnCount];
+				for (int col = 0; col < columnCount; col++) {
+					row[col] = rs.getObject(col + 1);
+				}
+				page[i] = row;
+				onRow = rs.next();
+			}
 			rs.absolute(prevRow);
-			return objectAtPosition;
+			return page;
 		} catch (SQLException e) {
 			throw new RuntimeException(" Could not access the result set given the rowIndex or columnIndex.", e);
 		}
@@ -155,19 +283,30 @@ public class ResultSetTableModel extends AbstractTableModel {
 		if (rs == null) {
 			return Object.class;
 		}
-		try {
-			if (columnIndex < 0 || columnIndex >= rs.getMetaData().getColumnCount()) {
-				return Object.class;
+		if (columnClasses == null) {
+			try {
+				if (rs.getMetaData() == null) {
+					return Object.class;
+				}
+				Class<?>[] classes = new Class<?>[rs.getMetaData().getColumnCount()];
+				for (int i = 0; i < classes.length; i++) {
+					classes[i] = classForType(rs.getMetaData().getColumnType(i + 1));
+				}
+				columnClasses = classes;
+			} catch (SQLException e) {
+				throw new RuntimeException(e);
 			}
-		} catch (SQLException e1) {
-			throw new RuntimeException(e1);
 		}
-		int columnType;
-		try {
-			columnType = rs.getMetaData().getColumnType(columnIndex + 1);
-		} catch (SQLException e) {
-			throw new RuntimeException(e);
+		if (columnIndex < 0 || columnIndex >= columnClasses.length) {
+			return Object.class;
 		}
+		return columnClasses[columnIndex];
+	}
+
+	/**
+	 * Returns the class values of the given {@link Types} are shown as.
+	 */
+	private static Class<?> classForType(int columnType) {
 		if (columnType == Types.VARCHAR) {
 			return String.class;
 		} else if (columnType == Types.BIT || columnType == Types.INTEGER || columnType == Types.SMALLINT || columnType == Types.TINYINT) {
@@ -178,7 +317,6 @@ public class ResultSetTableModel extends AbstractTableModel {
 			return Float.class;
 		}
 		return Object.class;
-		
 	}
 
     /**
@@ -192,6 +330,7 @@ public class ResultSetTableModel extends AbstractTableModel {
     		// this method from threads that are not from the vent dispatch one.
     		throw new RuntimeException("A call to a UI update was sent from a thread other than the event dispatch thread. See ResultSetTableModel.");
     	}
+    	clearCache();
         fireTableDataChanged();
     }
 	
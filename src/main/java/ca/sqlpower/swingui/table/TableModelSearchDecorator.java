@@ -22,8 +22,16 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
@@ -54,10 +62,122 @@ public class TableModelSearchDecorator extends AbstractTableModel implements Cle
      */
     private TableTextConverter tableTextConverter;
 
+    /**
+     * Searches of tables with more cells than this are made on background
+     * threads so typing in the search box does not freeze the UI. Smaller
+     * tables are searched right away on the event dispatch thread.
+     */
+    static final int BACKGROUND_SEARCH_CELLS = 20000;
+
+    /**
+     * The number of cells whose text is read into the index at a time when
+     * a large table is indexed. The wrapped model may only be read on the
+     * event dispatch thread, so the index is built there in pieces of about
+     * this size to keep the UI responsive.
+     */
+    private static final int INDEX_CHUNK_CELLS = 20000;
+    
+    /**
+     * The number of rows each background thread matches at a time.
+     */
+    private static final int SEARCH_CHUNK_ROWS = 8192;
+    
+    /**
+     * Splits background searches into chunks. A single thread is used so the searches of all tables run one after
+     * the other and searches that have been replaced give up quickly.
+     */
+    private static final ExecutorService searchCoordinator = 
+        Executors.newSingleThreadExecutor(new SearchThreadFactory("Table search"));
+    
+    /**
+     * Matches the chunks of rows of background searches in parallel.
+     */
+    private static final ExecutorService searchWorkers = 
+        Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), 
+                new SearchThreadFactory("Table search worker"));
+
+    /**
+     * Creates the daemon threads background searches run on.
+     */
+    private static class SearchThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+        
+        SearchThreadFactory(String name) {
+            this.name = name;
+        }
+        
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, name + " " + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /**
+     * The lower case text of every cell of the wrapped model, the way the
+     * {@link #tableTextConverter} shows it, stored by column. An index is
+     * never modified once it is built; a new one is built after the wrapped
+     * model changes.
+     */
+    private static class SearchIndex {
+        private final int rowCount;
+        private final String[][] columnText;
+        
+        SearchIndex(int rowCount, String[][] columnText) {
+            this.rowCount = rowCount;
+            this.columnText = columnText;
+        }
+    }
+    
     private TableModel tableModel;
-    private List<Integer> rowMapping = null;  // null means identity mapping
+    
+    /**
+     * The rows of the wrapped model that match the current search, in order.
+     * Null means identity mapping. Only used on the event dispatch thread.
+     */
+    private int[] rowMapping = null;
     private Document doc;
     private String searchText = null;
+
+    /**
+     * The text index of the wrapped model, or null if it has not been built
+     * since the model last changed. Only used on the event dispatch thread;
+     * background searches are handed the index they should use.
+     */
+    private SearchIndex index;
+
+    /**
+     * The index of a large table that is being built on the event dispatch
+     * thread, or null if no index is being built.
+     */
+    private IndexBuilder indexBuilder;
+
+    /**
+     * Incremented for every search and every change to the wrapped model.
+     * Background searches give up and do not publish their results once this
+     * no longer matches the value it had when they started.
+     */
+    private final AtomicInteger searchGeneration = new AtomicInteger();
+
+    /**
+     * Incremented every time the wrapped model changes. An index that was
+     * being built when the model changed is abandoned.
+     */
+    private final AtomicInteger modelVersion = new AtomicInteger();
+
+    /**
+     * The lower case words of the search whose results are being shown, or
+     * null if no search is being shown. Together with {@link #lastIndex}
+     * this lets a search that refines this one only look at the rows in
+     * {@link #rowMapping}.
+     */
+    private String[] lastWords;
+    
+    /**
+     * The index the search being shown was made with.
+     */
+    private SearchIndex lastIndex;
 
     /**
      * This is a coalescing timed document listener. It does not support
@@ -128,13 +248,31 @@ public class TableModelSearchDecorator extends AbstractTableModel implements Cle
      */
     final TableModelListener tableModelListener = new TableModelListener() {
     	public void tableChanged(TableModelEvent e) {
-    	    search(searchText);
+    	    // the rows have changed so the index and the results are out of date
+    	    discardIndex();
 
     	    // XXX adjust co-ordinates to compensate for missing rows (the ones that don't match the search)
     		fireTableChanged(e);
+    		
+    		search(searchText);
     	}
     };
     
+    /**
+     * Throws away the text index and the search results being shown, and
+     * stops any search or index build in progress. Called whenever the
+     * text of the wrapped model's cells may have changed.
+     */
+    private void discardIndex() {
+        searchGeneration.incrementAndGet();
+        modelVersion.incrementAndGet();
+        index = null;
+        indexBuilder = null;
+        lastWords = null;
+        lastIndex = null;
+        rowMapping = null;
+    }
+
     @Override
     public boolean isCellEditable(int rowIndex, int columnIndex) {
         return tableModel.isCellEditable(rowIndex, columnIndex);
@@ -151,62 +289,294 @@ public class TableModelSearchDecorator extends AbstractTableModel implements Cle
         setDoc(new DefaultStyledDocument());
     }
 
-    private void search(String searchText) {
+    /**
+     * Filters the rows of the wrapped model down to the rows that contain
+     * every word of the given text in at least one column, ignoring case.
+     * Small tables are searched right away. Large tables are searched in the
+     * background and the rows shown are replaced when the search finishes,
+     * unless another search was started first. The text of the cells is
+     * always read on the event dispatch thread; only the matching is done in
+     * the background. Must be called on the event dispatch thread.
+     * <p>
+     * If every word of the last search is part of a word of the new one, only
+     * the rows that matched the last search are looked at.
+     */
+    void search(String searchText) {
+        setSearchText(searchText);
+        final int generation = searchGeneration.incrementAndGet();
+        
+        final String[] searchWords = toSearchWords(searchText);
+        if (searchWords == null) {
+            publish(generation, null, null, null);
+            return;
+        }
+        
+        final SearchIndex currentIndex = index;
+        final int[] candidates;
+        if (currentIndex != null && currentIndex == lastIndex && rowMapping != null 
+                && refines(searchWords, lastWords)) {
+            candidates = rowMapping;
+        } else {
+            candidates = null;
+        }
+        
+        int rowsToSearch = (candidates == null ? tableModel.getRowCount() : candidates.length);
+        if ((long) rowsToSearch * tableModel.getColumnCount() <= BACKGROUND_SEARCH_CELLS) {
+            SearchIndex searchIndex = getIndex();
+            int[] matches = match(searchIndex, searchWords, candidates, 0, 
+                    candidates == null ? searchIndex.rowCount : candidates.length, generation);
+            publish(generation, searchIndex, searchWords, matches);
+        } else if (currentIndex != null) {
+            matchInBackground(currentIndex, searchWords, candidates, generation);
+        } else {
+            if (indexBuilder == null) {
+                indexBuilder = new IndexBuilder();
+                SwingUtilities.invokeLater(indexBuilder);
+            }
+            // only the latest search is run once the index is ready
+            indexBuilder.whenBuilt = new Runnable() {
+                public void run() {
+                    if (generation != searchGeneration.get()) return;
+                    matchInBackground(index, searchWords, null, generation);
+                }
+            };
+        }
+    }
 
-        rowMapping = null;
-        fireTableDataChanged();
+    /**
+     * Matches the rows of the given index on the background threads and
+     * shows the results on the event dispatch thread.
+     */
+    private void matchInBackground(final SearchIndex searchIndex, final String[] searchWords, 
+            final int[] candidates, final int generation) {
+        searchCoordinator.execute(new Runnable() {
+            public void run() {
+                if (generation != searchGeneration.get()) return;
+                final int[] matches = matchInParallel(searchIndex, searchWords, candidates, generation);
+                if (matches == null) return;
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        publish(generation, searchIndex, searchWords, matches);
+                    }
+                });
+            }
+        });
+    }
 
-        List<Integer> newRowMap = new ArrayList<Integer>();
-        String[] searchWords = (searchText == null ? null : searchText.split(" "));
-        
-        synchronized (tableModel) {
-        	for ( int row = 0; row < tableModel.getRowCount(); row++ ) {
-        		boolean match = false;
-        		if ( searchWords == null ) {
-        			match = true;
-        		} else {
-        			
-        			int i;
-        			for ( i=0; i<searchWords.length; i++ ) {
-        				
-        				match = false;
-        				for ( int column = 0; column < tableModel.getColumnCount(); column++ ) {
-        					Object val = tableModel.getValueAt(row, column);
-        					String value = tableTextConverter.getTextForCell(val);
-        					if ( value.toLowerCase().indexOf(searchWords[i].toLowerCase()) >= 0 ) {
-        						match = true;
-        						if (logger.isDebugEnabled()) {
-        							logger.debug("Match: "+value.toLowerCase()+" contains "+searchWords[i]+ "     "+value.toLowerCase().indexOf(searchWords[i].toLowerCase()));
-        						}
-        						break;
-        					}
-        				}
-        				if ( !match )
-        					break;
-        				
-        			}
-        			if ( i < searchWords.length )
-        				match = false;
-        		}
-        		if ( match ) {
-        			newRowMap.add(row);
-        		}
-        	}
-		}
-        
-        setSearchText(searchText);
-        rowMapping = newRowMap;
+    /**
+     * Splits the search text into lower case words, or returns null if there
+     * is nothing to search for.
+     */
+    private static String[] toSearchWords(String searchText) {
+        if (searchText == null) return null;
+        List<String> words = new ArrayList<String>();
+        for (String word : searchText.split(" ")) {
+            if (word.length() > 0) {
+                words.add(word.toLowerCase());
+            }
+        }
+        if (words.isEmpty()) return null;
+        return words.toArray(new String[words.size()]);
+    }
+
+    /**
+     * Returns true if every row matching the new words also matches the old
+     * words, which is the case when each old word is part of a new word.
+     */
+    private static boolean refines(String[] newWords, String[] oldWords) {
+        if (oldWords == null) return false;
+        for (String oldWord : oldWords) {
+            boolean contained = false;
+            for (String newWord : newWords) {
+                if (newWord.indexOf(oldWord) >= 0) {
+                    contained = true;
+                    break;
+                }
+            }
+            if (!contained) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Shows the results of a search if no other search or change to the
+     * wrapped model happened since it started. Must be called on the event
+     * dispatch thread.
+     * 
+     * @param matches
+     *            The rows to show, or null to show every row.
+     */
+    private void publish(int generation, SearchIndex searchIndex, String[] searchWords, int[] matches) {
+        if (generation != searchGeneration.get()) return;
+        lastIndex = searchIndex;
+        lastWords = searchWords;
+        rowMapping = matches;
         if (logger.isDebugEnabled()) {
-        	logger.debug("new row mapping after search: "+rowMapping);
+            logger.debug("new row mapping after search: " + 
+                    (rowMapping == null ? "all rows" : rowMapping.length + " rows"));
         }
         fireTableDataChanged();
     }
 
+    /**
+     * Returns the text index of the wrapped model, building it right away if
+     * necessary. Must be called on the event dispatch thread.
+     */
+    private SearchIndex getIndex() {
+        if (index == null) {
+            IndexBuilder builder = new IndexBuilder();
+            builder.readRows(builder.rowCount);
+            index = builder.toIndex();
+        }
+        return index;
+    }
+
+    /**
+     * Reads the text of the cells of the wrapped model into a new index, a
+     * few rows at a time so the event dispatch thread can handle other
+     * events in between. Building stops if the model changes first.
+     */
+    private class IndexBuilder implements Runnable {
+        
+        private final int version = modelVersion.get();
+        private final int rowCount = tableModel.getRowCount();
+        private final String[][] columnText = new String[tableModel.getColumnCount()][rowCount];
+        private int nextRow;
+        
+        /**
+         * Runs once the index is built, which is after {@link #index} is set.
+         */
+        Runnable whenBuilt;
+        
+        public void run() {
+            if (version != modelVersion.get()) return;
+            readRows(Math.max(1, INDEX_CHUNK_CELLS / Math.max(1, columnText.length)));
+            if (nextRow < rowCount) {
+                SwingUtilities.invokeLater(this);
+                return;
+            }
+            index = toIndex();
+            indexBuilder = null;
+            if (whenBuilt != null) {
+                whenBuilt.run();
+            }
+        }
+        
+        void readRows(int rows) {
+            int end = Math.min(rowCount, nextRow + rows);
+            for (int column = 0; column < columnText.length; column++) {
+                String[] text = columnText[column];
+                for (int row = nextRow; row < end; row++) {
+                    text[row] = getTextForCell(tableModel.getValueAt(row, column)).toLowerCase();
+                }
+            }
+            nextRow = end;
+        }
+        
+        SearchIndex toIndex() {
+            return new SearchIndex(rowCount, columnText);
+        }
+    }
+
+    private String getTextForCell(Object value) {
+        if (tableTextConverter != null) {
+            return tableTextConverter.getTextForCell(value);
+        } else if (value == null) {
+            return "";
+        } else {
+            return value.toString();
+        }
+    }
+
+    /**
+     * Returns the rows that contain every search word in some column.
+     * 
+     * @param candidates
+     *            The rows to look at, or null to look at every row.
+     * @param start
+     *            The first position to look at, in the candidates if given or
+     *            in the index otherwise.
+     * @param end
+     *            One past the last position to look at.
+     * @return The matching rows, in order, or null if the search was
+     *         replaced before it finished.
+     */
+    private int[] match(SearchIndex searchIndex, String[] searchWords, int[] candidates, 
+            int start, int end, int generation) {
+        String[][] columnText = searchIndex.columnText;
+        int[] matches = new int[end - start];
+        int matchCount = 0;
+        for (int i = start; i < end; i++) {
+            if ((i & 1023) == 0 && generation != searchGeneration.get()) return null;
+            int row = (candidates == null ? i : candidates[i]);
+            boolean match = true;
+            for (String word : searchWords) {
+                match = false;
+                for (String[] text : columnText) {
+                    if (text[row].indexOf(word) >= 0) {
+                        match = true;
+                        break;
+                    }
+                }
+                if (!match) break;
+            }
+            if (match) {
+                matches[matchCount++] = row;
+            }
+        }
+        int[] result = new int[matchCount];
+        System.arraycopy(matches, 0, result, 0, matchCount);
+        return result;
+    }
+
+    /**
+     * Matches chunks of rows on the worker threads and joins the results in
+     * order. Returns null if the search was replaced before it finished.
+     */
+    private int[] matchInParallel(final SearchIndex searchIndex, final String[] searchWords, 
+            final int[] candidates, final int generation) {
+        int size = (candidates == null ? searchIndex.rowCount : candidates.length);
+        List<Future<int[]>> chunks = new ArrayList<Future<int[]>>();
+        for (int start = 0; start < size; start += SEARCH_CHUNK_ROWS) {
+            final int chunkStart = start;
+            final int chunkEnd = Math.min(size, start + SEARCH_CHUNK_ROWS);
+            chunks.add(searchWorkers.submit(new Callable<int[]>() {
+                public int[] call() throws Exception {
+                    return match(searchIndex, searchWords, candidates, chunkStart, chunkEnd, generation);
+                }
+            }));
+        }
+        try {
+            int[][] results = new int[chunks.size()][];
+            int matchCount = 0;
+            for (int i = 0; i < results.length; i++) {
+                results[i] = chunks.get(i).get();
+                if (results[i] == null) return null;
+                matchCount += results[i].length;
+            }
+            int[] matches = new int[matchCount];
+            int pos = 0;
+            for (int[] result : results) {
+                System.arraycopy(result, 0, matches, pos, result.length);
+                pos += result.length;
+            }
+            return matches;
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            for (Future<int[]> chunk : chunks) {
+                chunk.cancel(false);
+            }
+        }
+    }
+
     public int getRowCount() {
         if (rowMapping == null) {
             return tableModel.getRowCount();
         } else {
-            return rowMapping.size();
+            return rowMapping.length;
         }
     }
 
@@ -220,7 +590,7 @@ public class TableModelSearchDecorator extends AbstractTableModel implements Cle
     }
 
     private int rowToModel(int rowIndex) {
-        int modelRow = ((rowMapping != null && rowIndex< rowMapping.size()) ?  rowMapping.get(rowIndex) : rowIndex);
+        int modelRow = ((rowMapping != null && rowIndex< rowMapping.length) ?  rowMapping[rowIndex] : rowIndex);
         return modelRow;
     }
 
@@ -245,6 +615,7 @@ public class TableModelSearchDecorator extends AbstractTableModel implements Cle
         }
         tableModel = newModel;
         newModel.addTableModelListener(tableModelListener);
+        discardIndex();
         fireTableStructureChanged();
     }
 
@@ -279,9 +650,15 @@ public class TableModelSearchDecorator extends AbstractTableModel implements Cle
 
     public void setTableTextConverter(TableTextConverter tableTextConverter) {
         this.tableTextConverter = tableTextConverter;
+        discardIndex();
+        fireTableDataChanged();
     }
 
 	public void cleanup() {
+		searchGeneration.incrementAndGet();
+		modelVersion.incrementAndGet();
+		index = null;
+		indexBuilder = null;
 		docListener.cleanup();
 		if (tableModel instanceof CleanupTableModel) {
 			((CleanupTableModel) tableModel).cleanup();
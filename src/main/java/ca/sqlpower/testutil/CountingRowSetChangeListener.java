@@ -26,7 +26,7 @@ public class CountingRowSetChangeListener implements RowSetChangeListener {
     private int rowCount = 0;
     
     public void rowAdded(RowSetChangeEvent e) {
-        rowCount++;
+        rowCount += e.getRowCount();
     }
     
     public int getRowCount() {
@@ -950,8 +950,29 @@ public class MockJDBCDatabaseMetaData implements DatabaseMetaData {
 		rs.setColumnName(5, "KEY_SEQ");
 		rs.setColumnName(6, "PK_NAME");
 		
-		// TODO: define primary keys
+		StringBuilder qualifier = new StringBuilder();
+		if (getCatalogTerm() != null) {
+			qualifier.append(catalog).append(".");
+		}
+		if (getSchemaTerm() != null) {
+			qualifier.append(schema).append(".");
+		}
+		String pkList = connection.getProperties().getProperty("primary_keys." + qualifier + table);
+		if (pkList != null) {
+			int keySeq = 1;
+			for (String colName : Arrays.asList(pkList.split(","))) {
+				rs.addRow();
+				rs.updateObject(1, catalog);
+				rs.updateObject(2, schema);
+				rs.updateObject(3, table);
+				rs.updateObject(4, colName);
+				rs.updateInt(5, keySeq);
+				rs.updateObject(6, table + "_pk");
+				keySeq++;
+			}
+		}
 		
+		rs.beforeFirst();
 		return rs;
 	}
 
@@ -56,6 +56,12 @@ import org.apache.log4j.Logger;
  *  <dd>tables[.catalog][.schema]={list}</dd>
  *    <dt>A comma-separated list of tables in the named schema.catalog.  Leave out the ".catalog"
  *        or ".schema" part if you've configured this database to be schemaless or catalogless.</dt>
+ *  <dd>columns[.catalog][.schema].table={list}</dd>
+ *    <dt>A comma-separated list of the columns of the named table, in order. Tables without
+ *        this property get four columns named after the table.</dt>
+ *  <dd>primary_keys[.catalog][.schema].table={list}</dd>
+ *    <dt>A comma-separated list of the columns in the primary key of the named table, in
+ *        key order. The primary key is named after the table with a "_pk" suffix.</dt>
  *  <dd>autoincrement_cols={list}</dd>
  *    <dt>A comma-separated list of fully-qualified column names (catalog.schema.table.column)
  *        which will be reported by DatabaseMetaData.getColumns as being auto-increment.
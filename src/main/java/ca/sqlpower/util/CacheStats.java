@@ -5,6 +5,10 @@ public class CacheStats {
 	protected int totalRequested;
 	protected int totalHits;
 	protected int totalMisses;
+	protected int totalEvictions;
+	protected int totalExpirations;
+	protected int totalLoads;
+	protected long totalLoadNanos;
 
 	public CacheStats() {
 	}
@@ -14,6 +18,10 @@ public class CacheStats {
 		totalRequested = 0;
 		totalHits = 0;
 		totalMisses = 0;
+		totalEvictions = 0;
+		totalExpirations = 0;
+		totalLoads = 0;
+		totalLoadNanos = 0;
 	}
 
 	public int getTotalInserted() {
@@ -32,6 +40,48 @@ public class CacheStats {
 		return totalMisses;
 	}
 
+	/**
+	 * Returns the number of items removed to keep the cache within its
+	 * size limits.
+	 */
+	public int getTotalEvictions() {
+		return totalEvictions;
+	}
+
+	/**
+	 * Returns the number of items removed because they had been in the
+	 * cache for longer than their time to live.
+	 */
+	public int getTotalExpirations() {
+		return totalExpirations;
+	}
+
+	/**
+	 * Returns the number of times a missing item was loaded from its
+	 * source and put in the cache, for caches that record their loads.
+	 */
+	public int getTotalLoads() {
+		return totalLoads;
+	}
+
+	/**
+	 * Returns the total time spent loading missing items, for caches
+	 * that record their loads.
+	 */
+	public long getTotalLoadMillis() {
+		return totalLoadNanos / 1000000;
+	}
+
+	/**
+	 * Returns the average time it took to load a missing item, or 0
+	 * if no loads have been recorded.
+	 */
+	public double getAverageLoadMillis() {
+		int loads = getTotalLoads();
+		if (loads == 0) return 0.0;
+		return ((double) getTotalLoadMillis()) / loads;
+	}
+
 	/**
 	 * Returns a number between 0 and 1 indicating the cache hit
 	 * ratio.  0 is worst (no hits); 1 is best but unachievable unless
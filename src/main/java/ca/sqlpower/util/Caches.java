@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.util;
+
+/**
+ * Creates the general purpose least recently used caches used throughout the
+ * library, so the implementation can be chosen in one place.
+ * <p>
+ * By default the caches are {@link ConcurrentLruCache}s. Setting the system
+ * property {@value #IMPLEMENTATION_PROPERTY} to <code>legacy</code> (or
+ * calling {@link #setImplementation(Implementation)}) switches back to a
+ * {@link LeastRecentlyUsedCache} wrapped in a {@link SynchronizedCache}.
+ * Caches that have already been created keep their implementation.
+ */
+public class Caches {
+
+    /**
+     * The system property that selects the default cache implementation.
+     */
+    public static final String IMPLEMENTATION_PROPERTY = "ca.sqlpower.util.cache.implementation";
+    
+    public static enum Implementation {
+        
+        /**
+         * A {@link ConcurrentLruCache}.
+         */
+        CONCURRENT,
+        
+        /**
+         * A {@link LeastRecentlyUsedCache} wrapped in a
+         * {@link SynchronizedCache}.
+         */
+        LEGACY
+    }
+    
+    private static volatile Implementation implementation = implementationFromSystemProperty();
+
+    /**
+     * This class cannot be instantiated
+     */
+    private Caches() {
+        // no-op
+    }
+    
+    private static Implementation implementationFromSystemProperty() {
+        String value = System.getProperty(IMPLEMENTATION_PROPERTY);
+        if (value == null) {
+            return Implementation.CONCURRENT;
+        }
+        return Implementation.valueOf(value.trim().toUpperCase());
+    }
+    
+    public static Implementation getImplementation() {
+        return implementation;
+    }
+    
+    /**
+     * Sets the implementation used by caches created from now on.
+     */
+    public static void setImplementation(Implementation implementation) {
+        if (implementation == null) {
+            throw new NullPointerException("Null cache implementation");
+        }
+        Caches.implementation = implementation;
+    }
+
+    /**
+     * Returns a new thread safe cache that holds at most the given number of
+     * members and evicts the least recently used ones first.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> Cache<K, V> newLeastRecentlyUsedCache(int maxMembers) {
+        if (implementation == Implementation.LEGACY) {
+            return new SynchronizedCache(new LeastRecentlyUsedCache(maxMembers));
+        }
+        return new ConcurrentLruCache<K, V>(maxMembers);
+    }
+}
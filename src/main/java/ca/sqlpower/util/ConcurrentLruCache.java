@@ -0,0 +1,744 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.util;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread safe least recently used cache whose hits, inserts and evictions
+ * all take constant time. The entries are spread over a number of segments by
+ * key hash, and each segment keeps its own access-ordered map behind its own
+ * lock, so threads working with keys in different segments never wait for
+ * each other.
+ * <p>
+ * Each segment enforces its share of the member limit, so the sum over all
+ * segments never exceeds the limit for the whole cache. The weight limit, if
+ * one is set, applies to the cache as a whole: a single entry may weigh as
+ * much as the entire limit, and once the total is exceeded the least recently
+ * used of the segments' eldest entries are evicted until it is back within the
+ * limit. The eviction order is exact within a segment but only approximately
+ * least recently used across the cache. The number of segments
+ * is chosen when the cache is created so that each segment can hold at least
+ * {@link #MIN_SEGMENT_MEMBERS} entries; small caches therefore have a single
+ * segment and follow the same strict LRU policy as
+ * {@link LeastRecentlyUsedCache}.
+ * <p>
+ * Entries can optionally expire a fixed time after they were put in the
+ * cache. Expired entries are dropped when they are next requested or when
+ * they reach the least recently used end of their segment; call
+ * {@link #cleanUp()} to drop all of them at once.
+ * <p>
+ * Unlike {@link AbstractCache}, the statistics returned by
+ * {@link #getStats()} are kept by each segment and summed when they are read,
+ * so they stay accurate under concurrent use without a shared lock.
+ * 
+ * @param <K> The cache key type
+ * @param <V> The cache value type
+ */
+public class ConcurrentLruCache<K, V> extends AbstractMap<K, V> implements Cache<K, V> {
+
+    /**
+     * Gives the weight of a cache entry, for caches that are limited by the
+     * total weight of their entries as well as by their member count.
+     */
+    public static interface Weigher<K, V> {
+        
+        /**
+         * Returns the weight of the given entry. Must not be negative, and must
+         * not change while the entry is in the cache.
+         */
+        int weigh(K key, V value);
+    }
+
+    /**
+     * The number of segments used when no concurrency level is given.
+     */
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    /**
+     * The smallest member limit a segment is given when the cache is created.
+     * Splitting a small cache into many tiny segments would make it evict
+     * entries long before it is full.
+     */
+    public static final int MIN_SEGMENT_MEMBERS = 32;
+    
+    private static final int INSERTS = 0;
+    private static final int REQUESTS = 1;
+    private static final int HITS = 2;
+    private static final int MISSES = 3;
+    private static final int EVICTIONS = 4;
+    private static final int EXPIRATIONS = 5;
+    private static final int COUNTER_COUNT = 6;
+    
+    private final Segment<K, V>[] segments;
+    
+    /**
+     * Mask applied to a spread key hash to find its segment.
+     */
+    private final int segmentMask;
+    
+    private volatile int maxMembers;
+    
+    /**
+     * The total weight allowed in the cache, or 0 for no weight limit.
+     */
+    private volatile long maxWeight;
+    
+    private volatile Weigher<? super K, ? super V> weigher;
+    
+    /**
+     * The total weight of the entries in all segments. Each segment adds its
+     * own changes to this while holding its lock.
+     */
+    private final AtomicLong totalWeight = new AtomicLong();
+    
+    /**
+     * How long entries live after they are put in the cache, or 0 if they
+     * never expire.
+     */
+    private volatile long timeToLiveNanos;
+    
+    private volatile Date lastFlushDate;
+    
+    /**
+     * The loads recorded through {@link #recordLoad(long)}. These are not
+     * kept per segment since loads are far less frequent than requests.
+     */
+    private final AtomicInteger loads = new AtomicInteger();
+    
+    private final AtomicLong loadNanos = new AtomicLong();
+    
+    private final CacheStats stats = new SegmentedCacheStats();
+
+    /**
+     * Creates a cache holding at most the given number of members, with the
+     * default concurrency level.
+     */
+    public ConcurrentLruCache(int maxMembers) {
+        this(maxMembers, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Creates a cache holding at most the given number of members.
+     * 
+     * @param maxMembers
+     *            The maximum number of entries in the cache.
+     * @param concurrencyLevel
+     *            The number of threads expected to use the cache at once.
+     *            This is the most segments the cache will be split into; it
+     *            is rounded down to a power of two and reduced further for
+     *            small caches.
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLruCache(int maxMembers, int concurrencyLevel) {
+        int segmentCount = 1;
+        while (segmentCount * 2 <= concurrencyLevel && 
+                segmentCount * 2 * MIN_SEGMENT_MEMBERS <= maxMembers) {
+            segmentCount *= 2;
+        }
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<K, V>(totalWeight);
+        }
+        segmentMask = segmentCount - 1;
+        lastFlushDate = new Date();
+        setMaxMembers(maxMembers);
+    }
+    
+    private Segment<K, V> segmentFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h ^= (h >>> 7);
+        return segments[h & segmentMask];
+    }
+
+    /**
+     * Splits the given limit over the segments so that the shares add up to
+     * exactly the limit.
+     */
+    private long shareOf(long limit, int segmentIndex) {
+        long share = limit / segments.length;
+        if (segmentIndex < limit % segments.length) {
+            share++;
+        }
+        return share;
+    }
+    
+    private int weigh(K key, V value) {
+        Weigher<? super K, ? super V> w = weigher;
+        if (w == null) {
+            return 1;
+        }
+        int weight = w.weigh(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Negative weight " + weight + " for key " + key);
+        }
+        return weight;
+    }
+    
+    /**
+     * Sets the maximum member count, evicting least recently used entries
+     * right away if the cache is now over the limit.
+     */
+    public void setMaxMembers(int maxMembers) {
+        this.maxMembers = maxMembers;
+        updateLimits();
+    }
+
+    public int getMaxMembers() {
+        return maxMembers;
+    }
+
+    /**
+     * Limits the total weight of the entries in the cache, as measured by the
+     * {@link Weigher} given to {@link #setWeigher(Weigher)}. A value of 0 or
+     * less removes the weight limit.
+     */
+    public void setMaxWeight(long maxWeight) {
+        this.maxWeight = Math.max(0, maxWeight);
+        updateLimits();
+    }
+    
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Sets the weigher used to enforce the weight limit. Without one, every
+     * entry weighs 1. This should be set before anything is put in the cache,
+     * since the weights of existing entries are not recalculated.
+     */
+    public void setWeigher(Weigher<? super K, ? super V> weigher) {
+        this.weigher = weigher;
+    }
+    
+    public Weigher<? super K, ? super V> getWeigher() {
+        return weigher;
+    }
+    
+    /**
+     * Returns the total weight of the entries in the cache.
+     */
+    public long getWeight() {
+        return totalWeight.get();
+    }
+
+    /**
+     * Makes entries put in the cache from now on expire after the given time.
+     * A time of 0 or less means entries never expire.
+     */
+    public void setTimeToLive(long time, TimeUnit unit) {
+        timeToLiveNanos = Math.max(0, unit.toNanos(time));
+    }
+    
+    public long getTimeToLive(TimeUnit unit) {
+        return unit.convert(timeToLiveNanos, TimeUnit.NANOSECONDS);
+    }
+    
+    private void updateLimits() {
+        for (int i = 0; i < segments.length; i++) {
+            Segment<K, V> s = segments[i];
+            s.lock.lock();
+            try {
+                s.maxMembers = shareOf(maxMembers, i);
+                s.evict();
+            } finally {
+                s.lock.unlock();
+            }
+        }
+        evictOverweight(null);
+    }
+
+    /**
+     * Evicts entries until the total weight is within the weight limit. Each
+     * round looks at the eldest entry of every segment and evicts the one
+     * that was used least recently, so the order is close to least recently
+     * used across the whole cache. Only one segment lock is held at a time.
+     * 
+     * @param keep
+     *            The key of an entry that was just put in the cache and must
+     *            not be evicted, or null.
+     */
+    private void evictOverweight(Object keep) {
+        while (true) {
+            long limit = maxWeight;
+            if (limit == 0 || totalWeight.get() <= limit) {
+                return;
+            }
+            Segment<K, V> victim = null;
+            long oldest = 0;
+            for (Segment<K, V> s : segments) {
+                s.lock.lock();
+                try {
+                    Node<V> eldest = s.eldest(keep);
+                    if (eldest != null && (victim == null || eldest.lastUsed - oldest < 0)) {
+                        victim = s;
+                        oldest = eldest.lastUsed;
+                    }
+                } finally {
+                    s.lock.unlock();
+                }
+            }
+            if (victim == null) {
+                return;
+            }
+            victim.lock.lock();
+            try {
+                victim.evictEldest(keep);
+            } finally {
+                victim.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Drops every expired entry from the cache. This takes time proportional
+     * to the size of the cache.
+     */
+    public void cleanUp() {
+        long now = System.nanoTime();
+        for (Segment<K, V> s : segments) {
+            s.lock.lock();
+            try {
+                for (Iterator<Node<V>> it = s.map.values().iterator(); it.hasNext(); ) {
+                    Node<V> n = it.next();
+                    if (n.isExpired(now)) {
+                        it.remove();
+                        s.addWeight(-n.weight);
+                        s.counts[EXPIRATIONS]++;
+                    }
+                }
+            } finally {
+                s.lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public V get(Object key) {
+        if (key == null) return null;
+        Segment<K, V> s = segmentFor(key);
+        s.lock.lock();
+        try {
+            s.counts[REQUESTS]++;
+            Node<V> n = s.map.get(key);
+            if (n != null && n.isExpired(System.nanoTime())) {
+                s.map.remove(key);
+                s.addWeight(-n.weight);
+                s.counts[EXPIRATIONS]++;
+                n = null;
+            }
+            if (n == null) {
+                s.counts[MISSES]++;
+                return null;
+            }
+            s.counts[HITS]++;
+            n.lastUsed = System.nanoTime();
+            return n.value;
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if the cache has an unexpired entry for the given key.
+     * Unlike {@link #get(Object)}, this does not count as a use of the entry
+     * and is not recorded in the statistics.
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        if (key == null) return false;
+        Segment<K, V> s = segmentFor(key);
+        s.lock.lock();
+        try {
+            Node<V> n = s.map.get(key);
+            return n != null && !n.isExpired(System.nanoTime());
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    /**
+     * Puts the given entry in the cache, then evicts least recently used
+     * entries from the key's segment until it is back within its member
+     * limit, and least recently used entries from any segment until the
+     * cache is back within its weight limit. An entry that is heavier than
+     * the whole weight limit is evicted right away.
+     */
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("This cache does not allow null keys or values");
+        }
+        int weight = weigh(key, value);
+        long ttl = timeToLiveNanos;
+        long expiry = ttl == 0 ? 0 : System.nanoTime() + ttl;
+        Segment<K, V> s = segmentFor(key);
+        Node<V> old;
+        s.lock.lock();
+        try {
+            s.counts[INSERTS]++;
+            old = s.map.put(key, new Node<V>(value, weight, expiry));
+            s.addWeight(old == null ? weight : weight - old.weight);
+            s.evict();
+            long limit = maxWeight;
+            if (limit != 0 && weight > limit && s.map.remove(key) != null) {
+                s.addWeight(-weight);
+                s.counts[EVICTIONS]++;
+            }
+        } finally {
+            s.lock.unlock();
+        }
+        evictOverweight(key);
+        return old == null ? null : old.value;
+    }
+    
+    @Override
+    public V remove(Object key) {
+        if (key == null) return null;
+        Segment<K, V> s = segmentFor(key);
+        s.lock.lock();
+        try {
+            Node<V> old = s.map.remove(key);
+            if (old == null) {
+                return null;
+            }
+            s.addWeight(-old.weight);
+            return old.value;
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of entries in the cache, which may include expired
+     * entries that have not been dropped yet.
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> s : segments) {
+            s.lock.lock();
+            try {
+                size += s.map.size();
+            } finally {
+                s.lock.unlock();
+            }
+        }
+        return size;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Removes every entry without resetting the statistics or the last flush
+     * date.
+     */
+    @Override
+    public void clear() {
+        for (Segment<K, V> s : segments) {
+            s.lock.lock();
+            try {
+                s.map.clear();
+                s.addWeight(-s.weight);
+            } finally {
+                s.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns an unmodifiable snapshot of the unexpired entries in the cache.
+     * Each segment is copied under its own lock, so the snapshot as a whole
+     * may not reflect any single moment if other threads are modifying the
+     * cache.
+     */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Map<K, V> snapshot = new HashMap<K, V>();
+        long now = System.nanoTime();
+        for (Segment<K, V> s : segments) {
+            s.lock.lock();
+            try {
+                for (Map.Entry<K, Node<V>> e : s.map.entrySet()) {
+                    if (!e.getValue().isExpired(now)) {
+                        snapshot.put(e.getKey(), e.getValue().value);
+                    }
+                }
+            } finally {
+                s.lock.unlock();
+            }
+        }
+        return Collections.unmodifiableMap(snapshot).entrySet();
+    }
+
+    /**
+     * Records that a value missing from the cache took the given time to load
+     * from its source, for the load statistics in {@link #getStats()}. The
+     * cache does not load values itself, so callers that want these
+     * statistics have to time their loads and report them here.
+     */
+    public void recordLoad(long nanos) {
+        loads.incrementAndGet();
+        loadNanos.addAndGet(nanos);
+    }
+
+    public Date getLastFlushDate() {
+        return lastFlushDate;
+    }
+
+    /**
+     * Removes all entries, resets the statistics and updates the last flush
+     * date.
+     */
+    public void flush() {
+        for (Segment<K, V> s : segments) {
+            s.lock.lock();
+            try {
+                s.map.clear();
+                s.addWeight(-s.weight);
+                Arrays.fill(s.counts, 0);
+            } finally {
+                s.lock.unlock();
+            }
+        }
+        loads.set(0);
+        loadNanos.set(0);
+        lastFlushDate = new Date();
+    }
+
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    /**
+     * A cached value with the bookkeeping needed to evict it.
+     */
+    private static class Node<V> {
+        final V value;
+        final int weight;
+        
+        /**
+         * The {@link System#nanoTime()} at which this entry expires, or 0 if
+         * it never does.
+         */
+        final long expiry;
+
+        /**
+         * The {@link System#nanoTime()} at which this entry was last put or
+         * hit. Guarded by the lock of the entry's segment.
+         */
+        long lastUsed;
+        
+        Node(V value, int weight, long expiry) {
+            this.value = value;
+            this.weight = weight;
+            this.expiry = expiry;
+            this.lastUsed = System.nanoTime();
+        }
+        
+        boolean isExpired(long now) {
+            return expiry != 0 && now - expiry >= 0;
+        }
+    }
+
+    /**
+     * One lock's worth of the cache. All fields are guarded by {@link #lock}.
+     */
+    private static class Segment<K, V> {
+        
+        final ReentrantLock lock = new ReentrantLock();
+        
+        /**
+         * The entries of this segment, least recently used first.
+         */
+        final LinkedHashMap<K, Node<V>> map = new LinkedHashMap<K, Node<V>>(16, 0.75f, true);
+        
+        long maxMembers;
+        long weight;
+        
+        /**
+         * The weight of the whole cache, which this segment keeps up to date
+         * with its own changes.
+         */
+        final AtomicLong totalWeight;
+        
+        /**
+         * The statistics counters for this segment, indexed by
+         * {@link ConcurrentLruCache#INSERTS} and friends.
+         */
+        final int[] counts = new int[COUNTER_COUNT];
+        
+        Segment(AtomicLong totalWeight) {
+            this.totalWeight = totalWeight;
+        }
+        
+        void addWeight(long delta) {
+            weight += delta;
+            totalWeight.addAndGet(delta);
+        }
+
+        /**
+         * Removes entries from the least recently used end of this segment
+         * until it is within its member limit. Expired entries found at that
+         * end are removed too.
+         */
+        void evict() {
+            long now = System.nanoTime();
+            Iterator<Node<V>> it = map.values().iterator();
+            while (it.hasNext()) {
+                Node<V> eldest = it.next();
+                boolean expired = eldest.isExpired(now);
+                if (!expired && map.size() <= maxMembers) {
+                    break;
+                }
+                it.remove();
+                addWeight(-eldest.weight);
+                counts[expired ? EXPIRATIONS : EVICTIONS]++;
+            }
+        }
+
+        /**
+         * Returns the least recently used entry of this segment, or null if
+         * the segment is empty or its eldest entry has the given key.
+         */
+        Node<V> eldest(Object keep) {
+            if (map.isEmpty()) {
+                return null;
+            }
+            Map.Entry<K, Node<V>> e = map.entrySet().iterator().next();
+            if (keep != null && keep.equals(e.getKey())) {
+                return null;
+            }
+            return e.getValue();
+        }
+
+        /**
+         * Removes the least recently used entry of this segment unless the
+         * segment is empty or that entry has the given key.
+         */
+        void evictEldest(Object keep) {
+            Node<V> eldest = eldest(keep);
+            if (eldest == null) {
+                return;
+            }
+            Iterator<Node<V>> it = map.values().iterator();
+            it.next();
+            it.remove();
+            addWeight(-eldest.weight);
+            counts[eldest.isExpired(System.nanoTime()) ? EXPIRATIONS : EVICTIONS]++;
+        }
+    }
+
+    /**
+     * Statistics that read through to the counters kept by each segment.
+     */
+    private class SegmentedCacheStats extends CacheStats {
+        
+        private int sum(int field) {
+            int total = 0;
+            for (Segment<K, V> s : segments) {
+                s.lock.lock();
+                try {
+                    total += s.counts[field];
+                } finally {
+                    s.lock.unlock();
+                }
+            }
+            return total;
+        }
+        
+        @Override
+        public void cacheFlush() {
+            for (Segment<K, V> s : segments) {
+                s.lock.lock();
+                try {
+                    Arrays.fill(s.counts, 0);
+                } finally {
+                    s.lock.unlock();
+                }
+            }
+            loads.set(0);
+            loadNanos.set(0);
+        }
+        
+        @Override
+        public int getTotalInserted() {
+            return sum(INSERTS);
+        }
+        
+        @Override
+        public int getTotalRequested() {
+            return sum(REQUESTS);
+        }
+        
+        @Override
+        public int getTotalHits() {
+            return sum(HITS);
+        }
+        
+        @Override
+        public int getTotalMisses() {
+            return sum(MISSES);
+        }
+        
+        @Override
+        public int getTotalEvictions() {
+            return sum(EVICTIONS);
+        }
+        
+        @Override
+        public int getTotalExpirations() {
+            return sum(EXPIRATIONS);
+        }
+        
+        @Override
+        public int getTotalLoads() {
+            return loads.get();
+        }
+        
+        @Override
+        public long getTotalLoadMillis() {
+            return loadNanos.get() / 1000000;
+        }
+        
+        @Override
+        public double getHitRatio() {
+            int requested = getTotalRequested();
+            if (requested == 0) return 0.0;
+            return ((double) getTotalHits()) / requested;
+        }
+    }
+}
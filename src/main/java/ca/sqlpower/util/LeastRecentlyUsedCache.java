@@ -1,7 +1,7 @@
 package ca.sqlpower.util;
 
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 
 /**
  * An object cache that employs the Least Recently Used disposal
@@ -18,40 +18,58 @@ public class LeastRecentlyUsedCache extends AbstractCache implements java.io.Ser
 	}
 	
 	/**
-	 * Tracks the cache contents in order of use, most recent first.
+	 * Tracks the cache contents in order of use, least recent first.
 	 * For example, if item <code>A</code> has been used since item
-	 * <code>B</code>, the index of <code>A</code> in
-	 * <code>useOrder</code> will be less than the index of item
-	 * <code>B</code> in <code>useOrder</code>.
+	 * <code>B</code>, <code>A</code> will come after <code>B</code>
+	 * when iterating over <code>useOrder</code>. Moving a key to the
+	 * end and evicting from the front both take constant time.
 	 */
-	private LinkedList useOrder=new LinkedList();
+	private LinkedHashSet useOrder=new LinkedHashSet();
 	
 	/**
 	 * If maxItems is exceeded by n, n &gt; 0, the n least-recently
 	 * used items in the cache will be evicted.
 	 */
 	public void itemsInserted(Object[] keys) {
-		useOrder.addAll(0, Arrays.asList(keys));
-		while (size() > maxMembers) {
-			Object evictKey = useOrder.getLast();
-			useOrder.removeLast();
-			remove(evictKey);
+		for (int i = keys.length - 1; i >= 0; i--) {
+			useOrder.remove(keys[i]);
+			useOrder.add(keys[i]);
+		}
+		while (size() > maxMembers && !useOrder.isEmpty()) {
+			Iterator it = useOrder.iterator();
+			Object evictKey = it.next();
+			it.remove();
+			super.remove(evictKey);
+			stats.totalEvictions++;
 		}
 	}
 
 	/**
-	 * Moves the requested item's key to the front of the
-	 * <code>useOrder</code> list.
+	 * Moves the requested item's key to the most recently used end
+	 * of the <code>useOrder</code> list.
 	 */
 	public void itemRequested(Object key, boolean wasPresent) {
 		if(wasPresent) {
-			int itemIndex=useOrder.indexOf(key);
-			if (itemIndex == -1) {
+			if (!useOrder.remove(key)) {
 				throw new IllegalStateException("LRUCache.itemRequested: key '"
 												+key+"' was not found in useList");
 			}
-			useOrder.remove(itemIndex);
-			useOrder.addFirst(key);
+			useOrder.add(key);
 		}
 	}
+
+	public Object remove(Object key) {
+		useOrder.remove(key);
+		return super.remove(key);
+	}
+
+	public void clear() {
+		super.clear();
+		useOrder.clear();
+	}
+
+	public void flush() {
+		super.flush();
+		useOrder.clear();
+	}
 }
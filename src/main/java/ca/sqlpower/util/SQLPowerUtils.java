@@ -11,6 +11,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,7 +27,8 @@ import ca.sqlpower.object.CleanupExceptions;
 import ca.sqlpower.object.SPChildEvent;
 import ca.sqlpower.object.SPListener;
 import ca.sqlpower.object.SPObject;
-import ca.sqlpower.sqlobject.SQLObject;
+import ca.sqlpower.object.SPObjectTraversal;
+import ca.sqlpower.object.SPObjectVisitor;
 import ca.sqlpower.util.UserPrompter.UserPromptOptions;
 import ca.sqlpower.util.UserPrompter.UserPromptResponse;
 import ca.sqlpower.util.UserPrompterFactory.UserPromptType;
@@ -57,11 +59,14 @@ public class SQLPowerUtils {
 	}
 	
 	/**
-	 * Searches through the tree recursively to find if the spo 
-	 * is part of the hierarchy.
+	 * Walks up the parents of the child to find if the root is one of its
+	 * ancestors.
 	 */
 	public static boolean hierarchyContains(SPObject root, SPObject child) {
-		return SQLPowerUtils.getAncestorList(child).contains(root);
+		for (SPObject parent = child.getParent(); parent != null; parent = parent.getParent()) {
+			if (parent.equals(root)) return true;
+		}
+		return false;
 	}
 
 	/**
@@ -301,9 +306,10 @@ public class SQLPowerUtils {
         List<SPObject> ancestors = new ArrayList<SPObject>();
         SPObject parent = o.getParent();
         while (parent != null) {
-            ancestors.add(0, parent);
+            ancestors.add(parent);
             parent = parent.getParent();
         }
+        Collections.reverse(ancestors);
         return ancestors;
     }
     
@@ -347,28 +353,15 @@ public class SQLPowerUtils {
      *         traversal of startWith and its descendants. Returns null if no
      *         such SPObject exists.
      */
-    private static SPObject findRecursively(SPObject startWith, String uuid) {
+    private static SPObject findRecursively(SPObject startWith, final String uuid) {
     	if (startWith == null) {
     		throw new IllegalArgumentException("Cannot search a null object for children with the uuid " + uuid);
     	}
-        if (uuid.equals(startWith.getUUID())) {
-            return startWith;
-        }
-        
-        List<? extends SPObject> children;
-        if (startWith instanceof SQLObject) {
-        	children = ((SQLObject) startWith).getChildrenWithoutPopulating();
-        } else {
-        	children = startWith.getChildren();
-        }
-        
-        for (SPObject child : children) {
-            SPObject found = findRecursively(child, uuid);
-            if (found != null) {
-                return found;
-            }
-        }
-        return null;
+    	return SPObjectTraversal.preOrder(startWith, new SPObjectVisitor() {
+    		public VisitResult visit(SPObject o) {
+    			return uuid.equals(o.getUUID()) ? VisitResult.STOP : VisitResult.CONTINUE;
+    		}
+    	});
     }
     
     public static Map<String, SPObject> buildIdMap(SPObject startWith) {
@@ -376,21 +369,23 @@ public class SQLPowerUtils {
     	if (startWith == null) {
     		throw new IllegalArgumentException("Root object is null");
     	}
-    	idMap.put(startWith.getUUID(), startWith);
-        
-        List<? extends SPObject> children;
-        if (startWith instanceof SQLObject) {
-        	children = ((SQLObject) startWith).getChildrenWithoutPopulating();
-        } else {
-        	children = startWith.getChildren();
-        }
-        
-        for (SPObject child : children) {
-        	idMap.putAll(buildIdMap(child));
-        }
+    	addToIdMap(startWith, idMap);
         return idMap;
     }
 
+	/**
+	 * Puts the given object and all of its descendants into the given map,
+	 * keyed by UUID. SQLObjects will not be populated.
+	 */
+    public static void addToIdMap(SPObject startWith, final Map<String, SPObject> idMap) {
+    	SPObjectTraversal.preOrder(startWith, new SPObjectVisitor() {
+    		public VisitResult visit(SPObject o) {
+    			idMap.put(o.getUUID(), o);
+    			return VisitResult.CONTINUE;
+    		}
+    	});
+    }
+
 	/**
 	 * Adds the given listeners to the hierarchy of {@link SPObject}s rooted at
 	 * <code>root</code>.
@@ -403,19 +398,13 @@ public class SQLPowerUtils {
 	 *            SPObject descendants. If you do not want {@link SPChildEvent}s,
 	 *            you can provide null for this parameter.
 	 */
-    public static void listenToHierarchy(SPObject root, SPListener spcl) {
-        root.addSPListener(spcl);
-        if (root.allowsChildren()) {
-            List<? extends SPObject> children;
-            if (root instanceof SQLObject) {
-                children = ((SQLObject) root).getChildrenWithoutPopulating();
-            } else {
-                children = root.getChildren();
-            }
-        	for (SPObject wob : children) {
-        		listenToHierarchy(wob, spcl);
+    public static void listenToHierarchy(SPObject root, final SPListener spcl) {
+        SPObjectTraversal.preOrder(root, new SPObjectVisitor() {
+        	public VisitResult visit(SPObject o) {
+        		o.addSPListener(spcl);
+        		return VisitResult.CONTINUE;
         	}
-        }
+        });
     }
 
 	/**
@@ -446,19 +435,13 @@ public class SQLPowerUtils {
 	 *            {@link SPChildEvent}s, you can provide null for this
 	 *            parameter.
 	 */
-    public static void unlistenToHierarchy(SPObject root, SPListener spcl) {
-        root.removeSPListener(spcl);
-        if (root.allowsChildren()) {
-            List<? extends SPObject> children;
-            if (root instanceof SQLObject) {
-                children = ((SQLObject) root).getChildrenWithoutPopulating();
-            } else {
-                children = root.getChildren();
-            }
-        	for (SPObject wob : children) {
-        		unlistenToHierarchy(wob, spcl);
+    public static void unlistenToHierarchy(SPObject root, final SPListener spcl) {
+        SPObjectTraversal.preOrder(root, new SPObjectVisitor() {
+        	public VisitResult visit(SPObject o) {
+        		o.removeSPListener(spcl);
+        		return VisitResult.CONTINUE;
         	}
-        }
+        });
     }
     
 	/**
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.dao;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import ca.sqlpower.dao.helper.SPPersisterHelperDispatchTest.BaseObject;
+import ca.sqlpower.object.SPObject;
+
+public class SPObjectTypeRegistryTest extends TestCase {
+	
+	public static class SuperChild extends BaseObject {
+	}
+	
+	public static class SubChild extends SuperChild {
+	}
+	
+	public static class OtherSubChild extends SuperChild {
+	}
+	
+	public static class Unrelated extends BaseObject {
+	}
+	
+	/**
+	 * Allows a superclass before one of its subclasses, so the position a
+	 * child is assignable to and the type it is stored under can differ.
+	 */
+	public static class Parent extends BaseObject {
+		@SuppressWarnings("unchecked")
+		public static final List<Class<? extends SPObject>> allowedChildTypes = 
+			Arrays.<Class<? extends SPObject>>asList(SuperChild.class, SubChild.class);
+	}
+	
+	/**
+	 * Registered ahead of time instead of being found on first use.
+	 */
+	public static class RegisteredParent extends BaseObject {
+		@SuppressWarnings("unchecked")
+		public static final List<Class<? extends SPObject>> allowedChildTypes = 
+			Arrays.<Class<? extends SPObject>>asList(Unrelated.class);
+	}
+	
+	public void testGetType() throws Exception {
+		assertEquals(Parent.class, SPObjectTypeRegistry.getType(Parent.class.getName()));
+		assertSame(SPObjectTypeRegistry.getType(Parent.class.getName()), 
+				SPObjectTypeRegistry.getType(Parent.class.getName()));
+	}
+	
+	public void testUnknownTypeFailsEveryTime() throws Exception {
+		for (int i = 0; i < 2; i++) {
+			try {
+				SPObjectTypeRegistry.getType("ca.sqlpower.dao.NoSuchType");
+				fail("The type does not exist");
+			} catch (ClassNotFoundException e) {
+				// expected
+			}
+		}
+	}
+	
+	public void testChildTypes() throws Exception {
+		List<Class<? extends SPObject>> allowed = SPObjectTypeRegistry.getAllowedChildTypes(Parent.class);
+		assertEquals(Parent.allowedChildTypes, allowed);
+		try {
+			allowed.remove(0);
+			fail("The allowed child types cannot be modified");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		
+		assertEquals(0, SPObjectTypeRegistry.getTypePosition(SuperChild.class, Parent.class));
+		assertEquals(0, SPObjectTypeRegistry.getTypePosition(SubChild.class, Parent.class));
+		assertEquals(-1, SPObjectTypeRegistry.getTypePosition(Unrelated.class, Parent.class));
+		
+		// an exact match wins over an earlier superclass
+		assertEquals(SubChild.class, SPObjectTypeRegistry.getParentAllowedChildType(SubChild.class, Parent.class));
+		assertEquals(SuperChild.class, SPObjectTypeRegistry.getParentAllowedChildType(OtherSubChild.class, Parent.class));
+		assertNull(SPObjectTypeRegistry.getParentAllowedChildType(Unrelated.class, Parent.class));
+		
+		// answers stay the same once cached
+		assertEquals(SubChild.class, SPObjectTypeRegistry.getParentAllowedChildType(SubChild.class, Parent.class));
+		assertEquals(0, SPObjectTypeRegistry.getTypePosition(SubChild.class, Parent.class));
+	}
+	
+	public void testTypeWithoutChildTypes() throws Exception {
+		try {
+			SPObjectTypeRegistry.getAllowedChildTypes(Unrelated.class);
+			fail("Unrelated does not declare allowedChildTypes");
+		} catch (NoSuchFieldException e) {
+			// expected
+		}
+	}
+	
+	public void testRegister() throws Exception {
+		SPObjectTypeRegistry.register(RegisteredParent.class);
+		SPObjectTypeRegistry.register(Unrelated.class);
+		assertEquals(RegisteredParent.class, SPObjectTypeRegistry.getType(RegisteredParent.class.getName()));
+		assertEquals(RegisteredParent.allowedChildTypes, SPObjectTypeRegistry.getAllowedChildTypes(RegisteredParent.class));
+		assertEquals(0, SPObjectTypeRegistry.getTypePosition(Unrelated.class, RegisteredParent.class));
+	}
+}
@@ -21,6 +21,7 @@ package ca.sqlpower.dao;
 
 import ca.sqlpower.dao.session.SessionPersisterSuperConverter;
 import ca.sqlpower.object.SPObject;
+import ca.sqlpower.object.SPObjectUUIDIndex;
 import ca.sqlpower.sql.PlDotIni;
 import ca.sqlpower.sqlobject.SQLDatabase;
 import ca.sqlpower.sqlobject.SQLRelationship;
@@ -76,5 +77,55 @@ public class SPSessionPersisterTest extends TestCase {
         //to actually remove the imported key so it should stay there.
         assertEquals(1, table2.getChildren(SQLImportedKey.class).size());
     }
+
+    /**
+     * Tests that a session persister using a shared UUID index finds objects
+     * added and removed outside of the persister and keeps the index up to
+     * date with the changes it makes.
+     */
+    public void testPersisterWithUUIDIndex() throws Exception {
+        final SQLDatabase testDatabase = new SQLDatabase();
+        SQLTable table1 = new SQLTable(testDatabase, true);
+        testDatabase.addTable(table1);
+        SPObjectUUIDIndex index = new SPObjectUUIDIndex(testDatabase);
+        assertSame(table1, index.get(table1.getUUID(), SQLTable.class));
+        
+        SQLTable table2 = new SQLTable(testDatabase, true);
+        testDatabase.addTable(table2);
+        assertSame(table2, index.get(table2.getUUID(), SQLTable.class));
+        
+        SPSessionPersister sessionPersister = new SPSessionPersister(
+                "Testing persister", testDatabase, new SessionPersisterSuperConverter(
+                        new PlDotIni(), testDatabase)) {
+        
+            @Override
+            protected void refreshRootNode(PersistedSPObject pso) {
+                //do nothing
+            }
+        };
+        sessionPersister.setWorkspaceContainer(new WorkspaceContainer() {
+            public SPObject getWorkspace() {
+                return testDatabase;
+            }
+        });
+        sessionPersister.setUUIDIndex(index);
+        
+        sessionPersister.begin();
+        sessionPersister.removeObject(testDatabase.getUUID(), table1.getUUID());
+        sessionPersister.commit();
+        
+        assertEquals(1, testDatabase.getChildCount());
+        assertNull(index.get(table1.getUUID(), SPObject.class));
+        assertFalse(index.contains(table1.getPrimaryKeyIndex().getUUID()));
+        
+        String oldUUID = table2.getUUID();
+        table2.setUUID("new-uuid");
+        assertFalse(index.contains(oldUUID));
+        assertSame(table2, index.get("new-uuid", SQLTable.class));
+        
+        index.cleanup();
+        testDatabase.removeChild(table2);
+        assertTrue(index.contains("new-uuid"));
+    }
     
 }
@@ -6,10 +6,17 @@ package ca.sqlpower.dao;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import ca.sqlpower.dao.SPPersister.DataType;
 import ca.sqlpower.dao.upgrade.UpgradePersisterManager;
+import ca.sqlpower.object.CountingSPPersister;
 
 public class XMLPersisterTest extends PersisterTest {
 
@@ -54,6 +61,129 @@ public class XMLPersisterTest extends PersisterTest {
 		assertEquals("", out.toString());
 	}
 	
+	/**
+	 * Streaming the XML straight to the output must produce the same
+	 * document as buffering it, including images.
+	 */
+	public void testStreamingMatchesBuffered() throws Exception {
+		byte[] image = new byte[100000];
+		for (int i = 0; i < image.length; i++) {
+			image[i] = (byte) i;
+		}
+		ByteArrayOutputStream buffered = new ByteArrayOutputStream();
+		ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+		for (XMLPersister p : new XMLPersister[] {
+				new XMLPersister(buffered, "ca.sqlpower.testutil.SPObjectRoot", "tester", null, false),
+				new XMLPersister(streamed, "ca.sqlpower.testutil.SPObjectRoot", "tester", null, true)}) {
+			p.begin();
+			p.persistObject(null, "ca.sqlpower.testutil.SPObjectRoot", "root", 0);
+			p.persistProperty("root", "name", DataType.STRING, "a <name>");
+			p.persistObject("root", "ca.sqlpower.testutil.SPObjectRoot$Child", "child", 0);
+			p.persistProperty("child", "image", DataType.PNG_IMG, new ByteArrayInputStream(image));
+			p.commit();
+		}
+		assertTrue(streamed.size() > image.length);
+		assertTrue(Arrays.equals(buffered.toByteArray(), streamed.toByteArray()));
+	}
+
+	/**
+	 * A file is only replaced when the save commits.
+	 */
+	public void testFileReplacedOnlyOnCommit() throws Exception {
+		final File file = File.createTempFile("XMLPersisterTest", ".xml");
+		file.deleteOnExit();
+		FileOutputStream original = new FileOutputStream(file);
+		original.write("original".getBytes());
+		original.close();
+		
+		XMLPersister failed = new XMLPersister(file, "ca.sqlpower.testutil.SPObjectRoot", "tester", null);
+		failed.begin();
+		failed.persistObject(null, "ca.sqlpower.testutil.SPObjectRoot", "root", 0);
+		failed.rollback();
+		assertEquals("original".length(), file.length());
+		
+		XMLPersister saved = new XMLPersister(file, "ca.sqlpower.testutil.SPObjectRoot", "tester", null);
+		saved.begin();
+		saved.persistObject(null, "ca.sqlpower.testutil.SPObjectRoot", "root", 0);
+		saved.commit();
+		assertTrue(file.length() > "original".length());
+		assertEquals(0, file.getParentFile().listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith(file.getName()) && name.endsWith(".tmp");
+			}
+		}).length);
+	}
+	
+	/**
+	 * Reading in batches commits each group of complete subtrees under the
+	 * root and sends the same persist calls as reading in one transaction.
+	 */
+	public void testReadInBatches() throws Exception {
+		ByteArrayOutputStream xml = new ByteArrayOutputStream();
+		XMLPersister writer = new XMLPersister(xml, "ca.sqlpower.testutil.SPObjectRoot", "tester");
+		writer.begin();
+		writer.persistObject(null, "ca.sqlpower.testutil.SPObjectRoot", "root", 0);
+		for (int i = 0; i < 4; i++) {
+			writer.persistObject("root", "ca.sqlpower.testutil.SPObjectRoot$Child", "child" + i, i);
+			writer.persistProperty("child" + i, "name", DataType.STRING, "fish & chips");
+			writer.persistObject("child" + i, "ca.sqlpower.testutil.SPObjectRoot$Child", "grandchild" + i, 0);
+		}
+		writer.commit();
+		
+		CountingSPPersister counter = new CountingSPPersister();
+		XMLPersisterReader reader = new XMLPersisterReader(new InputStreamReader(
+				new ByteArrayInputStream(xml.toByteArray()), "UTF-8"), counter, upgradePersisterManager, "tester");
+		reader.setBatchSize(4);
+		reader.read();
+		
+		assertEquals(9, counter.getPersistObjectCount());
+		assertEquals("fish & chips", counter.getPersistPropertyList().get(0).getNewValue());
+		assertEquals(9, reader.getObjectCount());
+		assertEquals(4, reader.getPropertyCount());
+		assertEquals(3, reader.getBatchCount());
+		assertEquals(counter.getBeginCount(), counter.getCommitCount());
+		assertEquals(3, counter.getCommitCount());
+		assertEquals(xml.size(), reader.getCharactersRead());
+	}
+	
+	/**
+	 * A batch that references an object later in the file stays open until
+	 * that object has been read, so the reference can be resolved when the
+	 * batch is committed.
+	 */
+	public void testBatchHeldOpenForForwardReference() throws Exception {
+		ByteArrayOutputStream xml = new ByteArrayOutputStream();
+		XMLPersister writer = new XMLPersister(xml, "ca.sqlpower.testutil.SPObjectRoot", "tester");
+		writer.begin();
+		writer.persistObject(null, "ca.sqlpower.testutil.SPObjectRoot", "root", 0);
+		for (int i = 0; i < 4; i++) {
+			writer.persistObject("root", "ca.sqlpower.testutil.SPObjectRoot$Child", "child" + i, i);
+			if (i == 0) {
+				writer.persistProperty("child0", "reference", DataType.REFERENCE, "grandchild2");
+			}
+			writer.persistObject("child" + i, "ca.sqlpower.testutil.SPObjectRoot$Child", "grandchild" + i, 0);
+		}
+		writer.commit();
+		
+		final List<Integer> objectsAtCommit = new ArrayList<Integer>();
+		CountingSPPersister counter = new CountingSPPersister() {
+			@Override
+			public void commit() throws SPPersistenceException {
+				super.commit();
+				objectsAtCommit.add(getPersistObjectCount());
+			}
+		};
+		XMLPersisterReader reader = new XMLPersisterReader(new InputStreamReader(
+				new ByteArrayInputStream(xml.toByteArray()), "UTF-8"), counter, upgradePersisterManager, "tester");
+		reader.setBatchSize(2);
+		reader.read();
+		
+		// the first two children would each be a batch without the reference
+		assertEquals(Arrays.asList(7, 9, 9), objectsAtCommit);
+		assertEquals(3, reader.getBatchCount());
+		assertEquals("grandchild2", counter.getPersistPropertyList().get(0).getNewValue());
+	}
+	
 	@Override
 	protected void loadWorkspace() throws Exception {
 		persister.commit();
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.dao.binary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import ca.sqlpower.dao.MessageSender;
+import ca.sqlpower.dao.SPPersistenceException;
+import ca.sqlpower.dao.SPPersister;
+import ca.sqlpower.dao.SPPersister.DataType;
+import ca.sqlpower.util.SQLPowerUtils;
+
+public class SPBinaryPersisterTest extends TestCase {
+
+	/**
+	 * Records each persist call made on it as a string.
+	 */
+	private static class RecordingPersister implements SPPersister {
+		
+		private final List<String> calls = new ArrayList<String>();
+		
+		public void begin() throws SPPersistenceException {
+			calls.add("begin");
+		}
+
+		public void commit() throws SPPersistenceException {
+			calls.add("commit");
+		}
+
+		public void persistObject(String parentUUID, String type, String uuid,
+				int index) throws SPPersistenceException {
+			calls.add("persistObject " + parentUUID + " " + type + " " + uuid + " " + index);
+		}
+
+		public void persistProperty(String uuid, String propertyName,
+				DataType propertyType, Object oldValue, Object newValue)
+				throws SPPersistenceException {
+			calls.add("persistProperty " + uuid + " " + propertyName + " " + propertyType + " " 
+					+ describe(oldValue) + " " + describe(newValue));
+		}
+
+		public void persistProperty(String uuid, String propertyName,
+				DataType propertyType, Object newValue)
+				throws SPPersistenceException {
+			calls.add("persistProperty " + uuid + " " + propertyName + " " + propertyType + " " 
+					+ describe(newValue));
+		}
+
+		public void removeObject(String parentUUID, String uuid)
+				throws SPPersistenceException {
+			calls.add("removeObject " + parentUUID + " " + uuid);
+		}
+
+		public void rollback() {
+			calls.add("rollback");
+		}
+		
+		private String describe(Object value) {
+			if (value instanceof InputStream) {
+				try {
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					SQLPowerUtils.copyStream((InputStream) value, out);
+					return "bytes" + out.size();
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return value == null ? "null" : value.getClass().getSimpleName() + ":" + value;
+		}
+	}
+	
+	/**
+	 * Keeps every message sent to it.
+	 */
+	private static class CollectingSender implements MessageSender<byte[]> {
+		
+		private final List<byte[]> messages = new ArrayList<byte[]>();
+		
+		private int flushCount = 0;
+		
+		public void send(byte[] content) throws SPPersistenceException {
+			messages.add(content);
+		}
+		
+		public void flush() throws SPPersistenceException {
+			flushCount++;
+		}
+		
+		public void clear() {
+			// messages are only sent on commit
+		}
+		
+		byte[] getAllMessages() {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			for (byte[] message : messages) {
+				out.write(message, 0, message.length);
+			}
+			return out.toByteArray();
+		}
+	}
+	
+	private CollectingSender sender;
+	
+	private SPBinaryPersister persister;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		sender = new CollectingSender();
+		persister = new SPBinaryPersister(sender);
+	}
+	
+	/**
+	 * Every persist call and data type must come out of the decoder as it
+	 * went into the persister.
+	 */
+	public void testRoundTrip() throws Exception {
+		persister.begin();
+		persister.persistObject(null, "ca.sqlpower.Root", "root", 0);
+		persister.persistObject("root", "ca.sqlpower.Child", "child", 3);
+		persister.begin();
+		persister.persistProperty("child", "name", DataType.STRING, "caf\u00e9");
+		persister.persistProperty("child", "count", DataType.INTEGER, -42, 1000000);
+		persister.persistProperty("child", "size", DataType.LONG, Long.MAX_VALUE);
+		persister.persistProperty("child", "small", DataType.SHORT, (short) -3);
+		persister.persistProperty("child", "ratio", DataType.DOUBLE, 0.25);
+		persister.persistProperty("child", "scale", DataType.FLOAT, 1.5f);
+		persister.persistProperty("child", "visible", DataType.BOOLEAN, true, false);
+		persister.persistProperty("child", "target", DataType.REFERENCE, null, "root");
+		persister.persistProperty("child", "nothing", DataType.NULL, null);
+		persister.persistProperty("child", "image", DataType.PNG_IMG, 
+				new ByteArrayInputStream(new byte[] {1, 2, 3}));
+		persister.commit();
+		persister.removeObject("root", "child");
+		persister.commit();
+		
+		assertEquals(1, sender.messages.size());
+		assertEquals(1, sender.flushCount);
+		
+		RecordingPersister target = new RecordingPersister();
+		new SPBinaryMessageDecoder(target).decode(sender.getAllMessages());
+		
+		int i = 0;
+		assertEquals("begin", target.calls.get(i++));
+		assertEquals("persistObject null ca.sqlpower.Root root 0", target.calls.get(i++));
+		assertEquals("persistObject root ca.sqlpower.Child child 3", target.calls.get(i++));
+		assertEquals("begin", target.calls.get(i++));
+		assertEquals("persistProperty child name STRING String:caf\u00e9", target.calls.get(i++));
+		assertEquals("persistProperty child count INTEGER Integer:-42 Integer:1000000", target.calls.get(i++));
+		assertEquals("persistProperty child size LONG Long:" + Long.MAX_VALUE, target.calls.get(i++));
+		assertEquals("persistProperty child small SHORT Short:-3", target.calls.get(i++));
+		assertEquals("persistProperty child ratio DOUBLE Double:0.25", target.calls.get(i++));
+		assertEquals("persistProperty child scale FLOAT Float:1.5", target.calls.get(i++));
+		assertEquals("persistProperty child visible BOOLEAN Boolean:true Boolean:false", target.calls.get(i++));
+		assertEquals("persistProperty child target REFERENCE null String:root", target.calls.get(i++));
+		assertEquals("persistProperty child nothing NULL null", target.calls.get(i++));
+		assertEquals("persistProperty child image PNG_IMG bytes3", target.calls.get(i++));
+		assertEquals("commit", target.calls.get(i++));
+		assertEquals("removeObject root child", target.calls.get(i++));
+		assertEquals("commit", target.calls.get(i++));
+		assertEquals(i, target.calls.size());
+	}
+
+	/**
+	 * Each transaction is sent as its own message and the decoder must read
+	 * them all from one stream. Repeated strings are only written once per
+	 * message.
+	 */
+	public void testSeveralMessagesInOneStream() throws Exception {
+		String uuid = "0123456789abcdef0123456789abcdef";
+		for (int i = 0; i < 3; i++) {
+			persister.begin();
+			for (int j = 0; j < 10; j++) {
+				persister.persistProperty(uuid, "index", DataType.INTEGER, i, j);
+			}
+			persister.commit();
+		}
+		assertEquals(3, sender.messages.size());
+		// The UUID is written out in full once and each record is only a few bytes.
+		assertTrue(sender.messages.get(0).length < 2 * uuid.length() + 10 * 10);
+		
+		RecordingPersister target = new RecordingPersister();
+		new SPBinaryMessageDecoder(target).decode(new ByteArrayInputStream(sender.getAllMessages()));
+		assertEquals(3 * 12, target.calls.size());
+		assertEquals("persistProperty " + uuid + " index INTEGER Integer:2 Integer:9", 
+				target.calls.get(target.calls.size() - 2));
+	}
+	
+	public void testRollbackSendsNothing() throws Exception {
+		persister.begin();
+		persister.persistObject("root", "ca.sqlpower.Child", "child", 0);
+		persister.rollback();
+		assertTrue(sender.messages.isEmpty());
+		
+		try {
+			persister.persistObject("root", "ca.sqlpower.Child", "child", 0);
+			fail("Persist calls must be made in a transaction");
+		} catch (SPPersistenceException e) {
+			// expected
+		}
+	}
+	
+	public void testContentType() throws Exception {
+		assertTrue(SPBinaryMessageDecoder.isBinaryContentType(SPBinaryPersister.CONTENT_TYPE));
+		assertTrue(SPBinaryMessageDecoder.isBinaryContentType(
+				SPBinaryPersister.CONTENT_TYPE.toUpperCase() + "; charset=UTF-8"));
+		assertFalse(SPBinaryMessageDecoder.isBinaryContentType("application/json"));
+		assertFalse(SPBinaryMessageDecoder.isBinaryContentType(null));
+	}
+}
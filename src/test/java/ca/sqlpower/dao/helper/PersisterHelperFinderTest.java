@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.dao.helper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+import ca.sqlpower.dao.helper.SPPersisterHelperDispatchTest.BaseObject;
+import ca.sqlpower.dao.helper.SPPersisterHelperDispatchTest.DispatchObject;
+import ca.sqlpower.dao.helper.SPPersisterHelperDispatchTest.DispatchObjectHelper;
+import ca.sqlpower.dao.helper.generated.ConcurrentObjectPersisterHelper;
+import ca.sqlpower.dao.helper.generated.ReflectiveObjectPersisterHelper;
+import ca.sqlpower.object.SPObject;
+
+/**
+ * The helpers are cached for the life of the class loader, so each test uses
+ * object types that no other test looks up.
+ */
+public class PersisterHelperFinderTest extends TestCase {
+
+	/**
+	 * Has a helper in the generated package but is never registered.
+	 */
+	public static class ReflectiveObject extends BaseObject {
+	}
+	
+	/**
+	 * Has a helper in the generated package, looked up by many threads at once.
+	 */
+	public static class ConcurrentObject extends BaseObject {
+	}
+
+	/**
+	 * The registered helper is used even though there is no helper for the
+	 * class in the generated package.
+	 */
+	public void testRegisteredHelper() throws Exception {
+		DispatchObjectHelper helper = new DispatchObjectHelper();
+		assertSame(helper, PersisterHelperFinder.register(DispatchObject.class, helper));
+		
+		assertSame(helper, PersisterHelperFinder.findPersister(DispatchObject.class));
+		assertSame(helper, PersisterHelperFinder.findPersister(DispatchObject.class.getName()));
+		
+		// the first helper registered stays
+		assertSame(helper, PersisterHelperFinder.register(DispatchObject.class, new DispatchObjectHelper()));
+		assertSame(helper, PersisterHelperFinder.findPersister(DispatchObject.class));
+	}
+
+	/**
+	 * A type that was never registered has its helper loaded from the
+	 * generated package, once, and shared by both kinds of lookup.
+	 */
+	public void testUnregisteredTypeFallsBackToGeneratedHelper() throws Exception {
+		SPPersisterHelper<? extends SPObject> helper = PersisterHelperFinder.findPersister(ReflectiveObject.class);
+		assertEquals(ReflectiveObjectPersisterHelper.class, helper.getClass());
+		assertSame(helper, PersisterHelperFinder.findPersister(ReflectiveObject.class));
+		assertSame(helper, PersisterHelperFinder.findPersister(ReflectiveObject.class.getName()));
+	}
+	
+	public void testMissingHelper() throws Exception {
+		for (int i = 0; i < 2; i++) {
+			try {
+				PersisterHelperFinder.findPersister(BaseObject.class);
+				fail("There is no helper for " + BaseObject.class);
+			} catch (ClassNotFoundException e) {
+				// expected, every time
+			}
+		}
+	}
+
+	/**
+	 * Threads racing to look up a helper that has not been loaded yet, by
+	 * class or by name, all get the same instance.
+	 */
+	public void testConcurrentFirstLookupsShareOneHelper() throws Exception {
+		final int threads = 16;
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<SPPersisterHelper<? extends SPObject>>> results = 
+				new ArrayList<Future<SPPersisterHelper<? extends SPObject>>>();
+			for (int i = 0; i < threads; i++) {
+				final boolean byName = i % 2 == 0;
+				results.add(executor.submit(new Callable<SPPersisterHelper<? extends SPObject>>() {
+					public SPPersisterHelper<? extends SPObject> call() throws Exception {
+						start.await();
+						if (byName) {
+							return PersisterHelperFinder.findPersister(ConcurrentObject.class.getName());
+						} else {
+							return PersisterHelperFinder.findPersister(ConcurrentObject.class);
+						}
+					}
+				}));
+			}
+			start.countDown();
+			
+			SPPersisterHelper<? extends SPObject> first = results.get(0).get();
+			assertEquals(ConcurrentObjectPersisterHelper.class, first.getClass());
+			for (Future<SPPersisterHelper<? extends SPObject>> result : results) {
+				assertSame(first, result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
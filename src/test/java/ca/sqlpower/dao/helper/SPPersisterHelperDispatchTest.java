@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.dao.helper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import ca.sqlpower.dao.PersistedSPOProperty;
+import ca.sqlpower.dao.PersistedSPObject;
+import ca.sqlpower.dao.SPPersistenceException;
+import ca.sqlpower.dao.SPPersister;
+import ca.sqlpower.dao.SPPersister.DataType;
+import ca.sqlpower.dao.session.SessionPersisterSuperConverter;
+import ca.sqlpower.object.AbstractSPObject;
+import ca.sqlpower.object.SPObject;
+
+import com.google.common.collect.Multimap;
+
+/**
+ * Tests the property dispatch of persister helpers. The helpers here are
+ * written by hand in the same shape the annotation processor generates:
+ * commitProperty and findProperty switch on the hash code of the property
+ * name, compare names within the matching case, and pass anything they do
+ * not know on to the helper of the superclass.
+ */
+public class SPPersisterHelperDispatchTest extends TestCase {
+
+	/**
+	 * "ab" and "bC" have the same hash code, so the helpers have to compare
+	 * the names inside a single case.
+	 */
+	private static final String COLLIDING_A = "ab";
+	private static final String COLLIDING_B = "bC";
+	
+	public static abstract class BaseObject extends AbstractSPObject {
+		
+		private String label;
+		
+		public String getLabel() {
+			return label;
+		}
+		
+		public void setLabel(String label) {
+			this.label = label;
+		}
+		
+		public List<? extends SPObject> getChildren() {
+			return Collections.emptyList();
+		}
+		
+		public void removeDependency(SPObject dependency) {
+		}
+		
+		public List<? extends SPObject> getDependencies() {
+			return Collections.emptyList();
+		}
+		
+		public List<Class<? extends SPObject>> getAllowedChildTypes() {
+			return Collections.emptyList();
+		}
+		
+		@Override
+		protected boolean removeChildImpl(SPObject child) {
+			return false;
+		}
+	}
+	
+	public static class DispatchObject extends BaseObject {
+		
+		private String ab;
+		private String bC;
+		private Integer count;
+		
+		public String getAb() {
+			return ab;
+		}
+		
+		public void setAb(String ab) {
+			this.ab = ab;
+		}
+		
+		public String getBC() {
+			return bC;
+		}
+		
+		public void setBC(String bC) {
+			this.bC = bC;
+		}
+		
+		public Integer getCount() {
+			return count;
+		}
+		
+		public void setCount(Integer count) {
+			this.count = count;
+		}
+	}
+
+	/**
+	 * Shaped like the helper generated for an abstract class that has no
+	 * persistable superclass: unknown properties are an error.
+	 */
+	public static abstract class BaseObjectHelper<T extends BaseObject> extends AbstractSPPersisterHelper<T> {
+		
+		public void commitProperty(SPObject o, String propertyName, Object newValue, DataType dataType,
+				SessionPersisterSuperConverter converter) throws SPPersistenceException {
+			T castedObject = (T) o;
+			switch (propertyName.hashCode()) {
+			case 102727412:
+				if (propertyName.equals("label")) {
+					castedObject.setLabel((String) converter.convertToComplexType(newValue, String.class));
+					return;
+				}
+				break;
+			}
+			throw new SPPersistenceException(castedObject.getUUID(), 
+					createSPPersistenceExceptionMessage(castedObject, propertyName));
+		}
+		
+		public Object findProperty(SPObject o, String propertyName,
+				SessionPersisterSuperConverter converter) throws SPPersistenceException {
+			T castedObject = (T) o;
+			switch (propertyName.hashCode()) {
+			case 102727412:
+				if (propertyName.equals("label")) {
+					return converter.convertToBasicType(castedObject.getLabel());
+				}
+				break;
+			}
+			throw new SPPersistenceException(castedObject.getUUID(), 
+					createSPPersistenceExceptionMessage(castedObject, propertyName));
+		}
+		
+		public List<String> getPersistedProperties() throws SPPersistenceException {
+			List<String> persistedProperties = new ArrayList<String>();
+			persistedProperties.add("label");
+			return persistedProperties;
+		}
+		
+		public void persistObjectProperties(SPObject o, SPPersister persister,
+				SessionPersisterSuperConverter converter, List<String> preProcessedProperties)
+				throws SPPersistenceException {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Shaped like the helper generated for a concrete class whose superclass
+	 * has a helper: unknown properties are passed on to the superclass helper.
+	 */
+	public static class DispatchObjectHelper extends BaseObjectHelper<DispatchObject> {
+		
+		@Override
+		public void commitProperty(SPObject o, String propertyName, Object newValue, DataType dataType,
+				SessionPersisterSuperConverter converter) throws SPPersistenceException {
+			DispatchObject castedObject = (DispatchObject) o;
+			switch (propertyName.hashCode()) {
+			case 3105:
+				if (propertyName.equals("ab")) {
+					castedObject.setAb((String) converter.convertToComplexType(newValue, String.class));
+					return;
+				}
+				if (propertyName.equals("bC")) {
+					castedObject.setBC((String) converter.convertToComplexType(newValue, String.class));
+					return;
+				}
+				break;
+			case 94851343:
+				if (propertyName.equals("count")) {
+					castedObject.setCount((Integer) converter.convertToComplexType(newValue, Integer.class));
+					return;
+				}
+				break;
+			}
+			super.commitProperty(o, propertyName, newValue, dataType, converter);
+		}
+		
+		@Override
+		public Object findProperty(SPObject o, String propertyName,
+				SessionPersisterSuperConverter converter) throws SPPersistenceException {
+			DispatchObject castedObject = (DispatchObject) o;
+			switch (propertyName.hashCode()) {
+			case 3105:
+				if (propertyName.equals("ab")) {
+					return converter.convertToBasicType(castedObject.getAb());
+				}
+				if (propertyName.equals("bC")) {
+					return converter.convertToBasicType(castedObject.getBC());
+				}
+				break;
+			case 94851343:
+				if (propertyName.equals("count")) {
+					return converter.convertToBasicType(castedObject.getCount());
+				}
+				break;
+			}
+			return super.findProperty(o, propertyName, converter);
+		}
+		
+		@Override
+		public List<String> getPersistedProperties() throws SPPersistenceException {
+			List<String> persistedProperties = new ArrayList<String>();
+			persistedProperties.add("ab");
+			persistedProperties.add("bC");
+			persistedProperties.add("count");
+			persistedProperties.addAll(super.getPersistedProperties());
+			return persistedProperties;
+		}
+		
+		public DispatchObject commitObject(PersistedSPObject pso, Multimap<String, PersistedSPOProperty> persistedProperties,
+				List<PersistedSPObject> persistedObjects, SessionPersisterSuperConverter converter)
+				throws SPPersistenceException {
+			throw new UnsupportedOperationException();
+		}
+		
+		public void persistObject(SPObject o, int index, SPPersister persister,
+				SessionPersisterSuperConverter converter) throws SPPersistenceException {
+			throw new UnsupportedOperationException();
+		}
+	}
+	
+	private DispatchObject object;
+	private DispatchObjectHelper helper;
+	private SessionPersisterSuperConverter converter;
+	
+	@Override
+	protected void setUp() throws Exception {
+		object = new DispatchObject();
+		helper = new DispatchObjectHelper();
+		converter = new SessionPersisterSuperConverter(null, object);
+	}
+
+	/**
+	 * The hash codes in the hand-written helpers must be the ones the
+	 * annotation processor would compute.
+	 */
+	public void testHashCodes() throws Exception {
+		assertEquals(COLLIDING_A.hashCode(), COLLIDING_B.hashCode());
+		assertEquals(3105, COLLIDING_A.hashCode());
+		assertEquals(94851343, "count".hashCode());
+		assertEquals(102727412, "label".hashCode());
+	}
+	
+	public void testKnownProperties() throws Exception {
+		helper.commitProperty(object, COLLIDING_A, "first", DataType.STRING, converter);
+		helper.commitProperty(object, COLLIDING_B, "second", DataType.STRING, converter);
+		helper.commitProperty(object, "count", 3, DataType.INTEGER, converter);
+		
+		assertEquals("first", object.getAb());
+		assertEquals("second", object.getBC());
+		assertEquals(Integer.valueOf(3), object.getCount());
+		assertEquals("first", helper.findProperty(object, COLLIDING_A, converter));
+		assertEquals("second", helper.findProperty(object, COLLIDING_B, converter));
+		assertEquals(3, helper.findProperty(object, "count", converter));
+	}
+	
+	public void testInheritedProperty() throws Exception {
+		helper.commitProperty(object, "label", "inherited", DataType.STRING, converter);
+		assertEquals("inherited", object.getLabel());
+		assertEquals("inherited", helper.findProperty(object, "label", converter));
+	}
+
+	/**
+	 * A property that is not in any helper, including one whose hash code
+	 * matches a case of the switch, falls through to the exception.
+	 */
+	public void testUnknownProperty() throws Exception {
+		// "c$" has the same hash code as "ab" and "bC"
+		assertEquals(COLLIDING_A.hashCode(), "c$".hashCode());
+		for (String unknown : new String[] { "unknown", "c$", "AB" }) {
+			try {
+				helper.commitProperty(object, unknown, "value", DataType.STRING, converter);
+				fail("Committing " + unknown + " should fail");
+			} catch (SPPersistenceException e) {
+				// expected
+			}
+			try {
+				helper.findProperty(object, unknown, converter);
+				fail("Finding " + unknown + " should fail");
+			} catch (SPPersistenceException e) {
+				// expected
+			}
+		}
+		assertNull(object.getAb());
+		assertNull(object.getBC());
+	}
+	
+	public void testIsPersistedProperty() throws Exception {
+		assertTrue(helper.isPersistedProperty(COLLIDING_A));
+		assertTrue(helper.isPersistedProperty(COLLIDING_B));
+		assertTrue(helper.isPersistedProperty("count"));
+		assertTrue(helper.isPersistedProperty("label"));
+		assertFalse(helper.isPersistedProperty("unknown"));
+		assertEquals(4, helper.getPersistedProperties().size());
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.dao.helper.generated;
+
+import java.util.List;
+
+import ca.sqlpower.dao.PersistedSPOProperty;
+import ca.sqlpower.dao.PersistedSPObject;
+import ca.sqlpower.dao.SPPersistenceException;
+import ca.sqlpower.dao.SPPersister;
+import ca.sqlpower.dao.helper.PersisterHelperFinderTest.ConcurrentObject;
+import ca.sqlpower.dao.helper.SPPersisterHelperDispatchTest.BaseObjectHelper;
+import ca.sqlpower.dao.session.SessionPersisterSuperConverter;
+import ca.sqlpower.object.SPObject;
+
+import com.google.common.collect.Multimap;
+
+/**
+ * Stands in for a generated helper so {@link ca.sqlpower.dao.helper.PersisterHelperFinder}
+ * can find it by name.
+ */
+public class ConcurrentObjectPersisterHelper extends BaseObjectHelper<ConcurrentObject> {
+
+	public ConcurrentObject commitObject(PersistedSPObject pso, Multimap<String, PersistedSPOProperty> persistedProperties,
+			List<PersistedSPObject> persistedObjects, SessionPersisterSuperConverter converter)
+			throws SPPersistenceException {
+		throw new UnsupportedOperationException();
+	}
+
+	public void persistObject(SPObject o, int index, SPPersister persister,
+			SessionPersisterSuperConverter converter) throws SPPersistenceException {
+		throw new UnsupportedOperationException();
+	}
+}
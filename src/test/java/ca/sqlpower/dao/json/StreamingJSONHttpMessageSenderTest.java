@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.dao.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import ca.sqlpower.dao.SPPersistenceException;
+import ca.sqlpower.enterprise.client.SPServerInfo;
+import ca.sqlpower.util.SQLPowerUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class StreamingJSONHttpMessageSenderTest extends TestCase {
+
+	private HttpServer server;
+
+	/**
+	 * The decompressed body of each request the server received.
+	 */
+	private final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+	
+	private int responseCode = 200;
+	
+	private StreamingJSONHttpMessageSender sender;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				ByteArrayOutputStream raw = new ByteArrayOutputStream();
+				SQLPowerUtils.copyStream(exchange.getRequestBody(), raw);
+				InputStream in = new ByteArrayInputStream(raw.toByteArray());
+				if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+					in = new GZIPInputStream(in);
+				}
+				ByteArrayOutputStream body = new ByteArrayOutputStream();
+				SQLPowerUtils.copyStream(in, body);
+				bodies.add(body.toString("UTF-8"));
+				exchange.sendResponseHeaders(responseCode, -1);
+				exchange.close();
+			}
+		});
+		server.start();
+		SPServerInfo serverInfo = new SPServerInfo("test", "localhost", 
+				server.getAddress().getPort(), "/", "user", "password");
+		sender = new StreamingJSONHttpMessageSender(new DefaultHttpClient(), serverInfo, 
+				"root", 64, 2);
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		server.stop(0);
+		super.tearDown();
+	}
+	
+	private JSONObject message(int i) throws Exception {
+		JSONObject json = new JSONObject();
+		json.put("uuid", "uuid" + i);
+		json.put("index", i);
+		return json;
+	}
+
+	/**
+	 * Messages larger than the client side buffer must all arrive, in order,
+	 * and each flush must be its own request.
+	 */
+	public void testMessagesStreamedInOrder() throws Exception {
+		for (int i = 0; i < 200; i++) {
+			sender.send(message(i));
+		}
+		sender.flush();
+		sender.send(message(200));
+		sender.flush();
+		
+		assertEquals(2, bodies.size());
+		JSONArray first = new JSONArray(bodies.get(0));
+		assertEquals(200, first.length());
+		for (int i = 0; i < 200; i++) {
+			assertEquals(i, first.getJSONObject(i).getInt("index"));
+		}
+		assertEquals(200, new JSONArray(bodies.get(1)).getJSONObject(0).getInt("index"));
+		
+		assertEquals(2, sender.getRequestCount());
+		assertTrue(sender.getBytesSent() > 0);
+		assertTrue(sender.getCompressionRatio() < 1);
+		assertTrue(sender.getMaxBufferedBytes() < 1000);
+	}
+	
+	public void testUncompressed() throws Exception {
+		sender.setCompressing(false);
+		sender.send(message(1));
+		sender.flush();
+		assertEquals(1, new JSONArray(bodies.get(0)).length());
+		assertEquals(sender.getBytesEncoded(), sender.getBytesSent());
+	}
+	
+	public void testErrorResponseThrownFromFlush() throws Exception {
+		responseCode = 500;
+		sender.send(message(1));
+		try {
+			sender.flush();
+			fail("The server error should be reported");
+		} catch (SPPersistenceException e) {
+			// expected
+		}
+		assertEquals(0, sender.getRequestCount());
+		
+		responseCode = 200;
+		sender.send(message(2));
+		sender.flush();
+		assertEquals(1, sender.getRequestCount());
+	}
+	
+	public void testClearDropsMessages() throws Exception {
+		sender.send(message(1));
+		sender.clear();
+		sender.send(message(2));
+		sender.flush();
+		JSONArray last = new JSONArray(bodies.get(bodies.size() - 1));
+		assertEquals(1, last.length());
+		assertEquals(2, last.getJSONObject(0).getInt("index"));
+	}
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.enterprise;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.json.JSONArray;
+import org.json.JSONTokener;
+
+import ca.sqlpower.dao.json.SPJSONMessageDecoder;
+import ca.sqlpower.enterprise.client.ProjectLocation;
+import ca.sqlpower.enterprise.client.SPServerInfo;
+import ca.sqlpower.object.SPObject;
+import ca.sqlpower.util.DefaultUserPrompterFactory;
+import ca.sqlpower.util.RunnableDispatcher;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs a resolver against a stub server that answers requests for updates
+ * the way each test needs.
+ */
+public class AbstractNetworkConflictResolverTest extends TestCase {
+
+	private static final String SERVER_PATH = "/server";
+	
+	private static final String PROJECT_PATH = SERVER_PATH + "/" + ClientSideSessionUtils.REST_TAG + "/project/test";
+	
+	private static final String STREAM_PATH = PROJECT_PATH + "/updates";
+	
+	/**
+	 * A resolver that applies updates on the thread that asks for them and
+	 * does not decode the persist calls in them.
+	 */
+	private static class StubResolver extends AbstractNetworkConflictResolver {
+
+		StubResolver(ProjectLocation location) {
+			super(location, new SPJSONMessageDecoder(null) {
+				@Override
+				public void decode(JSONArray json) {
+					// the updates hold no persist calls
+				}
+				@Override
+				public void decode(JSONTokener tokener) {
+					// the updates hold no persist calls
+				}
+			}, new DefaultHttpClient(), new DefaultHttpClient(), new RunnableDispatcher() {
+				public void runInForeground(Runnable runner) {
+					runner.run();
+				}
+				public void runInBackground(Runnable runner) {
+					runner.run();
+				}
+				public boolean isForegroundThread() {
+					return true;
+				}
+			});
+			setUserPrompterFactory(new DefaultUserPrompterFactory());
+		}
+
+		@Override
+		protected void flush(boolean reflush) {
+			// nothing is sent to the server
+		}
+
+		@Override
+		protected List<ConflictMessage> detectConflicts() {
+			return null;
+		}
+
+		@Override
+		protected SPObject getWorkspace() {
+			return null;
+		}
+	}
+	
+	private HttpServer server;
+	
+	private ExecutorService serverExecutor;
+	
+	private StubResolver resolver;
+	
+	/**
+	 * Counted down when the test ends so the stub server stops holding
+	 * requests open.
+	 */
+	private final CountDownLatch testFinished = new CountDownLatch(1);
+	
+	/**
+	 * The revision the resolver asked for in each request for an update
+	 * stream, in order.
+	 */
+	private final List<Integer> streamRequests = new CopyOnWriteArrayList<Integer>();
+	
+	/**
+	 * The revision the resolver asked for in each request for a single
+	 * update, in order.
+	 */
+	private final List<Integer> pollRequests = new CopyOnWriteArrayList<Integer>();
+	
+	/**
+	 * The value of {@link System#currentTimeMillis()} at each request for a
+	 * single update, in order.
+	 */
+	private final List<Long> pollTimes = new CopyOnWriteArrayList<Long>();
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		serverExecutor = Executors.newCachedThreadPool();
+		server.setExecutor(serverExecutor);
+		server.start();
+		SPServerInfo serverInfo = new SPServerInfo("test", "localhost", server.getAddress().getPort(), SERVER_PATH, "user", "password");
+		resolver = new StubResolver(new ProjectLocation("test", "test", serverInfo));
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		resolver.interrupt();
+		testFinished.countDown();
+		resolver.join(5000);
+		server.stop(0);
+		serverExecutor.shutdownNow();
+		super.tearDown();
+	}
+	
+	private static int requestedRevision(HttpExchange exchange) {
+		String query = exchange.getRequestURI().getQuery();
+		String value = query.substring(query.indexOf("oldRevisionNo=") + "oldRevisionNo=".length());
+		if (value.indexOf('&') >= 0) {
+			value = value.substring(0, value.indexOf('&'));
+		}
+		return Integer.parseInt(value);
+	}
+	
+	private static String revision(int previous, int current) {
+		return "{\"previousRevision\": " + previous + ", \"currentRevision\": " + current + 
+				", \"serverTimestamp\": 1, \"data\": []}\n";
+	}
+	
+	private static void respond(HttpExchange exchange, int status, String responseKind, String data) throws IOException {
+		byte[] body = ("{\"responseKind\": \"" + responseKind + "\", \"data\": \"" + data + "\"}").getBytes("UTF-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+		exchange.close();
+	}
+
+	/**
+	 * Sends the given revisions on an update stream and holds the stream open
+	 * until the test ends.
+	 */
+	private void stream(HttpExchange exchange, String ... revisions) throws IOException {
+		exchange.sendResponseHeaders(200, 0);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			for (String revision : revisions) {
+				out.write(revision.getBytes("UTF-8"));
+			}
+			out.flush();
+			testFinished.await(10, TimeUnit.SECONDS);
+			out.close();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (IOException e) {
+			// the resolver closed the stream
+		}
+		exchange.close();
+	}
+
+	/**
+	 * Holds a request open until the test ends, as a server does when there
+	 * is no newer revision yet.
+	 */
+	private void hold(HttpExchange exchange) throws IOException {
+		try {
+			testFinished.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		exchange.close();
+	}
+	
+	private void waitForRevision(int revision) throws InterruptedException {
+		long end = System.currentTimeMillis() + 10000;
+		while (resolver.getRevision() < revision && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertEquals(revision, resolver.getRevision());
+	}
+	
+	private void waitForPolls(int count) throws InterruptedException {
+		long end = System.currentTimeMillis() + 10000;
+		while (pollTimes.size() < count && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertTrue("Only " + pollTimes.size() + " requests arrived", pollTimes.size() >= count);
+	}
+	
+	public void testServerWithoutStreamingIsPolled() throws Exception {
+		server.createContext(STREAM_PATH, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				streamRequests.add(requestedRevision(exchange));
+				exchange.sendResponseHeaders(404, -1);
+				exchange.close();
+			}
+		});
+		server.createContext(PROJECT_PATH, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				int revision = requestedRevision(exchange);
+				pollRequests.add(revision);
+				if (revision == 0) {
+					respond(exchange, 200, "data", 
+							"{\\\"currentRevision\\\": 1, \\\"serverTimestamp\\\": 1, \\\"data\\\": \\\"[]\\\"}");
+				} else {
+					hold(exchange);
+				}
+			}
+		});
+		resolver.start();
+		
+		waitForRevision(1);
+		assertFalse(resolver.streamingUpdates);
+		assertEquals(1, streamRequests.size());
+		assertEquals(0, pollRequests.get(0).intValue());
+	}
+	
+	public void testStreamReopenedWhenUpdateArrivesWhilePosting() throws Exception {
+		server.createContext(STREAM_PATH, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				streamRequests.add(requestedRevision(exchange));
+				if (streamRequests.size() == 2) {
+					// the changes have been sent by the time the stream is reopened
+					resolver.postingJSON.set(false);
+				}
+				stream(exchange, revision(resolver.getRevision(), resolver.getRevision() + 1));
+			}
+		});
+		resolver.postingJSON.set(true);
+		resolver.start();
+		
+		waitForRevision(1);
+		assertEquals(0, streamRequests.get(0).intValue());
+		assertEquals(0, streamRequests.get(1).intValue());
+		assertEquals(1, resolver.getUpdatesApplied());
+	}
+	
+	public void testStreamReopenedOnRevisionGap() throws Exception {
+		server.createContext(STREAM_PATH, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				streamRequests.add(requestedRevision(exchange));
+				if (streamRequests.size() == 1) {
+					// revision 1 went missing
+					stream(exchange, revision(1, 2));
+				} else {
+					stream(exchange, revision(0, 1), revision(1, 2));
+				}
+			}
+		});
+		resolver.start();
+		
+		waitForRevision(2);
+		assertEquals(0, streamRequests.get(0).intValue());
+		assertEquals(0, streamRequests.get(1).intValue());
+		assertEquals(2, resolver.getUpdatesApplied());
+	}
+	
+	public void testRetriesBackOffUntilUpdateApplied() throws Exception {
+		resolver.retryDelay = 200;
+		resolver.maxRetryDelay = 1600;
+		server.createContext(STREAM_PATH, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				streamRequests.add(requestedRevision(exchange));
+				exchange.sendResponseHeaders(404, -1);
+				exchange.close();
+			}
+		});
+		server.createContext(PROJECT_PATH, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				pollTimes.add(System.currentTimeMillis());
+				int count = pollTimes.size();
+				if (count == 4) {
+					respond(exchange, 200, "data", 
+							"{\\\"currentRevision\\\": 1, \\\"serverTimestamp\\\": 1, \\\"data\\\": \\\"[]\\\"}");
+				} else if (count < 6) {
+					respond(exchange, 412, "unsuccessful", "Precondition failed");
+				} else {
+					hold(exchange);
+				}
+			}
+		});
+		resolver.start();
+		
+		waitForPolls(6);
+		assertEquals(1, resolver.getRevision());
+		// each wait is between half and all of the current delay
+		assertTrue(pollTimes.get(1) - pollTimes.get(0) >= 100);
+		assertTrue(pollTimes.get(2) - pollTimes.get(1) >= 200);
+		assertTrue(pollTimes.get(3) - pollTimes.get(2) >= 400);
+		// the update was applied right away and then the delay started over
+		assertTrue(pollTimes.get(4) - pollTimes.get(3) < 400);
+		long afterSuccess = pollTimes.get(5) - pollTimes.get(4);
+		assertTrue("Waited " + afterSuccess + " ms", afterSuccess >= 100 && afterSuccess < 800);
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.enterprise;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.http.impl.client.DefaultHttpClient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ServerUpdateStreamTest extends TestCase {
+
+	private HttpServer server;
+	
+	private DefaultHttpClient client;
+	
+	/**
+	 * Counted down by the test once it has read the first revision, which
+	 * lets the server send the second one.
+	 */
+	private final CountDownLatch firstRevisionRead = new CountDownLatch(1);
+	
+	private volatile String acceptHeader;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/updates", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				acceptHeader = exchange.getRequestHeaders().getFirst("Accept");
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream out = exchange.getResponseBody();
+				out.write(("{\"previousRevision\": 0, \"currentRevision\": 1, \"serverTimestamp\": 99, " +
+						"\"data\": [{\"method\": \"begin\", \"uuid\": null}, {\"method\": \"commit\", \"uuid\": null}]}\n")
+						.getBytes("UTF-8"));
+				out.flush();
+				try {
+					firstRevisionRead.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				// keep alive, then the next revision
+				out.write("\n  \n".getBytes("UTF-8"));
+				out.flush();
+				out.write(("{\"previousRevision\": 1, \"currentRevision\": 2, \"serverTimestamp\": 99, \"data\": []}")
+						.getBytes("UTF-8"));
+				out.close();
+				exchange.close();
+			}
+		});
+		server.start();
+		client = new DefaultHttpClient();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		client.getConnectionManager().shutdown();
+		server.stop(0);
+		super.tearDown();
+	}
+	
+	private URI uri(String path) throws Exception {
+		return new URI("http://localhost:" + server.getAddress().getPort() + path);
+	}
+	
+	public void testRevisionsReadAsTheyArrive() throws Exception {
+		ServerUpdateStream stream = new ServerUpdateStream(client, uri("/updates?oldRevisionNo=0"));
+		assertNull(stream.open());
+		assertEquals(ServerUpdateStream.CONTENT_TYPE, acceptHeader);
+		
+		// the server does not send the second revision until this one is read
+		ServerUpdateStream.Update update = stream.next();
+		assertEquals(0, update.getPreviousRevision());
+		assertEquals(1, update.getCurrentRevision());
+		assertEquals(99, update.getServerTimestamp());
+		assertEquals(2, update.getPersistCalls().length());
+		assertEquals("begin", update.getPersistCalls().getJSONObject(0).getString("method"));
+		firstRevisionRead.countDown();
+		
+		update = stream.next();
+		assertEquals(2, update.getCurrentRevision());
+		assertEquals(0, update.getPersistCalls().length());
+		
+		assertNull(stream.next());
+		stream.close();
+	}
+	
+	public void testServerWithoutStreaming() throws Exception {
+		ServerUpdateStream stream = new ServerUpdateStream(client, uri("/missing"));
+		JSONMessage response = stream.open();
+		assertNotNull(response);
+		assertEquals(404, response.getStatusCode());
+	}
+	
+	public void testCloseEndsBlockedRead() throws Exception {
+		final ServerUpdateStream stream = new ServerUpdateStream(client, uri("/updates"));
+		assertNull(stream.open());
+		assertEquals(1, stream.next().getCurrentRevision());
+		
+		Thread closer = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					// close right away
+				}
+				stream.close();
+			}
+		};
+		closer.start();
+		// the server is waiting for the latch, so this blocks until closed
+		assertNull(stream.next());
+		firstRevisionRead.countDown();
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.graph;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import junit.framework.TestCase;
+
+public class BreadthFirstSearchTest extends TestCase {
+
+	public void testDiscoveryOrder() throws Exception {
+		TestingGraphModel graph = new TestingGraphModel();
+		graph.addEdge("a", "b", 1);
+		graph.addEdge("a", "c", 1);
+		graph.addEdge("b", "d", 1);
+		graph.addEdge("c", "d", 1);
+		graph.addEdge("d", "a", 1);
+		graph.addNode("unreachable");
+		
+		BreadthFirstSearch<String, Object> bfs = new BreadthFirstSearch<String, Object>();
+		assertEquals(Arrays.asList("a", "b", "c", "d"), bfs.performSearch(graph, "a"));
+	}
+
+	/**
+	 * A search can start from a node the model does not list among its
+	 * nodes, in which case it carries on from the nodes the model says the
+	 * starting node is adjacent to.
+	 */
+	public void testStartingNodeOutsideModel() throws Exception {
+		final TestingGraphModel graph = new TestingGraphModel();
+		graph.addEdge("b", "c", 1);
+		graph.addNode("d");
+		GraphModel<String, Object> model = new GraphModel<String, Object>() {
+			public Collection<String> getAdjacentNodes(String node) {
+				if (node.equals("outside")) {
+					return Arrays.asList("b", "alsoOutside");
+				}
+				return graph.getAdjacentNodes(node);
+			}
+			public Collection<Object> getEdges() {
+				return graph.getEdges();
+			}
+			public Collection<Object> getInboundEdges(String node) {
+				return graph.getInboundEdges(node);
+			}
+			public Collection<String> getNodes() {
+				return graph.getNodes();
+			}
+			public Collection<Object> getOutboundEdges(String node) {
+				return graph.getOutboundEdges(node);
+			}
+		};
+		
+		BreadthFirstSearch<String, Object> bfs = new BreadthFirstSearch<String, Object>();
+		assertEquals(Arrays.asList("outside", "b", "c"), bfs.performSearch(model, "outside"));
+	}
+}
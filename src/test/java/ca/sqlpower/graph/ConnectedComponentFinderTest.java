@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.graph;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class ConnectedComponentFinderTest extends TestCase {
+
+	private static <T> Set<T> set(T ... items) {
+		return new HashSet<T>(Arrays.asList(items));
+	}
+	
+	public void testUndirectedGraphIsPartitioned() throws Exception {
+		TestingGraphModel graph = new TestingGraphModel();
+		graph.addUndirectedEdge("a", "b");
+		graph.addUndirectedEdge("b", "c");
+		graph.addUndirectedEdge("d", "e");
+		graph.addNode("f");
+		
+		Set<Set<String>> components = new ConnectedComponentFinder<String, Object>().findConnectedComponents(graph);
+		assertEquals(set(set("a", "b", "c"), set("d", "e"), set("f")), components);
+	}
+
+	/**
+	 * In a directed graph each search finds everything reachable from its
+	 * starting node, even nodes an earlier search already found, so the
+	 * components can overlap.
+	 */
+	public void testDirectedComponentsCanOverlap() throws Exception {
+		TestingGraphModel graph = new TestingGraphModel();
+		graph.addEdge("a", "c", 1);
+		graph.addEdge("b", "c", 1);
+		
+		Set<Set<String>> components = new ConnectedComponentFinder<String, Object>().findConnectedComponents(graph);
+		assertEquals(set(set("a", "c"), set("b", "c")), components);
+	}
+	
+	public void testLongChain() throws Exception {
+		TestingGraphModel graph = new TestingGraphModel();
+		for (int i = 0; i < 50000; i++) {
+			graph.addEdge("n" + i, "n" + (i + 1), 1);
+		}
+		Set<Set<String>> components = new ConnectedComponentFinder<String, Object>().findConnectedComponents(graph);
+		assertEquals(1, components.size());
+		assertEquals(50001, components.iterator().next().size());
+	}
+}
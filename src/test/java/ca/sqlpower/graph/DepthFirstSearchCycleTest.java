@@ -219,4 +219,22 @@ public class DepthFirstSearchCycleTest extends TestCase{
 		assertEquals(true, dfs.isCyclic());
 	}
 
+	/**
+	 * The search keeps its path on a stack of its own, so a chain far longer
+	 * than the call stack could hold is searched without trouble, with the
+	 * same times and predecessors as the recursive search gave.
+	 */
+	public void testLongChain() {
+		TestingGraphModel graph = new TestingGraphModel();
+		for (int i = 0; i < 50000; i++) {
+			graph.addEdge("n" + i, "n" + (i + 1), 1);
+		}
+		DepthFirstSearch<String, Object> dfs = new DepthFirstSearch<String, Object>();
+		dfs.performSearch(graph);
+		assertFalse(dfs.isCyclic());
+		assertEquals("n0", dfs.getFinishOrder().get(0));
+		assertEquals("n0", dfs.getPredecessor("n1"));
+		assertEquals(1, dfs.getDiscoveryTime("n0"));
+		assertEquals(100002, dfs.getFinishTime("n0"));
+	}
 }
\ No newline at end of file
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.graph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class DijkstrasAlgorithmTest extends TestCase {
+
+	/**
+	 * Follows the pi map back from the given node to the start.
+	 */
+	private List<String> path(Map<String, String> pi, String node) {
+		List<String> path = new ArrayList<String>();
+		while (node != null) {
+			path.add(0, node);
+			node = pi.get(node);
+		}
+		return path;
+	}
+	
+	public void testUsesEdgeWeights() throws Exception {
+		TestingGraphModel graph = new TestingGraphModel();
+		graph.addEdge("a", "b", 10);
+		graph.addEdge("a", "c", 1);
+		graph.addEdge("c", "d", 1);
+		graph.addEdge("d", "b", 1);
+		graph.addNode("unreachable");
+		
+		DijkstrasAlgorithm<String, Object> dijkstra = new DijkstrasAlgorithm<String, Object>();
+		Map<String, String> pi = dijkstra.calculateShortestPaths(graph, "a");
+		
+		assertEquals("[a, c, d, b]", path(pi, "b").toString());
+		assertEquals(3.0, dijkstra.getDistance("b"));
+		assertFalse(pi.containsKey("a"));
+		assertFalse(pi.containsKey("unreachable"));
+		assertTrue(Double.isInfinite(dijkstra.getDistance("unreachable")));
+	}
+	
+	public void testUnweightedGraphCountsEdges() throws Exception {
+		final TestingGraphModel weighted = new TestingGraphModel();
+		weighted.addEdge("a", "b", 10);
+		weighted.addEdge("b", "c", 10);
+		weighted.addEdge("a", "c", 100);
+		GraphModel<String, Object> unweighted = new GraphModel<String, Object>() {
+			public Collection<String> getAdjacentNodes(String node) {
+				return weighted.getAdjacentNodes(node);
+			}
+			public Collection<Object> getEdges() {
+				return weighted.getEdges();
+			}
+			public Collection<Object> getInboundEdges(String node) {
+				return weighted.getInboundEdges(node);
+			}
+			public Collection<String> getNodes() {
+				return weighted.getNodes();
+			}
+			public Collection<Object> getOutboundEdges(String node) {
+				return weighted.getOutboundEdges(node);
+			}
+		};
+		
+		DijkstrasAlgorithm<String, Object> dijkstra = new DijkstrasAlgorithm<String, Object>();
+		Map<String, String> pi = dijkstra.calculateShortestPaths(unweighted, "a");
+		assertEquals("a", pi.get("c"));
+		assertEquals(1.0, dijkstra.getDistance("c"));
+	}
+	
+	public void testNegativeWeight() throws Exception {
+		TestingGraphModel graph = new TestingGraphModel();
+		graph.addEdge("a", "b", -1);
+		try {
+			new DijkstrasAlgorithm<String, Object>().calculateShortestPaths(graph, "a");
+			fail("Negative edge weights are not allowed");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+	public void testLongChain() throws Exception {
+		TestingGraphModel graph = new TestingGraphModel();
+		for (int i = 0; i < 50000; i++) {
+			graph.addEdge("n" + i, "n" + (i + 1), 1);
+		}
+		DijkstrasAlgorithm<String, Object> dijkstra = new DijkstrasAlgorithm<String, Object>();
+		Map<String, String> pi = dijkstra.calculateShortestPaths(graph, "n0");
+		assertEquals(50000, pi.size());
+		assertEquals(50000.0, dijkstra.getDistance("n50000"));
+	}
+}
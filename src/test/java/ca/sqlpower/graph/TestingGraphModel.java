@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.graph;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A graph of strings for testing the graph algorithms. Nodes and their
+ * adjacent nodes are kept in the order they were added, and edges have a
+ * weight. The edge objects themselves are not used by the algorithms.
+ */
+public class TestingGraphModel implements WeightedGraphModel<String, Object> {
+	
+	private final Map<String, Map<String, Double>> adjacency = new LinkedHashMap<String, Map<String, Double>>();
+	
+	public void addNode(String node) {
+		if (!adjacency.containsKey(node)) {
+			adjacency.put(node, new LinkedHashMap<String, Double>());
+		}
+	}
+	
+	public void addEdge(String from, String to, double weight) {
+		addNode(from);
+		addNode(to);
+		adjacency.get(from).put(to, weight);
+	}
+
+	/**
+	 * Adds an edge of weight 1 in each direction between the given nodes.
+	 */
+	public void addUndirectedEdge(String a, String b) {
+		addEdge(a, b, 1);
+		addEdge(b, a, 1);
+	}
+
+	public double getEdgeWeight(String from, String to) {
+		return adjacency.get(from).get(to);
+	}
+
+	public Collection<String> getAdjacentNodes(String node) {
+		Map<String, Double> adjacent = adjacency.get(node);
+		if (adjacent == null) return Collections.emptyList();
+		return adjacent.keySet();
+	}
+
+	public Collection<Object> getEdges() {
+		return Collections.emptyList();
+	}
+
+	public Collection<Object> getInboundEdges(String node) {
+		return Collections.emptyList();
+	}
+
+	public Collection<String> getNodes() {
+		return adjacency.keySet();
+	}
+
+	public Collection<Object> getOutboundEdges(String node) {
+		return Collections.emptyList();
+	}
+}
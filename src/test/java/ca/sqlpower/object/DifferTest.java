@@ -580,4 +580,103 @@ public static class DiffTestClass2 extends AbstractSPObject {
 		assertEquals("4", nameProperty.getUUID());
 		assertEquals("A1", nameProperty.getNewValue());
 	}
+	
+	/**
+	 * Moving a child to the other end of a long list should only remove and
+	 * add the moved children, not the ones they were moved past.
+	 */
+	public void testReorderOnlyMovesDisplacedChildren() throws Exception {
+		List<PersistedSPObject> oldList = new ArrayList<PersistedSPObject>();
+		oldList.add(new PersistedSPObject(null, DiffTestClass.class.getName(), "1", 0));
+		List<String> order = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++) {
+			oldList.add(new PersistedSPObject("1", DiffTestClass.class.getName(), "c" + i, i));
+			order.add("c" + i);
+		}
+		order.add(0, order.remove(999));
+		order.add(order.remove(11));
+		List<PersistedSPObject> newList = new ArrayList<PersistedSPObject>();
+		newList.add(new PersistedSPObject(null, DiffTestClass.class.getName(), "1", 0));
+		for (int i = 0; i < order.size(); i++) {
+			newList.add(new PersistedSPObject("1", DiffTestClass.class.getName(), order.get(i), i));
+		}
+		diff.calcDiff(oldList, newList, 
+				new ArrayList<PersistedSPOProperty>(), new ArrayList<PersistedSPOProperty>());
+		
+		assertEquals(2, diff.getPersistedSPOsToRemove().size());
+		assertEquals("c10", diff.getPersistedSPOsToRemove().get(0).getUUID());
+		assertEquals("c999", diff.getPersistedSPOsToRemove().get(1).getUUID());
+		assertEquals(2, diff.getPersistedSPOsToAdd().size());
+		assertEquals("c999", diff.getPersistedSPOsToAdd().get(0).getUUID());
+		assertEquals(0, diff.getPersistedSPOsToAdd().get(0).getIndex());
+		assertEquals("c10", diff.getPersistedSPOsToAdd().get(1).getUUID());
+		assertEquals(999, diff.getPersistedSPOsToAdd().get(1).getIndex());
+	}
+	
+	/**
+	 * Omitting a new root object drops it from the objects to add and moves
+	 * its children under the replacement root exactly once.
+	 */
+	public void testOmitRootObjectReparentsChildren() throws Exception {
+		List<PersistedSPObject> newList = new ArrayList<PersistedSPObject>();
+		newList.add(new PersistedSPObject("workspace", DiffTestClass.class.getName(), "root", 0));
+		newList.add(new PersistedSPObject("root", DiffTestClass.class.getName(), "a", 0));
+		newList.add(new PersistedSPObject("root", DiffTestClass.class.getName(), "b", 1));
+		diff.calcDiff(new ArrayList<PersistedSPObject>(), newList, 
+				new ArrayList<PersistedSPOProperty>(), new ArrayList<PersistedSPOProperty>());
+		
+		assertTrue(diff.omitRootObject("workspace", "otherRoot"));
+		
+		List<PersistedSPObject> added = diff.getPersistedSPOsToAdd();
+		assertEquals(2, added.size());
+		for (PersistedSPObject o : added) {
+			assertEquals("otherRoot", o.getParentUUID());
+		}
+		assertFalse(diff.omitRootObject("workspace", "otherRoot"));
+	}
+	
+	/**
+	 * Diffing the children of different objects in the fork-join pool must
+	 * give the same persist calls, in the same order, as diffing them one
+	 * parent at a time.
+	 */
+	public void testParallelDiffMatchesSequentialDiff() throws Exception {
+		List<PersistedSPObject> oldList = new ArrayList<PersistedSPObject>();
+		List<PersistedSPObject> newList = new ArrayList<PersistedSPObject>();
+		List<PersistedSPOProperty> oldProperties = new ArrayList<PersistedSPOProperty>();
+		List<PersistedSPOProperty> newProperties = new ArrayList<PersistedSPOProperty>();
+		oldList.add(new PersistedSPObject(null, DiffTestClass.class.getName(), "root", 0));
+		newList.add(new PersistedSPObject(null, DiffTestClass.class.getName(), "root", 0));
+		for (int p = 0; p < 50; p++) {
+			String parent = "p" + p;
+			oldList.add(new PersistedSPObject("root", DiffTestClass.class.getName(), parent, p));
+			newList.add(new PersistedSPObject("root", DiffTestClass.class.getName(), parent, p));
+			for (int c = 0; c < 100; c++) {
+				String child = parent + "c" + c;
+				oldList.add(new PersistedSPObject(parent, DiffTestClass.class.getName(), child, c));
+				//the first child of each parent moves to the end
+				newList.add(new PersistedSPObject(parent, DiffTestClass.class.getName(), child, (c + 99) % 100));
+				oldProperties.add(new PersistedSPOProperty(child, "name", DataType.STRING, child, child, false));
+				newProperties.add(new PersistedSPOProperty(child, "name", DataType.STRING, child,
+						c % 10 == 0 ? child + " renamed" : child, false));
+			}
+			//every fifth parent gets a new child
+			if (p % 5 == 0) {
+				newList.add(new PersistedSPObject(parent, DiffTestClass.class.getName(), parent + "new", 100));
+				newProperties.add(new PersistedSPOProperty(parent + "new", "name", DataType.STRING, "new", "new", false));
+			}
+		}
+		
+		Differ sequential = new Differ();
+		sequential.setParallelThreshold(Integer.MAX_VALUE);
+		sequential.calcDiff(oldList, newList, oldProperties, newProperties);
+		diff.setParallelThreshold(1);
+		diff.calcDiff(oldList, newList, oldProperties, newProperties);
+		
+		assertEquals(50, sequential.getPersistedSPOsToRemove().size());
+		assertEquals(60, sequential.getPersistedSPOsToAdd().size());
+		assertEquals(sequential.getPersistedSPOsToRemove(), diff.getPersistedSPOsToRemove());
+		assertEquals(sequential.getPersistedSPOsToAdd(), diff.getPersistedSPOsToAdd());
+		assertEquals(sequential.getPropertyDiffPersists(), diff.getPropertyDiffPersists());
+	}
 }
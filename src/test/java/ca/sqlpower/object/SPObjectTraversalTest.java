@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.object;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+import ca.sqlpower.object.SPObjectVisitor.VisitResult;
+import ca.sqlpower.testutil.SPObjectRoot;
+import ca.sqlpower.util.SQLPowerUtils;
+
+public class SPObjectTraversalTest extends TestCase {
+
+	/**
+	 * Records the names of the objects it visits and stops at the object
+	 * with the given name.
+	 */
+	private static class RecordingVisitor implements SPObjectVisitor {
+		
+		private final List<String> visited = Collections.synchronizedList(new ArrayList<String>());
+		
+		private final String stopAt;
+		
+		private final String skipChildrenOf;
+		
+		public RecordingVisitor(String stopAt, String skipChildrenOf) {
+			this.stopAt = stopAt;
+			this.skipChildrenOf = skipChildrenOf;
+		}
+		
+		public VisitResult visit(SPObject o) {
+			visited.add(o.getName());
+			if (o.getName().equals(stopAt)) return VisitResult.STOP;
+			if (o.getName().equals(skipChildrenOf)) return VisitResult.SKIP_CHILDREN;
+			return VisitResult.CONTINUE;
+		}
+	}
+	
+	/**
+	 * The root of the tree
+	 * <pre>
+	 * root
+	 *   a
+	 *     a1
+	 *     a2
+	 *   b
+	 *     b1
+	 * </pre>
+	 */
+	private SPObjectRoot root;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		root = createNode("root");
+		SPObjectRoot a = createNode("a");
+		SPObjectRoot b = createNode("b");
+		root.addChild(a, 0);
+		root.addChild(b, 1);
+		a.addChild(createNode("a1"), 0);
+		a.addChild(createNode("a2"), 1);
+		b.addChild(createNode("b1"), 0);
+	}
+	
+	private SPObjectRoot createNode(String name) {
+		SPObjectRoot node = new SPObjectRoot();
+		node.setName(name);
+		return node;
+	}
+	
+	public void testPreOrder() throws Exception {
+		RecordingVisitor visitor = new RecordingVisitor(null, null);
+		assertNull(SPObjectTraversal.preOrder(root, visitor));
+		assertEquals("[root, a, a1, a2, b, b1]", visitor.visited.toString());
+	}
+	
+	public void testPreOrderSkipsChildren() throws Exception {
+		RecordingVisitor visitor = new RecordingVisitor(null, "a");
+		assertNull(SPObjectTraversal.preOrder(root, visitor));
+		assertEquals("[root, a, b, b1]", visitor.visited.toString());
+	}
+	
+	public void testPreOrderStops() throws Exception {
+		RecordingVisitor visitor = new RecordingVisitor("a2", null);
+		SPObject stoppedAt = SPObjectTraversal.preOrder(root, visitor);
+		assertEquals("a2", stoppedAt.getName());
+		assertEquals("[root, a, a1, a2]", visitor.visited.toString());
+	}
+	
+	public void testPostOrder() throws Exception {
+		RecordingVisitor visitor = new RecordingVisitor(null, null);
+		assertNull(SPObjectTraversal.postOrder(root, visitor));
+		assertEquals("[a1, a2, a, b1, b, root]", visitor.visited.toString());
+	}
+	
+	public void testPostOrderStops() throws Exception {
+		RecordingVisitor visitor = new RecordingVisitor("a", null);
+		SPObject stoppedAt = SPObjectTraversal.postOrder(root, visitor);
+		assertEquals("a", stoppedAt.getName());
+		assertEquals("[a1, a2, a]", visitor.visited.toString());
+	}
+	
+	public void testVisitInParallel() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			RecordingVisitor visitor = new RecordingVisitor(null, null);
+			assertNull(SPObjectTraversal.visitInParallel(root, visitor, executor));
+			List<String> visited = new ArrayList<String>(visitor.visited);
+			Collections.sort(visited);
+			assertEquals("[a, a1, a2, b, b1, root]", visited.toString());
+			
+			visitor = new RecordingVisitor("b1", null);
+			assertEquals("b1", SPObjectTraversal.visitInParallel(root, visitor, executor).getName());
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	/**
+	 * A tree deeper than the call stack could hold with a recursive walk
+	 * must still be searchable.
+	 */
+	public void testDeepTree() throws Exception {
+		SPObjectRoot parent = root;
+		for (int i = 0; i < 20000; i++) {
+			SPObjectRoot child = createNode("deep" + i);
+			parent.addChild(child, 0);
+			parent = child;
+		}
+		assertSame(parent, SQLPowerUtils.findByUuid(root, parent.getUUID(), SPObject.class));
+		assertEquals(20006, SQLPowerUtils.buildIdMap(root).size());
+		assertTrue(SQLPowerUtils.hierarchyContains(root, parent));
+		assertEquals(20000, SQLPowerUtils.getAncestorList(parent).size());
+		assertSame(root, SQLPowerUtils.getAncestorList(parent).get(0));
+	}
+}
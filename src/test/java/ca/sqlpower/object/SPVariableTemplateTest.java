@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.object;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+import ca.sqlpower.testutil.SPObjectRoot;
+
+public class SPVariableTemplateTest extends TestCase {
+	
+	/**
+	 * The pattern variables were found with before templates.
+	 */
+	private static final Pattern varPattern = Pattern.compile("\\$\\{([^\\}]+)\\}");
+	
+	private static final String[] TEXTS = {
+		"",
+		"no variables",
+		"${a}",
+		"select * from t where x = ${ns::a} and y = ${b->5}",
+		"${}${a}",
+		"$${a}}",
+		"${a${b}",
+		"${$} costs ${price->10}",
+		"unterminated ${a",
+		"${a}${b}${c}",
+		"${ {a} }",
+	};
+	
+	public void testVariablesMatchPattern() throws Exception {
+		for (String text : TEXTS) {
+			List<String> expected = new ArrayList<String>();
+			Matcher matcher = varPattern.matcher(text);
+			while (matcher.find()) {
+				expected.add(matcher.group(1));
+			}
+			SPVariableTemplate template = SPVariableTemplate.compile(text);
+			List<String> actual = new ArrayList<String>();
+			for (int i = 0; i < template.getVariableCount(); i++) {
+				actual.add(template.getVariable(i));
+			}
+			assertEquals(text, expected, actual);
+			assertEquals(text, matcher.replaceAll("?"), template.getParameterizedText());
+		}
+	}
+	
+	public void testSubstitute() throws Exception {
+		SPObjectRoot root = new SPObjectRoot();
+		SPSimpleVariableResolver resolver = new SPSimpleVariableResolver(root, "ns", "ns");
+		resolver.store("a", "A");
+		SPVariableHelper helper = new SPVariableHelper(root);
+		
+		assertEquals("A and 5 cost $", 
+				helper.substitute("${ns::a} and ${ns::b->5} cost ${$}"));
+		assertEquals("null", helper.substitute("${ns::b}"));
+		
+		SPVariableTemplate template = SPVariableTemplate.compile("${ns::a}=${ns::b->5}");
+		assertSame(template, SPVariableTemplate.compile("${ns::a}=${ns::b->5}"));
+		assertEquals("?=?", template.getParameterizedText());
+		List<Object> parameters = template.resolveParameters(helper);
+		assertEquals(2, parameters.size());
+		assertEquals("A", parameters.get(0));
+		assertEquals("5", parameters.get(1));
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.object;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+import ca.sqlpower.dao.PersistCallQueue;
+import ca.sqlpower.dao.PersistCallStream;
+import ca.sqlpower.dao.PersistedSPOProperty;
+import ca.sqlpower.dao.PersistedSPObject;
+import ca.sqlpower.dao.SPPersistenceException;
+import ca.sqlpower.dao.SPPersister.DataType;
+import ca.sqlpower.dao.SPTransactionElement;
+
+public class StreamingDifferTest extends TestCase {
+	
+	private static final String TYPE = "type";
+	
+	private CountingSPPersister target;
+	
+	@Override
+	protected void setUp() throws Exception {
+		target = new CountingSPPersister();
+	}
+	
+	private static PersistedSPObject object(String parentUUID, String uuid, int index) {
+		return new PersistedSPObject(parentUUID, TYPE, uuid, index);
+	}
+	
+	private static PersistedSPOProperty property(String uuid, String name, Object value) {
+		return new PersistedSPOProperty(uuid, name, DataType.STRING, value, value, false);
+	}
+	
+	private static PersistCallStream stream(List<? extends SPTransactionElement> calls) {
+		final Iterator<? extends SPTransactionElement> iterator = calls.iterator();
+		return new PersistCallStream() {
+			public SPTransactionElement next() throws SPPersistenceException {
+				return iterator.hasNext() ? iterator.next() : null;
+			}
+		};
+	}
+	
+	private List<String> removedUUIDs() {
+		List<String> uuids = new ArrayList<String>();
+		for (int i = 0; i < target.getRemovedObjectList().size(); i++) {
+			uuids.add(target.getRemovedObjectList().get(i).getUUID());
+		}
+		return uuids;
+	}
+	
+	private List<String> addedUUIDs() {
+		List<String> uuids = new ArrayList<String>();
+		for (PersistedSPObject o : target.getPersistObjectList()) {
+			uuids.add(o.getUUID());
+		}
+		return uuids;
+	}
+	
+	public void testInsertAndDeleteOnlyTouchChangedChildren() throws Exception {
+		List<SPTransactionElement> oldCalls = Arrays.<SPTransactionElement>asList(
+				object("", "root", 0),
+				object("root", "a", 0),
+				object("a", "a1", 0),
+				object("root", "b", 1),
+				object("root", "c", 2),
+				object("c", "c1", 0));
+		List<SPTransactionElement> newCalls = Arrays.<SPTransactionElement>asList(
+				object("", "root", 0),
+				object("root", "x", 0),
+				object("x", "x1", 0),
+				property("x1", "name", "X1"),
+				object("root", "a", 1),
+				object("a", "a1", 0),
+				object("root", "c", 2),
+				object("c", "c1", 0));
+		StreamingDiffer differ = new StreamingDiffer();
+		differ.diff(stream(oldCalls), stream(newCalls), target);
+		
+		assertEquals(Arrays.asList("b"), removedUUIDs());
+		assertEquals(Arrays.asList("x", "x1"), addedUUIDs());
+		assertEquals(1, target.getPersistPropertyCount());
+		assertEquals("X1", target.getPersistPropertyList().get(0).getNewValue());
+		assertEquals(1, target.getBeginCount());
+		assertEquals(1, target.getCommitCount());
+		assertEquals(2, differ.getObjectsAdded());
+		assertEquals(1, differ.getObjectsRemoved());
+	}
+	
+	public void testPropertyChanges() throws Exception {
+		List<SPTransactionElement> oldCalls = Arrays.<SPTransactionElement>asList(
+				object("", "root", 0),
+				property("root", "name", "old"),
+				property("root", "same", "value"),
+				property("root", "dropped", "value"));
+		List<SPTransactionElement> newCalls = Arrays.<SPTransactionElement>asList(
+				object("", "root", 0),
+				property("root", "name", "new"),
+				property("root", "same", "value"),
+				property("root", "added", "value"));
+		new StreamingDiffer().diff(stream(oldCalls), stream(newCalls), target);
+		
+		assertEquals(0, target.getRemoveObjectCount());
+		assertEquals(0, target.getPersistObjectCount());
+		List<PersistedSPOProperty> properties = target.getPersistPropertyList();
+		assertEquals(3, properties.size());
+		assertEquals("name", properties.get(0).getPropertyName());
+		assertEquals("new", properties.get(0).getNewValue());
+		assertEquals("added", properties.get(1).getPropertyName());
+		assertEquals("dropped", properties.get(2).getPropertyName());
+		assertNull(properties.get(2).getNewValue());
+	}
+
+	/**
+	 * A child moved to another parent is removed from the old parent and
+	 * added with its descendants and properties under the new one. A child
+	 * moved past its siblings is the only one removed and added.
+	 */
+	public void testMoves() throws Exception {
+		List<SPTransactionElement> oldCalls = Arrays.<SPTransactionElement>asList(
+				object("", "root", 0),
+				object("root", "a", 0),
+				object("a", "m", 0),
+				object("m", "m1", 0),
+				property("m1", "name", "M1"),
+				object("root", "b", 1),
+				object("root", "c", 2),
+				object("root", "d", 3));
+		List<SPTransactionElement> newCalls = Arrays.<SPTransactionElement>asList(
+				object("", "root", 0),
+				object("root", "b", 0),
+				object("b", "m", 0),
+				object("m", "m1", 0),
+				property("m1", "name", "M1"),
+				object("root", "c", 1),
+				object("root", "d", 2),
+				object("root", "a", 3));
+		new StreamingDiffer().diff(stream(oldCalls), stream(newCalls), target);
+		
+		assertEquals(Arrays.asList("a"), removedUUIDs());
+		assertEquals(Arrays.asList("m", "m1", "a"), addedUUIDs());
+		assertEquals(1, target.getPersistPropertyCount());
+	}
+
+	/**
+	 * Moves that cannot be found within the lookahead are still diffed
+	 * correctly by removing and adding the children in the way.
+	 */
+	public void testSmallLookahead() throws Exception {
+		List<SPTransactionElement> oldCalls = new ArrayList<SPTransactionElement>();
+		List<SPTransactionElement> newCalls = new ArrayList<SPTransactionElement>();
+		oldCalls.add(object("", "root", 0));
+		newCalls.add(object("", "root", 0));
+		for (int i = 0; i < 10; i++) {
+			oldCalls.add(object("root", "c" + i, i));
+			newCalls.add(object("root", "c" + ((i + 1) % 10), i));
+		}
+		new StreamingDiffer(1).diff(stream(oldCalls), stream(newCalls), target);
+		
+		assertEquals(10, target.getRemoveObjectCount());
+		assertEquals(10, target.getPersistObjectCount());
+		
+		target = new CountingSPPersister();
+		new StreamingDiffer().diff(stream(oldCalls), stream(newCalls), target);
+		assertEquals(Arrays.asList("c0"), removedUUIDs());
+		assertEquals(Arrays.asList("c0"), addedUUIDs());
+	}
+	
+	private static Thread produce(final PersistCallQueue queue, final String name, final Exception failure) {
+		Thread producer = new Thread() {
+			public void run() {
+				try {
+					queue.persistObject("", TYPE, "root", 0);
+					queue.persistProperty("root", "name", DataType.STRING, name);
+					for (int i = 0; i < 100; i++) {
+						queue.persistObject("root", TYPE, "c" + i, i);
+					}
+					if (failure == null) {
+						queue.end();
+					} else {
+						queue.fail(failure);
+					}
+				} catch (SPPersistenceException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		producer.start();
+		return producer;
+	}
+
+	/**
+	 * The queues are smaller than the revisions so they have to be read
+	 * while they are being filled.
+	 */
+	public void testQueuesFilledByOtherThreads() throws Exception {
+		PersistCallQueue oldQueue = new PersistCallQueue(2);
+		PersistCallQueue newQueue = new PersistCallQueue(2);
+		Thread oldProducer = produce(oldQueue, "old", null);
+		Thread newProducer = produce(newQueue, "new", null);
+		new StreamingDiffer().diff(oldQueue, newQueue, target);
+		oldProducer.join();
+		newProducer.join();
+		
+		assertEquals(0, target.getRemoveObjectCount());
+		assertEquals(0, target.getPersistObjectCount());
+		assertEquals(1, target.getPersistPropertyCount());
+		assertEquals("new", target.getPersistPropertyList().get(0).getNewValue());
+		assertEquals(1, target.getCommitCount());
+	}
+	
+	public void testStreamFailureRollsBack() throws Exception {
+		PersistCallQueue oldQueue = new PersistCallQueue(2);
+		PersistCallQueue newQueue = new PersistCallQueue(2);
+		Thread oldProducer = produce(oldQueue, "old", null);
+		Thread newProducer = produce(newQueue, "new", new Exception("lost connection"));
+		try {
+			new StreamingDiffer().diff(oldQueue, newQueue, target);
+			fail("The failure of the new stream should be reported");
+		} catch (SPPersistenceException e) {
+			assertEquals("lost connection", e.getCause().getMessage());
+		}
+		oldProducer.join();
+		newProducer.join();
+		assertEquals(1, target.getRollbackCount());
+		assertEquals(0, target.getCommitCount());
+	}
+}
@@ -289,4 +289,46 @@ public class VariablesTest extends TestCase {
 		assertEquals(1, helper.resolveCollection(keyWithDefValue2).size());
 		assertEquals(defValue, helper.resolveCollection(keyWithDefValue2).iterator().next());
 	}
+	
+	public void testCachedValuesFollowChanges() throws Exception {
+		root = new MockSPObject();
+		String namespace = root.getVariableResolver().getNamespace();
+		String key = namespace + SPVariableResolver.NAMESPACE_DELIMITER + "key1";
+		root.getVariableResolver().store("key1", "value1");
+		
+		SPVariableHelper helper = new SPVariableHelper(root);
+		helper.setCacheResolvedValues(true);
+		assertEquals("value1", helper.resolve(key));
+		assertEquals("value1", helper.resolve(key));
+		
+		root.getVariableResolver().update("key1", "value2");
+		assertEquals("value2", helper.resolve(key));
+		
+		// A resolver registered for the namespace after the first lookup
+		// is not used as the one registered first still resolves it.
+		SPSimpleVariableResolver other = new SPSimpleVariableResolver(root, namespace, "other");
+		other.store("key1", "other");
+		assertEquals("value2", helper.resolve(key));
+		
+		// Once the first resolver changes namespace the new one is found.
+		root.getVariableResolver().setNamespace("elsewhere");
+		assertEquals("other", helper.resolve(key));
+		assertEquals(1, SPResolverRegistry.getResolvers(root, namespace).size());
+		
+		other.cleanup();
+		assertEquals("default", helper.resolve(key, "default"));
+		assertEquals("default", helper.resolve(key + SPVariableResolver.DEFAULT_VALUE_DELIMITER + "default"));
+	}
+	
+	public void testNullNamespaceKeptApartFromOtherNamespaces() throws Exception {
+		root = new MockSPObject();
+		root.getVariableResolver().setNamespace("no namespace");
+		SPSimpleVariableResolver other = new SPSimpleVariableResolver(root, "other", "other");
+		
+		// every resolver resolves the null namespace
+		assertEquals(2, SPResolverRegistry.getResolvers(root, null).size());
+		assertEquals(Collections.singletonList(root.getVariableResolver()), 
+				SPResolverRegistry.getResolvers(root, "no namespace"));
+		other.cleanup();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.security;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import ca.sqlpower.sql.DatabaseObject;
+import ca.sqlpower.sqlobject.DatabaseConnectedTestCase;
+
+/**
+ * Checks that the answers a security manager gives from its permission
+ * snapshot match the ones the static checkPermission method reads straight
+ * from the privilege tables.
+ */
+public class PLSecurityManagerTest extends DatabaseConnectedTestCase {
+
+    private static final String[] OBJECT_PERMISSIONS = {
+        PLSecurityManager.MODIFY_PERMISSION, PLSecurityManager.DELETE_PERMISSION,
+        PLSecurityManager.EXECUTE_PERMISSION, PLSecurityManager.GRANT_PERMISSION,
+        PLSecurityManager.NOTIFY_PERMISSION };
+
+    private static class TestObject implements DatabaseObject {
+        private final String type;
+        private final String name;
+        
+        TestObject(String type, String name) {
+            this.type = type;
+            this.name = name;
+        }
+        
+        public String getObjectType() {
+            return type;
+        }
+        
+        public String getObjectName() {
+            return name;
+        }
+        
+        @Override
+        public String toString() {
+            return type + " " + name;
+        }
+    }
+    
+    private final DatabaseObject reportA = new TestObject("REPORT", "A");
+    private final DatabaseObject reportB = new TestObject("REPORT", "B");
+    private final DatabaseObject reportC = new TestObject("REPORT", "C");
+    private final DatabaseObject kpiA = new TestObject("KPI", "A");
+    private final DatabaseObject kpiB = new TestObject("KPI", "B");
+    
+    private final List<DatabaseObject> allObjects = Arrays.asList(reportA, reportB, reportC, kpiA, kpiB);
+    
+    private Connection con;
+    
+    private PLUser alice;
+    
+    private PLSecurityManager sm;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        sqlx("CREATE TABLE pl_group (group_name VARCHAR(30) PRIMARY KEY, group_desc VARCHAR(100)," +
+                " last_update_date TIMESTAMP, last_update_user VARCHAR(30)," +
+                " last_update_os_user VARCHAR(50), create_date TIMESTAMP)");
+        sqlx("CREATE TABLE user_group (user_id VARCHAR(30), group_name VARCHAR(30)," +
+                " last_update_date TIMESTAMP, last_update_user VARCHAR(30)," +
+                " last_update_os_user VARCHAR(50), create_date TIMESTAMP)");
+        for (String grantee : new String[] { "user_id", "group_name" }) {
+            String prefix = grantee.startsWith("user") ? "user" : "group";
+            sqlx("CREATE TABLE " + prefix + "_object_privs (" + grantee + " VARCHAR(30)," +
+                    " object_type VARCHAR(30), object_name VARCHAR(30)," +
+                    " modify_ind CHAR(1), delete_ind CHAR(1), execute_ind CHAR(1)," +
+                    " grant_ind CHAR(1), notify_ind CHAR(1)," +
+                    " last_update_date TIMESTAMP, last_update_user VARCHAR(30)," +
+                    " last_update_os_user VARCHAR(50))");
+            sqlx("CREATE TABLE " + prefix + "_system_privs (" + grantee + " VARCHAR(30)," +
+                    " object_type VARCHAR(30), create_any_ind CHAR(1), modify_any_ind CHAR(1)," +
+                    " delete_any_ind CHAR(1), execute_any_ind CHAR(1), grant_any_ind CHAR(1)," +
+                    " notify_any_ind CHAR(1))");
+        }
+        sqlx("INSERT INTO pl_group (group_name) VALUES ('EDITORS')");
+        sqlx("INSERT INTO pl_group (group_name) VALUES ('VIEWERS')");
+        sqlx("INSERT INTO user_group (user_id, group_name) VALUES ('ALICE', 'EDITORS')");
+        sqlx("INSERT INTO user_group (user_id, group_name) VALUES ('ALICE', 'VIEWERS')");
+        
+        // alice's own rights
+        objectPrivs("user", "ALICE", reportA, "Y", "N", "N", "Y", "N");
+        systemPrivs("user", "ALICE", "KPI", "N", "N", "N", "Y", "N", "N");
+        // through her groups
+        objectPrivs("group", "EDITORS", reportB, "Y", "Y", "N", "N", "N");
+        objectPrivs("group", "VIEWERS", reportC, "N", "N", "N", "N", "Y");
+        systemPrivs("group", "EDITORS", "REPORT", "Y", "N", "N", "N", "N", "N");
+        systemPrivs("group", "VIEWERS", "KPI", "N", "N", "N", "N", "N", "Y");
+        // someone else's, which must not leak into alice's snapshot
+        objectPrivs("user", "BOB", kpiB, "Y", "Y", "Y", "Y", "Y");
+        systemPrivs("user", "BOB", "REPORT", "Y", "Y", "Y", "Y", "Y", "Y");
+        
+        con = db.getConnection();
+        alice = new PLUser("ALICE");
+        sm = new PLSecurityManager();
+        sm.principal = alice;
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        PLSecurityManager.setPermissionsMaxAge(PLSecurityManager.DEFAULT_PERMISSIONS_MAX_AGE);
+        con.close();
+        super.tearDown();
+    }
+    
+    private void objectPrivs(String granteeKind, String grantee, DatabaseObject obj,
+            String modify, String delete, String execute, String grant, String notify) throws Exception {
+        sqlx("INSERT INTO " + granteeKind + "_object_privs (" + granteeKind + 
+                (granteeKind.equals("user") ? "_id" : "_name") +
+                ", object_type, object_name, modify_ind, delete_ind, execute_ind, grant_ind, notify_ind)" +
+                " VALUES ('" + grantee + "', '" + obj.getObjectType() + "', '" + obj.getObjectName() + "', '" + 
+                modify + "', '" + delete + "', '" + execute + "', '" + grant + "', '" + notify + "')");
+    }
+    
+    private void systemPrivs(String granteeKind, String grantee, String type, String create,
+            String modify, String delete, String execute, String grant, String notify) throws Exception {
+        sqlx("INSERT INTO " + granteeKind + "_system_privs (" + granteeKind + 
+                (granteeKind.equals("user") ? "_id" : "_name") +
+                ", object_type, create_any_ind, modify_any_ind, delete_any_ind, execute_any_ind," +
+                " grant_any_ind, notify_any_ind)" +
+                " VALUES ('" + grantee + "', '" + type + "', '" + create + "', '" + modify + "', '" + 
+                delete + "', '" + execute + "', '" + grant + "', '" + notify + "')");
+    }
+    
+    private boolean can(DatabaseObject obj, String perm) throws Exception {
+        if (perm.equals(PLSecurityManager.MODIFY_PERMISSION)) {
+            return sm.canModify(con, obj);
+        } else if (perm.equals(PLSecurityManager.DELETE_PERMISSION)) {
+            return sm.canDelete(con, obj);
+        } else if (perm.equals(PLSecurityManager.EXECUTE_PERMISSION)) {
+            return sm.canExecute(con, obj);
+        } else if (perm.equals(PLSecurityManager.GRANT_PERMISSION)) {
+            return sm.canGrant(con, obj);
+        } else {
+            return sm.canNotify(con, obj);
+        }
+    }
+    
+    /**
+     * Compares every object permission on every test object, and create
+     * permission on both object types, with the static checks.
+     */
+    private void assertSnapshotMatchesTables() throws Exception {
+        for (DatabaseObject obj : allObjects) {
+            for (String perm : OBJECT_PERMISSIONS) {
+                assertEquals(perm + " on " + obj,
+                        PLSecurityManager.checkPermission(con, alice, obj, perm, false), can(obj, perm));
+            }
+        }
+        for (String type : new String[] { "REPORT", "KPI" }) {
+            assertEquals("create " + type, 
+                    PLSecurityManager.checkPermission(con, alice, 
+                            PLSecurityManager.getSystemObject(type), PLSecurityManager.CREATE_PERMISSION, false),
+                    sm.canCreateAny(con, type));
+        }
+    }
+    
+    public void testUserGroupAndSystemGrants() throws Exception {
+        assertSnapshotMatchesTables();
+        // a sample of the answers, so a matching mistake on both sides shows up
+        assertTrue(sm.canModify(con, reportA));
+        assertFalse(sm.canDelete(con, reportA));
+        assertTrue(sm.canDelete(con, reportB));
+        assertTrue(sm.canNotify(con, reportC));
+        assertTrue(sm.canExecute(con, kpiB));
+        assertTrue(sm.canNotify(con, kpiA));
+        assertFalse(sm.canModify(con, kpiB));
+        assertTrue(sm.canCreateAny(con, "REPORT"));
+        assertFalse(sm.canCreateAny(con, "KPI"));
+    }
+    
+    public void testGroupNameFilter() throws Exception {
+        alice.setGroupNameFilter(new HashSet<String>(Collections.singleton("VIEWERS")));
+        assertSnapshotMatchesTables();
+        assertFalse(sm.canDelete(con, reportB));
+        assertFalse(sm.canCreateAny(con, "REPORT"));
+        assertTrue(sm.canNotify(con, reportC));
+        
+        alice.setGroupNameFilter(new HashSet<String>());
+        assertSnapshotMatchesTables();
+        assertFalse(sm.canNotify(con, reportC));
+        assertTrue(sm.canModify(con, reportA));
+        
+        alice.setGroupNameFilter(null);
+        assertSnapshotMatchesTables();
+        assertTrue(sm.canDelete(con, reportB));
+    }
+    
+    public void testReloadAfterGrantAndRevoke() throws Exception {
+        assertFalse(sm.canExecute(con, reportA));
+        sm.grantExecute(con, alice, reportA, true);
+        assertTrue(sm.canExecute(con, reportA));
+        assertSnapshotMatchesTables();
+        
+        // alice has grant on report A, so she can change her group's rights on it too
+        objectPrivs("group", "EDITORS", reportA, "N", "N", "N", "N", "N");
+        PLGroup editors = new PLGroup("EDITORS");
+        assertFalse(sm.canDelete(con, reportA));
+        sm.grantDelete(con, editors, reportA, true);
+        assertTrue(sm.canDelete(con, reportA));
+        assertSnapshotMatchesTables();
+        
+        sm.grantExecute(con, alice, reportA, false);
+        sm.grantDelete(con, editors, reportA, false);
+        assertFalse(sm.canExecute(con, reportA));
+        assertFalse(sm.canDelete(con, reportA));
+        assertSnapshotMatchesTables();
+    }
+    
+    public void testReloadAfterMembershipChange() throws Exception {
+        // modifying a group takes modify rights on it
+        systemPrivs("user", "ALICE", "GROUP", "N", "Y", "N", "N", "N", "N");
+        PLGroup viewers = new PLGroup("VIEWERS");
+        assertTrue(sm.canNotify(con, reportC));
+        
+        viewers.removeMember(con, sm, "ALICE");
+        assertFalse(sm.canNotify(con, reportC));
+        assertSnapshotMatchesTables();
+        
+        viewers.addMember(con, sm, "ALICE");
+        assertTrue(sm.canNotify(con, reportC));
+        assertSnapshotMatchesTables();
+    }
+    
+    public void testBulkCanModify() throws Exception {
+        List<DatabaseObject> objs = new ArrayList<DatabaseObject>(allObjects);
+        Collections.reverse(objs);
+        objs.add(reportA);
+        
+        List<DatabaseObject> expected = new ArrayList<DatabaseObject>();
+        for (DatabaseObject obj : objs) {
+            if (PLSecurityManager.checkPermission(con, alice, obj, PLSecurityManager.MODIFY_PERMISSION, false)) {
+                expected.add(obj);
+            }
+        }
+        assertEquals(Arrays.asList(reportB, reportA, reportA), expected);
+        assertEquals(expected, sm.canModify(con, objs));
+    }
+    
+    public void testSnapshotExpires() throws Exception {
+        assertFalse(sm.canExecute(con, reportC));
+        // changed without telling the security manager
+        objectPrivs("user", "ALICE", reportC, "N", "N", "Y", "N", "N");
+        assertFalse(sm.canExecute(con, reportC));
+        
+        PLSecurityManager.setPermissionsMaxAge(1);
+        Thread.sleep(5);
+        assertTrue(sm.canExecute(con, reportC));
+    }
+}
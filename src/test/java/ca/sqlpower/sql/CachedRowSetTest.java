@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.sql;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import ca.sqlpower.sql.CachedRowSet.RowComparator;
+import ca.sqlpower.sql.CachedRowSet.StorageMode;
+import ca.sqlpower.testutil.CountingRowSetChangeListener;
+import ca.sqlpower.testutil.MockJDBCResultSet;
+
+public class CachedRowSetTest extends TestCase {
+
+    private MockJDBCResultSet source;
+
+    @Override
+    protected void setUp() throws Exception {
+        source = new MockJDBCResultSet(5);
+        source.setColumnName(1, "int_col");
+        source.setColumnName(2, "long_col");
+        source.setColumnName(3, "double_col");
+        source.setColumnName(4, "string_col");
+        source.setColumnName(5, "mixed_col");
+        source.addRow(new Object[] { 1, 10L, 1.5, "a", new BigDecimal("1.1") });
+        source.addRow(new Object[] { null, 20L, null, "b", "not a number" });
+        source.addRow(new Object[] { 3, null, 3.5, "a", null });
+    }
+
+    /**
+     * The columnar storage has to hand back exactly what the row storage
+     * would have, including the classes of the values.
+     */
+    public void testColumnarMatchesRows() throws Exception {
+        CachedRowSet rows = new CachedRowSet();
+        rows.populate(source);
+        
+        CachedRowSet columns = new CachedRowSet();
+        columns.setStorageMode(StorageMode.COLUMNAR);
+        columns.populate(source);
+        
+        assertEquals(rows.size(), columns.size());
+        List<Object[]> rowData = rows.getData();
+        List<Object[]> columnData = columns.getData();
+        for (int i = 0; i < rowData.size(); i++) {
+            for (int j = 0; j < rowData.get(i).length; j++) {
+                assertEquals(rowData.get(i)[j], columnData.get(i)[j]);
+            }
+        }
+        
+        while (rows.next()) {
+            assertTrue(columns.next());
+            for (int col = 1; col <= 5; col++) {
+                assertEquals(rows.getObject(col), columns.getObject(col));
+                assertEquals(rows.wasNull(), columns.wasNull());
+                assertEquals(rows.getString(col), columns.getString(col));
+            }
+            for (int col = 1; col <= 3; col++) {
+                assertEquals(rows.getInt(col), columns.getInt(col));
+                assertEquals(rows.getLong(col), columns.getLong(col));
+                assertEquals(rows.getDouble(col), columns.getDouble(col));
+                assertEquals(rows.wasNull(), columns.wasNull());
+            }
+        }
+        assertFalse(columns.next());
+    }
+
+    public void testColumnarUpdateAndInsert() throws Exception {
+        CachedRowSet crs = new CachedRowSet();
+        crs.setStorageMode(StorageMode.COLUMNAR);
+        crs.populate(source);
+        
+        crs.absolute(2);
+        crs.updateInt(1, 42);
+        crs.updateString(4, "c");
+        crs.moveToInsertRow();
+        crs.updateObject(1, 4);
+        crs.updateObject(4, "d");
+        crs.insertRow();
+        crs.moveToCurrentRow();
+        
+        assertEquals(4, crs.size());
+        crs.absolute(2);
+        assertEquals(42, crs.getInt(1));
+        assertEquals("c", crs.getString(4));
+        crs.last();
+        assertEquals(4, crs.getInt(1));
+        assertEquals("d", crs.getString(4));
+        assertNull(crs.getObject(2));
+        assertTrue(crs.wasNull());
+    }
+
+    public void testFollowKeepsNewestRows() throws Exception {
+        MockJDBCResultSet stream = new MockJDBCResultSet(1);
+        stream.setColumnName(1, "n");
+        for (int i = 0; i < 10; i++) {
+            stream.addRow(new Object[] { i });
+        }
+        CachedRowSet crs = new CachedRowSet();
+        CountingRowSetChangeListener l = new CountingRowSetChangeListener();
+        crs.addRowSetListener(l);
+        crs.follow(stream, 3);
+        
+        assertEquals(3, crs.size());
+        assertEquals(10, l.getRowCount());
+        crs.beforeFirst();
+        for (int i = 7; i < 10; i++) {
+            assertTrue(crs.next());
+            assertEquals(i, crs.getInt(1));
+        }
+        assertFalse(crs.next());
+    }
+
+    public void testFollowBatchesEvents() throws Exception {
+        MockJDBCResultSet stream = new MockJDBCResultSet(1);
+        stream.setColumnName(1, "n");
+        for (int i = 0; i < 10; i++) {
+            stream.addRow(new Object[] { i });
+        }
+        CachedRowSet crs = new CachedRowSet();
+        final List<RowSetChangeEvent> events = new ArrayList<RowSetChangeEvent>();
+        crs.addRowSetListener(new RowSetChangeListener() {
+            public void rowAdded(RowSetChangeEvent e) {
+                events.add(e);
+            }
+        });
+        crs.follow(stream, 5, 4, 0);
+        
+        assertEquals(3, events.size());
+        assertEquals(4, events.get(0).getRowCount());
+        assertEquals(3, events.get(0).getRowNumber());
+        assertEquals(4, events.get(1).getFirstRowNumber());
+        assertEquals(2, events.get(2).getRowCount());
+        assertEquals(9, events.get(2).getRow()[0]);
+    }
+
+    /**
+     * The sort has to put the rows in the same order sorting the rows with the
+     * comparator directly would, including keeping equal rows in their
+     * original order. This uses enough rows to sort in parallel.
+     */
+    public void testSortMatchesRowComparator() throws Exception {
+        MockJDBCResultSet big = new MockJDBCResultSet(3);
+        big.setColumnName(1, "n");
+        big.setColumnName(2, "s");
+        big.setColumnName(3, "original_order");
+        Random r = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            big.addRow(new Object[] {
+                    r.nextInt(10) == 0 ? null : r.nextInt(100),
+                    r.nextBoolean() ? "a" + r.nextInt(50) : "A" + r.nextInt(50),
+                    i });
+        }
+        CachedRowSet crs = new CachedRowSet();
+        crs.populate(big);
+        
+        RowComparator c = new RowComparator();
+        c.addSortColumn(2, false);
+        c.addSortColumn(1, true);
+        List<Object[]> expected = new ArrayList<Object[]>(crs.getData());
+        Collections.sort(expected, c);
+        
+        for (StorageMode mode : StorageMode.values()) {
+            crs.setStorageMode(mode);
+            crs.populate(big);
+            List<Object[]> sorted = crs.sort(c).getData();
+            assertEquals(expected.size(), sorted.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(mode + " row " + i, expected.get(i)[2], sorted.get(i)[2]);
+            }
+        }
+    }
+
+    /**
+     * A subclass of the comparator that compares rows its own way has to be
+     * used as it is, not replaced by its sort columns.
+     */
+    public void testSortWithComparatorSubclass() throws Exception {
+        RowComparator c = new RowComparator() {
+            @Override
+            public int compare(Object[] r1, Object[] r2) {
+                // rows with a long_col value first
+                return (r2[1] == null ? 0 : 1) - (r1[1] == null ? 0 : 1);
+            }
+        };
+        c.addSortColumn(1, true);
+        for (StorageMode mode : StorageMode.values()) {
+            CachedRowSet crs = new CachedRowSet();
+            crs.setStorageMode(mode);
+            crs.populate(source);
+            List<Object[]> sorted = crs.sort(c).getData();
+            assertEquals(mode.toString(), 1, sorted.get(0)[0]);
+            assertEquals(mode.toString(), null, sorted.get(1)[0]);
+            assertEquals(mode.toString(), 3, sorted.get(2)[0]);
+        }
+    }
+
+    /**
+     * Updating a sorted copy must not change the row set it was sorted from,
+     * nor leave that row set's indexes out of date.
+     */
+    public void testSortedCopyIsIndependent() throws Exception {
+        for (StorageMode mode : StorageMode.values()) {
+            CachedRowSet crs = new CachedRowSet();
+            crs.setStorageMode(mode);
+            crs.populate(source);
+            HashRowIndex hash = crs.getHashIndex(4);
+            
+            RowComparator c = new RowComparator();
+            c.addSortColumn(1, true);
+            CachedRowSet sorted = crs.sort(c);
+            while (sorted.next()) {
+                sorted.updateString(4, "z");
+            }
+            
+            assertSame(mode.toString(), hash, crs.getHashIndex(4));
+            assertTrue(mode.toString(), Arrays.equals(new int[] { 1, 3 }, hash.lookup("a")));
+            crs.absolute(1);
+            assertEquals(mode.toString(), "a", crs.getString(4));
+        }
+    }
+
+    public void testIndexes() throws Exception {
+        for (StorageMode mode : StorageMode.values()) {
+            CachedRowSet crs = new CachedRowSet();
+            crs.setStorageMode(mode);
+            crs.populate(source);
+            
+            HashRowIndex hash = crs.getHashIndex(4);
+            assertSame(hash, crs.getHashIndex(4));
+            assertTrue(Arrays.equals(new int[] { 1, 3 }, hash.lookup("a")));
+            assertEquals(0, hash.lookup("A").length);
+            CachedRowSet extracted = crs.extract(hash, "a");
+            assertEquals(2, extracted.size());
+            extracted.last();
+            assertEquals(3, extracted.getInt(1));
+            
+            HashRowIndex twoColumns = crs.getHashIndex(4, 1);
+            assertTrue(Arrays.equals(new int[] { 3 }, twoColumns.lookup("a", 3)));
+            
+            SortedRowIndex sorted = crs.getSortedIndex(3);
+            assertTrue(Arrays.equals(new int[] { 2, 1, 3 }, sorted.getSortedRows()));
+            assertTrue(Arrays.equals(new int[] { 1, 3 }, sorted.lookupRange(new Object[] { 1 }, null)));
+            assertTrue(Arrays.equals(new int[] { 3 }, sorted.lookup(3.5)));
+            
+            crs.absolute(1);
+            crs.updateString(4, "b");
+            assertNotSame(hash, crs.getHashIndex(4));
+            assertTrue(Arrays.equals(new int[] { 3 }, crs.getHashIndex(4).lookup("a")));
+        }
+    }
+}
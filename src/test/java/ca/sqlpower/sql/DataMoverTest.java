@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.dbcp.ConnectionFactory;
+
+import ca.sqlpower.sqlobject.DatabaseConnectedTestCase;
+
+/**
+ * Copies tables from the regression test database to a second in-memory
+ * HSQLDB database.
+ */
+public class DataMoverTest extends DatabaseConnectedTestCase {
+
+    /**
+     * The database rows are copied into. It is shut down in tearDown, which
+     * throws its contents away.
+     */
+    private JDBCDataSource destination;
+    
+    private Connection srcCon;
+    
+    private Connection dstCon;
+    
+    private DataMover mover;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        destination = new JDBCDataSource(db.getDataSource());
+        destination.setUrl("jdbc:hsqldb:mem:datamovertest;shutdown=true");
+        srcCon = db.getDataSource().createConnection();
+        dstCon = destination.createConnection();
+        mover = new DataMover(dstCon, srcCon);
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        srcCon.close();
+        dstCon.close();
+        execute(destination, "SHUTDOWN");
+        super.tearDown();
+    }
+
+    private static void execute(JDBCDataSource ds, String sql) throws SQLException {
+        Connection con = ds.createConnection();
+        try {
+            Statement stmt = con.createStatement();
+            stmt.executeUpdate(sql);
+            stmt.close();
+        } finally {
+            con.close();
+        }
+    }
+    
+    private static ConnectionFactory factoryFor(final JDBCDataSource ds) {
+        return new ConnectionFactory() {
+            public Connection createConnection() throws SQLException {
+                return ds.createConnection();
+            }
+        };
+    }
+
+    /**
+     * Creates the given table in both databases, with the given number of
+     * rows numbered from 0 in the source. The destination table has a
+     * primary key, so copying a duplicate id fails.
+     */
+    private void createTable(String name, int rows) throws Exception {
+        sqlx("CREATE TABLE " + name + " (id INTEGER, name VARCHAR(20))");
+        execute(destination, "CREATE TABLE " + name + " (id INTEGER PRIMARY KEY, name VARCHAR(20))");
+        Connection con = db.getDataSource().createConnection();
+        try {
+            PreparedStatement ps = con.prepareStatement("INSERT INTO " + name + " VALUES (?, ?)");
+            for (int i = 0; i < rows; i++) {
+                ps.setInt(1, i);
+                ps.setString(2, "row " + i);
+                ps.executeUpdate();
+            }
+            ps.close();
+        } finally {
+            con.close();
+        }
+    }
+    
+    private int countDestinationRows(String table) throws SQLException {
+        Connection con = destination.createConnection();
+        try {
+            Statement stmt = con.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT COUNT(*), SUM(id) FROM " + table);
+            rs.next();
+            int count = rs.getInt(1);
+            if (count > 0) {
+                int n = count;
+                assertEquals("Rows were copied more than once or not at all",
+                        n * (n - 1) / 2, rs.getInt(2));
+            }
+            rs.close();
+            stmt.close();
+            return count;
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Wraps a source connection so the result sets of its statements throw
+     * an exception when asked for the row after the given number of rows.
+     */
+    private static Connection failingSource(final Connection con, final int failAfter) {
+        return (Connection) Proxy.newProxyInstance(
+                DataMoverTest.class.getClassLoader(),
+                new Class[] { Connection.class },
+                new Delegate(con) {
+                    @Override
+                    Object wrap(Object result) {
+                        if (!(result instanceof Statement)) return result;
+                        return Proxy.newProxyInstance(
+                                DataMoverTest.class.getClassLoader(),
+                                new Class[] { Statement.class },
+                                new Delegate(result) {
+                                    @Override
+                                    Object wrap(Object result) {
+                                        if (!(result instanceof ResultSet)) return result;
+                                        return Proxy.newProxyInstance(
+                                                DataMoverTest.class.getClassLoader(),
+                                                new Class[] { ResultSet.class },
+                                                new Delegate(result) {
+                                                    int rows;
+                                                    @Override
+                                                    Object before(Method method) throws SQLException {
+                                                        if (method.getName().equals("next") && rows++ == failAfter) {
+                                                            throw new SQLException("Source read failed");
+                                                        }
+                                                        return null;
+                                                    }
+                                                });
+                                    }
+                                });
+                    }
+                });
+    }
+    
+    private static class Delegate implements InvocationHandler {
+        
+        private final Object target;
+        
+        Delegate(Object target) {
+            this.target = target;
+        }
+        
+        Object before(Method method) throws SQLException {
+            return null;
+        }
+        
+        Object wrap(Object result) {
+            return result;
+        }
+        
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            before(method);
+            try {
+                return wrap(method.invoke(target, args));
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+    
+    private static boolean causedBy(Throwable t, String message) {
+        for (; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains(message)) return true;
+        }
+        return false;
+    }
+    
+    public void testBatchesAndCommitInterval() throws Exception {
+        createTable("moose", 25);
+        mover.setBatchSize(10);
+        mover.setCommitInterval(10);
+        
+        assertEquals(25, mover.copyTable("moose", "moose"));
+        
+        DataMoverStatistics stats = mover.getStatistics().get(0);
+        assertEquals(25, stats.getRowsRead());
+        assertEquals(25, stats.getRowsWritten());
+        assertEquals(3, stats.getBatchesWritten());
+        assertEquals(3, stats.getCommits());
+        assertTrue(stats.isFinished());
+        assertEquals(25, countDestinationRows("moose"));
+    }
+    
+    public void testCommitIntervalWithoutBatching() throws Exception {
+        createTable("moose", 25);
+        mover.setCommitInterval(10);
+        
+        assertEquals(25, mover.copyTable("moose", "moose"));
+        
+        DataMoverStatistics stats = mover.getStatistics().get(0);
+        assertEquals(25, stats.getBatchesWritten());
+        // two at the interval and one at the end
+        assertEquals(3, stats.getCommits());
+        assertEquals(25, countDestinationRows("moose"));
+    }
+    
+    public void testParallelWriters() throws Exception {
+        createTable("moose", 95);
+        mover.setWriterThreadCount(3);
+        mover.setBatchSize(4);
+        mover.setDestinationConnectionFactory(factoryFor(destination));
+        
+        assertEquals(95, mover.copyTable("moose", "moose"));
+        
+        DataMoverStatistics stats = mover.getStatistics().get(0);
+        assertEquals(95, stats.getRowsRead());
+        assertEquals(95, stats.getRowsWritten());
+        assertEquals(95, countDestinationRows("moose"));
+        assertTrue(mover.isFinished());
+    }
+    
+    public void testParallelReaderFailureCommitsNothing() throws Exception {
+        createTable("moose", 250);
+        mover = new DataMover(dstCon, failingSource(srcCon, 230));
+        mover.setWriterThreadCount(2);
+        mover.setDestinationConnectionFactory(factoryFor(destination));
+        
+        try {
+            mover.copyTable("moose", "moose");
+            fail("The source failure should have been thrown");
+        } catch (RuntimeException e) {
+            assertTrue(causedBy(e, "Source read failed"));
+        }
+        assertEquals(0, countDestinationRows("moose"));
+    }
+    
+    public void testParallelWriterFailureCommitsNothing() throws Exception {
+        createTable("moose", 250);
+        sqlx("INSERT INTO moose VALUES (5, 'duplicate')");
+        mover.setWriterThreadCount(2);
+        mover.setBatchSize(10);
+        mover.setDestinationConnectionFactory(factoryFor(destination));
+        
+        try {
+            mover.copyTable("moose", "moose");
+            fail("The duplicate key should have made a writer fail");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+        assertEquals(0, countDestinationRows("moose"));
+    }
+    
+    public void testCopyTablesInParallel() throws Exception {
+        List<String> tables = Arrays.asList("moose", "deer", "elk");
+        for (int i = 0; i < tables.size(); i++) {
+            createTable(tables.get(i), 10 * (i + 1));
+        }
+        mover.setTableThreadCount(2);
+        mover.setSourceConnectionFactory(factoryFor(db.getDataSource()));
+        mover.setDestinationConnectionFactory(factoryFor(destination));
+        
+        List<DataMoverStatistics> stats = mover.copyTables(tables);
+        
+        assertEquals(3, stats.size());
+        for (int i = 0; i < tables.size(); i++) {
+            assertEquals(tables.get(i), stats.get(i).getSourceTableName());
+            assertEquals(10 * (i + 1), stats.get(i).getRowsWritten());
+            assertEquals(10 * (i + 1), countDestinationRows(tables.get(i)));
+        }
+        assertTrue(mover.isFinished());
+    }
+    
+    public void testCopyTablesInParallelThrowsFailure() throws Exception {
+        createTable("moose", 10);
+        mover.setTableThreadCount(2);
+        mover.setSourceConnectionFactory(factoryFor(db.getDataSource()));
+        mover.setDestinationConnectionFactory(factoryFor(destination));
+        
+        try {
+            mover.copyTables(Arrays.asList("moose", "no_such_table"));
+            fail("The missing table should have been reported");
+        } catch (RuntimeException e) {
+            assertTrue(causedBy(e, "no_such_table") || causedBy(e, "NO_SUCH_TABLE"));
+        }
+        assertTrue(mover.isFinished());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.sql.jdbcwrapper;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.ref.WeakReference;
+import java.sql.DatabaseMetaData;
+
+import junit.framework.TestCase;
+import ca.sqlpower.sql.CachedRowSet;
+import ca.sqlpower.testutil.MockJDBCResultSet;
+
+public class MetaDataCacheTest extends TestCase {
+
+    private MetaDataCache<CachedRowSet> cache;
+    
+    private DatabaseMetaData db1;
+    
+    private DatabaseMetaData db2;
+
+    /**
+     * Returns a DatabaseMetaData that only knows its URL and user name, which
+     * is all CacheKey needs.
+     */
+    private static DatabaseMetaData metaData(final String url, final String user) {
+        return (DatabaseMetaData) Proxy.newProxyInstance(
+                MetaDataCacheTest.class.getClassLoader(),
+                new Class[] { DatabaseMetaData.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getURL")) return url;
+                        if (method.getName().equals("getUserName")) return user;
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+    
+    private static CachedRowSet rowSet(int rows) throws Exception {
+        MockJDBCResultSet rs = new MockJDBCResultSet(1);
+        for (int i = 0; i < rows; i++) {
+            rs.addRow(new Object[] { Integer.valueOf(i) });
+        }
+        CachedRowSet crs = new CachedRowSet();
+        crs.populate(rs);
+        return crs;
+    }
+    
+    @Override
+    protected void setUp() throws Exception {
+        cache = new MetaDataCache<CachedRowSet>("test");
+        db1 = metaData("jdbc:test:one", "user");
+        db2 = metaData("jdbc:test:two", "user");
+    }
+    
+    public void testRegistered() {
+        assertTrue(MetaDataCache.getAllCaches().contains(cache));
+    }
+    
+    public void testSelectiveInvalidation() throws Exception {
+        CacheKey oneA = new CacheKey(db1, null, "A");
+        CacheKey oneB = new CacheKey(db1, null, "B");
+        CacheKey twoA = new CacheKey(db2, null, "A");
+        cache.put(oneA, rowSet(1));
+        cache.put(oneB, rowSet(1));
+        cache.put(twoA, rowSet(1));
+        
+        cache.invalidate(oneA.getDataSourceAddress(), null, "A");
+        assertNull(cache.get(oneA));
+        assertNotNull(cache.get(oneB));
+        assertNotNull(cache.get(twoA));
+        
+        cache.invalidate(oneB.getDataSourceAddress());
+        assertNull(cache.get(oneB));
+        assertNotNull(cache.get(twoA));
+    }
+    
+    public void testInvalidationDate() throws Exception {
+        String address = CacheKey.dataSourceAddress(db1);
+        assertEquals(cache.getLastFlushDate(), cache.getLastInvalidationDate(address));
+        Thread.sleep(5);
+        cache.invalidate(address);
+        assertTrue(cache.getLastInvalidationDate(address).after(cache.getLastFlushDate()));
+        assertEquals(cache.getLastFlushDate(),
+                cache.getLastInvalidationDate(CacheKey.dataSourceAddress(db2)));
+    }
+    
+    public void testRowLimit() throws Exception {
+        cache.setMaxRows(40);
+        for (int i = 0; i < 8; i++) {
+            cache.put(new CacheKey(db1, null, "S" + i), rowSet(6));
+        }
+        int rows = 0;
+        for (CachedRowSet crs : cache.values()) {
+            rows += crs.size();
+        }
+        assertTrue(rows <= 40);
+        assertEquals(8 - cache.size(), cache.getStats().getTotalEvictions());
+    }
+    
+    public void testLargeRowSetIsKept() throws Exception {
+        cache.setMaxRows(400);
+        CacheKey small = new CacheKey(db1, null, "small");
+        CacheKey large = new CacheKey(db1, null, "large");
+        cache.put(small, rowSet(10));
+        cache.put(large, rowSet(390));
+        assertNotNull(cache.get(small));
+        assertNotNull(cache.get(large));
+        
+        cache.put(new CacheKey(db2, null, "other"), rowSet(5));
+        assertNull(cache.get(small));
+        assertNotNull(cache.get(large));
+    }
+    
+    public void testUnreachableCacheIsUnregistered() throws Exception {
+        MetaDataCache<CachedRowSet> dropped = new MetaDataCache<CachedRowSet>("dropped");
+        WeakReference<MetaDataCache<CachedRowSet>> ref =
+            new WeakReference<MetaDataCache<CachedRowSet>>(dropped);
+        assertTrue(MetaDataCache.getAllCaches().contains(dropped));
+        dropped = null;
+        for (int i = 0; i < 50 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get());
+        assertTrue(MetaDataCache.getAllCaches().contains(cache));
+    }
+    
+    public void testStats() throws Exception {
+        CacheKey key = new CacheKey(db1, null, "A");
+        assertNull(cache.get(key));
+        cache.put(key, rowSet(1), 5000000L);
+        assertNotNull(cache.get(key));
+        assertEquals(1, cache.getStats().getTotalHits());
+        assertEquals(1, cache.getStats().getTotalMisses());
+        assertEquals(1, cache.getStats().getTotalLoads());
+        assertEquals(5, cache.getStats().getTotalLoadMillis());
+    }
+}
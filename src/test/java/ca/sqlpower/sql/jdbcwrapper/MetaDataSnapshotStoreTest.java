@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.sql.jdbcwrapper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+import ca.sqlpower.sql.CachedRowSet;
+import ca.sqlpower.sql.jdbcwrapper.DatabaseMetaDataDecorator.CacheType;
+import ca.sqlpower.testutil.MockJDBCResultSet;
+
+public class MetaDataSnapshotStoreTest extends TestCase {
+
+    /**
+     * Stands in for a class that does something harmful when it is
+     * deserialized.
+     */
+    private static class Gadget implements Serializable {
+        static boolean deserialized;
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            deserialized = true;
+        }
+    }
+
+    /**
+     * A decorator whose schemas have whatever fingerprint the test sets.
+     */
+    private static class FingerprintedDecorator extends DatabaseMetaDataDecorator {
+        String fingerprint = "1";
+
+        FingerprintedDecorator(DatabaseMetaData dbmd) {
+            super(dbmd, null);
+        }
+
+        @Override
+        protected String getSchemaFingerprint(String catalog, String schema) {
+            return fingerprint;
+        }
+
+        @Override
+        protected ResultSetDecorator wrap(ResultSet rs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected StatementDecorator wrap(Statement statement) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private File dir;
+    
+    private MetaDataSnapshotStore store;
+    
+    private CacheKey key;
+    
+    private DatabaseMetaData dbmd;
+    
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("snapshots", "");
+        dir.delete();
+        store = new MetaDataSnapshotStore(dir);
+        dbmd = (DatabaseMetaData) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { DatabaseMetaData.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getURL")) return "jdbc:test";
+                        if (method.getName().equals("getUserName")) return "user";
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        key = new CacheKey(dbmd, null, "SCHEMA");
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        DatabaseMetaDataDecorator.setSnapshotStore(null);
+        DatabaseMetaDataDecorator.putHint(DatabaseMetaDataDecorator.CACHE_TYPE, null);
+        store.clear();
+        dir.delete();
+    }
+    
+    private static MockJDBCResultSet columns() throws Exception {
+        MockJDBCResultSet rs = new MockJDBCResultSet(2);
+        rs.addRow(new Object[] { "T1", "C1" });
+        rs.addRow(new Object[] { "T1", "C2" });
+        rs.addRow(new Object[] { "T2", "C1" });
+        return rs;
+    }
+    
+    public void testRoundTrip() throws Exception {
+        IndexedCachedRowSet crs = new IndexedCachedRowSet(columns(), 1);
+        store.save("columns", key, "1;20100101", crs);
+        
+        IndexedCachedRowSet loaded = (IndexedCachedRowSet) store.load("columns", key, "1;20100101");
+        assertNotNull(loaded);
+        assertEquals(3, loaded.size());
+        assertTrue(loaded.containsTable("T2"));
+        CachedRowSet t1 = loaded.extractSingleTable("T1");
+        assertEquals(2, t1.size());
+    }
+    
+    public void testFingerprintMismatch() throws Exception {
+        store.save("columns", key, "1;20100101", new IndexedCachedRowSet(columns(), 1));
+        assertNull(store.load("columns", key, "2;20100102"));
+        assertNull(store.load("keys", key, "1;20100101"));
+    }
+    
+    public void testDelete() throws Exception {
+        store.save("columns", key, "1", new IndexedCachedRowSet(columns(), 1));
+        store.delete("columns", key);
+        assertNull(store.load("columns", key, "1"));
+    }
+    
+    public void testUnexpectedClassRejected() throws Exception {
+        store.save("columns", key, "1", new IndexedCachedRowSet(columns(), 1));
+        File[] files = dir.listFiles();
+        assertEquals(1, files.length);
+        ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(files[0])));
+        out.writeInt(1);
+        out.writeObject("columns");
+        out.writeObject(key);
+        out.writeObject("1");
+        out.writeObject(new Gadget());
+        out.close();
+        
+        Gadget.deserialized = false;
+        assertNull(store.load("columns", key, "1"));
+        assertFalse(Gadget.deserialized);
+    }
+    
+    /**
+     * A fingerprint taken by a lookup that missed must not outlive the load
+     * that followed it, or a later put could save its value stamped with a
+     * fingerprint from before the schema changed.
+     */
+    public void testFailedLoadForgetsFingerprint() throws Exception {
+        DatabaseMetaDataDecorator.setSnapshotStore(store);
+        DatabaseMetaDataDecorator.putHint(DatabaseMetaDataDecorator.CACHE_TYPE, CacheType.EAGER_CACHE);
+        FingerprintedDecorator decorator = new FingerprintedDecorator(dbmd);
+        MetaDataCache<CachedRowSet> cache = new MetaDataCache<CachedRowSet>("failedLoadTest");
+        
+        assertNull(decorator.getCachedResult(cache, key));
+        // the load from the database fails here
+        decorator.endCachedResultLoad();
+        
+        decorator.fingerprint = "2";
+        decorator.putCachedResult(cache, key, new IndexedCachedRowSet(columns(), 1), 0);
+        assertNull(store.load(cache.getName(), key, "1"));
+        
+        MetaDataCache<CachedRowSet> newCache = new MetaDataCache<CachedRowSet>("failedLoadTest");
+        assertNull(decorator.getCachedResult(newCache, key));
+        decorator.putCachedResult(newCache, key, new IndexedCachedRowSet(columns(), 1), 0);
+        assertNotNull(store.load(cache.getName(), key, "2"));
+    }
+}
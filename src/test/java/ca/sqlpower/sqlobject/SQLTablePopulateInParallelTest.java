@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.sqlobject;
+
+import java.beans.PropertyChangeEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import ca.sqlpower.object.AbstractSPListener;
+import ca.sqlpower.object.SPChildEvent;
+import ca.sqlpower.sql.DataSourceCollection;
+import ca.sqlpower.sql.JDBCDataSource;
+import ca.sqlpower.sql.JDBCDataSourceType;
+import ca.sqlpower.sql.PlDotIni;
+import ca.sqlpower.sql.SPDataSource;
+import ca.sqlpower.util.TransactionEvent;
+
+/**
+ * Tests for {@link SQLTable#populateTablesInParallel(SQLDatabase, java.util.Collection, int, boolean)}
+ * against a MockJDBC database with two schemas.
+ */
+public class SQLTablePopulateInParallelTest extends TestCase {
+
+    /**
+     * Records the changes made to the tables it listens to that happened
+     * outside of a transaction on the database or on another thread.
+     */
+    private static class ChangeRecorder extends AbstractSPListener {
+        private final SQLDatabase db;
+        private final Thread thread = Thread.currentThread();
+        private int dbTransactionDepth;
+        private final List<String> badChanges = new ArrayList<String>();
+
+        ChangeRecorder(SQLDatabase db) {
+            this.db = db;
+        }
+
+        @Override
+        public void transactionStarted(TransactionEvent e) {
+            if (e.getSource() == db) dbTransactionDepth++;
+        }
+
+        @Override
+        public void transactionEnded(TransactionEvent e) {
+            if (e.getSource() == db) dbTransactionDepth--;
+        }
+
+        @Override
+        public void childAdded(SPChildEvent e) {
+            record(e.getSource() + " child added " + e.getChild());
+        }
+
+        @Override
+        public void childRemoved(SPChildEvent e) {
+            record(e.getSource() + " child removed " + e.getChild());
+        }
+
+        @Override
+        public void propertyChanged(PropertyChangeEvent evt) {
+            record(evt.getSource() + " property changed " + evt.getPropertyName());
+        }
+
+        private synchronized void record(String change) {
+            if (dbTransactionDepth == 0 || Thread.currentThread() != thread) {
+                badChanges.add(change + " on " + Thread.currentThread().getName());
+            }
+        }
+    }
+
+    private SQLDatabase db;
+    private SQLTable a;
+    private SQLTable b;
+    private SQLTable c;
+    private SQLTable d;
+
+    /**
+     * Sets up a MockJDBC database with tables a, b and c in schema s1 and
+     * table d in schema s2. Table a has a two column primary key listed in
+     * the opposite order of the table's columns.
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        DataSourceCollection<SPDataSource> dscol = new PlDotIni();
+        JDBCDataSourceType dstype = new JDBCDataSourceType();
+        dstype.setJdbcDriver("ca.sqlpower.testutil.MockJDBCDriver");
+        JDBCDataSource ds = new JDBCDataSource(dscol);
+        ds.setParentType(dstype);
+        ds.setUrl("jdbc:mock:name=parallel_populate_test" +
+                "&dbmd.schemaTerm=Schema" +
+                "&schemas=s1,s2" +
+                "&tables.s1=a,b,c" +
+                "&tables.s2=d" +
+                "&columns.s1.a=name,id,code" +
+                "&primary_keys.s1.a=code,id" +
+                "&columns.s2.d=d_id" +
+                "&primary_keys.s2.d=d_id");
+        ds.setUser("");
+        ds.setPass("");
+        db = new SQLDatabase(ds);
+        a = db.getTableByName(null, "s1", "a");
+        b = db.getTableByName(null, "s1", "b");
+        c = db.getTableByName(null, "s1", "c");
+        d = db.getTableByName(null, "s2", "d");
+    }
+
+    public void testPopulatesColumnsAndPrimaryKeys() throws Exception {
+        SQLTable.populateTablesInParallel(db, Arrays.asList(a, b, d), 2, false);
+
+        for (SQLTable t : Arrays.asList(a, b, d)) {
+            assertTrue(t.isColumnsPopulated());
+            assertTrue(t.isIndicesPopulated());
+        }
+        assertEquals(3, a.getColumnsWithoutPopulating().size());
+        assertEquals("code", a.getColumnsWithoutPopulating().get(0).getName());
+        assertEquals("id", a.getColumnsWithoutPopulating().get(1).getName());
+        assertEquals("name", a.getColumnsWithoutPopulating().get(2).getName());
+        assertEquals(2, a.getPkSize());
+        assertEquals("a_pk", a.getPrimaryKeyIndex().getName());
+
+        assertEquals(4, b.getColumnsWithoutPopulating().size());
+        assertEquals("b_col_1", b.getColumnsWithoutPopulating().get(0).getName());
+        assertEquals(0, b.getPkSize());
+
+        assertEquals(1, d.getColumnsWithoutPopulating().size());
+        assertEquals(1, d.getPkSize());
+    }
+
+    /**
+     * The columns of the whole schema are fetched at once, but only the
+     * tables asked for are populated.
+     */
+    public void testOnlyGivenTablesPopulated() throws Exception {
+        SQLTable.populateTablesInParallel(db, Collections.singletonList(a), 2, false);
+
+        assertTrue(a.isColumnsPopulated());
+        assertFalse(b.isColumnsPopulated());
+        assertFalse(c.isColumnsPopulated());
+        assertFalse(d.isColumnsPopulated());
+    }
+
+    /**
+     * The tables, including their primary keys, must only change on the
+     * calling thread (the foreground thread when there is no session) inside
+     * a transaction on the database.
+     */
+    public void testChangesMadeInDatabaseTransaction() throws Exception {
+        ChangeRecorder recorder = new ChangeRecorder(db);
+        db.addSPListener(recorder);
+        for (SQLTable t : Arrays.asList(a, b, d)) {
+            t.addSPListener(recorder);
+        }
+
+        SQLTable.populateTablesInParallel(db, Arrays.asList(a, b, d), 3, true);
+
+        assertEquals(Collections.emptyList(), recorder.badChanges);
+        assertEquals(0, recorder.dbTransactionDepth);
+        assertEquals(2, a.getPkSize());
+    }
+
+    public void testPopulatedTablesSkipped() throws Exception {
+        a.getColumns();
+        List<SQLColumn> columns = new ArrayList<SQLColumn>(a.getColumnsWithoutPopulating());
+
+        SQLTable.populateTablesInParallel(db, Arrays.asList(a, b), 2, false);
+
+        assertEquals(columns, a.getColumnsWithoutPopulating());
+        assertEquals(2, a.getPkSize());
+        assertTrue(b.isColumnsPopulated());
+    }
+
+    public void testRelationshipsPopulated() throws Exception {
+        SQLTable.populateTablesInParallel(db, Arrays.asList(a, b), 2, true);
+
+        assertTrue(a.isExportedKeysPopulated());
+        assertTrue(b.isExportedKeysPopulated());
+        assertFalse(c.isExportedKeysPopulated());
+    }
+
+    public void testTableFromOtherDatabaseRejected() throws Exception {
+        SQLTable other = new SQLTable(new SQLDatabase(), true);
+        try {
+            SQLTable.populateTablesInParallel(db, Arrays.asList(a, other), 2, false);
+            fail("A table from another database should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertFalse(a.isColumnsPopulated());
+    }
+}
@@ -18,6 +18,10 @@
  */
 package ca.sqlpower.sqlobject;
 
+import java.util.Collections;
+
+import ca.sqlpower.object.AbstractSPListener;
+import ca.sqlpower.object.SPChildEvent;
 import ca.sqlpower.object.SPObject;
 
 
@@ -140,6 +144,66 @@ public class TestSQLSchema extends BaseSQLObjectTestCase {
 		assertEquals(t1.getName(),"xx3");
 	}
 
+	/**
+	 * Looking up tables by name must follow tables as they are renamed,
+	 * removed and added, including lookups that ignore case.
+	 */
+	public void testChildByNameFollowsChanges() throws Exception {
+		SQLTable first = new SQLTable();
+		first.setName("first");
+		s.addChild(first);
+		SQLTable second = new SQLTable();
+		second.setName("second");
+		s.addChild(second);
+		
+		assertSame(first, s.getChildByName("first", SQLTable.class));
+		assertSame(second, s.getChildByNameIgnoreCase("SECOND", SQLTable.class));
+		assertNull(s.getChildByName("FIRST", SQLTable.class));
+		
+		first.setName("renamed");
+		assertNull(s.getChildByName("first", SQLTable.class));
+		assertSame(first, s.getChildByName("renamed", SQLTable.class));
+		assertSame(first, s.findTableByName("Renamed"));
+		
+		s.removeChild(second);
+		assertNull(s.getChildByName("second", SQLTable.class));
+		assertEquals(1, s.getChildren(SQLTable.class).size());
+		
+		SQLTable third = new SQLTable();
+		third.setName("renamed");
+		s.addChild(third);
+		assertEquals(1, s.getChildren().indexOf(third));
+		assertSame(first, s.getChildByName("renamed", SQLTable.class));
+	}
+
+	/**
+	 * Tables populated in bulk and then rolled back must not be found by
+	 * name afterwards.
+	 */
+	public void testChildByNameAfterFailedPopulate() throws Exception {
+		SQLSchema schema = new SQLSchema(false);
+		schema.setParent(db);
+		schema.setMagicEnabled(false);
+		assertNull(schema.getChildByName("missing", SQLTable.class));
+		
+		SQLTable table = new SQLTable();
+		table.setName("added");
+		schema.addSPListener(new AbstractSPListener() {
+			@Override
+			public void childAdded(SPChildEvent e) {
+				throw new RuntimeException("Failing the populate");
+			}
+		});
+		try {
+			SQLSchema.populateSchemaWithList(schema, Collections.singletonList(table));
+			fail("The listener should have failed the populate");
+		} catch (RuntimeException e) {
+			// expected
+		}
+		assertTrue(schema.getChildrenWithoutPopulating().isEmpty());
+		assertNull(schema.getChildByName("added", SQLTable.class));
+	}
+
 	/*
 	 * Test method for 'ca.sqlpower.sqlobject.SQLSchema.isParentTypeDatabase()'
 	 */
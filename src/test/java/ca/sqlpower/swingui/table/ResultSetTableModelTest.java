@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.swingui.table;
+
+import java.sql.Types;
+
+import junit.framework.TestCase;
+import ca.sqlpower.sql.CachedRowSet;
+import ca.sqlpower.sql.CachedRowSet.StorageMode;
+import ca.sqlpower.testutil.MockJDBCResultSet;
+
+public class ResultSetTableModelTest extends TestCase {
+
+	/**
+	 * Counts the number of times the cursor is moved to an absolute row.
+	 */
+	private static class CountingResultSet extends MockJDBCResultSet {
+		
+		private int absoluteCount;
+		
+		public CountingResultSet(int columnCount) {
+			super(columnCount);
+		}
+		
+		@Override
+		public boolean absolute(int row) {
+			absoluteCount++;
+			return super.absolute(row);
+		}
+	}
+	
+	private CountingResultSet source;
+	
+	@Override
+	protected void setUp() throws Exception {
+		source = new CountingResultSet(2);
+		source.setColumnName(1, "id");
+		source.setColumnName(2, "name");
+		source.getMetaData().setColumnType(1, Types.INTEGER);
+		source.getMetaData().setColumnType(2, Types.VARCHAR);
+		for (int i = 0; i < 25; i++) {
+			source.addRow(new Object[] { i, "row " + i });
+		}
+	}
+	
+	public void testCachedRowSetDoesNotMoveCursor() throws Exception {
+		for (StorageMode mode : StorageMode.values()) {
+			CachedRowSet crs = new CachedRowSet();
+			crs.setStorageMode(mode);
+			crs.populate(source);
+			crs.absolute(3);
+			
+			ResultSetTableModel model = new ResultSetTableModel(crs);
+			assertEquals(25, model.getRowCount());
+			assertEquals(2, model.getColumnCount());
+			assertEquals(7, model.getValueAt(7, 0));
+			assertEquals("row 24", model.getValueAt(24, 1));
+			assertEquals(3, crs.getRow());
+		}
+	}
+	
+	public void testReadsPagesFromLiveResultSet() throws Exception {
+		ResultSetTableModel model = new ResultSetTableModel(source, 10, 2);
+		source.absolute(5);
+		source.absoluteCount = 0;
+		
+		assertEquals(25, model.getRowCount());
+		int afterCount = source.absoluteCount;
+		assertEquals(25, model.getRowCount());
+		assertEquals(afterCount, source.absoluteCount);
+		
+		for (int row = 0; row < 10; row++) {
+			assertEquals(row, model.getValueAt(row, 0));
+			assertEquals("row " + row, model.getValueAt(row, 1));
+		}
+		// one move to the start of the page and one to put the cursor back
+		assertEquals(afterCount + 2, source.absoluteCount);
+		assertEquals(5, source.getRow());
+		
+		assertEquals("row 24", model.getValueAt(24, 1));
+		assertEquals("row 15", model.getValueAt(15, 1));
+		// the first page was the least recently used and was dropped
+		int beforeReread = source.absoluteCount;
+		assertEquals(3, model.getValueAt(3, 0));
+		assertEquals(beforeReread + 2, source.absoluteCount);
+	}
+	
+	public void testColumnClassesCachedUntilDataChanged() throws Exception {
+		ResultSetTableModel model = new ResultSetTableModel(source);
+		assertEquals(Integer.class, model.getColumnClass(0));
+		assertEquals(String.class, model.getColumnClass(1));
+		assertEquals(Object.class, model.getColumnClass(2));
+		
+		source.getMetaData().setColumnType(1, Types.DOUBLE);
+		assertEquals(Integer.class, model.getColumnClass(0));
+		model.setRs(source);
+		assertEquals(Double.class, model.getColumnClass(0));
+	}
+}
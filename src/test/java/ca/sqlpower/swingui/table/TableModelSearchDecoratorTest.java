@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.swingui.table;
+
+import javax.swing.SwingUtilities;
+import javax.swing.table.DefaultTableModel;
+
+import junit.framework.TestCase;
+
+public class TableModelSearchDecoratorTest extends TestCase {
+
+	private DefaultTableModel model;
+	
+	private TableModelSearchDecorator decorator;
+	
+	@Override
+	protected void setUp() throws Exception {
+		model = new DefaultTableModel(new Object[] { "name", "colour" }, 0);
+		model.addRow(new Object[] { "Apple", "Red" });
+		model.addRow(new Object[] { "Banana", "Yellow" });
+		model.addRow(new Object[] { "Cherry", "Red" });
+		model.addRow(new Object[] { "Lemon", null });
+		decorator = new TableModelSearchDecorator(model);
+		decorator.setDoc(null);
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		decorator.cleanup();
+	}
+	
+	/**
+	 * Runs a search on the event dispatch thread and waits for the results
+	 * of a background search to be shown.
+	 */
+	private void search(final String text, int expectedRows) throws Exception {
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				decorator.search(text);
+			}
+		});
+		long end = System.currentTimeMillis() + 10000;
+		final int[] rowCount = new int[1];
+		do {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run() {
+					rowCount[0] = decorator.getRowCount();
+				}
+			});
+			if (rowCount[0] == expectedRows) return;
+			Thread.sleep(10);
+		} while (System.currentTimeMillis() < end);
+		assertEquals(expectedRows, rowCount[0]);
+	}
+	
+	public void testSearchMatchesAllWords() throws Exception {
+		search("red", 2);
+		assertEquals("Apple", decorator.getValueAt(0, 0));
+		assertEquals("Cherry", decorator.getValueAt(1, 0));
+		
+		search("RED ch", 1);
+		assertEquals("Cherry", decorator.getValueAt(0, 0));
+		
+		search("e", 4);
+		search("  ", 4);
+		search(null, 4);
+	}
+	
+	public void testRefinedSearchAfterModelChange() throws Exception {
+		search("re", 2);
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				model.addRow(new Object[] { "Strawberry", "Red" });
+			}
+		});
+		search("red", 3);
+		assertEquals("Strawberry", decorator.getValueAt(2, 0));
+	}
+	
+	public void testSearchAfterWrappedModelReplaced() throws Exception {
+		search("red", 2);
+		final DefaultTableModel newModel = new DefaultTableModel(new Object[] { "name" }, 0);
+		newModel.addRow(new Object[] { "Raspberry" });
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				decorator.setWrappedModel(newModel);
+			}
+		});
+		search("berry", 1);
+		assertEquals("Raspberry", decorator.getValueAt(0, 0));
+		search("red", 0);
+	}
+	
+	public void testSearchAfterTextConverterChanged() throws Exception {
+		search("red", 2);
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				decorator.setTableTextConverter(new TableTextConverter() {
+					public String getTextForCell(Object value) {
+						return value == null ? "none" : value.toString();
+					}
+				});
+			}
+		});
+		search("none", 1);
+		assertEquals("Lemon", decorator.getValueAt(0, 0));
+	}
+	
+	public void testLargeTableSearchedInBackground() throws Exception {
+		final int rows = TableModelSearchDecorator.BACKGROUND_SEARCH_CELLS;
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				model.setRowCount(0);
+				for (int i = 0; i < rows; i++) {
+					model.addRow(new Object[] { "row " + i, i % 10 == 0 ? "tenth" : "other" });
+				}
+			}
+		});
+		search("tenth", rows / 10);
+		assertEquals("row 0", decorator.getValueAt(0, 0));
+		assertEquals("row 10", decorator.getValueAt(1, 0));
+		// rows 1990, 11990 and 19900 to 19990
+		search("tenth row 199", 12);
+		assertEquals("row 1990", decorator.getValueAt(0, 0));
+		assertEquals("row 11990", decorator.getValueAt(1, 0));
+		assertEquals("row 19990", decorator.getValueAt(11, 0));
+	}
+	
+	public void testLargeTableOnlyReadOnEventDispatchThread() throws Exception {
+		final int rows = TableModelSearchDecorator.BACKGROUND_SEARCH_CELLS;
+		final boolean[] readOffEventThread = new boolean[1];
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+				model = new DefaultTableModel(new Object[] { "name", "colour" }, 0) {
+					@Override
+					public int getRowCount() {
+						readOffEventThread[0] |= !SwingUtilities.isEventDispatchThread();
+						return super.getRowCount();
+					}
+					@Override
+					public Object getValueAt(int row, int column) {
+						readOffEventThread[0] |= !SwingUtilities.isEventDispatchThread();
+						return super.getValueAt(row, column);
+					}
+				};
+				for (int i = 0; i < rows; i++) {
+					model.addRow(new Object[] { "row " + i, i % 10 == 0 ? "tenth" : "other" });
+				}
+				decorator.cleanup();
+				decorator = new TableModelSearchDecorator(model);
+				decorator.setDoc(null);
+			}
+		});
+		search("tenth", rows / 10);
+		// tenth rows with a 1 anywhere in their number
+		search("tenth row 1", 1271);
+		search("other", rows - rows / 10);
+		assertFalse(readOffEventThread[0]);
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2010, SQL Power Group Inc.
+ *
+ * This file is part of SQL Power Library.
+ *
+ * SQL Power Library is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SQL Power Library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>. 
+ */
+
+package ca.sqlpower.util;
+
+import java.util.concurrent.TimeUnit;
+
+public class ConcurrentLruCacheTest extends CacheTest {
+
+	public void setUp() {
+		cache = new ConcurrentLruCache<Integer, String>(maxMembers);
+		super.setUp();
+	}
+
+	public void testLRUPolicy() {
+		String val = null;
+
+		// request all items starting with 44
+		for (int i = 44; i >= 0; i--) {
+			val = (String) cache.get(new Integer(i));
+			assertEquals(val, String.valueOf(i));
+		}
+
+		// insert 6 new items
+		for (int i = 45; i < 51; i++) {
+			cache.put(new Integer(i), String.valueOf(i));
+		}
+		
+		// least recently used item should be gone
+		assertNull(cache.get(new Integer(44)));
+		assertEquals(cache.get(new Integer(43)), String.valueOf(43));
+
+		// insert one more item and re-check (42 will be LRU because we just used 43)
+		cache.put(new Integer(52), String.valueOf(52));
+		assertNull(cache.get(new Integer(42)));
+	}
+	
+	public void testStats() {
+		cache.get(new Integer(1));
+		cache.get(new Integer(1000));
+		for (int i = 45; i < 55; i++) {
+			cache.put(new Integer(i), String.valueOf(i));
+		}
+		CacheStats stats = cache.getStats();
+		assertEquals(55, stats.getTotalInserted());
+		assertEquals(2, stats.getTotalRequested());
+		assertEquals(1, stats.getTotalHits());
+		assertEquals(1, stats.getTotalMisses());
+		assertEquals(5, stats.getTotalEvictions());
+		assertEquals(0.5, stats.getHitRatio(), 0.0);
+		
+		cache.flush();
+		assertEquals(0, stats.getTotalInserted());
+		assertEquals(0, stats.getTotalEvictions());
+	}
+	
+	public void testSegmentedLimitIsHard() {
+		ConcurrentLruCache<Integer, String> big = new ConcurrentLruCache<Integer, String>(1000, 16);
+		for (int i = 0; i < 5000; i++) {
+			big.put(new Integer(i), String.valueOf(i));
+			assertTrue(big.size() <= 1000);
+		}
+		assertEquals(5000 - big.size(), big.getStats().getTotalEvictions());
+	}
+	
+	public void testWeightLimit() {
+		// one segment, so the whole weight limit applies to every entry
+		ConcurrentLruCache<Integer, String> weighted = new ConcurrentLruCache<Integer, String>(100, 1);
+		weighted.setWeigher(new ConcurrentLruCache.Weigher<Integer, String>() {
+			public int weigh(Integer key, String value) {
+				return value.length();
+			}
+		});
+		weighted.setMaxWeight(10);
+		weighted.put(1, "aaaa");
+		weighted.put(2, "bbbb");
+		assertEquals(8, weighted.getWeight());
+		weighted.get(1);
+		weighted.put(3, "cccc");
+		assertTrue(weighted.containsKey(1));
+		assertFalse(weighted.containsKey(2));
+		assertTrue(weighted.containsKey(3));
+		
+		// heavier than the whole limit, so it can't stay
+		weighted.put(4, "ddddddddddddd");
+		assertFalse(weighted.containsKey(4));
+		assertTrue(weighted.getWeight() <= 10);
+	}
+	
+	public void testWeightLimitSpansSegments() {
+		ConcurrentLruCache<Integer, String> weighted = new ConcurrentLruCache<Integer, String>(1000, 16);
+		weighted.setWeigher(new ConcurrentLruCache.Weigher<Integer, String>() {
+			public int weigh(Integer key, String value) {
+				return value.length();
+			}
+		});
+		weighted.setMaxWeight(100);
+		for (int i = 0; i < 50; i++) {
+			weighted.put(i, "aa");
+			assertTrue(weighted.getWeight() <= 100);
+		}
+		assertEquals(50, weighted.size());
+		
+		// far more than one segment's share, but still within the whole limit
+		StringBuilder heavy = new StringBuilder();
+		for (int i = 0; i < 90; i++) {
+			heavy.append('x');
+		}
+		weighted.put(1000, heavy.toString());
+		assertTrue(weighted.containsKey(1000));
+		assertEquals(100, weighted.getWeight());
+		assertEquals(6, weighted.size());
+		
+		// the entries put last were used most recently, so they are the ones kept
+		for (int i = 45; i < 50; i++) {
+			assertTrue("Missing " + i, weighted.containsKey(i));
+		}
+		assertEquals(45, weighted.getStats().getTotalEvictions());
+		
+		// lowering the limit evicts the older small entries before the heavy one
+		weighted.setMaxWeight(95);
+		assertTrue(weighted.containsKey(1000));
+		assertEquals(94, weighted.getWeight());
+	}
+	
+	public void testTimeToLive() throws Exception {
+		ConcurrentLruCache<Integer, String> expiring = new ConcurrentLruCache<Integer, String>(100);
+		expiring.setTimeToLive(1, TimeUnit.MILLISECONDS);
+		expiring.put(1, "1");
+		expiring.put(2, "2");
+		Thread.sleep(20);
+		assertNull(expiring.get(1));
+		assertEquals(1, expiring.getStats().getTotalExpirations());
+		expiring.cleanUp();
+		assertEquals(0, expiring.size());
+		assertEquals(2, expiring.getStats().getTotalExpirations());
+	}
+}